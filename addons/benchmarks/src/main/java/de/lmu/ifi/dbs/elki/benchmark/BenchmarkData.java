@@ -0,0 +1,157 @@
+package de.lmu.ifi.dbs.elki.benchmark;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Collection;
+import java.util.Random;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+
+/**
+ * Deterministic generation of benchmark data.
+ * 
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public final class BenchmarkData {
+  /**
+   * Default random seed for all benchmarks.
+   */
+  public static final long SEED = 0x5EEDL;
+
+  /**
+   * Fake constructor: do not instantiate.
+   */
+  private BenchmarkData() {
+    // Static methods only.
+  }
+
+  /**
+   * Generate uniformly distributed values.
+   * 
+   * @param size Number of values
+   * @param seed Random seed
+   * @return Values in [0;1)
+   */
+  public static double[] uniform(int size, long seed) {
+    Random rnd = new Random(seed);
+    double[] data = new double[size];
+    for(int i = 0; i < size; i++) {
+      data[i] = rnd.nextDouble();
+    }
+    return data;
+  }
+
+  /**
+   * Generate uniformly distributed vectors.
+   * 
+   * @param size Number of vectors
+   * @param dim Dimensionality
+   * @param seed Random seed
+   * @return Vectors in [0;1)^dim
+   */
+  public static double[][] uniform(int size, int dim, long seed) {
+    Random rnd = new Random(seed);
+    double[][] data = new double[size][dim];
+    for(int i = 0; i < size; i++) {
+      for(int d = 0; d < dim; d++) {
+        data[i][d] = rnd.nextDouble();
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Generate Gaussian clusters with random centers, as test data for
+   * clustering.
+   * 
+   * @param size Number of vectors
+   * @param dim Dimensionality
+   * @param clusters Number of clusters
+   * @param seed Random seed
+   * @return Vectors
+   */
+  public static double[][] blobs(int size, int dim, int clusters, long seed) {
+    Random rnd = new Random(seed);
+    double[][] centers = new double[clusters][dim];
+    for(int c = 0; c < clusters; c++) {
+      for(int d = 0; d < dim; d++) {
+        centers[c][d] = rnd.nextDouble() * 10.;
+      }
+    }
+    double[][] data = new double[size][dim];
+    for(int i = 0; i < size; i++) {
+      final double[] center = centers[i % clusters];
+      for(int d = 0; d < dim; d++) {
+        data[i][d] = center[d] + rnd.nextGaussian();
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Wrap data as vectors.
+   * 
+   * @param data Data
+   * @return Vectors
+   */
+  public static DoubleVector[] vectors(double[][] data) {
+    DoubleVector[] vecs = new DoubleVector[data.length];
+    for(int i = 0; i < data.length; i++) {
+      vecs[i] = DoubleVector.wrap(data[i]);
+    }
+    return vecs;
+  }
+
+  /**
+   * Load data into an in-memory database.
+   * 
+   * @param data Data
+   * @param indexes Index factories, may be {@code null}
+   * @return Initialized database
+   */
+  public static Database database(double[][] data, Collection<IndexFactory<?, ?>> indexes) {
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), indexes);
+    db.initialize();
+    return db;
+  }
+
+  /**
+   * Get the vector relation of a database.
+   * 
+   * @param db Database
+   * @return Vector relation
+   */
+  public static Relation<NumberVector> relation(Database db) {
+    return db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+}
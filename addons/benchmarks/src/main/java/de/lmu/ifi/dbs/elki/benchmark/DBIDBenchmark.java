@@ -0,0 +1,156 @@
+package de.lmu.ifi.dbs.elki.benchmark;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.HashSetModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+
+/**
+ * Benchmark of DBID iteration, and of the {@link KNNHeap} implementations.
+ * 
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DBIDBenchmark {
+  /**
+   * Number of objects.
+   */
+  @Param({ "1000", "100000" })
+  public int size;
+
+  /**
+   * Number of neighbors.
+   */
+  @Param({ "10", "100" })
+  public int k;
+
+  /**
+   * DBID range.
+   */
+  private DBIDRange range;
+
+  /**
+   * Array of DBIDs.
+   */
+  private ArrayModifiableDBIDs array;
+
+  /**
+   * Hash set of DBIDs.
+   */
+  private HashSetModifiableDBIDs set;
+
+  /**
+   * Distances for the kNN heap.
+   */
+  private double[] dists;
+
+  /**
+   * Generate the data.
+   */
+  @Setup
+  public void setup() {
+    range = DBIDUtil.generateStaticDBIDRange(size);
+    array = DBIDUtil.newArray(range);
+    DBIDUtil.randomShuffle(array, new Random(BenchmarkData.SEED));
+    set = DBIDUtil.newHashSet(range);
+    dists = BenchmarkData.uniform(size, BenchmarkData.SEED);
+  }
+
+  @Benchmark
+  public long iterateRange() {
+    long sum = 0;
+    for(DBIDIter it = range.iter(); it.valid(); it.advance()) {
+      sum += DBIDUtil.asInteger(it);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long iterateArray() {
+    long sum = 0;
+    for(DBIDIter it = array.iter(); it.valid(); it.advance()) {
+      sum += DBIDUtil.asInteger(it);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long iterateHashSet() {
+    long sum = 0;
+    for(DBIDIter it = set.iter(); it.valid(); it.advance()) {
+      sum += DBIDUtil.asInteger(it);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long containsHashSet() {
+    long hits = 0;
+    for(DBIDIter it = array.iter(); it.valid(); it.advance()) {
+      hits += set.contains(it) ? 1 : 0;
+    }
+    return hits;
+  }
+
+  @Benchmark
+  public KNNList knnHeap() {
+    KNNHeap heap = DBIDUtil.newHeap(k);
+    double max = Double.POSITIVE_INFINITY;
+    DBIDArrayIter it = array.iter();
+    for(int i = 0; it.valid(); it.advance(), i++) {
+      if(dists[i] <= max) {
+        max = heap.insert(dists[i], it);
+      }
+    }
+    return heap.toKNNList();
+  }
+}
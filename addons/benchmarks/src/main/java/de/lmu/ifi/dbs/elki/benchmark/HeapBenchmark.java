@@ -0,0 +1,195 @@
+package de.lmu.ifi.dbs.elki.benchmark;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.ComparableMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleMaxHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.IntegerMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.TopBoundedHeap;
+
+/**
+ * Benchmark of the heap classes: insert all values, then remove them in
+ * order. Unlike {@code HeapPerformanceTest}, which is excluded from the
+ * regular build, this uses proper warmup and forking.
+ * 
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HeapBenchmark {
+  /**
+   * Number of elements.
+   */
+  @Param({ "1000", "100000" })
+  public int size;
+
+  /**
+   * Bound for the bounded heaps.
+   */
+  @Param({ "100" })
+  public int k;
+
+  /**
+   * Values to insert.
+   */
+  private double[] values;
+
+  /**
+   * Integer values to insert.
+   */
+  private int[] ivalues;
+
+  /**
+   * Boxed values to insert.
+   */
+  private Double[] boxed;
+
+  /**
+   * Generate the data.
+   */
+  @Setup
+  public void setup() {
+    values = BenchmarkData.uniform(size, BenchmarkData.SEED);
+    ivalues = new int[size];
+    boxed = new Double[size];
+    for(int i = 0; i < size; i++) {
+      ivalues[i] = (int) (values[i] * Integer.MAX_VALUE);
+      boxed[i] = values[i];
+    }
+  }
+
+  @Benchmark
+  public double doubleMinHeap() {
+    DoubleMinHeap heap = new DoubleMinHeap();
+    for(double v : values) {
+      heap.add(v);
+    }
+    double sum = 0.;
+    while(!heap.isEmpty()) {
+      sum += heap.poll();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double doubleMaxHeap() {
+    DoubleMaxHeap heap = new DoubleMaxHeap();
+    for(double v : values) {
+      heap.add(v);
+    }
+    double sum = 0.;
+    while(!heap.isEmpty()) {
+      sum += heap.poll();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long integerMinHeap() {
+    IntegerMinHeap heap = new IntegerMinHeap();
+    for(int v : ivalues) {
+      heap.add(v);
+    }
+    long sum = 0;
+    while(!heap.isEmpty()) {
+      sum += heap.poll();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long doubleIntegerMinHeap() {
+    DoubleIntegerMinHeap heap = new DoubleIntegerMinHeap();
+    for(int i = 0; i < size; i++) {
+      heap.add(values[i], i);
+    }
+    long sum = 0;
+    while(!heap.isEmpty()) {
+      sum += heap.peekValue();
+      heap.poll();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double comparableMinHeap() {
+    ComparableMinHeap<Double> heap = new ComparableMinHeap<>();
+    for(Double v : boxed) {
+      heap.add(v);
+    }
+    double sum = 0.;
+    while(!heap.isEmpty()) {
+      sum += heap.poll();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double doubleMinHeapBounded() {
+    DoubleMinHeap heap = new DoubleMinHeap(k);
+    for(double v : values) {
+      heap.add(v, k);
+    }
+    double sum = 0.;
+    while(!heap.isEmpty()) {
+      sum += heap.poll();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double topBoundedHeap() {
+    TopBoundedHeap<Double> heap = new TopBoundedHeap<>(k);
+    for(Double v : boxed) {
+      heap.add(v);
+    }
+    double sum = 0.;
+    while(!heap.isEmpty()) {
+      sum += heap.poll();
+    }
+    return sum;
+  }
+}
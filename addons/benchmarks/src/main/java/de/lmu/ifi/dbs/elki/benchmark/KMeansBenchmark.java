@@ -0,0 +1,146 @@
+package de.lmu.ifi.dbs.elki.benchmark;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeansElkan;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeansHamerly;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeansLloyd;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeansMacQueen;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeansSort;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.KMeansInitialization;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.RandomlyChosenInitialMeans;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.model.KMeansModel;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+/**
+ * Benchmark of k-means variants on generated data. All variants use the same
+ * seeded initialization, and thus compute the same result.
+ * 
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class KMeansBenchmark {
+  /**
+   * Number of objects.
+   */
+  @Param({ "20000" })
+  public int size;
+
+  /**
+   * Dimensionality.
+   */
+  @Param({ "2", "20" })
+  public int dim;
+
+  /**
+   * Number of clusters.
+   */
+  @Param({ "10", "50" })
+  public int k;
+
+  /**
+   * Maximum number of iterations.
+   */
+  @Param({ "50" })
+  public int maxiter;
+
+  /**
+   * Database.
+   */
+  private Database db;
+
+  /**
+   * Vector relation.
+   */
+  private Relation<NumberVector> relation;
+
+  /**
+   * Generate the data.
+   */
+  @Setup
+  public void setup() {
+    db = BenchmarkData.database(BenchmarkData.blobs(size, dim, k, BenchmarkData.SEED), null);
+    relation = BenchmarkData.relation(db);
+  }
+
+  /**
+   * Seeded initialization, identical for every invocation.
+   *
+   * @return Initialization
+   */
+  private KMeansInitialization<NumberVector> init() {
+    return new RandomlyChosenInitialMeans<>(new RandomFactory(BenchmarkData.SEED));
+  }
+
+  @Benchmark
+  public Clustering<KMeansModel> lloyd() {
+    return new KMeansLloyd<NumberVector>(SquaredEuclideanDistanceFunction.STATIC, k, maxiter, init()).run(db, relation);
+  }
+
+  @Benchmark
+  public Clustering<KMeansModel> macQueen() {
+    return new KMeansMacQueen<NumberVector>(SquaredEuclideanDistanceFunction.STATIC, k, maxiter, init()).run(db, relation);
+  }
+
+  @Benchmark
+  public Clustering<KMeansModel> sort() {
+    return new KMeansSort<NumberVector>(SquaredEuclideanDistanceFunction.STATIC, k, maxiter, init()).run(db, relation);
+  }
+
+  @Benchmark
+  public Clustering<KMeansModel> elkan() {
+    return new KMeansElkan<NumberVector>(SquaredEuclideanDistanceFunction.STATIC, k, maxiter, init(), false).run(db, relation);
+  }
+
+  @Benchmark
+  public Clustering<KMeansModel> hamerly() {
+    return new KMeansHamerly<NumberVector>(SquaredEuclideanDistanceFunction.STATIC, k, maxiter, init(), false).run(db, relation);
+  }
+}
@@ -0,0 +1,135 @@
+package de.lmu.ifi.dbs.elki.benchmark;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPNormDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.ManhattanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.MaximumDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+
+/**
+ * Benchmark of the Minkowski family of distance functions. Each invocation
+ * computes the distances of {@link #SIZE} consecutive pairs of vectors.
+ * 
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MinkowskiDistanceBenchmark {
+  /**
+   * Number of vectors.
+   */
+  public static final int SIZE = 1024;
+
+  /**
+   * Dimensionality.
+   */
+  @Param({ "2", "10", "100" })
+  public int dim;
+
+  /**
+   * Vectors.
+   */
+  private DoubleVector[] vecs;
+
+  /**
+   * L_3 norm, as example of the general case.
+   */
+  private LPNormDistanceFunction l3 = new LPNormDistanceFunction(3.);
+
+  /**
+   * Generate the data.
+   */
+  @Setup
+  public void setup() {
+    vecs = BenchmarkData.vectors(BenchmarkData.uniform(SIZE, dim, BenchmarkData.SEED));
+  }
+
+  @Benchmark
+  public double euclidean() {
+    double sum = 0.;
+    for(int i = 1; i < SIZE; i++) {
+      sum += EuclideanDistanceFunction.STATIC.distance(vecs[i - 1], vecs[i]);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double squaredEuclidean() {
+    double sum = 0.;
+    for(int i = 1; i < SIZE; i++) {
+      sum += SquaredEuclideanDistanceFunction.STATIC.distance(vecs[i - 1], vecs[i]);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double manhattan() {
+    double sum = 0.;
+    for(int i = 1; i < SIZE; i++) {
+      sum += ManhattanDistanceFunction.STATIC.distance(vecs[i - 1], vecs[i]);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double maximum() {
+    double sum = 0.;
+    for(int i = 1; i < SIZE; i++) {
+      sum += MaximumDistanceFunction.STATIC.distance(vecs[i - 1], vecs[i]);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double lpnorm3() {
+    double sum = 0.;
+    for(int i = 1; i < SIZE; i++) {
+      sum += l3.distance(vecs[i - 1], vecs[i]);
+    }
+    return sum;
+  }
+}
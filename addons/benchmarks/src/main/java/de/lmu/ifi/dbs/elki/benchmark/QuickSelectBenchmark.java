@@ -0,0 +1,90 @@
+package de.lmu.ifi.dbs.elki.benchmark;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.lmu.ifi.dbs.elki.utilities.datastructures.QuickSelect;
+
+/**
+ * Benchmark of {@link QuickSelect}. Since quickselect modifies the array, each
+ * invocation works on a fresh copy; {@link #copy} measures this overhead.
+ * 
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QuickSelectBenchmark {
+  /**
+   * Number of elements.
+   */
+  @Param({ "1000", "100000" })
+  public int size;
+
+  /**
+   * Input data.
+   */
+  private double[] values;
+
+  /**
+   * Generate the data.
+   */
+  @Setup
+  public void setup() {
+    values = BenchmarkData.uniform(size, BenchmarkData.SEED);
+  }
+
+  @Benchmark
+  public double[] copy() {
+    return values.clone();
+  }
+
+  @Benchmark
+  public double median() {
+    return QuickSelect.median(values.clone());
+  }
+
+  @Benchmark
+  public double quantile() {
+    return QuickSelect.quantile(values.clone(), 0.99);
+  }
+}
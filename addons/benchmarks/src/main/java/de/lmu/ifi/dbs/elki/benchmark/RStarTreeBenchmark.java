@@ -0,0 +1,157 @@
+package de.lmu.ifi.dbs.elki.benchmark;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.AbstractRStarTreeFactory;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.rstar.RStarTreeFactory;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk.SortTileRecursiveBulkSplit;
+import de.lmu.ifi.dbs.elki.persistent.AbstractPageFileFactory;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Benchmark of R*-tree bulk loading and queries.
+ * 
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RStarTreeBenchmark {
+  /**
+   * Number of objects.
+   */
+  @Param({ "100000" })
+  public int size;
+
+  /**
+   * Dimensionality.
+   */
+  @Param({ "2", "8" })
+  public int dim;
+
+  /**
+   * Number of neighbors.
+   */
+  @Param({ "10" })
+  public int k;
+
+  /**
+   * Page size.
+   */
+  @Param({ "4000" })
+  public int pagesize;
+
+  /**
+   * Number of queries per invocation.
+   */
+  public static final int QUERIES = 1000;
+
+  /**
+   * Data set.
+   */
+  private double[][] data;
+
+  /**
+   * Index factory.
+   */
+  private Collection<IndexFactory<?, ?>> indexes;
+
+  /**
+   * Indexed relation for querying.
+   */
+  private Relation<NumberVector> relation;
+
+  /**
+   * Generate the data, and build an index for querying.
+   */
+  @Setup
+  public void setup() {
+    data = BenchmarkData.uniform(size, dim, BenchmarkData.SEED);
+    ListParameterization params = new ListParameterization();
+    params.addParameter(AbstractPageFileFactory.Parameterizer.PAGE_SIZE_ID, pagesize);
+    params.addParameter(AbstractRStarTreeFactory.Parameterizer.BULK_SPLIT_ID, SortTileRecursiveBulkSplit.class);
+    RStarTreeFactory<?> factory = ClassGenericsUtil.parameterizeOrAbort(RStarTreeFactory.class, params);
+    indexes = Collections.<IndexFactory<?, ?>> singletonList(factory);
+    relation = BenchmarkData.relation(BenchmarkData.database(data, indexes));
+  }
+
+  @Benchmark
+  public Database bulkLoad() {
+    return BenchmarkData.database(data, indexes);
+  }
+
+  @Benchmark
+  public double knnQueries() {
+    KNNQuery<NumberVector> knnq = relation.getKNNQuery(EuclideanDistanceFunction.STATIC, k);
+    double sum = 0.;
+    int q = 0;
+    for(DBIDIter it = relation.iterDBIDs(); it.valid() && q < QUERIES; it.advance(), q++) {
+      sum += knnq.getKNNForDBID(it, k).getKNNDistance();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long rangeQueries() {
+    RangeQuery<NumberVector> rq = relation.getRangeQuery(EuclideanDistanceFunction.STATIC);
+    // Radius that contains about k objects.
+    final double radius = Math.pow(k / (double) size, 1. / dim) * .5;
+    long sum = 0;
+    int q = 0;
+    for(DBIDIter it = relation.iterDBIDs(); it.valid() && q < QUERIES; it.advance(), q++) {
+      sum += rq.getRangeForDBID(it, radius).size();
+    }
+    return sum;
+  }
+}
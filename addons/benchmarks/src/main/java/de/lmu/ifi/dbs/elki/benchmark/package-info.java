@@ -0,0 +1,35 @@
+/**
+ * JMH micro benchmarks of performance critical parts of ELKI.
+ * 
+ * Build with {@code mvn -P benchmarks package}, and run with
+ * {@code java -jar addons/benchmarks/target/elki-benchmarks-*.jar}.
+ * All benchmark data is generated with fixed random seeds, and the forks,
+ * warmup and measurement iterations are fixed in the annotations, so that
+ * results are comparable across versions.
+ * 
+ * @author Erich Schubert
+ */
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.benchmark;
@@ -59,6 +59,11 @@ public interface DatabaseQuery {
    */
   public static final String HINT_EXACT = "exact";
   
+  /**
+   * Optimizer hint: approximate answers are acceptable, if they are cheaper
+   */
+  public static final String HINT_APPROXIMATE = "approximate";
+  
   /**
    * Optimizer hint: no cache instances
    */
@@ -24,16 +24,21 @@ package de.lmu.ifi.dbs.elki.parallel;
  */
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Core for parallel processing in ELKI, based on {@link ThreadPoolExecutor}.
+ * Core for parallel processing in ELKI, based on {@link ForkJoinPool}.
  * 
- * TODO: make configurable how many threads are used.
+ * The fork-join pool uses work stealing, so that tasks that are split
+ * recursively (see {@code ParallelExecutor}) balance well even when the cost
+ * per object is very skewed.
+ * 
+ * The number of threads can be configured using
+ * {@link #setParallelism(int)}, or via the {@code -parallel.threads} command
+ * line parameter.
  * 
  * @author Erich Schubert
  * @since 0.7.0
@@ -52,7 +57,7 @@ public class ParallelCore {
   /**
    * Executor service.
    */
-  ThreadPoolExecutor executor;
+  ForkJoinPool executor;
 
   /**
    * Number of connected submitters.
@@ -87,7 +92,31 @@ public class ParallelCore {
    * @return Number of threads to run in parallel
    */
   public int getParallelism() {
-    return executor != null ? executor.getMaximumPoolSize() : processors;
+    return processors;
+  }
+
+  /**
+   * Set the desired level of parallelism.
+   * 
+   * If the executor is currently idle, it will be shut down and recreated with
+   * the new number of threads on the next connect.
+   * 
+   * @param processors Number of threads to run in parallel, {@code <= 0} for
+   *        all available processors.
+   */
+  public synchronized void setParallelism(int processors) {
+    processors = processors > 0 ? processors : ALL_PROCESSORS;
+    if(processors == this.processors) {
+      return;
+    }
+    if(connected.get() > 0) {
+      throw new IllegalStateException("Cannot change the parallelism while tasks are running.");
+    }
+    this.processors = processors;
+    if(executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
   }
 
   /**
@@ -101,22 +130,26 @@ public class ParallelCore {
     return executor.submit(task);
   }
 
+  /**
+   * Run a fork-join task on the executor core, and wait for its completion.
+   * 
+   * @param task Task to run
+   * @return Task result
+   */
+  public <T> T invoke(ForkJoinTask<T> task) {
+    return executor.invoke(task);
+  }
+
   /**
    * Connect to the executor.
    */
   public void connect() {
-    if(executor == null) {
-      synchronized(this) {
-        if(executor == null) {
-          executor = new ThreadPoolExecutor(0, processors, 10L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
-          executor.allowCoreThreadTimeOut(true);
-        }
+    synchronized(this) {
+      if(executor == null) {
+        // Idle worker threads of a ForkJoinPool terminate automatically.
+        executor = new ForkJoinPool(processors);
       }
-    }
-    int c = this.connected.incrementAndGet();
-    if(c == 1) {
-      executor.allowCoreThreadTimeOut(false);
-      executor.setCorePoolSize(executor.getMaximumPoolSize());
+      this.connected.incrementAndGet();
     }
   }
 
@@ -124,12 +157,6 @@ public class ParallelCore {
    * Disconnect to the executor.
    */
   public void disconnect() {
-    int c = this.connected.decrementAndGet();
-    if(c == 0) {
-      synchronized(this) {
-        executor.allowCoreThreadTimeOut(true);
-        executor.setCorePoolSize(0);
-      }
-    }
+    this.connected.decrementAndGet();
   }
 }
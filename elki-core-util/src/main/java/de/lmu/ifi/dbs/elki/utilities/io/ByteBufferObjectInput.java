@@ -0,0 +1,240 @@
+package de.lmu.ifi.dbs.elki.utilities.io;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Wrap an existing ByteBuffer as {@link ObjectInput}, to deserialize directly
+ * from the buffer without copying the data into a byte array first.
+ * 
+ * Primitive values are read using the buffer's byte order. Objects are
+ * expected in the format written by {@link ByteBufferObjectOutput}, i.e. with
+ * a length prefix.
+ * 
+ * @author Erich Schubert
+ * @since 0.7.2
+ * 
+ * @apiviz.has ByteBuffer
+ */
+public class ByteBufferObjectInput implements ObjectInput {
+  /**
+   * The actual buffer we're using.
+   */
+  final ByteBuffer buffer;
+
+  /**
+   * Constructor.
+   * 
+   * @param buffer ByteBuffer to wrap.
+   */
+  public ByteBufferObjectInput(ByteBuffer buffer) {
+    super();
+    this.buffer = buffer;
+  }
+
+  @Override
+  public int read() {
+    return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+  }
+
+  @Override
+  public int read(byte[] b) {
+    return read(b, 0, b.length);
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) {
+    final int maxread = Math.min(len, buffer.remaining());
+    buffer.get(b, off, maxread);
+    return (maxread == 0 && len > 0) ? -1 : maxread;
+  }
+
+  @Override
+  public long skip(long n) {
+    final int skip = (int) Math.min(n, buffer.remaining());
+    buffer.position(buffer.position() + skip);
+    return skip;
+  }
+
+  @Override
+  public int available() {
+    return buffer.remaining();
+  }
+
+  @Override
+  public void close() {
+    // Nothing to do.
+  }
+
+  @Override
+  public Object readObject() throws ClassNotFoundException, IOException {
+    byte[] bytes = new byte[readInt()];
+    readFully(bytes);
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return ois.readObject();
+    }
+  }
+
+  @Override
+  public void readFully(byte[] b) throws IOException {
+    readFully(b, 0, b.length);
+  }
+
+  @Override
+  public void readFully(byte[] b, int off, int len) throws IOException {
+    try {
+      buffer.get(b, off, len);
+    }
+    catch(BufferUnderflowException e) {
+      throw new EOFException();
+    }
+  }
+
+  @Override
+  public int skipBytes(int n) {
+    return (int) skip(n);
+  }
+
+  @Override
+  public boolean readBoolean() throws IOException {
+    return readByte() != 0;
+  }
+
+  @Override
+  public byte readByte() throws IOException {
+    try {
+      return buffer.get();
+    }
+    catch(BufferUnderflowException e) {
+      throw new EOFException();
+    }
+  }
+
+  @Override
+  public int readUnsignedByte() throws IOException {
+    return readByte() & 0xFF;
+  }
+
+  @Override
+  public short readShort() throws IOException {
+    try {
+      return buffer.getShort();
+    }
+    catch(BufferUnderflowException e) {
+      throw new EOFException();
+    }
+  }
+
+  @Override
+  public int readUnsignedShort() throws IOException {
+    return readShort() & 0xFFFF;
+  }
+
+  @Override
+  public char readChar() throws IOException {
+    try {
+      return buffer.getChar();
+    }
+    catch(BufferUnderflowException e) {
+      throw new EOFException();
+    }
+  }
+
+  @Override
+  public int readInt() throws IOException {
+    try {
+      return buffer.getInt();
+    }
+    catch(BufferUnderflowException e) {
+      throw new EOFException();
+    }
+  }
+
+  @Override
+  public long readLong() throws IOException {
+    try {
+      return buffer.getLong();
+    }
+    catch(BufferUnderflowException e) {
+      throw new EOFException();
+    }
+  }
+
+  @Override
+  public float readFloat() throws IOException {
+    try {
+      return buffer.getFloat();
+    }
+    catch(BufferUnderflowException e) {
+      throw new EOFException();
+    }
+  }
+
+  @Override
+  public double readDouble() throws IOException {
+    try {
+      return buffer.getDouble();
+    }
+    catch(BufferUnderflowException e) {
+      throw new EOFException();
+    }
+  }
+
+  @Override
+  @Deprecated
+  public String readLine() {
+    if(!buffer.hasRemaining()) {
+      return null;
+    }
+    StringBuilder buf = new StringBuilder();
+    while(buffer.hasRemaining()) {
+      char c = (char) (buffer.get() & 0xFF);
+      if(c == '\n') {
+        break;
+      }
+      if(c == '\r') {
+        if(buffer.hasRemaining() && buffer.get(buffer.position()) == '\n') {
+          buffer.get();
+        }
+        break;
+      }
+      buf.append(c);
+    }
+    return buf.toString();
+  }
+
+  @Override
+  public String readUTF() throws IOException {
+    return DataInputStream.readUTF(this);
+  }
+}
@@ -26,9 +26,12 @@ package de.lmu.ifi.dbs.elki.gui.multistep.panels;
 import de.lmu.ifi.dbs.elki.application.AbstractApplication;
 import de.lmu.ifi.dbs.elki.logging.Logging.Level;
 import de.lmu.ifi.dbs.elki.logging.LoggingConfiguration;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.WrongParameterValueException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.StringParameter;
 
 /**
@@ -67,6 +70,12 @@ public class LoggingTabPanel extends ParameterTabPanel {
         de.lmu.ifi.dbs.elki.logging.LoggingUtil.exception(e);
       }
     }
+    IntParameter threadsParam = new IntParameter(AbstractApplication.Parameterizer.THREADS_ID) //
+        .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+    threadsParam.setOptional(true);
+    if (config.grab(threadsParam)) {
+      ParallelCore.getCore().setParallelism(threadsParam.intValue());
+    }
   }
 
   @Override
@@ -29,6 +29,7 @@ import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.RecursiveAction;
 
 import de.lmu.ifi.dbs.elki.data.HyperBoundingBox;
 import de.lmu.ifi.dbs.elki.data.ModifiableHyperBoundingBox;
@@ -48,6 +49,7 @@ import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.util.NodeArrayAdapte
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.Counter;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.persistent.PageFile;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.BitsUtil;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
@@ -75,6 +77,11 @@ public abstract class AbstractRStarTree<N extends AbstractRStarTreeNode<N, E>, E
    */
   protected static final boolean EXTRA_INTEGRITY_CHECKS = false;
 
+  /**
+   * Number of nodes written per task in parallel bulk loading.
+   */
+  private static final int BULK_NODE_BLOCK = 64;
+
   /**
    * The height of this R*-Tree.
    */
@@ -340,34 +347,144 @@ public abstract class AbstractRStarTree<N extends AbstractRStarTreeNode<N, E>, E
    * @return the array of leaf nodes containing the objects
    */
   protected List<E> createBulkLeafNodes(List<E> objects) {
-    int minEntries = leafMinimum;
-    int maxEntries = leafCapacity;
+    List<List<E>> partitions = settings.bulkSplitter.partition(objects, leafMinimum, leafCapacity);
+    List<E> result = createBulkNodes(partitions, true);
 
-    ArrayList<E> result = new ArrayList<>();
-    List<List<E>> partitions = settings.bulkSplitter.partition(objects, minEntries, maxEntries);
+    if(getLogger().isDebugging()) {
+      getLogger().debugFine("numDataPages = " + result.size());
+    }
+    return result;
+  }
 
-    for(List<E> partition : partitions) {
-      // create leaf node
-      N leafNode = createNewLeafNode();
+  /**
+   * Creates, fills and writes one node per partition for bulk load.
+   *
+   * Page ids are assigned in partition order before the nodes are filled, so
+   * the resulting tree is the same whether the nodes are built sequentially
+   * or in parallel (using {@link ParallelCore}).
+   *
+   * @param partitions Partitions of entries
+   * @param leaf Flag to create leaf nodes, otherwise directory nodes
+   * @return Directory entries of the new nodes, in partition order
+   */
+  protected List<E> createBulkNodes(List<List<E>> partitions, boolean leaf) {
+    final int size = partitions.size();
+    List<N> nodes = new ArrayList<>(size);
+    List<E> result = new ArrayList<>(size);
+    for(int i = 0; i < size; i++) {
+      N node = leaf ? createNewLeafNode() : createNewDirectoryNode();
+      allocatePageID(node);
+      nodes.add(node);
+      result.add(null);
+    }
+    final ParallelCore core = ParallelCore.getCore();
+    if(core.getParallelism() > 1 && size > BULK_NODE_BLOCK) {
+      core.connect();
+      try {
+        core.invoke(new BulkNodeWriter(partitions, nodes, result, 0, size));
+      }
+      finally {
+        core.disconnect();
+      }
+    }
+    else {
+      writeBulkNodes(partitions, nodes, result, 0, size);
+    }
+    return result;
+  }
 
-      // insert data
-      for(E o : partition) {
-        leafNode.addLeafEntry(o);
+  /**
+   * Fill and write a range of bulk-loaded nodes.
+   *
+   * @param partitions Partitions of entries
+   * @param nodes Nodes, with page ids already assigned
+   * @param result Output list for the directory entries
+   * @param start First node
+   * @param end End of nodes (exclusive)
+   */
+  private void writeBulkNodes(List<List<E>> partitions, List<N> nodes, List<E> result, int start, int end) {
+    for(int i = start; i < end; i++) {
+      N node = nodes.get(i);
+      if(node.isLeaf()) {
+        for(E o : partitions.get(i)) {
+          node.addLeafEntry(o);
+        }
+      }
+      else {
+        for(E o : partitions.get(i)) {
+          node.addDirectoryEntry(o);
+        }
       }
       // write to file
-      writeNode(leafNode);
+      writeNode(node);
 
-      result.add(createNewDirectoryEntry(leafNode));
+      result.set(i, createNewDirectoryEntry(node));
 
-      if(getLogger().isDebugging()) {
-        getLogger().debugFine("Created leaf page " + leafNode.getPageID());
+      if(getLogger().isDebuggingFiner()) {
+        getLogger().debugFiner((node.isLeaf() ? "Created leaf page " : "Directory page no: ") + node.getPageID());
       }
     }
+  }
+
+  /**
+   * Fill and write bulk-loaded nodes in parallel, splitting recursively.
+   *
+   * @author Erich Schubert
+   */
+  private class BulkNodeWriter extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Partitions of entries.
+     */
+    private List<List<E>> partitions;
+
+    /**
+     * Nodes, with page ids already assigned.
+     */
+    private List<N> nodes;
+
+    /**
+     * Output list.
+     */
+    private List<E> result;
+
+    /**
+     * Node range.
+     */
+    private int start, end;
+
+    /**
+     * Constructor.
+     *
+     * @param partitions Partitions of entries
+     * @param nodes Nodes, with page ids already assigned
+     * @param result Output list for the directory entries
+     * @param start First node
+     * @param end End of nodes (exclusive)
+     */
+    BulkNodeWriter(List<List<E>> partitions, List<N> nodes, List<E> result, int start, int end) {
+      super();
+      this.partitions = partitions;
+      this.nodes = nodes;
+      this.result = result;
+      this.start = start;
+      this.end = end;
+    }
 
-    if(getLogger().isDebugging()) {
-      getLogger().debugFine("numDataPages = " + result.size());
+    @Override
+    protected void compute() {
+      if(end - start > BULK_NODE_BLOCK) {
+        final int mid = (start + end) >>> 1;
+        invokeAll(new BulkNodeWriter(partitions, nodes, result, start, mid), //
+            new BulkNodeWriter(partitions, nodes, result, mid, end));
+        return;
+      }
+      writeBulkNodes(partitions, nodes, result, start, end);
     }
-    return result;
   }
 
   /**
@@ -26,6 +26,7 @@ package de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.rstar;
 import java.util.ArrayList;
 import java.util.List;
 
+import de.lmu.ifi.dbs.elki.data.ModifiableHyperBoundingBox;
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
@@ -36,6 +37,7 @@ import de.lmu.ifi.dbs.elki.database.query.distance.SpatialDistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.index.CostEstimatingIndex;
 import de.lmu.ifi.dbs.elki.index.DynamicIndex;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
@@ -55,7 +57,7 @@ import de.lmu.ifi.dbs.elki.persistent.PageFile;
  * 
  * @param <O> Object type
  */
-public class RStarTreeIndex<O extends NumberVector> extends RStarTree implements RangeIndex<O>, KNNIndex<O>, DynamicIndex {
+public class RStarTreeIndex<O extends NumberVector> extends RStarTree implements RangeIndex<O>, KNNIndex<O>, DynamicIndex, CostEstimatingIndex {
   /**
    * The appropriate logger for this index.
    */
@@ -186,6 +188,51 @@ public class RStarTreeIndex<O extends NumberVector> extends RStarTree implements
     return RStarTreeUtil.getKNNQuery(this, dq, hints);
   }
 
+  /**
+   * {@inheritDoc}
+   * 
+   * Rough estimate: one directory page per level, and about two leaf pages
+   * for every leaf worth of neighbors; every page costs one distance
+   * computation per entry.
+   */
+  @Override
+  public double estimateKNNCost(int k) {
+    final int size = relation.size();
+    if(getHeight() == 0 || size <= leafCapacity) {
+      return size;
+    }
+    final double leaves = 2. * Math.ceil(Math.max(k, 1) / (double) leafCapacity);
+    return Math.min(size, (getHeight() - 1) * dirCapacity + leaves * leafCapacity);
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * We estimate the number of results from the selectivity of the query cube
+   * (which contains the query ball for Minkowski distances) relative to the
+   * bounding box of the root, assuming uniformly distributed data. Without a
+   * radius, we assume queries that return about a page.
+   */
+  @Override
+  public double estimateRangeCost(double range) {
+    final int size = relation.size();
+    if(!(range == range) || getHeight() == 0 || size <= leafCapacity) {
+      return estimateKNNCost(leafCapacity);
+    }
+    final ModifiableHyperBoundingBox mbr = getRoot().computeMBR();
+    double sel = 1.;
+    for(int d = 0; d < mbr.getDimensionality(); d++) {
+      final double extent = mbr.getMax(d) - mbr.getMin(d);
+      sel *= extent > 2 * range ? 2 * range / extent : 1.;
+    }
+    return estimateKNNCost((int) Math.ceil(sel * size));
+  }
+
+  @Override
+  public boolean isApproximate() {
+    return false;
+  }
+
   @Override
   public String getLongName() {
     return "R*-Tree";
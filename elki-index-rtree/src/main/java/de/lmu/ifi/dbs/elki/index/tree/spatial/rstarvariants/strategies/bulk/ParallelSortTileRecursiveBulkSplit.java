@@ -0,0 +1,177 @@
+package de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+import de.lmu.ifi.dbs.elki.data.spatial.SpatialComparable;
+import de.lmu.ifi.dbs.elki.data.spatial.SpatialSingleMeanComparator;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.utilities.Alias;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.QuickSelect;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+
+/**
+ * Parallel version of {@link SortTileRecursiveBulkSplit}.
+ * 
+ * On each level, the slabs are selected in the same order as in the
+ * sequential version, but the recursion into the (disjoint) slabs is forked
+ * into separate tasks. Because the quickselect used is deterministic, the
+ * resulting partitions are identical to the sequential algorithm, including
+ * the order of the objects within each partition.
+ * 
+ * The number of threads is controlled by {@link ParallelCore}.
+ * 
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+@Alias({ "pstr", "PSTR" })
+public class ParallelSortTileRecursiveBulkSplit extends SortTileRecursiveBulkSplit {
+  /**
+   * Static instance.
+   */
+  public static final ParallelSortTileRecursiveBulkSplit STATIC = new ParallelSortTileRecursiveBulkSplit();
+
+  /**
+   * Below this number of objects, partition sequentially.
+   */
+  private static final int SEQUENTIAL_THRESHOLD = 1 << 13;
+
+  @Override
+  public <T extends SpatialComparable> List<List<T>> partition(List<T> spatialObjects, int minEntries, int maxEntries) {
+    final ParallelCore core = ParallelCore.getCore();
+    if(core.getParallelism() <= 1 || spatialObjects.size() < SEQUENTIAL_THRESHOLD) {
+      return super.partition(spatialObjects, minEntries, maxEntries);
+    }
+    final int dims = spatialObjects.get(0).getDimensionality();
+    core.connect();
+    try {
+      return core.invoke(new PartitionTask<>(spatialObjects, 0, spatialObjects.size(), 0, dims, maxEntries));
+    }
+    finally {
+      core.disconnect();
+    }
+  }
+
+  /**
+   * Partition a subinterval, forking the recursion into the slabs.
+   * 
+   * @author Erich Schubert
+   *
+   * @param <T> data type
+   */
+  private class PartitionTask<T extends SpatialComparable> extends RecursiveTask<List<List<T>>> {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Object list.
+     */
+    private List<T> objs;
+
+    /**
+     * Subinterval.
+     */
+    private int start, end;
+
+    /**
+     * Iteration depth, and total dimensionality.
+     */
+    private int depth, dims;
+
+    /**
+     * Maximum page size.
+     */
+    private int maxEntries;
+
+    /**
+     * Constructor.
+     * 
+     * @param objs Object list
+     * @param start Subinterval start
+     * @param end Subinterval end
+     * @param depth Iteration depth
+     * @param dims Total number of dimensions
+     * @param maxEntries Maximum page size
+     */
+    PartitionTask(List<T> objs, int start, int end, int depth, int dims, int maxEntries) {
+      super();
+      this.objs = objs;
+      this.start = start;
+      this.end = end;
+      this.depth = depth;
+      this.dims = dims;
+      this.maxEntries = maxEntries;
+    }
+
+    @Override
+    protected List<List<T>> compute() {
+      // Last dimension, or small enough: finish sequentially.
+      if(depth + 1 == dims || end - start < SEQUENTIAL_THRESHOLD) {
+        List<List<T>> ret = new ArrayList<>();
+        strPartition(objs, start, end, depth, dims, maxEntries, new SpatialSingleMeanComparator(depth), ret);
+        return ret;
+      }
+      final int p = (int) Math.ceil((end - start) / (double) maxEntries);
+      final int s = (int) Math.ceil(Math.pow(p, 1.0 / (dims - depth)));
+
+      final SpatialSingleMeanComparator c = new SpatialSingleMeanComparator(depth);
+      final double len = end - start; // double intentional!
+      List<PartitionTask<T>> tasks = new ArrayList<>(s);
+      for(int i = 0; i < s; i++) {
+        // Same selection order as the sequential version:
+        int s2 = start + (int) ((i * len) / s);
+        int e2 = start + (int) (((i + 1) * len) / s);
+        if(e2 < end) {
+          QuickSelect.quickSelect(objs, c, s2, end, e2);
+        }
+        tasks.add(new PartitionTask<>(objs, s2, e2, depth + 1, dims, maxEntries));
+      }
+      // The slabs are disjoint, and can be processed concurrently.
+      invokeAll(tasks);
+      List<List<T>> ret = new ArrayList<>();
+      for(PartitionTask<T> task : tasks) {
+        ret.addAll(task.join());
+      }
+      return ret;
+    }
+  }
+
+  /**
+   * Parameterization class.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  public static class Parameterizer extends AbstractParameterizer {
+    @Override
+    protected ParallelSortTileRecursiveBulkSplit makeInstance() {
+      return STATIC;
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package de.lmu.ifi.dbs.elki.index;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Index that can estimate the cost of a query, so that the relation can choose
+ * the cheapest index when several of them are able to answer a query.
+ *
+ * Costs are given in (approximate) distance computations per query; for
+ * paged indexes, page accesses count as the number of distance computations
+ * needed to process the page. The cost of a linear scan is the size of the
+ * relation.
+ *
+ * Approximate indexes only compete with exact indexes when the caller allows
+ * approximate answers, using the hints
+ * {@link de.lmu.ifi.dbs.elki.database.query.DatabaseQuery#HINT_APPROXIMATE}
+ * or {@link de.lmu.ifi.dbs.elki.database.query.DatabaseQuery#HINT_OPTIMIZED_ONLY}.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public interface CostEstimatingIndex extends Index {
+  /**
+   * Estimate the cost of a single kNN query.
+   *
+   * @param k Number of neighbors requested, {@code 0} if unknown
+   * @return Estimated cost, or {@code NaN} if no estimate is available
+   */
+  double estimateKNNCost(int k);
+
+  /**
+   * Estimate the cost of a single range query.
+   *
+   * @param range Query radius, {@code NaN} if unknown
+   * @return Estimated cost, or {@code NaN} if no estimate is available
+   */
+  double estimateRangeCost(double range);
+
+  /**
+   * Test whether the index only gives approximate answers.
+   *
+   * @return {@code true} for approximate indexes
+   */
+  boolean isApproximate();
+}
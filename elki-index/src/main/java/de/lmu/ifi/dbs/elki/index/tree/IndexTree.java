@@ -81,6 +81,11 @@ public abstract class IndexTree<N extends Node<E>, E extends Entry> implements I
    */
   private E rootEntry;
 
+  /**
+   * The header of the page file, if initialized.
+   */
+  private TreeIndexHeader header;
+
   /**
    * Constructor.
    *
@@ -96,11 +101,12 @@ public abstract class IndexTree<N extends Node<E>, E extends Entry> implements I
    */
   @Override
   public void initialize() {
-    TreeIndexHeader header = createHeader();
+    header = createHeader();
+    // The root entry is needed when reading an existing tree, e.g. for the height.
+    rootEntry = createRootEntry();
     if (this.file.initialize(header)) {
       initializeFromFile(header, file);
     }
-    rootEntry = createRootEntry();
   }
 
   /**
@@ -193,6 +199,16 @@ public abstract class IndexTree<N extends Node<E>, E extends Entry> implements I
     file.writePage(node);
   }
 
+  /**
+   * Assign a page id to a new node, without writing it yet.
+   *
+   * @param node Node to assign a page id to
+   * @return Page id
+   */
+  protected int allocatePageID(N node) {
+    return file.setPageID(node);
+  }
+
   /**
    * Delete a node from the backing storage.
    *
@@ -242,6 +258,14 @@ public abstract class IndexTree<N extends Node<E>, E extends Entry> implements I
    */
   protected final void initialize(E exampleLeaf) {
     initializeCapacities(exampleLeaf);
+    // The header was created before the capacities were known; the page file
+    // will store it on closing, so that the tree can be reopened.
+    if (header != null) {
+      header.dirCapacity = dirCapacity;
+      header.leafCapacity = leafCapacity;
+      header.dirMinimum = dirMinimum;
+      header.leafMinimum = leafMinimum;
+    }
 
     // create empty root
     createEmptyRoot(exampleLeaf);
@@ -221,6 +221,21 @@ public class TreeIndexHeader extends DefaultPageHeader {
    * @throws IOException thrown on IO errors
    */
   public void writeEmptyPages(Stack<Integer> emptyPages, RandomAccessFile file) throws IOException {
+    writeEmptyPages(emptyPages, file, file.length());
+  }
+
+  /**
+   * Write the indices of empty pages at the given position of
+   * <code>file</code>, e.g. when the file is longer than the pages in use.
+   * Calling this method should be followed by a
+   * {@link #writeHeader(RandomAccessFile)}.
+   * 
+   * @param emptyPages the stack of empty page ids which remain to be filled
+   * @param file File to work with
+   * @param offset Position in the file
+   * @throws IOException thrown on IO errors
+   */
+  public void writeEmptyPages(Stack<Integer> emptyPages, RandomAccessFile file, long offset) throws IOException {
     if(emptyPages.isEmpty()) {
       this.emptyPagesSize = 0;
       return; // nothing to write
@@ -234,7 +249,7 @@ public class TreeIndexHeader extends DefaultPageHeader {
     oos.close();
     baos.close();
     if(this.emptyPagesSize > 0) {
-      file.seek(file.length());
+      file.seek(offset);
       file.write(bytes);
     }
   }
@@ -248,13 +263,27 @@ public class TreeIndexHeader extends DefaultPageHeader {
    * @throws ClassNotFoundException if the stack of empty pages could not be
    *         correctly read from file
    */
-  @SuppressWarnings("unchecked")
   public Stack<Integer> readEmptyPages(RandomAccessFile file) throws IOException, ClassNotFoundException {
+    return readEmptyPages(file, file.length() - emptyPagesSize);
+  }
+
+  /**
+   * Read the empty pages from the given position of <code>file</code>.
+   * 
+   * @param file File to work with
+   * @param offset Position in the file
+   * @return a stack of empty pages in <code>file</code>
+   * @throws IOException thrown on IO errors
+   * @throws ClassNotFoundException if the stack of empty pages could not be
+   *         correctly read from file
+   */
+  @SuppressWarnings("unchecked")
+  public Stack<Integer> readEmptyPages(RandomAccessFile file, long offset) throws IOException, ClassNotFoundException {
     if(emptyPagesSize == 0) {
       return new Stack<>();
     }
     byte[] bytes = new byte[emptyPagesSize];
-    file.seek(file.length() - emptyPagesSize);
+    file.seek(offset);
     file.read(bytes);
     ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
     ObjectInputStream ois = new ObjectInputStream(bais);
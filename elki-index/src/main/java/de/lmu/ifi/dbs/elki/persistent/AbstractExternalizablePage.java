@@ -23,8 +23,6 @@ package de.lmu.ifi.dbs.elki.persistent;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import java.io.Externalizable;
-
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
@@ -36,7 +34,7 @@ import java.io.ObjectOutput;
  * @since 0.2
  */
 // todo elke revise comments
-public abstract class AbstractExternalizablePage implements Externalizable, Page {
+public abstract class AbstractExternalizablePage implements ExternalizablePage {
   /**
    * Serial version
    */
@@ -40,13 +40,14 @@ import de.lmu.ifi.dbs.elki.utilities.io.ByteArrayUtil;
  * structures. The file format is designed to have a fixed-size header followed
  * by the actual data.
  * 
+ * The records are memory mapped in segments of at most 1 GB, so the file may
+ * exceed the 2 GB limit of a single mapping.
+ * 
  * @author Erich Schubert
  * @since 0.2
  * 
  * @apiviz.composedOf RandomAccessFile
  */
-// TODO: ensure file doesn't become to big - check for overflows in recordsize *
-// numrecs + headersize
 public class OnDiskArray implements AutoCloseable {
   /**
    * Serial version.
@@ -99,9 +100,19 @@ public class OnDiskArray implements AutoCloseable {
   private boolean writable;
 
   /**
-   * The memory mapped buffer.
+   * The memory mapped segments.
+   */
+  private MappedByteBuffer[] maps = new MappedByteBuffer[0];
+
+  /**
+   * Number of records per mapped segment.
+   */
+  private int recsPerSegment;
+
+  /**
+   * Maximum size of a mapped segment.
    */
-  private MappedByteBuffer map;
+  private static final int SEGMENT_SIZE = 1 << 30;
 
   /**
    * Size of the classes header size.
@@ -235,12 +246,27 @@ public class OnDiskArray implements AutoCloseable {
    * @throws IOException on mapping error.
    */
   private synchronized void mapArray() throws IOException {
-    if (map != null) {
+    unmapArray();
+    MapMode mode = writable ? MapMode.READ_WRITE : MapMode.READ_ONLY;
+    recsPerSegment = Math.max(1, SEGMENT_SIZE / Math.max(1, recordsize));
+    final int nseg = (int) ((numrecs + (long) recsPerSegment - 1) / recsPerSegment);
+    MappedByteBuffer[] segs = new MappedByteBuffer[nseg];
+    for (int i = 0; i < nseg; i++) {
+      final long first = i * (long) recsPerSegment;
+      final long recs = Math.min(recsPerSegment, numrecs - first);
+      segs[i] = file.getChannel().map(mode, indexToFileposition(first), recs * recordsize);
+    }
+    maps = segs;
+  }
+
+  /**
+   * Unmap the data array.
+   */
+  private synchronized void unmapArray() {
+    for (MappedByteBuffer map : maps) {
       ByteArrayUtil.unmapByteBuffer(map);
-      map = null;
     }
-    MapMode mode = writable ? MapMode.READ_WRITE : MapMode.READ_ONLY;
-    map = file.getChannel().map(mode, headersize, recordsize * numrecs);
+    maps = new MappedByteBuffer[0];
   }
 
   /**
@@ -350,9 +376,35 @@ public class OnDiskArray implements AutoCloseable {
       throw new IOException("Access beyond end of file.");
     }
     // Adjust buffer view
+    final MappedByteBuffer map = maps[index / recsPerSegment];
+    final int off = (index % recsPerSegment) * recordsize;
     synchronized (map) {
-      map.limit(recordsize * (index + 1));
-      map.position(recordsize * index);
+      map.limit(off + recordsize);
+      map.position(off);
+      return map.slice();
+    }
+  }
+
+  /**
+   * Get a buffer covering consecutive records, for sequential scans.
+   *
+   * The buffer starts at the given record, and extends to the end of its
+   * mapped segment; the next buffer starts at the record following it. The
+   * buffer shares the memory map, but has an independent position. It becomes
+   * invalid when the file is resized or closed.
+   *
+   * @param start First record
+   * @return Byte buffer for the records
+   * @throws IOException on IO errors
+   */
+  public synchronized ByteBuffer getRecordsBuffer(int start) throws IOException {
+    if (start < 0 || start >= numrecs) {
+      throw new IOException("Access beyond end of file.");
+    }
+    final MappedByteBuffer map = maps[start / recsPerSegment];
+    synchronized (map) {
+      map.limit(map.capacity());
+      map.position((start % recsPerSegment) * recordsize);
       return map.slice();
     }
   }
@@ -413,10 +465,7 @@ public class OnDiskArray implements AutoCloseable {
    */
   public synchronized void close() throws IOException {
     writable = false;
-    if (map != null) {
-      ByteArrayUtil.unmapByteBuffer(map);
-      map = null;
-    }
+    unmapArray();
     if (lock != null) {
       lock.release();
       lock = null;
@@ -0,0 +1,185 @@
+package de.lmu.ifi.dbs.elki.algorithm;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.relation.MaterializedRelation;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.SpatialPrimitiveDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.kd.DualTreeKNNSearch;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.kd.MinimalisticMemoryKDTree;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+
+/**
+ * Joins to each object its k-nearest neighbors, using a dual-tree search on a
+ * temporary in-memory k-d-tree.
+ *
+ * In contrast to {@link KNNJoin}, this does not require a spatial index, and
+ * uses node-node bounds to prune the search for a whole group of query objects
+ * at once. This works best on low-dimensional data.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ *
+ * @apiviz.uses DualTreeKNNSearch
+ *
+ * @param <V> Vector type
+ */
+@Title("K-Nearest Neighbor Join with k-d-trees")
+@Description("Dual-tree search for the k-nearest neighbors of each object, using an in-memory k-d-tree.")
+public class KDTreeKNNJoin<V extends NumberVector> extends AbstractDistanceBasedAlgorithm<V, Relation<KNNList>> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(KDTreeKNNJoin.class);
+
+  /**
+   * The k parameter.
+   */
+  int k;
+
+  /**
+   * Maximum size of leaf nodes.
+   */
+  int leafsize;
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function
+   * @param k k parameter
+   * @param leafsize Maximum size of leaf nodes
+   */
+  public KDTreeKNNJoin(DistanceFunction<? super V> distanceFunction, int k, int leafsize) {
+    super(distanceFunction);
+    this.k = k;
+    this.leafsize = leafsize;
+  }
+
+  /**
+   * Joins to each object of the relation its k-nearest neighbors.
+   *
+   * @param relation Relation to process
+   * @return result
+   */
+  public Relation<KNNList> run(Relation<V> relation) {
+    DBIDs ids = relation.getDBIDs();
+    WritableDataStore<KNNList> knnLists = run(relation, ids);
+    // Wrap as relation:
+    return new MaterializedRelation<>("k nearest neighbors", "kNNs", TypeUtil.KNNLIST, knnLists, ids);
+  }
+
+  /**
+   * Inner run method, returning a data store.
+   *
+   * @param relation Data relation
+   * @param ids Object IDs
+   * @return Data store
+   */
+  public WritableDataStore<KNNList> run(Relation<V> relation, DBIDs ids) {
+    if(!(getDistanceFunction() instanceof SpatialPrimitiveDistanceFunction)) {
+      throw new IllegalStateException("Distance Function must be an instance of " + SpatialPrimitiveDistanceFunction.class.getName());
+    }
+    @SuppressWarnings("unchecked")
+    SpatialPrimitiveDistanceFunction<? super V> distFunction = (SpatialPrimitiveDistanceFunction<? super V>) getDistanceFunction();
+
+    // Reference tree:
+    ArrayDBIDs sorted = DualTreeKNNSearch.arrange(relation, relation.getDBIDs(), leafsize);
+    ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
+    List<KNNList> knns = new DualTreeKNNSearch<V>(relation, distFunction, leafsize, null).getKNNForBulkDBIDs(sorted.iter(), sorted.size(), aids, k);
+
+    WritableDataStore<KNNList> knnLists = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_STATIC, KNNList.class);
+    int i = 0;
+    for(DBIDIter iter = aids.iter(); iter.valid(); iter.advance(), i++) {
+      knnLists.put(iter, knns.get(i));
+    }
+    return knnLists;
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  public static class Parameterizer<V extends NumberVector> extends AbstractDistanceBasedAlgorithm.Parameterizer<V> {
+    /**
+     * K parameter.
+     */
+    protected int k;
+
+    /**
+     * Maximum size of leaf nodes.
+     */
+    protected int leafsize;
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      super.makeOptions(config);
+      IntParameter kP = new IntParameter(KNNJoin.Parameterizer.K_ID, 1) //
+      .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(kP)) {
+        k = kP.getValue();
+      }
+      IntParameter leafP = new IntParameter(MinimalisticMemoryKDTree.Factory.Parameterizer.LEAFSIZE_P, DualTreeKNNSearch.DEFAULT_LEAFSIZE) //
+      .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(leafP)) {
+        leafsize = leafP.getValue();
+      }
+    }
+
+    @Override
+    protected KDTreeKNNJoin<V> makeInstance() {
+      return new KDTreeKNNJoin<>(distanceFunction, k, leafsize);
+    }
+  }
+}
@@ -46,6 +46,8 @@ import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
 import de.lmu.ifi.dbs.elki.math.MeanVariance;
 import de.lmu.ifi.dbs.elki.result.Result;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
@@ -165,12 +167,17 @@ public class ValidateApproximativeKNNIndex<O> extends AbstractDistanceBasedAlgor
       MeanVariance mv = new MeanVariance(), mvrec = new MeanVariance();
       MeanVariance mvdist = new MeanVariance(), mvdaerr = new MeanVariance(), mvdrerr = new MeanVariance();
       int misses = 0;
+      long approxTime = 0L, exactTime = 0L;
       for(DBIDIter iditer = sample.iter(); iditer.valid(); iditer.advance()) {
         if(pattern == null || pattern.matcher(lrel.get(iditer)).find()) {
           // Query index:
+          long start = System.nanoTime();
           KNNList knns = knnQuery.getKNNForDBID(iditer, k);
+          approxTime += System.nanoTime() - start;
           // Query reference:
+          start = System.nanoTime();
           KNNList trueknns = truekNNQuery.getKNNForDBID(iditer, k);
+          exactTime += System.nanoTime() - start;
 
           // Put adjusted knn size:
           mv.put(knns.size() * k / (double) trueknns.size());
@@ -203,6 +210,9 @@ public class ValidateApproximativeKNNIndex<O> extends AbstractDistanceBasedAlgor
           LOG.statistics("Mean absolute k-error: " + mvdaerr.getMean() + " +- " + mvdaerr.getNaiveStddev());
           LOG.statistics("Mean relative k-error: " + mvdrerr.getMean() + " +- " + mvdrerr.getNaiveStddev());
         }
+        LOG.statistics(new LongStatistic(getClass().getName() + ".approximate.time-ns", approxTime));
+        LOG.statistics(new LongStatistic(getClass().getName() + ".reference.time-ns", exactTime));
+        LOG.statistics(new DoubleStatistic(getClass().getName() + ".speedup", exactTime / (double) approxTime));
         if(misses > 0) {
           LOG.statistics(String.format("Number of queries that returned less than k=%d objects: %d (%.2f%%)", k, misses, misses * 100. / mv.getCount()));
         }
@@ -230,6 +240,7 @@ public class ValidateApproximativeKNNIndex<O> extends AbstractDistanceBasedAlgor
       MeanVariance mv = new MeanVariance(), mvrec = new MeanVariance();
       MeanVariance mvdist = new MeanVariance(), mvdaerr = new MeanVariance(), mvdrerr = new MeanVariance();
       int misses = 0;
+      long approxTime = 0L, exactTime = 0L;
       for(DBIDIter iditer = sample.iter(); iditer.valid(); iditer.advance()) {
         int off = sids.binarySearch(iditer);
         assert (off >= 0);
@@ -237,9 +248,13 @@ public class ValidateApproximativeKNNIndex<O> extends AbstractDistanceBasedAlgor
         O o = (O) bundle.data(off, col);
 
         // Query index:
+        long start = System.nanoTime();
         KNNList knns = knnQuery.getKNNForObject(o, k);
+        approxTime += System.nanoTime() - start;
         // Query reference:
+        start = System.nanoTime();
         KNNList trueknns = truekNNQuery.getKNNForObject(o, k);
+        exactTime += System.nanoTime() - start;
 
         // Put adjusted knn size:
         mv.put(knns.size() * k / (double) trueknns.size());
@@ -270,6 +285,9 @@ public class ValidateApproximativeKNNIndex<O> extends AbstractDistanceBasedAlgor
           LOG.statistics("Mean absolute k-error: " + mvdaerr.getMean() + " +- " + mvdaerr.getNaiveStddev());
           LOG.statistics("Mean relative k-error: " + mvdrerr.getMean() + " +- " + mvdrerr.getNaiveStddev());
         }
+        LOG.statistics(new LongStatistic(getClass().getName() + ".approximate.time-ns", approxTime));
+        LOG.statistics(new LongStatistic(getClass().getName() + ".reference.time-ns", exactTime));
+        LOG.statistics(new DoubleStatistic(getClass().getName() + ".speedup", exactTime / (double) approxTime));
         if(misses > 0) {
           LOG.statistics(String.format("Number of queries that returned less than k=%d objects: %d (%.2f%%)", k, misses, misses * 100. / mv.getCount()));
         }
@@ -123,6 +123,29 @@ public class DiagonalGaussianModel implements EMClusterModel<EMModel> {
     System.arraycopy(nmea, 0, mean, 0, nmea.length);
   }
 
+  @Override
+  public DiagonalGaussianModel emptyCopy() {
+    DiagonalGaussianModel copy = new DiagonalGaussianModel(weight, mean.clone(), norm);
+    Arrays.fill(copy.variances, 0.);
+    return copy;
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<EMModel> other, double scale) {
+    final DiagonalGaussianModel o = (DiagonalGaussianModel) other;
+    final double owsum = o.wsum * scale;
+    if(!(owsum > 0.)) {
+      return;
+    }
+    final double nwsum = wsum + owsum, f = wsum * owsum / nwsum;
+    for(int i = 0; i < mean.length; i++) {
+      final double delta = o.mean[i] - mean[i];
+      variances[i] += o.variances[i] * scale + delta * delta * f;
+      mean[i] += delta * owsum / nwsum;
+    }
+    wsum = nwsum;
+  }
+
   @Override
   public void finalizeEStep() {
     if(wsum > 0.) {
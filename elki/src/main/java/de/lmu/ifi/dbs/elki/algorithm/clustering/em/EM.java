@@ -24,7 +24,9 @@ package de.lmu.ifi.dbs.elki.algorithm.clustering.em;
  */
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.ClusteringAlgorithm;
@@ -42,11 +44,13 @@ import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.relation.MaterializedRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
@@ -54,10 +58,14 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.GreaterConstraint;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.DoubleParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
 
 /**
  * Clustering by expectation maximization (EM-Algorithm), also known as Gaussian
@@ -69,6 +77,19 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
  * Maximum Likelihood from Incomplete Data via the EM algorithm.<br />
  * In Journal of the Royal Statistical Society, Series B, 39(1), 1977, pp. 1-31
  * </p>
+ *
+ * The expectation step can be run in parallel: every thread accumulates the
+ * sufficient statistics (weight, mean and covariance) of a part of the data,
+ * which are merged before the models are updated.
+ *
+ * For large data sets, online EM can be used instead, which updates the models
+ * after every (random) mini-batch. The statistics are interpolated with a
+ * decreasing step size of {@code (t+2)^-alpha}:
+ * <p>
+ * O. Cappé, E. Moulines:<br />
+ * On-line expectation-maximization algorithm for latent data models<br />
+ * In Journal of the Royal Statistical Society, Series B, 71(3), 2009
+ * </p>
  * 
  * @author Arthur Zimek
  * @author Erich Schubert
@@ -117,8 +138,37 @@ public class EM<V extends NumberVector, M extends MeanModel> extends AbstractAlg
    */
   private boolean soft;
 
+  /**
+   * Process the data in parallel.
+   */
+  private boolean parallel;
+
+  /**
+   * Mini-batch size, 0 to process the full data set in every iteration.
+   */
+  private int minibatch;
+
+  /**
+   * Decay of the step size for mini-batch EM.
+   */
+  private double alpha;
+
+  /**
+   * Random generator for sampling mini-batches.
+   */
+  private RandomFactory rnd;
+
   private static final double MIN_LOGLIKELIHOOD = -100000;
 
+  /**
+   * Reference for online EM.
+   */
+  @Reference(authors = "O. Cappé, E. Moulines", //
+  title = "On-line expectation-maximization algorithm for latent data models", //
+  booktitle = "Journal of the Royal Statistical Society, Series B, 71(3), 2009", //
+  url = "http://dx.doi.org/10.1111/j.1467-9868.2009.00698.x")
+  public static final Void ADDITIONAL_REFERENCE = null;
+
   /**
    * Soft assignment result type.
    */
@@ -134,12 +184,33 @@ public class EM<V extends NumberVector, M extends MeanModel> extends AbstractAlg
    * @param soft Include soft assignments
    */
   public EM(int k, double delta, EMClusterModelFactory<V, M> mfactory, int maxiter, boolean soft) {
+    this(k, delta, mfactory, maxiter, soft, false, 0, 0.7, RandomFactory.DEFAULT);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param k k parameter
+   * @param delta delta parameter
+   * @param mfactory EM cluster model factory
+   * @param maxiter Maximum number of iterations
+   * @param soft Include soft assignments
+   * @param parallel Process the data in parallel
+   * @param minibatch Mini-batch size, 0 to use the full data set
+   * @param alpha Step size decay for mini-batch EM
+   * @param rnd Random generator for mini-batch sampling
+   */
+  public EM(int k, double delta, EMClusterModelFactory<V, M> mfactory, int maxiter, boolean soft, boolean parallel, int minibatch, double alpha, RandomFactory rnd) {
     super();
     this.k = k;
     this.delta = delta;
     this.mfactory = mfactory;
     this.maxiter = maxiter;
     this.setSoft(soft);
+    this.parallel = parallel;
+    this.minibatch = minibatch;
+    this.alpha = alpha;
+    this.rnd = rnd;
   }
 
   /**
@@ -162,29 +233,37 @@ public class EM<V extends NumberVector, M extends MeanModel> extends AbstractAlg
     if(LOG.isVerbose()) {
       LOG.verbose("initializing " + k + " models");
     }
-    List<? extends EMClusterModel<M>> models = mfactory.buildInitialModels(database, relation, k, SquaredEuclideanDistanceFunction.STATIC);
+    List<EMClusterModel<M>> models = new ArrayList<EMClusterModel<M>>(mfactory.buildInitialModels(database, relation, k, SquaredEuclideanDistanceFunction.STATIC));
     WritableDataStore<double[]> probClusterIGivenX = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_SORTED, double[].class);
-    double emNew = assignProbabilitiesToInstances(relation, models, probClusterIGivenX);
-
-    // iteration unless no change
-    if(LOG.isVerbose()) {
-      LOG.verbose("iterating EM");
+    if(minibatch > 0) {
+      runMiniBatch(relation, models, probClusterIGivenX);
     }
-    if(LOG.isVerbose()) {
-      LOG.verbose("iteration " + 0 + " - expectation value: " + emNew);
+    else if(parallel) {
+      runParallel(relation, models, probClusterIGivenX);
     }
+    else {
+      double emNew = assignProbabilitiesToInstances(relation, models, probClusterIGivenX);
 
-    for(int it = 1; it <= maxiter || maxiter < 0; it++) {
-      final double emOld = emNew;
-      recomputeCovarianceMatrices(relation, probClusterIGivenX, models);
-      // reassign probabilities
-      emNew = assignProbabilitiesToInstances(relation, models, probClusterIGivenX);
-
+      // iteration unless no change
       if(LOG.isVerbose()) {
-        LOG.verbose("iteration " + it + " - expectation value: " + emNew);
+        LOG.verbose("iterating EM");
       }
-      if(Math.abs(emOld - emNew) <= delta || emOld > emNew) {
-        break;
+      if(LOG.isVerbose()) {
+        LOG.verbose("iteration " + 0 + " - expectation value: " + emNew);
+      }
+
+      for(int it = 1; it <= maxiter || maxiter < 0; it++) {
+        final double emOld = emNew;
+        recomputeCovarianceMatrices(relation, probClusterIGivenX, models);
+        // reassign probabilities
+        emNew = assignProbabilitiesToInstances(relation, models, probClusterIGivenX);
+
+        if(LOG.isVerbose()) {
+          LOG.verbose("iteration " + it + " - expectation value: " + emNew);
+        }
+        if(Math.abs(emOld - emNew) <= delta || emOld > emNew) {
+          break;
+        }
       }
     }
 
@@ -229,6 +308,111 @@ public class EM<V extends NumberVector, M extends MeanModel> extends AbstractAlg
     return result;
   }
 
+  /**
+   * Iterate EM, processing the data in parallel.
+   *
+   * Each pass computes the probabilities using the current models, and the
+   * statistics of the next models at the same time.
+   *
+   * @param relation Vector data
+   * @param models Cluster models to update
+   * @param probClusterIGivenX Output storage for cluster probabilities
+   */
+  private void runParallel(Relation<V> relation, List<EMClusterModel<M>> models, WritableDataStore<double[]> probClusterIGivenX) {
+    final int size = relation.size();
+    EMProcessor<M> proc = new EMProcessor<>(relation, probClusterIGivenX);
+    proc.nextIteration(models);
+    ParallelExecutor.run(relation.getDBIDs(), proc);
+    double emNew = proc.getLogLikelihood() / size;
+    if(LOG.isVerbose()) {
+      LOG.verbose("iteration " + 0 + " - expectation value: " + emNew);
+    }
+    for(int it = 1; it <= maxiter || maxiter < 0; it++) {
+      final double emOld = emNew;
+      double[] wsum = proc.getWeightSums();
+      int i = 0;
+      for(EMClusterModel<M> m : models) {
+        m.beginEStep();
+        m.mergeE(proc.getStatistics().get(i), 1.);
+        m.finalizeEStep();
+        m.setWeight(wsum[i] / size);
+        i++;
+      }
+      proc.nextIteration(models);
+      ParallelExecutor.run(relation.getDBIDs(), proc);
+      emNew = proc.getLogLikelihood() / size;
+
+      if(LOG.isVerbose()) {
+        LOG.verbose("iteration " + it + " - expectation value: " + emNew);
+      }
+      if(Math.abs(emOld - emNew) <= delta || emOld > emNew) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Iterate online EM on random mini-batches.
+   *
+   * The statistics are interpolated as {@code s = (1-eta) s + eta s_batch},
+   * with the step size {@code eta = (t+2)^-alpha}. Because the likelihood of a
+   * single batch is too noisy for the delta criterion, the number of batches
+   * is bounded by the maximum number of iterations only (by default, ten
+   * passes over the data). A final pass computes the probabilities of all
+   * objects. Ten passes yield a likelihood comparable to ten iterations of
+   * batch EM, which may be far from convergence; increase the maximum number
+   * of iterations if the result is not good enough.
+   *
+   * @param relation Vector data
+   * @param models Cluster models to update
+   * @param probClusterIGivenX Output storage for cluster probabilities
+   */
+  private void runMiniBatch(Relation<V> relation, List<EMClusterModel<M>> models, WritableDataStore<double[]> probClusterIGivenX) {
+    final int size = relation.size(), bsize = Math.min(minibatch, size);
+    final int iters = maxiter >= 0 ? maxiter : 10 * ((size + bsize - 1) / bsize);
+    final Random random = rnd.getSingleThreadedRandom();
+    EMProcessor<M> proc = new EMProcessor<>(relation, null);
+    List<EMClusterModel<M>> stats = null;
+    double[] weights = new double[k];
+    for(int it = 0; it < iters; it++) {
+      DBIDs batch = DBIDUtil.randomSample(relation.getDBIDs(), bsize, random);
+      proc.nextIteration(models);
+      ParallelExecutor.run(batch, proc);
+      if(LOG.isVerbose()) {
+        LOG.verbose("batch " + it + " - expectation value: " + proc.getLogLikelihood() / bsize);
+      }
+      // Interpolate the running statistics with the batch statistics.
+      final double eta = stats == null ? 1. : Math.pow(it + 2, -alpha);
+      List<EMClusterModel<M>> bstats = proc.getStatistics();
+      double[] wsum = proc.getWeightSums();
+      List<EMClusterModel<M>> nstats = new ArrayList<>(k);
+      for(int i = 0; i < k; i++) {
+        EMClusterModel<M> s = bstats.get(i).emptyCopy();
+        if(stats != null) {
+          s.mergeE(stats.get(i), 1. - eta);
+        }
+        s.mergeE(bstats.get(i), eta / bsize);
+        nstats.add(s);
+        weights[i] = (1. - eta) * weights[i] + eta * wsum[i] / bsize;
+      }
+      stats = nstats;
+      // Derive new models from the running statistics.
+      for(int i = 0; i < k; i++) {
+        EMClusterModel<M> m = stats.get(i).emptyCopy();
+        m.mergeE(stats.get(i), 1.);
+        m.finalizeEStep();
+        m.setWeight(weights[i]);
+        models.set(i, m);
+      }
+    }
+    proc = new EMProcessor<>(relation, probClusterIGivenX);
+    proc.nextIteration(models);
+    ParallelExecutor.run(relation.getDBIDs(), proc);
+    if(LOG.isVerbose()) {
+      LOG.verbose("final expectation value: " + proc.getLogLikelihood() / size);
+    }
+  }
+
   /**
    * Recompute the covariance matrixes.
    * 
@@ -279,35 +463,48 @@ public class EM<V extends NumberVector, M extends MeanModel> extends AbstractAlg
     double emSum = 0.;
 
     for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      NumberVector vec = relation.get(iditer);
-      double[] probabilities = new double[k];
-      {
-        int i = 0;
-        for(EMClusterModel<?> m : models) {
-          probabilities[i] = m.estimateDensity(vec);
-          ++i;
-        }
-      }
-      double priorProbability = 0.;
-      for(int i = 0; i < k; i++) {
-        priorProbability += probabilities[i];
-      }
-      double logP = Math.max(Math.log(priorProbability), MIN_LOGLIKELIHOOD);
-      emSum += (logP == logP) ? logP : 0.; /* avoid NaN */
-
       double[] clusterProbabilities = new double[k];
-      if(priorProbability > 0.) {
-        for(int i = 0; i < k; i++) {
-          // do not divide by zero!
-          clusterProbabilities[i] = probabilities[i] / priorProbability;
-        }
-      }
+      emSum += assignProbabilities(relation.get(iditer), models, clusterProbabilities);
       probClusterIGivenX.put(iditer, clusterProbabilities);
     }
 
     return emSum / relation.size();
   }
 
+  /**
+   * Compute the cluster probabilities of a single instance.
+   *
+   * @param vec Instance
+   * @param models Cluster models
+   * @param clusterProbabilities Output array for the cluster probabilities
+   * @return Log likelihood of the instance
+   */
+  public static double assignProbabilities(NumberVector vec, List<? extends EMClusterModel<?>> models, double[] clusterProbabilities) {
+    final int k = models.size();
+    {
+      int i = 0;
+      for(EMClusterModel<?> m : models) {
+        clusterProbabilities[i] = m.estimateDensity(vec);
+        ++i;
+      }
+    }
+    double priorProbability = 0.;
+    for(int i = 0; i < k; i++) {
+      priorProbability += clusterProbabilities[i];
+    }
+    double logP = Math.max(Math.log(priorProbability), MIN_LOGLIKELIHOOD);
+    if(priorProbability > 0.) {
+      for(int i = 0; i < k; i++) {
+        // do not divide by zero!
+        clusterProbabilities[i] /= priorProbability;
+      }
+    }
+    else {
+      Arrays.fill(clusterProbabilities, 0.);
+    }
+    return (logP == logP) ? logP : 0.; /* avoid NaN */
+  }
+
   @Override
   public TypeInformation[] getInputTypeRestriction() {
     return TypeUtil.array(TypeUtil.NUMBER_VECTOR_FIELD);
@@ -360,6 +557,30 @@ public class EM<V extends NumberVector, M extends MeanModel> extends AbstractAlg
     public static final OptionID INIT_ID = new OptionID("em.model", //
     "Model factory.");
 
+    /**
+     * Flag to process the data in parallel.
+     */
+    public static final OptionID PARALLEL_ID = new OptionID("em.parallel", //
+    "Process the data in parallel, merging the sufficient statistics of all threads.");
+
+    /**
+     * Parameter for the mini-batch size of online EM.
+     */
+    public static final OptionID MINIBATCH_ID = new OptionID("em.minibatch", //
+    "Use online EM, with random mini-batches of the given size.");
+
+    /**
+     * Parameter for the step size decay of online EM.
+     */
+    public static final OptionID ALPHA_ID = new OptionID("em.minibatch.alpha", //
+    "Decay of the step size (t+2)^-alpha of online EM, in (0.5;1].");
+
+    /**
+     * Random generator seed for sampling mini-batches.
+     */
+    public static final OptionID SEED_ID = new OptionID("em.minibatch.seed", //
+    "Random generator seed for sampling mini-batches.");
+
     /**
      * Number of clusters.
      */
@@ -380,6 +601,26 @@ public class EM<V extends NumberVector, M extends MeanModel> extends AbstractAlg
      */
     protected int maxiter = -1;
 
+    /**
+     * Process the data in parallel.
+     */
+    protected boolean parallel = false;
+
+    /**
+     * Mini-batch size.
+     */
+    protected int minibatch = 0;
+
+    /**
+     * Step size decay.
+     */
+    protected double alpha = 0.7;
+
+    /**
+     * Random generator.
+     */
+    protected RandomFactory rnd = RandomFactory.DEFAULT;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -406,11 +647,35 @@ public class EM<V extends NumberVector, M extends MeanModel> extends AbstractAlg
       if(config.grab(maxiterP)) {
         maxiter = maxiterP.getValue();
       }
+
+      Flag parallelF = new Flag(PARALLEL_ID);
+      if(config.grab(parallelF)) {
+        parallel = parallelF.isTrue();
+      }
+
+      IntParameter minibatchP = new IntParameter(MINIBATCH_ID) //
+      .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+      .setOptional(true);
+      if(config.grab(minibatchP)) {
+        minibatch = minibatchP.intValue();
+      }
+      if(minibatch > 0) {
+        DoubleParameter alphaP = new DoubleParameter(ALPHA_ID, 0.7) //
+        .addConstraint(new GreaterConstraint(.5)) //
+        .addConstraint(CommonConstraints.LESS_EQUAL_ONE_DOUBLE);
+        if(config.grab(alphaP)) {
+          alpha = alphaP.doubleValue();
+        }
+        RandomParameter rndP = new RandomParameter(SEED_ID);
+        if(config.grab(rndP)) {
+          rnd = rndP.getValue();
+        }
+      }
     }
 
     @Override
     protected EM<V, M> makeInstance() {
-      return new EM<>(k, delta, initializer, maxiter, false);
+      return new EM<>(k, delta, initializer, maxiter, false, parallel, minibatch, alpha, rnd);
     }
   }
 }
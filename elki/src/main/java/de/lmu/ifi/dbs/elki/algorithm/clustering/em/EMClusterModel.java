@@ -51,6 +51,23 @@ public interface EMClusterModel<M extends MeanModel> {
    */
   void finalizeEStep();
 
+  /**
+   * Create an empty model of the same type, for accumulating the statistics of
+   * the E step on a part of the data, e.g. in a separate thread.
+   *
+   * @return Empty model, with no statistics accumulated
+   */
+  EMClusterModel<M> emptyCopy();
+
+  /**
+   * Merge the E step statistics (weight sum, mean and covariance) accumulated
+   * by another model into this model.
+   *
+   * @param other Model with partial statistics, from {@link #emptyCopy}
+   * @param scale Scaling factor for the weights of the other model
+   */
+  void mergeE(EMClusterModel<M> other, double scale);
+
   /**
    * Estimate the likelihood of a vector.
    * 
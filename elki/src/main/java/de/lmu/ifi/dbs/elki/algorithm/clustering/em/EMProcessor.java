@@ -0,0 +1,229 @@
+package de.lmu.ifi.dbs.elki.algorithm.clustering.em;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+import java.util.ArrayList;
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.model.MeanModel;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+
+/**
+ * Parallel EM processor.
+ *
+ * Each instance computes the cluster probabilities of a block of objects, and
+ * accumulates the sufficient statistics (weight sum, mean and covariance) of
+ * the next models in a private copy. These partial statistics are merged on
+ * cleanup, and can then be used to update the models.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ *
+ * @apiviz.has Instance
+ *
+ * @param <M> Model type
+ */
+public class EMProcessor<M extends MeanModel> implements Processor {
+  /**
+   * Data relation.
+   */
+  Relation<? extends NumberVector> relation;
+
+  /**
+   * Output storage for cluster probabilities, may be {@code null}.
+   */
+  WritableDataStore<double[]> probClusterIGivenX;
+
+  /**
+   * Current models.
+   */
+  List<? extends EMClusterModel<M>> models;
+
+  /**
+   * Merged statistics for the next models.
+   */
+  List<EMClusterModel<M>> stats;
+
+  /**
+   * Weight sums.
+   */
+  double[] wsum;
+
+  /**
+   * Sum of the log likelihoods.
+   */
+  double loglikelihood;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param probClusterIGivenX Output storage for cluster probabilities, may be
+   *        {@code null}
+   */
+  public EMProcessor(Relation<? extends NumberVector> relation, WritableDataStore<double[]> probClusterIGivenX) {
+    super();
+    this.relation = relation;
+    this.probClusterIGivenX = probClusterIGivenX;
+  }
+
+  /**
+   * Initialize for a new iteration.
+   *
+   * @param models Current models (must not be modified during the iteration)
+   */
+  public void nextIteration(List<? extends EMClusterModel<M>> models) {
+    this.models = models;
+    stats = new ArrayList<>(models.size());
+    for(EMClusterModel<M> m : models) {
+      stats.add(m.emptyCopy());
+    }
+    wsum = new double[models.size()];
+    loglikelihood = 0.;
+  }
+
+  @Override
+  public Instance<M> instantiate(Executor executor) {
+    return new Instance<>(relation, models, probClusterIGivenX);
+  }
+
+  @Override
+  public void cleanup(Processor.Instance inst) {
+    @SuppressWarnings("unchecked")
+    Instance<M> instance = (Instance<M>) inst;
+    synchronized(this) {
+      for(int i = 0; i < wsum.length; i++) {
+        stats.get(i).mergeE(instance.stats.get(i), 1.);
+        wsum[i] += instance.wsum[i];
+      }
+      loglikelihood += instance.loglikelihood;
+    }
+  }
+
+  /**
+   * Get the merged statistics of the last iteration.
+   *
+   * @return Statistics, one model per cluster
+   */
+  public List<EMClusterModel<M>> getStatistics() {
+    return stats;
+  }
+
+  /**
+   * Get the weight sums of the last iteration.
+   *
+   * @return Weight sums, one per cluster
+   */
+  public double[] getWeightSums() {
+    return wsum;
+  }
+
+  /**
+   * Get the sum of the log likelihoods of the last iteration.
+   *
+   * @return Log likelihood sum
+   */
+  public double getLogLikelihood() {
+    return loglikelihood;
+  }
+
+  /**
+   * Instance to process part of the data set, for a single iteration.
+   *
+   * @author Erich Schubert
+   *
+   * @param <M> Model type
+   */
+  public static class Instance<M extends MeanModel> implements Processor.Instance {
+    /**
+     * Data relation.
+     */
+    private Relation<? extends NumberVector> relation;
+
+    /**
+     * Output storage for cluster probabilities, may be {@code null}.
+     */
+    private WritableDataStore<double[]> probClusterIGivenX;
+
+    /**
+     * Current models.
+     */
+    private List<? extends EMClusterModel<M>> models;
+
+    /**
+     * Partial statistics for the next models.
+     */
+    private List<EMClusterModel<M>> stats;
+
+    /**
+     * Partial weight sums.
+     */
+    private double[] wsum;
+
+    /**
+     * Partial sum of the log likelihoods.
+     */
+    private double loglikelihood = 0.;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Data relation
+     * @param models Current models
+     * @param probClusterIGivenX Output storage, may be {@code null}
+     */
+    public Instance(Relation<? extends NumberVector> relation, List<? extends EMClusterModel<M>> models, WritableDataStore<double[]> probClusterIGivenX) {
+      super();
+      this.relation = relation;
+      this.models = models;
+      this.probClusterIGivenX = probClusterIGivenX;
+      this.stats = new ArrayList<>(models.size());
+      for(EMClusterModel<M> m : models) {
+        stats.add(m.emptyCopy());
+      }
+      this.wsum = new double[models.size()];
+    }
+
+    @Override
+    public void map(DBIDRef id) {
+      NumberVector vec = relation.get(id);
+      double[] clusterProbabilities = new double[models.size()];
+      loglikelihood += EM.assignProbabilities(vec, models, clusterProbabilities);
+      if(probClusterIGivenX != null) {
+        probClusterIGivenX.put(id, clusterProbabilities);
+      }
+      for(int i = 0; i < clusterProbabilities.length; i++) {
+        final double prior = clusterProbabilities[i];
+        if(prior > 0.) {
+          stats.get(i).updateE(vec, prior);
+        }
+        wsum[i] += prior;
+      }
+    }
+  }
+}
@@ -138,6 +138,41 @@ public class MultivariateGaussianModel implements EMClusterModel<EMModel> {
     System.arraycopy(nmea, 0, mean, 0, nmea.length);
   }
 
+  @Override
+  public MultivariateGaussianModel emptyCopy() {
+    return new MultivariateGaussianModel(weight, mean.clone(), norm);
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<EMModel> other, double scale) {
+    final MultivariateGaussianModel o = (MultivariateGaussianModel) other;
+    final double owsum = o.wsum * scale;
+    if(!(owsum > 0.)) {
+      return;
+    }
+    final double nwsum = wsum + owsum, f = wsum * owsum / nwsum;
+    for(int i = 0; i < mean.length; i++) {
+      nmea[i] = o.mean[i] - mean[i];
+    }
+    // Pairwise update: add the scatter, and the scatter of the two means.
+    final double[][] elements = covariance.getArrayRef();
+    final double[][] oelements = o.covariance.getArrayRef();
+    for(int i = 0; i < mean.length; i++) {
+      for(int j = i; j < mean.length; j++) {
+        double delta = oelements[i][j] * scale + nmea[i] * nmea[j] * f;
+        elements[i][j] = elements[i][j] + delta;
+        // Optimize via symmetry
+        if(i != j) {
+          elements[j][i] = elements[j][i] + delta;
+        }
+      }
+    }
+    for(int i = 0; i < mean.length; i++) {
+      mean[i] += nmea[i] * owsum / nwsum;
+    }
+    wsum = nwsum;
+  }
+
   @Override
   public void finalizeEStep() {
     final int dim = mean.length;
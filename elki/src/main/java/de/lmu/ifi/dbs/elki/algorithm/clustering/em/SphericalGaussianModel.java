@@ -119,6 +119,31 @@ public class SphericalGaussianModel implements EMClusterModel<EMModel> {
     System.arraycopy(nmea, 0, mean, 0, nmea.length);
   }
 
+  @Override
+  public SphericalGaussianModel emptyCopy() {
+    SphericalGaussianModel copy = new SphericalGaussianModel(weight, mean.clone(), norm);
+    copy.variance = 0.;
+    return copy;
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<EMModel> other, double scale) {
+    final SphericalGaussianModel o = (SphericalGaussianModel) other;
+    final double owsum = o.wsum * scale;
+    if(!(owsum > 0.)) {
+      return;
+    }
+    final double nwsum = wsum + owsum, f = wsum * owsum / nwsum;
+    double sqsum = 0.;
+    for(int i = 0; i < mean.length; i++) {
+      final double delta = o.mean[i] - mean[i];
+      sqsum += delta * delta;
+      mean[i] += delta * owsum / nwsum;
+    }
+    variance += o.variance * scale + sqsum * f;
+    wsum = nwsum;
+  }
+
   @Override
   public void finalizeEStep() {
     if(wsum > 0.) {
@@ -23,7 +23,12 @@ package de.lmu.ifi.dbs.elki.algorithm.clustering.gdbscan.parallel;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.ClusteringAlgorithm;
@@ -38,23 +43,29 @@ import de.lmu.ifi.dbs.elki.algorithm.clustering.gdbscan.util.MultiBorder;
 import de.lmu.ifi.dbs.elki.data.Cluster;
 import de.lmu.ifi.dbs.elki.data.Clustering;
 import de.lmu.ifi.dbs.elki.data.model.ClusterModel;
+import de.lmu.ifi.dbs.elki.data.model.CoreObjectsModel;
 import de.lmu.ifi.dbs.elki.data.model.Model;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.database.Database;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDBIDDataStore;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDVar;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.StaticDBIDs;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.parallel.Executor;
 import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.unionfind.UnionFind;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.unionfind.UnionFindUtil;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
@@ -99,6 +110,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
  * @apiviz.landmark
  *
  * @apiviz.has Instance
+ * @apiviz.has UnionFindInstance
  * @apiviz.composedOf CorePredicate
  * @apiviz.composedOf NeighborPredicate
  */
@@ -133,6 +145,11 @@ public class ParallelGeneralizedDBSCAN extends AbstractAlgorithm<Clustering<Mode
    */
   protected boolean coremodel = false;
 
+  /**
+   * Use the fully parallel union-find mode.
+   */
+  protected boolean unionfind = false;
+
   /**
    * Constructor for parameterized algorithm.
    *
@@ -141,10 +158,23 @@ public class ParallelGeneralizedDBSCAN extends AbstractAlgorithm<Clustering<Mode
    * @param coremodel Keep track of core points.
    */
   public ParallelGeneralizedDBSCAN(NeighborPredicate<?> npred, CorePredicate<?> corepred, boolean coremodel) {
+    this(npred, corepred, coremodel, false);
+  }
+
+  /**
+   * Constructor for parameterized algorithm.
+   *
+   * @param npred Neighbor predicate.
+   * @param corepred Core point predicate.
+   * @param coremodel Keep track of core points.
+   * @param unionfind Use the fully parallel union-find mode.
+   */
+  public ParallelGeneralizedDBSCAN(NeighborPredicate<?> npred, CorePredicate<?> corepred, boolean coremodel, boolean unionfind) {
     super();
     this.npred = npred;
     this.corepred = corepred;
     this.coremodel = coremodel;
+    this.unionfind = unionfind;
     // Ignore the generic, we do a run-time test below:
     @SuppressWarnings("unchecked")
     CorePredicate<Object> cp = (CorePredicate<Object>) corepred;
@@ -161,6 +191,9 @@ public class ParallelGeneralizedDBSCAN extends AbstractAlgorithm<Clustering<Mode
     if(!cp.acceptsType(npred.getOutputType())) {
       throw new AbortException("Predicates are not compatible.");
     }
+    if(unionfind) {
+      return new UnionFindInstance<>(database, npred, cp, coremodel).run();
+    }
     return new Instance<>(database, npred, cp, coremodel).run();
   }
 
@@ -399,6 +432,234 @@ public class ParallelGeneralizedDBSCAN extends AbstractAlgorithm<Clustering<Mode
     }
   }
 
+
+  /**
+   * Fully parallel instance for a particular data set, using a concurrent
+   * union-find to merge core points.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.composedOf CorePredicate.Instance
+   * @apiviz.composedOf NeighborPredicate.Instance
+   * @apiviz.uses UnionFind
+   */
+  public static class UnionFindInstance<T> {
+    /**
+     * The core object property
+     */
+    protected final CorePredicate.Instance<? super T> corepred;
+
+    /**
+     * Track which objects are "core" objects.
+     */
+    protected boolean coremodel = false;
+
+    /**
+     * Database for cloning neighbor predicates.
+     */
+    private Database database;
+
+    /**
+     * Factory for neighbor predicates.
+     */
+    private NeighborPredicate<? extends T> npreds;
+
+    /**
+     * Object ids.
+     */
+    private StaticDBIDs ids;
+
+    /**
+     * Core point owning each object: the object itself for core points, a
+     * neighboring core point for border points, unset for noise.
+     */
+    private WritableDBIDDataStore owner;
+
+    /**
+     * Union-find for merging core points.
+     */
+    private UnionFind uf;
+
+    /**
+     * Constructor.
+     *
+     * @param database Database to process
+     * @param npreds Neighborhood predicates
+     * @param corepred Core object predicate
+     */
+    public UnionFindInstance(Database database, NeighborPredicate<T> npreds, CorePredicate<? super T> corepred) {
+      this(database, npreds, corepred, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param database Database to process
+     * @param npreds Neighborhood predicates
+     * @param corepred Core object predicate
+     * @param coremodel Keep track of core points.
+     */
+    public UnionFindInstance(Database database, NeighborPredicate<T> npreds, CorePredicate<? super T> corepred, boolean coremodel) {
+      super();
+      this.database = database;
+      this.npreds = npreds;
+      this.corepred = corepred.instantiate(database);
+      this.coremodel = coremodel;
+      this.ids = DBIDUtil.makeUnmodifiable(npreds.instantiate(database).getIDs());
+    }
+
+    /**
+     * Run the parallel GDBSCAN algorithm.
+     *
+     * @return Clustering result
+     */
+    public Clustering<Model> run() {
+      owner = DataStoreUtil.makeDBIDStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT);
+      uf = UnionFindUtil.makeConcurrent(ids);
+      // Phase 1: find core points.
+      FiniteProgress cprog = LOG.isVerbose() ? new FiniteProgress("Finding core points", ids.size(), LOG) : null;
+      ParallelExecutor.run(ids, cprog, LOG, new CoreProcessor());
+      // Phase 2: merge core points, and find border points.
+      FiniteProgress mprog = LOG.isVerbose() ? new FiniteProgress("Merging core points", ids.size(), LOG) : null;
+      ParallelExecutor.run(ids, mprog, LOG, new MergeProcessor());
+
+      // Phase 3: build the final result
+      FiniteProgress pprog = LOG.isVerbose() ? new FiniteProgress("Building final result", ids.size(), LOG) : null;
+      TIntIntMap clustermap = new TIntIntHashMap(10, .5f, -1, -1);
+      List<ModifiableDBIDs> clusters = new ArrayList<>();
+      List<ModifiableDBIDs> corelists = coremodel ? new ArrayList<ModifiableDBIDs>() : null;
+      ModifiableDBIDs noise = DBIDUtil.newArray();
+      DBIDVar var = DBIDUtil.newVar();
+      for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+        owner.assignVar(it, var);
+        if(!var.isSet()) {
+          noise.add(it);
+          LOG.incrementProcessed(pprog);
+          continue;
+        }
+        final int root = uf.find(var);
+        int cnum = clustermap.get(root);
+        if(cnum < 0) {
+          clustermap.put(root, cnum = clusters.size());
+          clusters.add(DBIDUtil.newArray());
+          if(corelists != null) {
+            corelists.add(DBIDUtil.newArray());
+          }
+        }
+        clusters.get(cnum).add(it);
+        // Core points own themselves:
+        if(corelists != null && DBIDUtil.equal(var, it)) {
+          corelists.get(cnum).add(it);
+        }
+        LOG.incrementProcessed(pprog);
+      }
+      LOG.ensureCompleted(pprog);
+      owner.destroy();
+
+      // Wrap into final format
+      Clustering<Model> result = new Clustering<>("DBSCAN Clustering", "dbscan-clustering");
+      for(int i = 0; i < clusters.size(); i++) {
+        Model m = coremodel ? new CoreObjectsModel(corelists.get(i)) : ClusterModel.CLUSTER;
+        result.addToplevelCluster(new Cluster<Model>(clusters.get(i), m));
+      }
+      if(noise.size() > 0) {
+        Model m = coremodel ? new CoreObjectsModel(DBIDUtil.newArray()) : ClusterModel.CLUSTER;
+        result.addToplevelCluster(new Cluster<Model>(noise, true, m));
+      }
+      return result;
+    }
+
+    /**
+     * Test whether an object is a core point (after the first phase).
+     *
+     * @param id Object
+     * @param var Temporary variable
+     * @return {@code true} for core points
+     */
+    protected boolean isCore(DBIDRef id, DBIDVar var) {
+      owner.assignVar(id, var);
+      return var.isSet() && DBIDUtil.equal(var, id);
+    }
+
+    /**
+     * Processor to find the core points.
+     *
+     * @author Erich Schubert
+     */
+    private class CoreProcessor implements Processor {
+      @Override
+      public Processor.Instance instantiate(Executor executor) {
+        final NeighborPredicate.Instance<? extends T> predicate = npreds.instantiate(database);
+        return new Processor.Instance() {
+          @Override
+          public void map(DBIDRef id) {
+            if(corepred.isCorePoint(id, predicate.getNeighbors(id))) {
+              owner.put(id, id);
+            }
+          }
+        };
+      }
+
+      @Override
+      public void cleanup(Processor.Instance inst) {
+        // Nothing to do.
+      }
+    }
+
+    /**
+     * Processor to merge neighboring core points, and to assign border points.
+     *
+     * @author Erich Schubert
+     */
+    private class MergeProcessor implements Processor {
+      @Override
+      public Processor.Instance instantiate(Executor executor) {
+        final NeighborPredicate.Instance<? extends T> predicate = npreds.instantiate(database);
+        return new Processor.Instance() {
+          /**
+           * Temporary variable.
+           */
+          DBIDVar var = DBIDUtil.newVar();
+
+          @Override
+          public void map(DBIDRef id) {
+            if(!isCore(id, var)) {
+              return;
+            }
+            for(DBIDIter it = iterNeighbors(predicate, id); it.valid(); it.advance()) {
+              owner.assignVar(it, var);
+              if(!var.isSet()) {
+                // Border point. Concurrent writes are harmless: any
+                // neighboring core point is a valid owner.
+                owner.put(it, id);
+              }
+              else if(DBIDUtil.equal(var, it)) {
+                uf.union(id, it); // Core and core - merge!
+              }
+            }
+          }
+        };
+      }
+
+      @Override
+      public void cleanup(Processor.Instance inst) {
+        // Nothing to do.
+      }
+    }
+
+    /**
+     * Iterate over the neighbors of an object (helper to capture the generic
+     * type).
+     *
+     * @param predicate Neighbor predicate
+     * @param id Object
+     * @return Iterator
+     */
+    private static <N> DBIDIter iterNeighbors(NeighborPredicate.Instance<N> predicate, DBIDRef id) {
+      return predicate.iterDBIDs(predicate.getNeighbors(id));
+    }
+  }
+
   /**
    * Parameterization class
    *
@@ -425,6 +686,12 @@ public class ParallelGeneralizedDBSCAN extends AbstractAlgorithm<Clustering<Mode
     public static final OptionID COREMODEL_ID = new OptionID("gdbscan.core-model", //
         "Use a model that keeps track of core points. Needs more memory.");
 
+    /**
+     * Flag to use the fully parallel union-find mode.
+     */
+    public static final OptionID UNIONFIND_ID = new OptionID("gdbscan.parallel.unionfind", //
+        "Fully parallel mode: find core points in parallel, merge them with a concurrent union-find, and assign border points in a final pass. Queries the neighbors of core points twice.");
+
     /**
      * Neighborhood predicate.
      */
@@ -440,6 +707,11 @@ public class ParallelGeneralizedDBSCAN extends AbstractAlgorithm<Clustering<Mode
      */
     protected boolean coremodel = false;
 
+    /**
+     * Use the fully parallel union-find mode.
+     */
+    protected boolean unionfind = false;
+
     @Override
     protected void makeOptions(Parameterization config) {
       // Neighborhood predicate
@@ -467,11 +739,16 @@ public class ParallelGeneralizedDBSCAN extends AbstractAlgorithm<Clustering<Mode
       if(config.grab(coremodelOpt)) {
         coremodel = coremodelOpt.isTrue();
       }
+
+      Flag unionfindOpt = new Flag(UNIONFIND_ID);
+      if(config.grab(unionfindOpt)) {
+        unionfind = unionfindOpt.isTrue();
+      }
     }
 
     @Override
     protected ParallelGeneralizedDBSCAN makeInstance() {
-      return new ParallelGeneralizedDBSCAN(npred, corepred, coremodel);
+      return new ParallelGeneralizedDBSCAN(npred, corepred, coremodel, unionfind);
     }
   }
 }
@@ -0,0 +1,382 @@
+package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractDistanceBasedAlgorithm;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.WrongParameterValueException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Hierarchical agglomerative clustering using the nearest-neighbor chain
+ * algorithm.
+ *
+ * Starting with an arbitrary cluster, the chain is extended with the nearest
+ * neighbor of its last element, until two clusters are reciprocal nearest
+ * neighbors, which are then merged. For reducible linkages, merging reciprocal
+ * nearest neighbors never changes the nearest neighbors of the other clusters
+ * on the chain, so the remainder of the chain stays valid. This yields the same
+ * hierarchy as {@link AGNES}, in guaranteed O(n^2) time; but the merges are
+ * not found in the order of their distances.
+ *
+ * Only reducible linkages (single, complete, group average, weighted average
+ * and Ward) are supported; centroid and median linkage are not reducible.
+ *
+ * Reference:
+ * <p>
+ * F. Murtagh<br />
+ * A survey of recent advances in hierarchical clustering algorithms<br />
+ * The Computer Journal 26(4)
+ * </p>
+ *
+ * See also:
+ * <p>
+ * D. Müllner<br />
+ * Modern hierarchical, agglomerative clustering algorithms<br />
+ * arXiv preprint arXiv:1109.2378
+ * </p>
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ *
+ * @apiviz.composedOf LinkageMethod
+ * @apiviz.composedOf PointerHierarchyRepresentationBuilder
+ *
+ * @param <O> Object type
+ */
+@Reference(authors = "F. Murtagh", //
+title = "A survey of recent advances in hierarchical clustering algorithms", //
+booktitle = "The Computer Journal 26(4)", //
+url = "http://dx.doi.org/10.1093/comjnl/26.4.354")
+public class NNChain<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchyRepresentationResult>implements HierarchicalClusteringAlgorithm {
+  /**
+   * Class logger
+   */
+  private static final Logging LOG = Logging.getLogger(NNChain.class);
+
+  /**
+   * Current linkage method in use.
+   */
+  LinkageMethod linkage = WardLinkageMethod.STATIC;
+
+  /**
+   * Additional reference.
+   */
+  @Reference(authors = "D. Müllner", //
+  title = "Modern hierarchical, agglomerative clustering algorithms", //
+  booktitle = "arXiv preprint arXiv:1109.2378", //
+  url = "http://arxiv.org/abs/1109.2378")
+  public static final Void ADDITIONAL_REFERENCE = null;
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function to use
+   * @param linkage Linkage method
+   */
+  public NNChain(DistanceFunction<? super O> distanceFunction, LinkageMethod linkage) {
+    super(distanceFunction);
+    this.linkage = linkage;
+  }
+
+  /**
+   * Test if a linkage method is reducible, i.e. merging two clusters never
+   * yields a cluster closer to a third cluster than either of the two was.
+   *
+   * @param linkage Linkage method
+   * @return {@code true} if the linkage is known to be reducible
+   */
+  public static boolean isReducible(LinkageMethod linkage) {
+    return SingleLinkageMethod.class.isInstance(linkage) //
+        || CompleteLinkageMethod.class.isInstance(linkage) //
+        || GroupAverageLinkageMethod.class.isInstance(linkage) //
+        || WeightedAverageLinkageMethod.class.isInstance(linkage) //
+        || WardLinkageMethod.class.isInstance(linkage);
+  }
+
+  /**
+   * Run the algorithm
+   *
+   * @param db Database
+   * @param relation Relation
+   * @return Clustering hierarchy
+   */
+  public PointerHierarchyRepresentationResult run(Database db, Relation<O> relation) {
+    if(!isReducible(linkage)) {
+      throw new AbortException("The NN-chain algorithm requires a reducible linkage, which " + linkage.getClass().getSimpleName() + " is not. Use AnderbergHierarchicalClustering instead.");
+    }
+    DistanceQuery<O> dq = db.getDistanceQuery(relation, getDistanceFunction());
+    ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+
+    if(size > 0x10000) {
+      throw new AbortException("This implementation does not scale to data sets larger than " + //
+      0x10000 // = 65535
+      + " instances (~16 GB RAM), at which point the Java maximum array size is reached.");
+    }
+    if(SingleLinkageMethod.class.isInstance(linkage)) {
+      LOG.verbose("Notice: SLINK is a much faster algorithm for single-linkage clustering!");
+    }
+
+    // Compute the initial (lower triangular) distance matrix.
+    double[] scratch = new double[AGNES.triangleSize(size)];
+    DBIDArrayIter ix = ids.iter(), iy = ids.iter();
+    final boolean square = WardLinkageMethod.class.isInstance(linkage) && !(SquaredEuclideanDistanceFunction.class.isInstance(getDistanceFunction()));
+    AGNES.initializeDistanceMatrix(scratch, dq, ix, iy, square);
+
+    // Merges are not found in increasing order:
+    PointerHierarchyRepresentationBuilder builder = new PointerHierarchyRepresentationBuilder(ids, false);
+
+    // The nearest-neighbor chain, as matrix positions.
+    int[] chain = new int[size];
+    int clen = 0;
+    // Smallest matrix position that may still be unlinked.
+    int start = 0;
+
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Agglomerative clustering", size - 1, LOG) : null;
+    for(int i = 1; i < size; i++) {
+      if(clen == 0) {
+        while(builder.isLinked(ix.seek(start))) {
+          ++start;
+        }
+        chain[clen++] = start;
+      }
+      int a, b;
+      double mindist;
+      while(true) {
+        a = chain[clen - 1];
+        b = clen > 1 ? chain[clen - 2] : -1;
+        // Prefer the previous element on ties, to avoid cycles.
+        mindist = b >= 0 ? scratch[getOffset(a, b)] : Double.POSITIVE_INFINITY;
+        int c = findNearest(size, scratch, iy, builder, start, a, b, mindist);
+        if(c == b) {
+          break;
+        }
+        mindist = scratch[getOffset(a, c)];
+        chain[clen++] = c;
+      }
+      clen -= 2;
+      merge(size, scratch, ix, iy, builder, mindist, a < b ? b : a, a < b ? a : b);
+      LOG.incrementProcessed(prog);
+    }
+    LOG.ensureCompleted(prog);
+
+    return builder.complete();
+  }
+
+  /**
+   * Array offset computation.
+   *
+   * @param x X parameter
+   * @param y Y parameter
+   * @return Array offset
+   */
+  private static int getOffset(int x, int y) {
+    return (y < x) ? (AGNES.triangleSize(x) + y) : (AGNES.triangleSize(y) + x);
+  }
+
+  /**
+   * Find the nearest unlinked neighbor of a cluster.
+   *
+   * @param size Data set size
+   * @param scratch Scratch matrix
+   * @param ij Iterator to reuse
+   * @param builder Hierarchy builder
+   * @param start Smallest matrix position that may be unlinked
+   * @param a Matrix position to find the nearest neighbor for
+   * @param b Previous chain element, or -1
+   * @param mindist Distance to the previous chain element
+   * @return Matrix position of the nearest neighbor, {@code b} if none is
+   *         strictly closer
+   */
+  private static int findNearest(int size, double[] scratch, DBIDArrayIter ij, PointerHierarchyRepresentationBuilder builder, int start, int a, int b, double mindist) {
+    int best = b;
+    final int abase = AGNES.triangleSize(a);
+    for(int j = start, o = abase + start; j < a; j++, o++) {
+      if(j == b || builder.isLinked(ij.seek(j))) {
+        continue;
+      }
+      if(scratch[o] < mindist || best < 0) {
+        mindist = scratch[o];
+        best = j;
+      }
+    }
+    for(int j = a + 1, o = abase + a + a; j < size; o += j, j++) {
+      // assert(o == AGNES.triangleSize(j) + a);
+      if(j == b || builder.isLinked(ij.seek(j))) {
+        continue;
+      }
+      if(scratch[o] < mindist || best < 0) {
+        mindist = scratch[o];
+        best = j;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Execute the cluster merge.
+   *
+   * @param size Data set size
+   * @param scratch Scratch space.
+   * @param ix First iterator
+   * @param iy Second iterator
+   * @param builder Hierarchy builder
+   * @param mindist Distance that was used for merging
+   * @param x First matrix position
+   * @param y Second matrix position
+   */
+  protected void merge(int size, double[] scratch, DBIDArrayIter ix, DBIDArrayIter iy, PointerHierarchyRepresentationBuilder builder, double mindist, int x, int y) {
+    // Avoid allocating memory, by reusing existing iterators:
+    ix.seek(x);
+    iy.seek(y);
+    if(LOG.isDebuggingFine()) {
+      LOG.debugFine("Merging: " + DBIDUtil.toString(ix) + " -> " + DBIDUtil.toString(iy) + " " + mindist);
+    }
+    // Perform merge in data structure: x -> y
+    assert(y < x);
+    // Since y < x, prefer keeping y, dropping x.
+    builder.add(ix, mindist, iy);
+    // Update cluster size for y:
+    final int sizex = builder.getSize(ix), sizey = builder.getSize(iy);
+    builder.setSize(iy, sizex + sizey);
+
+    // Note: this changes iy.
+    updateMatrix(size, scratch, iy, builder, mindist, x, y, sizex, sizey);
+  }
+
+  /**
+   * Update the scratch distance matrix.
+   *
+   * @param size Data set size
+   * @param scratch Scratch matrix.
+   * @param ij Iterator to reuse
+   * @param builder Hierarchy builder
+   * @param mindist Distance that was used for merging
+   * @param x First matrix position
+   * @param y Second matrix position
+   * @param sizex Old size of first cluster
+   * @param sizey Old size of second cluster
+   */
+  protected void updateMatrix(int size, double[] scratch, DBIDArrayIter ij, PointerHierarchyRepresentationBuilder builder, double mindist, int x, int y, final int sizex, final int sizey) {
+    // Update distance matrix. Note: miny < minx
+    final int xbase = AGNES.triangleSize(x), ybase = AGNES.triangleSize(y);
+
+    // Write to (y, j), with j < y
+    int j = 0;
+    for(; j < y; j++) {
+      if(builder.isLinked(ij.seek(j))) {
+        continue;
+      }
+      final int sizej = builder.getSize(ij);
+      final int yb = ybase + j;
+      scratch[yb] = linkage.combine(sizex, scratch[xbase + j], sizey, scratch[yb], sizej, mindist);
+    }
+    j++; // Skip y
+    // Write to (j, y), with y < j < x
+    int jbase = AGNES.triangleSize(j);
+    for(; j < x; jbase += j++) {
+      if(builder.isLinked(ij.seek(j))) {
+        continue;
+      }
+      final int sizej = builder.getSize(ij);
+      final int jb = jbase + y;
+      scratch[jb] = linkage.combine(sizex, scratch[xbase + j], sizey, scratch[jb], sizej, mindist);
+    }
+    jbase += j++; // Skip x
+    // Write to (j, y), with y < x < j
+    for(; j < size; jbase += j++) {
+      if(builder.isLinked(ij.seek(j))) {
+        continue;
+      }
+      final int sizej = builder.getSize(ij);
+      scratch[jbase + y] = linkage.combine(sizex, scratch[jbase + x], sizey, scratch[jbase + y], sizej, mindist);
+    }
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    // The input relation must match our distance function:
+    return TypeUtil.array(getDistanceFunction().getInputTypeRestriction());
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   *
+   * @param <O> Object type
+   */
+  public static class Parameterizer<O> extends AbstractDistanceBasedAlgorithm.Parameterizer<O> {
+    /**
+     * Current linkage in use.
+     */
+    protected LinkageMethod linkage;
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      // We don't call super, because we want a different default distance.
+      ObjectParameter<DistanceFunction<O>> distanceFunctionP = makeParameterDistanceFunction(SquaredEuclideanDistanceFunction.class, DistanceFunction.class);
+      if(config.grab(distanceFunctionP)) {
+        distanceFunction = distanceFunctionP.instantiateClass(config);
+      }
+
+      ObjectParameter<LinkageMethod> linkageP = new ObjectParameter<>(AGNES.Parameterizer.LINKAGE_ID, LinkageMethod.class);
+      linkageP.setDefaultValue(WardLinkageMethod.class);
+      if(config.grab(linkageP)) {
+        linkage = linkageP.instantiateClass(config);
+        if(!isReducible(linkage)) {
+          config.reportError(new WrongParameterValueException(linkageP, linkageP.getValueAsString(), "The NN-chain algorithm requires a reducible linkage."));
+        }
+      }
+    }
+
+    @Override
+    protected NNChain<O> makeInstance() {
+      return new NNChain<>(distanceFunction, linkage);
+    }
+  }
+}
@@ -71,14 +71,34 @@ public class PointerHierarchyRepresentationBuilder {
    */
   protected WritableIntegerDataStore csize;
 
+  /**
+   * Flag to indicate that links are added in increasing order of distance.
+   */
+  protected final boolean isSorted;
+
   /**
    * Constructor.
    *
    * @param ids IDs
    */
   public PointerHierarchyRepresentationBuilder(DBIDs ids) {
+    this(ids, true);
+  }
+
+  /**
+   * Constructor.
+   *
+   * Algorithms that do not produce links in increasing order (such as
+   * {@link NNChain}) can disable the monotonicity check. They must then ensure
+   * that no object is linked to a parent that is linked at a smaller distance.
+   *
+   * @param ids IDs
+   * @param isSorted Links are added in increasing order of distance.
+   */
+  public PointerHierarchyRepresentationBuilder(DBIDs ids, boolean isSorted) {
     super();
     this.ids = ids;
+    this.isSorted = isSorted;
     this.parent = DataStoreUtil.makeDBIDStorage(ids, DataStoreFactory.HINT_DB | DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_STATIC);
     this.parentDistance = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_DB | DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_STATIC, Double.POSITIVE_INFINITY);
     this.prevdist = Double.NEGATIVE_INFINITY;
@@ -91,7 +111,8 @@ public class PointerHierarchyRepresentationBuilder {
    * Add an element to the pointer representation.
    *
    * Important: If an algorithm does not produce links in an increasing fashion,
-   * a warning will be issued and the linking distance will be increased.
+   * a warning will be issued and the linking distance will be increased,
+   * unless the builder was constructed for unsorted links.
    * Otherwise, the hierarchy would be misinterpreted when links are executed
    * ordered by their distance.
    *
@@ -100,7 +121,7 @@ public class PointerHierarchyRepresentationBuilder {
    * @param par Parent
    */
   public void add(DBIDRef cur, double distance, DBIDRef par) {
-    if(distance < prevdist) {
+    if(isSorted && distance < prevdist) {
       LOG.warning("Non-monotone hierarchical clustering detected. Adjusting linking distance from " + distance + " to " + prevdist);
       distance = prevdist;
     }
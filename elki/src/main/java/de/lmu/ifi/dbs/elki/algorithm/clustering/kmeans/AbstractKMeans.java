@@ -50,6 +50,7 @@ import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.QuickSelectDBIDs;
+import de.lmu.ifi.dbs.elki.database.relation.AbstractPackedVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.PrimitiveDistanceFunction;
@@ -126,7 +127,7 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> ex
     final NumberVectorDistanceFunction<?> df = getDistanceFunction();
     for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
       double mindist = Double.POSITIVE_INFINITY;
-      V fv = relation.get(iditer);
+      NumberVector fv = AbstractPackedVectorRelation.getVector(relation, iditer);
       int minIndex = 0;
       for(int i = 0; i < k; i++) {
         double dist = df.distance(fv, DoubleVector.wrap(means[i]));
@@ -171,7 +172,7 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> ex
       iter.advance();
       // Update with remaining instances
       for(; iter.valid(); iter.advance()) {
-        NumberVector vec = database.get(iter);
+        NumberVector vec = AbstractPackedVectorRelation.getVector(database, iter);
         for(int j = 0; j < mean.length; j++) {
           mean[j] += vec.doubleValue(j);
         }
@@ -221,7 +222,7 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> ex
    * @param newsize (New) size of cluster
    * @param op Cluster size change / Weight change
    */
-  protected void incrementalUpdateMean(double[] mean, V vec, int newsize, double op) {
+  protected void incrementalUpdateMean(double[] mean, NumberVector vec, int newsize, double op) {
     if(newsize == 0) {
       return; // Keep old mean
     }
@@ -250,7 +251,7 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> ex
     // Incremental update
     for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
       double mindist = Double.POSITIVE_INFINITY;
-      V fv = relation.get(iditer);
+      NumberVector fv = AbstractPackedVectorRelation.getVector(relation, iditer);
       int minIndex = 0;
       for(int i = 0; i < k; i++) {
         double dist = df.distance(fv, DoubleVector.wrap(means[i]));
@@ -276,7 +277,7 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> ex
    * @param assignment Current cluster assignment
    * @return {@code true} when assignment changed
    */
-  private boolean updateMeanAndAssignment(List<ModifiableDBIDs> clusters, double[][] means, int minIndex, V fv, DBIDIter iditer, WritableIntegerDataStore assignment) {
+  private boolean updateMeanAndAssignment(List<ModifiableDBIDs> clusters, double[][] means, int minIndex, NumberVector fv, DBIDIter iditer, WritableIntegerDataStore assignment) {
     int cur = assignment.intValue(iditer);
     if(cur == minIndex) {
       return false;
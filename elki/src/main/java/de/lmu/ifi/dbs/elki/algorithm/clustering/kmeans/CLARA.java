@@ -106,7 +106,23 @@ public class CLARA<V> extends KMedoidsPAM<V> {
    * @param random Random generator
    */
   public CLARA(DistanceFunction<? super V> distanceFunction, int k, int maxiter, KMedoidsInitialization<V> initializer, int numsamples, double sampling, RandomFactory random) {
-    super(distanceFunction, k, maxiter, initializer);
+    this(distanceFunction, k, maxiter, initializer, false, numsamples, sampling, random);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function to use
+   * @param k Number of clusters to produce
+   * @param maxiter Maximum number of iterations
+   * @param initializer Initialization function
+   * @param eager Perform the first improving swap, instead of the best swap
+   * @param numsamples Number of samples (sampling iterations)
+   * @param sampling Sampling rate (absolute or relative)
+   * @param random Random generator
+   */
+  public CLARA(DistanceFunction<? super V> distanceFunction, int k, int maxiter, KMedoidsInitialization<V> initializer, boolean eager, int numsamples, double sampling, RandomFactory random) {
+    super(distanceFunction, k, maxiter, initializer, eager);
     this.numsamples = numsamples;
     this.sampling = sampling;
     this.random = random;
@@ -250,7 +266,7 @@ public class CLARA<V> extends KMedoidsPAM<V> {
 
     @Override
     protected CLARA<V> makeInstance() {
-      return new CLARA<>(distanceFunction, k, maxiter, initializer, numsamples, sampling, random);
+      return new CLARA<>(distanceFunction, k, maxiter, initializer, eager, numsamples, sampling, random);
     }
   }
 }
@@ -45,6 +45,7 @@ import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.relation.AbstractPackedVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
@@ -201,7 +202,7 @@ public class KMeansBatchedLloyd<V extends NumberVector> extends AbstractKMeans<V
     final NumberVectorDistanceFunction<? super V> df = getDistanceFunction();
     for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
       double mindist = Double.POSITIVE_INFINITY;
-      V fv = relation.get(iditer);
+      NumberVector fv = AbstractPackedVectorRelation.getVector(relation, iditer);
       int minIndex = 0;
       for(int i = 0; i < k; i++) {
         double dist = df.distance(fv, DoubleVector.wrap(oldmeans[i]));
@@ -228,7 +229,7 @@ public class KMeansBatchedLloyd<V extends NumberVector> extends AbstractKMeans<V
    * @param minIndex Index of best cluster.
    * @return {@code true} when assignment changed.
    */
-  protected boolean updateAssignment(DBIDIter id, V fv, List<? extends ModifiableDBIDs> clusters, WritableIntegerDataStore assignment, double[][] meanshift, int[] changesize, int minIndex) {
+  protected boolean updateAssignment(DBIDIter id, NumberVector fv, List<? extends ModifiableDBIDs> clusters, WritableIntegerDataStore assignment, double[][] meanshift, int[] changesize, int minIndex) {
     int cur = assignment.intValue(id);
     if(cur == minIndex) {
       return false;
@@ -41,6 +41,7 @@ import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.relation.AbstractPackedVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
@@ -205,7 +206,7 @@ public class KMeansCompare<V extends NumberVector> extends AbstractKMeans<V, KMe
     for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
       final int cur = assignment.intValue(iditer), ini = cur >= 0 ? cur : 0;
       // Distance to current mean:
-      V fv = relation.get(iditer);
+      NumberVector fv = AbstractPackedVectorRelation.getVector(relation, iditer);
       double mindist = df.distance(fv, DoubleVector.wrap(means[ini]));
       ++dists;
       final double thresh = mult * mindist;
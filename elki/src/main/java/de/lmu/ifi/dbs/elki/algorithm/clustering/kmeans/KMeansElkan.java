@@ -44,6 +44,7 @@ import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.relation.AbstractPackedVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
@@ -199,7 +200,7 @@ public class KMeansElkan<V extends NumberVector> extends AbstractKMeans<V, KMean
       if(varstat) {
         DoubleVector mvec = DoubleVector.wrap(mean);
         for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
-          varsum += distanceFunction.distance(mvec, relation.get(it));
+          varsum += distanceFunction.distance(mvec, AbstractPackedVectorRelation.getVector(relation, it));
         }
         totalvariance += varsum;
       }
@@ -256,7 +257,7 @@ public class KMeansElkan<V extends NumberVector> extends AbstractKMeans<V, KMean
     final NumberVectorDistanceFunction<? super V> df = getDistanceFunction();
     final boolean issquared = (df instanceof SquaredEuclideanDistanceFunction);
     for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
-      V fv = relation.get(it);
+      NumberVector fv = AbstractPackedVectorRelation.getVector(relation, it);
       double[] l = lower.get(it);
       // Check all (other) means:
       double best = Double.POSITIVE_INFINITY;
@@ -311,7 +312,7 @@ public class KMeansElkan<V extends NumberVector> extends AbstractKMeans<V, KMean
         continue;
       }
       boolean recompute_u = true; // Elkan's r(x)
-      V fv = relation.get(it);
+      NumberVector fv = AbstractPackedVectorRelation.getVector(relation, it);
       double[] l = lower.get(it);
       // Check all (other) means:
       int cur = orig;
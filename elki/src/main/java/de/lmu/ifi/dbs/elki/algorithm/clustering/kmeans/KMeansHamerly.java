@@ -43,6 +43,7 @@ import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.relation.AbstractPackedVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
@@ -188,7 +189,7 @@ public class KMeansHamerly<V extends NumberVector> extends AbstractKMeans<V, KMe
       if(varstat) {
         DoubleVector mvec = DoubleVector.wrap(mean);
         for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
-          varsum += distanceFunction.distance(mvec, relation.get(it));
+          varsum += distanceFunction.distance(mvec, AbstractPackedVectorRelation.getVector(relation, it));
         }
         totalvariance += varsum;
       }
@@ -245,7 +246,7 @@ public class KMeansHamerly<V extends NumberVector> extends AbstractKMeans<V, KMe
     final NumberVectorDistanceFunction<? super V> df = getDistanceFunction();
     boolean issquared = (df instanceof SquaredEuclideanDistanceFunction);
     for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
-      V fv = relation.get(it);
+      NumberVector fv = AbstractPackedVectorRelation.getVector(relation, it);
       // Find closest center, and distance to two closest centers
       double min1 = Double.POSITIVE_INFINITY, min2 = Double.POSITIVE_INFINITY;
       int minIndex = -1;
@@ -307,7 +308,7 @@ public class KMeansHamerly<V extends NumberVector> extends AbstractKMeans<V, KMe
         continue;
       }
       // Update the upper bound
-      V fv = relation.get(it);
+      NumberVector fv = AbstractPackedVectorRelation.getVector(relation, it);
       u = df.distance(fv, DoubleVector.wrap(means[cur]));
       u = issquared ? Math.sqrt(u) : u;
       upper.putDouble(it, u);
@@ -44,6 +44,7 @@ import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListMIter;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.relation.AbstractPackedVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
 import de.lmu.ifi.dbs.elki.logging.Logging;
@@ -242,7 +243,7 @@ public class KMeansMinusMinus<V extends NumberVector> extends AbstractKMeans<V,
     for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
       double mindist = Double.POSITIVE_INFINITY;
 
-      V fv = relation.get(iditer);
+      NumberVector fv = AbstractPackedVectorRelation.getVector(relation, iditer);
 
       int minIndex = 0;
       for(int i = 0; i < k; i++) {
@@ -284,7 +285,7 @@ public class KMeansMinusMinus<V extends NumberVector> extends AbstractKMeans<V,
         if(iter.doubleValue() >= tresh) {
           continue;
         }
-        NumberVector vec = database.get(iter);
+        NumberVector vec = AbstractPackedVectorRelation.getVector(database, iter);
         if(raw == null) { // Initialize:
           raw = vec.toArray();
         }
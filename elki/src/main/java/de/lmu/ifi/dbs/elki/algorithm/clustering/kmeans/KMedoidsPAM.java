@@ -22,7 +22,9 @@ package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractDistanceBasedAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.ClusteringAlgorithmUtil;
@@ -37,6 +39,8 @@ import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.database.Database;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.DoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.IntegerDataStore;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
@@ -44,6 +48,7 @@ import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDVar;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
@@ -57,11 +62,14 @@ import de.lmu.ifi.dbs.elki.logging.progress.IndefiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.StringStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 
@@ -76,6 +84,18 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
  * in: Statistical Data Analysis Based on the L1-Norm and Related Methods
  * </p>
  *
+ * The swap phase evaluates the cost change of all k medoids for a candidate in
+ * a single pass, which reduces the cost of an iteration from O(k (n-k)^2) to
+ * O((n-k)^2), and candidates are evaluated in parallel. Optionally, the first
+ * improving swap can be performed immediately (eager swapping):
+ * <p>
+ * E. Schubert and P. J. Rousseeuw<br />
+ * Faster k-Medoids Clustering: Improving the PAM, CLARA, and CLARANS
+ * Algorithms<br />
+ * Proc. 12th International Conference on Similarity Search and Applications
+ * (SISAP 2019)
+ * </p>
+ *
  * @author Erich Schubert
  * @since 0.5.0
  *
@@ -99,6 +119,20 @@ public class KMedoidsPAM<V> extends AbstractDistanceBasedAlgorithm<V, Clustering
    */
   private static final String KEY = KMedoidsPAM.class.getName();
 
+  /**
+   * Reference for the accelerated swap phase.
+   */
+  @Reference(authors = "E. Schubert and P. J. Rousseeuw", //
+  title = "Faster k-Medoids Clustering: Improving the PAM, CLARA, and CLARANS Algorithms", //
+  booktitle = "Proc. 12th International Conference on Similarity Search and Applications (SISAP 2019)", //
+  url = "http://dx.doi.org/10.1007/978-3-030-32047-8_16")
+  public static final Void ADDITIONAL_REFERENCE = null;
+
+  /**
+   * Minimum number of swap candidates per parallel task.
+   */
+  private static final int PARALLEL_THRESHOLD = 256;
+
   /**
    * The number of clusters to produce.
    */
@@ -114,6 +148,11 @@ public class KMedoidsPAM<V> extends AbstractDistanceBasedAlgorithm<V, Clustering
    */
   protected KMedoidsInitialization<V> initializer;
 
+  /**
+   * Perform the first improving swap, instead of the best swap.
+   */
+  protected boolean eager;
+
   /**
    * Constructor.
    *
@@ -123,10 +162,24 @@ public class KMedoidsPAM<V> extends AbstractDistanceBasedAlgorithm<V, Clustering
    * @param initializer Function to generate the initial means
    */
   public KMedoidsPAM(DistanceFunction<? super V> distanceFunction, int k, int maxiter, KMedoidsInitialization<V> initializer) {
+    this(distanceFunction, k, maxiter, initializer, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction distance function
+   * @param k k parameter
+   * @param maxiter Maxiter parameter
+   * @param initializer Function to generate the initial means
+   * @param eager Perform the first improving swap, instead of the best swap
+   */
+  public KMedoidsPAM(DistanceFunction<? super V> distanceFunction, int k, int maxiter, KMedoidsInitialization<V> initializer, boolean eager) {
     super(distanceFunction);
     this.k = k;
     this.maxiter = maxiter;
     this.initializer = initializer;
+    this.eager = eager;
   }
 
   /**
@@ -185,6 +238,7 @@ public class KMedoidsPAM<V> extends AbstractDistanceBasedAlgorithm<V, Clustering
    * @param assignment Cluster assignment
    */
   protected void runPAMOptimization(DistanceQuery<V> distQ, DBIDs ids, ArrayModifiableDBIDs medoids, WritableIntegerDataStore assignment) {
+    ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
     WritableDoubleDataStore nearest = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
     WritableDoubleDataStore second = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
     // Initial assignment to nearest medoids
@@ -196,87 +250,84 @@ public class KMedoidsPAM<V> extends AbstractDistanceBasedAlgorithm<V, Clustering
 
     IndefiniteProgress prog = LOG.isVerbose() ? new IndefiniteProgress("PAM iteration", LOG) : null;
     // Swap phase
-    DBIDVar bestid = DBIDUtil.newVar();
-    DBIDArrayIter m = medoids.iter();
+    final ParallelCore core = ParallelCore.getCore();
+    final int parallelism = core.getParallelism();
+    final int chunks = (eager || parallelism <= 1) ? 1 : Math.max(1, Math.min(parallelism << 2, aids.size() / PARALLEL_THRESHOLD));
+    final ArrayList<SwapSearch> searches = new ArrayList<>(chunks);
+    for(int i = 0; i < chunks; i++) {
+      searches.add(new SwapSearch(distQ, aids, i * aids.size() / chunks, (i + 1) * aids.size() / chunks, medoids, nearest, second, assignment));
+    }
+    final double[] cost = new double[k];
     int iteration = 1;
-    double[] cost = new double[k];
-    for(; maxiter <= 0 || iteration <= maxiter; iteration++) {
+    iterations: for(; maxiter <= 0 || iteration <= maxiter; iteration++) {
       LOG.incrementProcessed(prog);
-      // Try to swap a non-medoid with a medoid member:
-      double best = Double.POSITIVE_INFINITY;
-      int bestcluster = -1;
-      // Iterate over all non-medoids:
-      for(DBIDIter h = ids.iter(); h.valid(); h.advance()) {
-        final int pm = assignment.intValue(h);
-        m.seek(pm);
-        double hdist = nearest.doubleValue(h); // Current assignment cost of h.
-        if(DBIDUtil.equal(m, h) || hdist <= 0.) {
-          continue; // Only consider non-selected items
-        }
-        // h is a non-medoid currently in cluster of medoid m.
-        Arrays.fill(cost, -hdist);
-        // Compute costs of reassigning other objects j:
-        for(DBIDIter j = ids.iter(); j.valid(); j.advance()) {
-          if(DBIDUtil.equal(h, j)) {
+      if(eager) {
+        // Perform every improving swap immediately.
+        int swaps = 0;
+        DBIDArrayIter m = medoids.iter();
+        for(DBIDArrayIter h = aids.iter(); h.valid(); h.advance()) {
+          if(!computeReassignmentCost(distQ, aids, h, m, nearest, second, assignment, cost)) {
             continue;
           }
-          final int pj = assignment.intValue(j);
-          // distance(j, i) for pi == pj
-          final double distcur = nearest.doubleValue(j);
-          // second nearest, alternative reassignment
-          final double distsec = second.doubleValue(j);
-          // distance(j, h), the possible reassignment
-          final double dist_h = distQ.distance(h, j);
-          // We moved this distance computation out compared to original PAM.
-          if(dist_h < distcur) {
-            for(int pi = 0; pi < k; pi++) {
-              if(pi == pj) { // The current nearest is lost.
-                cost[pi] += ((dist_h < distsec) ? //
-                dist_h // Case 1b1) j is closer to h
-                : distsec // Case 1b2) j would switch to its second nearest
-                ) - distcur;
-              }
-              else { // Case 1c) j is closer to h than its current medoid
-                cost[pi] += dist_h - distcur;
-              } // else Case 1a): j is closer to i than h and m, so no change.
-            }
+          int pi = argmin(cost);
+          if(cost[pi] >= 0.) {
+            continue;
           }
-          else { // Only need to consider pi == pj
-            if(dist_h < distsec) {
-              // Case 1b1) j is closer to h
-              cost[pj] += dist_h - distcur;
-            }
-            else {
-              // Case 1b2) j would switch to its second nearest
-              cost[pj] += distsec - distcur;
-            }
+          medoids.set(pi, h);
+          double nc = assignToNearestCluster(medoids, ids, nearest, second, assignment, distQ);
+          // Stop on numerical problems, to avoid cycling.
+          if(!checkImprovement(tc, nc, cost[pi]) || nc == tc) {
+            break iterations;
           }
+          tc = nc;
+          ++swaps;
+        }
+        if(LOG.isStatistics()) {
+          LOG.statistics(new DoubleStatistic(KEY + ".iteration-" + iteration + ".cost", tc));
+          LOG.statistics(new LongStatistic(KEY + ".iteration-" + iteration + ".swaps", swaps));
+        }
+        if(swaps == 0) {
+          break;
+        }
+        continue;
+      }
+      // Find the best swap, in parallel when possible.
+      if(chunks > 1) {
+        for(SwapSearch search : searches) {
+          search.reinitialize();
         }
+        core.connect();
+        try {
+          core.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
 
-        // Consider all possible swaps:
-        for(int pi = 0; pi < k; pi++) {
-          if(cost[pi] < best) {
-            best = cost[pi];
-            bestid.set(h);
-            bestcluster = pi;
-          }
+            @Override
+            protected void compute() {
+              invokeAll(searches);
+            }
+          });
         }
+        finally {
+          core.disconnect();
+        }
+      }
+      else {
+        searches.get(0).compute();
       }
-      if(best >= 0.) {
+      SwapSearch best = searches.get(0);
+      for(SwapSearch search : searches) {
+        best = search.best < best.best ? search : best;
+      }
+      if(best.best >= 0.) {
         break;
       }
-      medoids.set(bestcluster, bestid);
+      medoids.set(best.bestcluster, best.bestid);
       // Reassign
       double nc = assignToNearestCluster(medoids, ids, nearest, second, assignment, distQ);
       if(LOG.isStatistics()) {
         LOG.statistics(new DoubleStatistic(KEY + ".iteration-" + iteration + ".cost", nc));
       }
-      if(nc > tc) {
-        if(nc - tc < 1e-7 * tc) {
-          LOG.warning("PAM failed to converge (numerical instability?)");
-          break;
-        }
-        LOG.warning("PAM failed to converge: costs increased by: " + (nc - tc) + " exepected a decrease by " + best);
+      if(!checkImprovement(tc, nc, best.best)) {
         break;
       }
       tc = nc;
@@ -288,6 +339,197 @@ public class KMedoidsPAM<V> extends AbstractDistanceBasedAlgorithm<V, Clustering
     }
   }
 
+  /**
+   * Search for the best swap, for a range of candidates.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private class SwapSearch extends RecursiveAction {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Distance query.
+     */
+    final DistanceQuery<V> distQ;
+
+    /**
+     * Object ids.
+     */
+    final ArrayDBIDs ids;
+
+    /**
+     * Candidate range.
+     */
+    final int start, end;
+
+    /**
+     * Current medoids.
+     */
+    final ArrayDBIDs medoids;
+
+    /**
+     * Distance to the nearest and second nearest medoid.
+     */
+    final DoubleDataStore nearest, second;
+
+    /**
+     * Cluster assignment.
+     */
+    final IntegerDataStore assignment;
+
+    /**
+     * Cost changes, for each medoid.
+     */
+    final double[] cost = new double[k];
+
+    /**
+     * Best cost change found.
+     */
+    double best;
+
+    /**
+     * Best swap candidate.
+     */
+    DBIDVar bestid = DBIDUtil.newVar();
+
+    /**
+     * Medoid to replace.
+     */
+    int bestcluster;
+
+    /**
+     * Constructor.
+     *
+     * @param distQ Distance query
+     * @param ids Object ids
+     * @param start First candidate offset
+     * @param end End offset (exclusive)
+     * @param medoids Current medoids
+     * @param nearest Distance to nearest medoid
+     * @param second Distance to second nearest medoid
+     * @param assignment Cluster assignment
+     */
+    SwapSearch(DistanceQuery<V> distQ, ArrayDBIDs ids, int start, int end, ArrayDBIDs medoids, DoubleDataStore nearest, DoubleDataStore second, IntegerDataStore assignment) {
+      this.distQ = distQ;
+      this.ids = ids;
+      this.start = start;
+      this.end = end;
+      this.medoids = medoids;
+      this.nearest = nearest;
+      this.second = second;
+      this.assignment = assignment;
+    }
+
+    @Override
+    protected void compute() {
+      best = Double.POSITIVE_INFINITY;
+      bestcluster = -1;
+      DBIDArrayIter m = medoids.iter();
+      for(DBIDArrayIter h = ids.iter().seek(start); h.getOffset() < end; h.advance()) {
+        if(!computeReassignmentCost(distQ, ids, h, m, nearest, second, assignment, cost)) {
+          continue;
+        }
+        // Consider all possible swaps:
+        for(int pi = 0; pi < k; pi++) {
+          if(cost[pi] < best) {
+            best = cost[pi];
+            bestid.set(h);
+            bestcluster = pi;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Verify that a swap decreased the costs.
+   *
+   * @param tc Previous cost
+   * @param nc New cost
+   * @param expected Expected change
+   * @return {@code true} if the optimization can continue
+   */
+  private static boolean checkImprovement(double tc, double nc, double expected) {
+    if(nc > tc) {
+      if(nc - tc < 1e-7 * tc) {
+        LOG.warning("PAM failed to converge (numerical instability?)");
+        return false;
+      }
+      LOG.warning("PAM failed to converge: costs increased by: " + (nc - tc) + " exepected a decrease by " + expected);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Find the index of the smallest value.
+   *
+   * @param cost Costs
+   * @return Index of the minimum
+   */
+  private static int argmin(double[] cost) {
+    int best = 0;
+    for(int pi = 1; pi < cost.length; pi++) {
+      best = cost[pi] < cost[best] ? pi : best;
+    }
+    return best;
+  }
+
+  /**
+   * Compute the change in total deviation when swapping the non-medoid h with
+   * each of the medoids.
+   *
+   * Rather than evaluating each (medoid, non-medoid) pair independently, the
+   * changes for all medoids are computed in a single pass over the data, using
+   * the stored distances to the nearest and second nearest medoid: the loss of
+   * the nearest medoid only affects the cost of the medoid's own cluster, while
+   * objects closer to h than to their medoid improve for every other swap.
+   *
+   * @param distQ Distance query
+   * @param ids Object ids
+   * @param h Swap candidate
+   * @param m Medoid iterator, will be modified
+   * @param nearest Distance to nearest medoid
+   * @param second Distance to second nearest medoid
+   * @param assignment Cluster assignment
+   * @param cost Output: cost change for each medoid
+   * @return {@code false} if h is a medoid (or a duplicate), and was skipped.
+   */
+  protected boolean computeReassignmentCost(DistanceQuery<V> distQ, DBIDs ids, DBIDRef h, DBIDArrayIter m, DoubleDataStore nearest, DoubleDataStore second, IntegerDataStore assignment, double[] cost) {
+    // Current assignment cost of h.
+    if(DBIDUtil.equal(m.seek(assignment.intValue(h)), h) || nearest.doubleValue(h) <= 0.) {
+      return false; // Only consider non-selected items
+    }
+    Arrays.fill(cost, 0.);
+    double acc = 0.;
+    for(DBIDIter j = ids.iter(); j.valid(); j.advance()) {
+      final int pj = assignment.intValue(j);
+      // distance(j, i) for pi == pj
+      final double distcur = nearest.doubleValue(j);
+      // second nearest, alternative reassignment
+      final double distsec = second.doubleValue(j);
+      // distance(j, h), the possible reassignment
+      final double dist_h = distQ.distance(h, j);
+      // Case 1b) The current nearest is lost, j moves to h or its second nearest
+      cost[pj] += ((dist_h < distsec) ? dist_h : distsec) - distcur;
+      if(dist_h < distcur) {
+        // Case 1c) j is closer to h than its current medoid, for all pi != pj
+        final double delta = dist_h - distcur;
+        acc += delta;
+        cost[pj] -= delta;
+      } // else Case 1a): j is closer to i than h and m, so no change.
+    }
+    for(int pi = 0; pi < cost.length; pi++) {
+      cost[pi] += acc;
+    }
+    return true;
+  }
+
   /**
    * Returns a list of clusters. The k<sup>th</sup> cluster contains the ids of
    * those FeatureVectors, that are nearest to the k<sup>th</sup> mean.
@@ -348,6 +590,11 @@ public class KMedoidsPAM<V> extends AbstractDistanceBasedAlgorithm<V, Clustering
    * @apiviz.exclude
    */
   public static class Parameterizer<V> extends AbstractDistanceBasedAlgorithm.Parameterizer<V> {
+    /**
+     * Flag to perform the first improving swap, instead of the best swap.
+     */
+    public static final OptionID EAGER_ID = new OptionID("pam.eager", "Perform the first improving swap found, instead of searching the best swap in each iteration.");
+
     /**
      * The number of clusters to produce.
      */
@@ -363,6 +610,11 @@ public class KMedoidsPAM<V> extends AbstractDistanceBasedAlgorithm<V, Clustering
      */
     protected KMedoidsInitialization<V> initializer;
 
+    /**
+     * Perform the first improving swap, instead of the best swap.
+     */
+    protected boolean eager;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -382,11 +634,16 @@ public class KMedoidsPAM<V> extends AbstractDistanceBasedAlgorithm<V, Clustering
       if(config.grab(maxiterP)) {
         maxiter = maxiterP.intValue();
       }
+
+      Flag eagerF = new Flag(EAGER_ID);
+      if(config.grab(eagerF)) {
+        eager = eagerF.isTrue();
+      }
     }
 
     @Override
     protected KMedoidsPAM<V> makeInstance() {
-      return new KMedoidsPAM<>(distanceFunction, k, maxiter, initializer);
+      return new KMedoidsPAM<>(distanceFunction, k, maxiter, initializer, eager);
     }
   }
 }
@@ -172,7 +172,9 @@ public class XMeans<V extends NumberVector, M extends MeanModel> extends Abstrac
       prog.setProcessed(k_min, LOG);
     }
 
-    ArrayList<Cluster<M>> clusters = new ArrayList<>(clustering.getAllClusters());
+    // Use the top level clusters in their original order: getAllClusters()
+    // sorts by name, and k-means clusters have no names to distinguish them.
+    ArrayList<Cluster<M>> clusters = new ArrayList<>(clustering.getToplevelClusters());
     while(clusters.size() <= k_max) {
       // Improve-Structure:
       ArrayList<Cluster<M>> nextClusters = new ArrayList<>();
@@ -198,7 +200,7 @@ public class XMeans<V extends NumberVector, M extends MeanModel> extends Abstrac
       innerKMeans.setK(nextClusters.size());
       clustering = innerKMeans.run(database, relation);
       clusters.clear();
-      clusters.addAll(clustering.getAllClusters());
+      clusters.addAll(clustering.getToplevelClusters());
     }
 
     // Ensure that the progress bar finished.
@@ -251,7 +253,7 @@ public class XMeans<V extends NumberVector, M extends MeanModel> extends Abstrac
     }
 
     // Check if split is an improvement:
-    return (childrenEvaluation > parentEvaluation) ^ informationCriterion.ascending() ? parentClusterList : childClustering.getAllClusters();
+    return (childrenEvaluation > parentEvaluation) ^ informationCriterion.ascending() ? parentClusterList : childClustering.getToplevelClusters();
   }
 
   /**
@@ -0,0 +1,396 @@
+package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.parallel;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDVar;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+
+/**
+ * Common base for parallel k-means processors that maintain distance bounds,
+ * such as Elkan's and Hamerly's algorithms.
+ *
+ * Each block of the data keeps the changes to the cluster sums and sizes
+ * caused by its reassignments. These partial results are merged in the order
+ * of the blocks (not in the order the threads finish), so the result does not
+ * depend on thread scheduling.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ *
+ * @apiviz.has Instance
+ *
+ * @param <V> Vector type
+ */
+public abstract class AbstractKMeansBoundsProcessor<V extends NumberVector> implements Processor {
+  /**
+   * Data relation.
+   */
+  Relation<V> relation;
+
+  /**
+   * Distance function.
+   */
+  NumberVectorDistanceFunction<? super V> distance;
+
+  /**
+   * Assignment storage.
+   */
+  WritableIntegerDataStore assignment;
+
+  /**
+   * Upper bounds.
+   */
+  WritableDoubleDataStore upper;
+
+  /**
+   * Half the separation of each mean to its nearest other mean.
+   */
+  double[] sep;
+
+  /**
+   * Half the distances between means, {@code null} unless needed.
+   */
+  double[][] cdist;
+
+  /**
+   * Current mean vectors.
+   */
+  double[][] means;
+
+  /**
+   * Movement of the means in the previous iteration, {@code null} in the
+   * first iteration.
+   */
+  double[] move;
+
+  /**
+   * Maximum movement of any mean in the previous iteration.
+   */
+  double delta;
+
+  /**
+   * Cluster sums.
+   */
+  double[][] sums;
+
+  /**
+   * Cluster sizes.
+   */
+  int[] sizes;
+
+  /**
+   * Partial results of the current iteration.
+   */
+  List<Instance<V>> partials = new ArrayList<>();
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param distance Distance function
+   * @param assignment Cluster assignment
+   * @param means Initial means
+   */
+  public AbstractKMeansBoundsProcessor(Relation<V> relation, NumberVectorDistanceFunction<? super V> distance, WritableIntegerDataStore assignment, double[][] means) {
+    super();
+    this.relation = relation;
+    this.distance = distance;
+    this.assignment = assignment;
+    this.upper = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, Double.POSITIVE_INFINITY);
+    this.means = means;
+    this.sep = new double[means.length];
+    this.sums = new double[means.length][means[0].length];
+    this.sizes = new int[means.length];
+  }
+
+  /**
+   * Initialize for a new iteration.
+   */
+  public void nextIteration() {
+    if(move != null) {
+      recomputeSeparation();
+    }
+  }
+
+  /**
+   * Recompute the separation of cluster means, and the half distances
+   * between means if {@link #cdist} is used.
+   */
+  protected void recomputeSeparation() {
+    final int k = means.length;
+    final boolean issquared = isSquared();
+    Arrays.fill(sep, Double.POSITIVE_INFINITY);
+    for(int i = 1; i < k; i++) {
+      DoubleVector mi = DoubleVector.wrap(means[i]);
+      for(int j = 0; j < i; j++) {
+        double d = distance.distance(mi, DoubleVector.wrap(means[j]));
+        d = issquared ? Math.sqrt(d) : d;
+        d *= .5;
+        if(cdist != null) {
+          cdist[i][j] = d;
+          cdist[j][i] = d;
+        }
+        sep[i] = (d < sep[i]) ? d : sep[i];
+        sep[j] = (d < sep[j]) ? d : sep[j];
+      }
+    }
+  }
+
+  /**
+   * Test whether the distance function needs a square root to be a metric.
+   *
+   * @return {@code true} for squared Euclidean distance
+   */
+  protected boolean isSquared() {
+    return distance instanceof SquaredEuclideanDistanceFunction;
+  }
+
+  @Override
+  public void cleanup(Processor.Instance inst) {
+    @SuppressWarnings("unchecked")
+    Instance<V> instance = (Instance<V>) inst;
+    if(!instance.first.isSet()) {
+      return; // Empty block.
+    }
+    synchronized(this) {
+      partials.add(instance);
+    }
+  }
+
+  /**
+   * Merge the partial results of the current iteration.
+   *
+   * @return Number of reassigned objects
+   */
+  public int finishIteration() {
+    // Merge in block order, for deterministic results.
+    Collections.sort(partials, new Comparator<Instance<V>>() {
+      @Override
+      public int compare(Instance<V> o1, Instance<V> o2) {
+        return DBIDUtil.compare(o1.first, o2.first);
+      }
+    });
+    int changed = 0;
+    for(Instance<V> inst : partials) {
+      changed += inst.changed;
+      for(int i = 0; i < sizes.length; i++) {
+        sizes[i] += inst.sizes[i];
+        double[] sum = sums[i], psum = inst.sums[i];
+        for(int d = 0; d < sum.length; d++) {
+          sum[d] += psum[d];
+        }
+      }
+    }
+    partials.clear();
+    return changed;
+  }
+
+  /**
+   * Recompute the means from the cluster sums, and compute the distance each
+   * mean moved. Empty clusters keep their previous mean.
+   *
+   * @return Maximum distance moved
+   */
+  public double updateMeans() {
+    final boolean issquared = isSquared();
+    final int k = means.length;
+    if(move == null) {
+      move = new double[k];
+    }
+    double max = 0.;
+    for(int i = 0; i < k; i++) {
+      if(sizes[i] == 0) {
+        move[i] = 0.;
+        continue;
+      }
+      double[] newmean = sums[i].clone();
+      final double s = 1. / sizes[i];
+      for(int d = 0; d < newmean.length; d++) {
+        newmean[d] *= s;
+      }
+      double m = distance.distance(DoubleVector.wrap(means[i]), DoubleVector.wrap(newmean));
+      m = issquared ? Math.sqrt(m) : m;
+      move[i] = m;
+      max = (m > max) ? m : max;
+      means[i] = newmean;
+    }
+    return delta = max;
+  }
+
+  /**
+   * Get the current means.
+   *
+   * @return Means
+   */
+  public double[][] getMeans() {
+    return means;
+  }
+
+  /**
+   * Release the bound storage.
+   */
+  public void destroy() {
+    upper.destroy();
+  }
+
+  /**
+   * Instance to process part of the data set, for a single iteration.
+   *
+   * @author Erich Schubert
+   *
+   * @param <V> Vector type
+   */
+  public abstract static class Instance<V extends NumberVector> implements Processor.Instance {
+    /**
+     * First object processed, to order the partial results.
+     */
+    DBIDVar first = DBIDUtil.newVar();
+
+    /**
+     * Changes to the cluster sums.
+     */
+    double[][] sums;
+
+    /**
+     * Changes to the cluster sizes.
+     */
+    int[] sizes;
+
+    /**
+     * Number of reassigned objects.
+     */
+    int changed = 0;
+
+    /**
+     * Data relation.
+     */
+    protected Relation<V> relation;
+
+    /**
+     * Distance function.
+     */
+    protected NumberVectorDistanceFunction<? super V> distance;
+
+    /**
+     * Squared Euclidean distance.
+     */
+    protected boolean issquared;
+
+    /**
+     * Cluster assignment storage.
+     */
+    protected WritableIntegerDataStore assignment;
+
+    /**
+     * Upper bounds.
+     */
+    protected WritableDoubleDataStore upper;
+
+    /**
+     * Current mean vectors.
+     */
+    protected double[][] means;
+
+    /**
+     * Movement of means, and half separation of means.
+     */
+    protected double[] move, sep;
+
+    /**
+     * Constructor.
+     *
+     * @param parent Parent processor
+     */
+    public Instance(AbstractKMeansBoundsProcessor<V> parent) {
+      super();
+      final int k = parent.means.length;
+      this.sums = new double[k][parent.means[0].length];
+      this.sizes = new int[k];
+      this.relation = parent.relation;
+      this.distance = parent.distance;
+      this.issquared = parent.isSquared();
+      this.assignment = parent.assignment;
+      this.upper = parent.upper;
+      this.means = parent.means;
+      this.move = parent.move;
+      this.sep = parent.sep;
+    }
+
+    @Override
+    public void map(DBIDRef id) {
+      if(!first.isSet()) {
+        first.set(id);
+      }
+      process(id);
+    }
+
+    /**
+     * Process a single object.
+     *
+     * @param id Object
+     */
+    protected abstract void process(DBIDRef id);
+
+    /**
+     * Move an object to a different cluster.
+     *
+     * @param fv Object vector
+     * @param from Previous cluster, or -1
+     * @param to New cluster
+     */
+    protected void reassign(NumberVector fv, int from, int to) {
+      double[] newsum = sums[to];
+      for(int d = 0; d < newsum.length; d++) {
+        newsum[d] += fv.doubleValue(d);
+      }
+      ++sizes[to];
+      if(from >= 0) {
+        double[] oldsum = sums[from];
+        for(int d = 0; d < oldsum.length; d++) {
+          oldsum[d] -= fv.doubleValue(d);
+        }
+        --sizes[from];
+      }
+      ++changed;
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.parallel;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2016
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.ClusteringAlgorithmUtil;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.AbstractKMeans;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeansElkan;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.KMeansInitialization;
+import de.lmu.ifi.dbs.elki.data.Cluster;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.model.KMeansModel;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.relation.AbstractPackedVectorRelation;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.IndefiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.StringStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
+
+/**
+ * Common iteration loop of the parallel k-means variants that use the
+ * triangle inequality to maintain distance bounds, such as Elkan's and
+ * Hamerly's algorithms.
+ *
+ * The assignment and bound updates are run in parallel blocks. The partial
+ * cluster sums are merged in block order, so the result does not depend on
+ * thread scheduling. But the blocks depend on the number of threads, and
+ * floating point sums depend on the order of addition, so results are only
+ * reproducible for a fixed thread count.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ *
+ * @apiviz.has AbstractKMeansBoundsProcessor
+ *
+ * @param <V> Vector type
+ */
+public abstract class AbstractParallelKMeansBounds<V extends NumberVector> extends AbstractKMeans<V, KMeansModel> {
+  /**
+   * Flag whether to compute the final variance statistic.
+   */
+  protected boolean varstat = false;
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction distance function
+   * @param k k parameter
+   * @param maxiter Maxiter parameter
+   * @param initializer Initialization method
+   * @param varstat Compute the variance statistic
+   */
+  public AbstractParallelKMeansBounds(NumberVectorDistanceFunction<? super V> distanceFunction, int k, int maxiter, KMeansInitialization<? super V> initializer, boolean varstat) {
+    super(distanceFunction, k, maxiter, initializer);
+    this.varstat = varstat;
+  }
+
+  @Override
+  public Clustering<KMeansModel> run(Database database, Relation<V> relation) {
+    if(relation.size() <= 0) {
+      return new Clustering<>("k-Means Clustering", "kmeans-clustering");
+    }
+    final Logging log = getLogger();
+    final String key = getClass().getName();
+    DBIDs ids = relation.getDBIDs();
+    // Choose initial means
+    if(log.isStatistics()) {
+      log.statistics(new StringStatistic(key + ".initialization", initializer.toString()));
+    }
+    double[][] means = initializer.chooseInitialMeans(database, relation, k, getDistanceFunction());
+    WritableIntegerDataStore assignment = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, -1);
+    AbstractKMeansBoundsProcessor<V> kmm = makeProcessor(relation, assignment, means);
+
+    IndefiniteProgress prog = log.isVerbose() ? new IndefiniteProgress("K-Means iteration", log) : null;
+    LongStatistic rstat = log.isStatistics() ? new LongStatistic(key + ".reassignments") : null;
+    int iteration = 0;
+    for(; maxiter <= 0 || iteration < maxiter; iteration++) {
+      log.incrementProcessed(prog);
+      kmm.nextIteration();
+      ParallelExecutor.run(ids, kmm);
+      int changed = kmm.finishIteration();
+      if(rstat != null) {
+        rstat.setLong(changed);
+        log.statistics(rstat);
+      }
+      // Stop if no cluster assignment changed.
+      if(changed == 0) {
+        break;
+      }
+      kmm.updateMeans();
+    }
+    log.setCompleted(prog);
+    if(log.isStatistics()) {
+      log.statistics(new LongStatistic(key + ".iterations", iteration));
+    }
+    kmm.destroy();
+    means = kmm.getMeans();
+
+    // Wrap result
+    ArrayModifiableDBIDs[] clusters = ClusteringAlgorithmUtil.partitionsFromIntegerLabels(ids, assignment, k);
+    double totalvariance = 0.;
+    Clustering<KMeansModel> result = new Clustering<>("k-Means Clustering", "kmeans-clustering");
+    for(int i = 0; i < clusters.length; i++) {
+      DBIDs cids = clusters[i];
+      if(cids.size() == 0) {
+        continue;
+      }
+      double[] mean = means[i];
+      double varsum = 0.;
+      if(varstat) {
+        DoubleVector mvec = DoubleVector.wrap(mean);
+        for(DBIDIter it = cids.iter(); it.valid(); it.advance()) {
+          varsum += distanceFunction.distance(mvec, AbstractPackedVectorRelation.getVector(relation, it));
+        }
+        totalvariance += varsum;
+      }
+      KMeansModel model = new KMeansModel(mean, varsum);
+      result.addToplevelCluster(new Cluster<>(cids, model));
+    }
+    if(log.isStatistics() && varstat) {
+      log.statistics(new DoubleStatistic(key + ".variance-sum", totalvariance));
+    }
+    return result;
+  }
+
+  /**
+   * Make the processor for the parallel iterations, which allocates the
+   * distance bounds.
+   *
+   * @param relation Data relation
+   * @param assignment Cluster assignment
+   * @param means Initial means
+   * @return Processor
+   */
+  protected abstract AbstractKMeansBoundsProcessor<V> makeProcessor(Relation<V> relation, WritableIntegerDataStore assignment, double[][] means);
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   *
+   * @param <V> Vector type
+   */
+  public abstract static class Parameterizer<V extends NumberVector> extends AbstractKMeans.Parameterizer<V> {
+    /**
+     * Compute the final variance statisic.
+     */
+    protected boolean varstat = false;
+
+    @Override
+    protected void getParameterDistanceFunction(Parameterization config) {
+      super.getParameterDistanceFunction(config);
+      if(distanceFunction instanceof SquaredEuclideanDistanceFunction) {
+        return; // Proper choice.
+      }
+      if(distanceFunction != null && !distanceFunction.isMetric()) {
+        getLogger().warning("k-means with distance bounds requires a metric distance, and k-means should only be used with squared Euclidean distance!");
+      }
+    }
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      super.makeOptions(config);
+      Flag varF = new Flag(KMeansElkan.Parameterizer.VARSTAT_ID);
+      if(config.grab(varF)) {
+        varstat = varF.isTrue();
+      }
+    }
+  }
+}
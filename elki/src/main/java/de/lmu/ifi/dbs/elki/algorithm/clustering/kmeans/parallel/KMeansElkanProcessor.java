@@ -0,0 +1,190 @@
+package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.parallel;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.relation.AbstractPackedVectorRelation;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+
+/**
+ * Parallel processor for Elkan's k-means. The bounds are adjusted for the
+ * movement of the means lazily, when the object is visited.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ *
+ * @apiviz.has Instance
+ *
+ * @param <V> Vector type
+ */
+public class KMeansElkanProcessor<V extends NumberVector> extends AbstractKMeansBoundsProcessor<V> {
+  /**
+   * Lower bounds, one per cluster.
+   */
+  WritableDataStore<double[]> lower;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param distance Distance function
+   * @param assignment Cluster assignment
+   * @param means Initial means
+   */
+  public KMeansElkanProcessor(Relation<V> relation, NumberVectorDistanceFunction<? super V> distance, WritableIntegerDataStore assignment, double[][] means) {
+    super(relation, distance, assignment, means);
+    final int k = means.length;
+    this.cdist = new double[k][k];
+    this.lower = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, double[].class);
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      lower.put(it, new double[k]); // Filled with 0.
+    }
+  }
+
+  @Override
+  public void destroy() {
+    super.destroy();
+    lower.destroy();
+  }
+
+  @Override
+  public Instance<V> instantiate(Executor executor) {
+    return new Instance<>(this);
+  }
+
+  /**
+   * Instance to process part of the data set, for a single iteration.
+   *
+   * @author Erich Schubert
+   *
+   * @param <V> Vector type
+   */
+  public static class Instance<V extends NumberVector> extends AbstractKMeansBoundsProcessor.Instance<V> {
+    /**
+     * Lower bounds.
+     */
+    private WritableDataStore<double[]> lower;
+
+    /**
+     * Half distances of means.
+     */
+    private double[][] cdist;
+
+    /**
+     * Constructor.
+     *
+     * @param parent Parent processor
+     */
+    public Instance(KMeansElkanProcessor<V> parent) {
+      super(parent);
+      this.lower = parent.lower;
+      this.cdist = parent.cdist;
+    }
+
+    @Override
+    protected void process(DBIDRef id) {
+      final int k = means.length;
+      final int orig = assignment.intValue(id);
+      double[] l = lower.get(id);
+      if(orig < 0) {
+        initialAssign(id, l);
+        return;
+      }
+      // Adjust bounds for the movement of the means:
+      double u = upper.doubleValue(id) + move[orig];
+      for(int j = 0; j < k; j++) {
+        l[j] -= move[j];
+      }
+      // Upper bound check (#2):
+      if(u <= sep[orig]) {
+        upper.putDouble(id, u);
+        return;
+      }
+      boolean recompute_u = true; // Elkan's r(x)
+      NumberVector fv = AbstractPackedVectorRelation.getVector(relation, id);
+      // Check all (other) means:
+      int cur = orig;
+      for(int j = 0; j < k; j++) {
+        if(orig == j || u <= l[j] || u <= cdist[cur][j]) {
+          continue; // Condition #3 i-iii not satisfied
+        }
+        if(recompute_u) { // Need to update bound? #3a
+          u = distance.distance(fv, DoubleVector.wrap(means[cur]));
+          u = issquared ? Math.sqrt(u) : u;
+          recompute_u = false; // Once only
+          if(u <= l[j] || u <= cdist[cur][j]) { // #3b
+            continue;
+          }
+        }
+        double dist = distance.distance(fv, DoubleVector.wrap(means[j]));
+        dist = issquared ? Math.sqrt(dist) : dist;
+        l[j] = dist;
+        if(dist < u) {
+          cur = j;
+          u = dist;
+        }
+      }
+      upper.putDouble(id, u);
+      // Object is to be reassigned.
+      if(cur != orig) {
+        assignment.putInt(id, cur);
+        reassign(fv, orig, cur);
+      }
+    }
+
+    /**
+     * Initial assignment of an object.
+     *
+     * @param id Object
+     * @param l Lower bounds
+     */
+    private void initialAssign(DBIDRef id, double[] l) {
+      NumberVector fv = AbstractPackedVectorRelation.getVector(relation, id);
+      double best = Double.POSITIVE_INFINITY;
+      int cur = -1;
+      for(int j = 0; j < means.length; j++) {
+        double dist = distance.distance(fv, DoubleVector.wrap(means[j]));
+        dist = issquared ? Math.sqrt(dist) : dist;
+        l[j] = dist;
+        if(dist < best) {
+          cur = j;
+          best = dist;
+        }
+      }
+      assignment.putInt(id, cur);
+      upper.putDouble(id, best);
+      reassign(fv, -1, cur);
+    }
+  }
+}
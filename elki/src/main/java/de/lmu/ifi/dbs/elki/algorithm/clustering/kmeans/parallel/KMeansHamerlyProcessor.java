@@ -0,0 +1,173 @@
+package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.parallel;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.relation.AbstractPackedVectorRelation;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+
+/**
+ * Parallel processor for Hamerly's k-means. The bounds are adjusted for the
+ * movement of the means lazily, when the object is visited.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ *
+ * @apiviz.has Instance
+ *
+ * @param <V> Vector type
+ */
+public class KMeansHamerlyProcessor<V extends NumberVector> extends AbstractKMeansBoundsProcessor<V> {
+  /**
+   * Lower bounds.
+   */
+  WritableDoubleDataStore lower;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param distance Distance function
+   * @param assignment Cluster assignment
+   * @param means Initial means
+   */
+  public KMeansHamerlyProcessor(Relation<V> relation, NumberVectorDistanceFunction<? super V> distance, WritableIntegerDataStore assignment, double[][] means) {
+    super(relation, distance, assignment, means);
+    this.lower = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
+  }
+
+  @Override
+  public void destroy() {
+    super.destroy();
+    lower.destroy();
+  }
+
+  @Override
+  public Instance<V> instantiate(Executor executor) {
+    return new Instance<>(this);
+  }
+
+  /**
+   * Instance to process part of the data set, for a single iteration.
+   *
+   * @author Erich Schubert
+   *
+   * @param <V> Vector type
+   */
+  public static class Instance<V extends NumberVector> extends AbstractKMeansBoundsProcessor.Instance<V> {
+    /**
+     * Lower bounds.
+     */
+    private WritableDoubleDataStore lower;
+
+    /**
+     * Maximum movement.
+     */
+    private double delta;
+
+    /**
+     * Constructor.
+     *
+     * @param parent Parent processor
+     */
+    public Instance(KMeansHamerlyProcessor<V> parent) {
+      super(parent);
+      this.lower = parent.lower;
+      this.delta = parent.delta;
+    }
+
+    @Override
+    protected void process(DBIDRef id) {
+      final int cur = assignment.intValue(id);
+      if(cur < 0) {
+        NumberVector fv = AbstractPackedVectorRelation.getVector(relation, id);
+        assignNearest(id, fv, -1);
+        return;
+      }
+      // Adjust bounds for the movement of the means:
+      double u = upper.doubleValue(id) + move[cur];
+      final double z = lower.doubleValue(id) - delta;
+      final double sa = sep[cur];
+      if(u <= z || u <= sa) {
+        upper.putDouble(id, u);
+        lower.putDouble(id, z);
+        return;
+      }
+      // Update the upper bound
+      NumberVector fv = AbstractPackedVectorRelation.getVector(relation, id);
+      u = distance.distance(fv, DoubleVector.wrap(means[cur]));
+      u = issquared ? Math.sqrt(u) : u;
+      if(u <= z || u <= sa) {
+        upper.putDouble(id, u);
+        lower.putDouble(id, z);
+        return;
+      }
+      assignNearest(id, fv, cur);
+    }
+
+    /**
+     * Assign the object to the nearest mean, and set both bounds.
+     *
+     * @param id Object
+     * @param fv Object vector
+     * @param cur Current assignment, or -1
+     */
+    private void assignNearest(DBIDRef id, NumberVector fv, int cur) {
+      // Find closest center, and distance to two closest centers
+      double min1 = Double.POSITIVE_INFINITY, min2 = Double.POSITIVE_INFINITY;
+      int minIndex = -1;
+      for(int i = 0; i < means.length; i++) {
+        double dist = distance.distance(fv, DoubleVector.wrap(means[i]));
+        if(dist < min1) {
+          minIndex = i;
+          min2 = min1;
+          min1 = dist;
+        }
+        else if(dist < min2) {
+          min2 = dist;
+        }
+      }
+      // make squared Euclidean a metric:
+      if(issquared) {
+        min1 = Math.sqrt(min1);
+        min2 = Math.sqrt(min2);
+      }
+      if(minIndex != cur) {
+        assignment.putInt(id, minIndex);
+        reassign(fv, cur, minIndex);
+      }
+      upper.putDouble(id, min1);
+      lower.putDouble(id, min2);
+    }
+  }
+}
@@ -32,6 +32,7 @@ import de.lmu.ifi.dbs.elki.data.DoubleVector;
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.relation.AbstractPackedVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
 import de.lmu.ifi.dbs.elki.parallel.Executor;
@@ -245,7 +246,7 @@ public class KMeansProcessor<V extends NumberVector> implements Processor {
 
     @Override
     public void map(DBIDRef id) {
-      final V fv = relation.get(id);
+      final NumberVector fv = AbstractPackedVectorRelation.getVector(relation, id);
       // Find minimum:
       double mindist = Double.POSITIVE_INFINITY;
       int minIndex = 0;
@@ -0,0 +1,110 @@
+package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.parallel;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.KMeansInitialization;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+
+/**
+ * Parallel implementation of Elkan's fast k-means.
+ *
+ * The assignment and bound updates are run in parallel blocks. The partial
+ * cluster sums are merged in block order, so the result does not depend on
+ * thread scheduling; results are only reproducible for a fixed number of
+ * threads, though, see {@link AbstractParallelKMeansBounds}.
+ *
+ * <p>
+ * Reference:<br />
+ * C. Elkan<br/>
+ * Using the triangle inequality to accelerate k-means<br/>
+ * Proc. 20th International Conference on Machine Learning, ICML 2003
+ * </p>
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ *
+ * @apiviz.has KMeansElkanProcessor
+ *
+ * @param <V> Vector type
+ */
+@Reference(authors = "C. Elkan", //
+title = "Using the triangle inequality to accelerate k-means", //
+booktitle = "Proc. 20th International Conference on Machine Learning, ICML 2003", //
+url = "http://www.aaai.org/Library/ICML/2003/icml03-022.php")
+public class ParallelKMeansElkan<V extends NumberVector> extends AbstractParallelKMeansBounds<V> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelKMeansElkan.class);
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction distance function
+   * @param k k parameter
+   * @param maxiter Maxiter parameter
+   * @param initializer Initialization method
+   * @param varstat Compute the variance statistic
+   */
+  public ParallelKMeansElkan(NumberVectorDistanceFunction<? super V> distanceFunction, int k, int maxiter, KMeansInitialization<? super V> initializer, boolean varstat) {
+    super(distanceFunction, k, maxiter, initializer, varstat);
+  }
+
+  @Override
+  protected KMeansElkanProcessor<V> makeProcessor(Relation<V> relation, WritableIntegerDataStore assignment, double[][] means) {
+    return new KMeansElkanProcessor<>(relation, distanceFunction, assignment, means);
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   *
+   * @param <V> Vector type
+   */
+  public static class Parameterizer<V extends NumberVector> extends AbstractParallelKMeansBounds.Parameterizer<V> {
+    @Override
+    protected Logging getLogger() {
+      return LOG;
+    }
+
+    @Override
+    protected ParallelKMeansElkan<V> makeInstance() {
+      return new ParallelKMeansElkan<>(distanceFunction, k, maxiter, initializer, varstat);
+    }
+  }
+}
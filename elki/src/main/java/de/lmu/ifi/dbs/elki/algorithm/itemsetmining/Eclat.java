@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.RecursiveAction;
 
 import de.lmu.ifi.dbs.elki.data.BitVector;
 import de.lmu.ifi.dbs.elki.data.SparseFeatureVector;
@@ -33,18 +34,16 @@ import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
 import de.lmu.ifi.dbs.elki.database.Database;
-import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
-import de.lmu.ifi.dbs.elki.database.ids.HashSetDBIDs;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.result.FrequentItemsetsResult;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.BitsUtil;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 
 /**
@@ -55,16 +54,22 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
  * prefix lattice, stopping traversal when the minimum support is no longer
  * satisfied.
  *
- * This implementation is the basic algorithm only, and does not use diffsets.
- * Columns are represented using a sparse representation, which theoretically is
- * beneficial when the density is less than 1/31. This corresponds roughly to a
- * minimum support of 3% for 1-itemsets. When searching for itemsets with a
- * larger minimum support, it may be desirable to use a dense bitset
- * representation instead and/or implement an automatic switching technique!
+ * This implementation uses the diffset variant ("dEclat"): 1-itemsets are
+ * stored as dense bitsets of transactions, while longer itemsets only store
+ * the difference to their prefix, {@code d(PXY) = d(PY) \ d(PX)}, with
+ * {@code sup(PXY) = sup(PX) - |d(PXY)|}. Diffsets shrink quickly as the
+ * itemsets grow, and the bitset operations avoid the object overhead of
+ * sorted DBID lists.
  *
- * Performance of this implementation is probably surpassed with a low-level C
- * implementation based on SIMD bitset operations as long as support of an
- * itemset is high, which are not easily accessible in Java.
+ * A dense diffset needs {@code n/64} longs for {@code n} transactions. Because
+ * every level of the recursion keeps the diffsets of its equivalence class,
+ * diffsets with less than {@code n/64} elements are stored as sorted arrays of
+ * transaction indexes instead, which bounds the memory of each diffset by the
+ * smaller of the two representations. Since {@code d(PXY)} is a subset of
+ * {@code d(PY)}, a sparse diffset never needs to become dense again.
+ *
+ * The equivalence classes of the different 1-itemsets are independent of each
+ * other, and are mined in parallel.
  *
  * Reference:
  * <p>
@@ -72,6 +77,13 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
  * M.J. Zaki, S. Parthasarathy, M. Ogihara, and W. Li<br />
  * Proc. 3rd ACM SIGKDD '97 Int. Conf. on Knowledge Discovery and Data Mining
  * </p>
+ *
+ * Diffsets:
+ * <p>
+ * Fast vertical mining using diffsets<br />
+ * M.J. Zaki and K. Gouda<br />
+ * Proc. 9th ACM SIGKDD Int. Conf. on Knowledge Discovery and Data Mining
+ * </p>
  * 
  * @author Erich Schubert
  * @since 0.7.0
@@ -91,6 +103,15 @@ public class Eclat extends AbstractFrequentItemsetAlgorithm {
    */
   private static final String STAT = Eclat.class.getName() + ".";
 
+  /**
+   * Additional reference for the diffset approach.
+   */
+  @Reference(title = "Fast vertical mining using diffsets", //
+  authors = "M.J. Zaki and K. Gouda", //
+  booktitle = "Proc. 9th ACM SIGKDD Int. Conf. on Knowledge Discovery and Data Mining", //
+  url = "http://dx.doi.org/10.1145/956750.956788")
+  public static final Void ADDITIONAL_REFERENCE = null;
+
   /**
    * Constructor.
    *
@@ -110,25 +131,56 @@ public class Eclat extends AbstractFrequentItemsetAlgorithm {
    * @return Frequent patterns found
    */
   public FrequentItemsetsResult run(Database db, final Relation<BitVector> relation) {
-    // TODO: implement with resizable arrays, to not need dim.
-    final int dim = RelationUtil.dimensionality(relation);
     final VectorFieldTypeInformation<BitVector> meta = RelationUtil.assumeVectorField(relation);
     // Compute absolute minsupport
     final int minsupp = getMinimumSupport(relation.size());
 
     LOG.verbose("Build 1-dimensional transaction lists.");
     Duration ctime = LOG.newDuration(STAT + "eclat.transposition.time").begin();
-    DBIDs[] idx = buildIndex(relation, dim, minsupp);
+    final int[] counts = countItemSupport(relation);
+    final int[] items = frequentItems(counts, minsupp);
+    final int[] supports = new int[items.length];
+    for(int i = 0; i < items.length; i++) {
+      supports[i] = counts[items[i]];
+    }
+    final long[][] tids = buildIndex(relation, counts.length, items);
     LOG.statistics(ctime.end());
+    LOG.statistics(new LongStatistic(STAT + "frequent-items", items.length));
 
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building frequent itemsets", idx.length, LOG) : null;
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building frequent itemsets", items.length, LOG) : null;
     Duration etime = LOG.newDuration(STAT + "eclat.extraction.time").begin();
-    final List<Itemset> solution = new ArrayList<>();
-    for(int i = 0; i < idx.length; i++) {
-      LOG.incrementProcessed(prog);
-      extractItemsets(idx, i, minsupp, solution);
+    // Equivalence classes are distributed round-robin, because the first
+    // items have much larger classes than the last.
+    final ParallelCore core = ParallelCore.getCore();
+    final int chunks = Math.max(1, Math.min(core.getParallelism() << 2, items.length));
+    final List<ExtractItemsets> tasks = new ArrayList<>(chunks);
+    for(int i = 0; i < chunks; i++) {
+      tasks.add(new ExtractItemsets(items, supports, tids, minsupp, i, chunks, prog));
+    }
+    if(chunks > 1) {
+      core.connect();
+      try {
+        core.invoke(new RecursiveAction() {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected void compute() {
+            invokeAll(tasks);
+          }
+        });
+      }
+      finally {
+        core.disconnect();
+      }
+    }
+    else {
+      tasks.get(0).compute();
     }
     LOG.ensureCompleted(prog);
+    final List<Itemset> solution = new ArrayList<>();
+    for(ExtractItemsets task : tasks) {
+      solution.addAll(task.solution);
+    }
     Collections.sort(solution);
     LOG.statistics(etime.end());
 
@@ -136,88 +188,316 @@ public class Eclat extends AbstractFrequentItemsetAlgorithm {
     return new FrequentItemsetsResult("Eclat", "eclat", solution, meta);
   }
 
-  // TODO: implement diffsets.
-  private void extractItemsets(DBIDs[] idx, int start, int minsupp, List<Itemset> solution) {
-    int[] buf = new int[idx.length];
-    DBIDs iset = idx[start];
-    if(iset == null || iset.size() < minsupp) {
-      return;
-    }
-    if(minlength <= 1) {
-      solution.add(new OneItemset(start, iset.size()));
-    }
-    if(maxlength > 1) {
-      buf[0] = start;
-      extractItemsets(iset, idx, buf, 1, start + 1, minsupp, solution);
+  /**
+   * Count the support of each 1-item.
+   *
+   * The array is resized as necessary, so we do not need to know the
+   * dimensionality in advance.
+   *
+   * @param relation Data
+   * @return Item counts
+   */
+  private int[] countItemSupport(final Relation<BitVector> relation) {
+    int[] counts = new int[16];
+    int maxdim = -1;
+    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
+      SparseFeatureVector<?> bv = relation.get(iditer);
+      for(int it = bv.iter(); bv.iterValid(it); it = bv.iterAdvance(it)) {
+        final int d = bv.iterDim(it);
+        if(d >= counts.length) {
+          counts = Arrays.copyOf(counts, Math.max(d + 1, counts.length << 1));
+        }
+        counts[d]++;
+        maxdim = d > maxdim ? d : maxdim;
+      }
     }
+    return Arrays.copyOf(counts, maxdim + 1);
   }
 
-  private void extractItemsets(DBIDs iset, DBIDs[] idx, int[] buf, int depth, int start, int minsupp, List<Itemset> solution) {
-    // TODO: reuse arrays.
-    for(int i = start; i < idx.length; i++) {
-      if(idx[i] == null) {
-        continue;
-      }
-      DBIDs ids = mergeJoin(iset, idx[i]);
-      if(ids.size() < minsupp) {
-        continue;
+  /**
+   * Find the frequent 1-items, in ascending order.
+   *
+   * @param counts Item counts
+   * @param minsupp Minimum support
+   * @return Frequent items
+   */
+  private int[] frequentItems(int[] counts, int minsupp) {
+    int numfreq = 0;
+    for(int i = 0; i < counts.length; i++) {
+      if(counts[i] >= minsupp) {
+        ++numfreq;
       }
-      buf[depth] = i;
-      int[] items = Arrays.copyOf(buf, depth + 1);
-      if(depth >= minlength) {
-        solution.add(new SparseItemset(items, ids.size()));
+    }
+    int[] items = new int[numfreq];
+    for(int i = 0, j = 0; i < counts.length; i++) {
+      if(counts[i] >= minsupp) {
+        items[j++] = i;
       }
-      if(depth < maxlength) {
-        extractItemsets(ids, idx, buf, depth + 1, i + 1, minsupp, solution);
+    }
+    return items;
+  }
+
+  /**
+   * Build the transaction bitsets of the frequent items.
+   *
+   * @param relation Data
+   * @param dim Number of items
+   * @param items Frequent items
+   * @return Transaction bitsets, one for each frequent item
+   */
+  private long[][] buildIndex(Relation<BitVector> relation, int dim, int[] items) {
+    int[] pos = new int[dim];
+    Arrays.fill(pos, -1);
+    long[][] tids = new long[items.length][];
+    for(int i = 0; i < items.length; i++) {
+      pos[items[i]] = i;
+      tids[i] = BitsUtil.zero(relation.size());
+    }
+    int t = 0;
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance(), t++) {
+      SparseFeatureVector<?> bv = relation.get(iter);
+      for(int it = bv.iter(); bv.iterValid(it); it = bv.iterAdvance(it)) {
+        final int p = pos[bv.iterDim(it)];
+        if(p >= 0) {
+          BitsUtil.setI(tids[p], t);
+        }
       }
     }
+    return tids;
   }
 
-  private DBIDs mergeJoin(DBIDs first, DBIDs second) {
-    assert (!(first instanceof HashSetDBIDs));
-    assert (!(second instanceof HashSetDBIDs));
-    ArrayModifiableDBIDs ids = DBIDUtil.newArray();
+  /**
+   * Store a dense diffset as sorted transaction indexes, if it has less than
+   * one element per 64 transactions.
+   *
+   * @param d Dense diffset
+   * @param card Cardinality of the diffset
+   * @return Dense ({@code long[]}) or sparse ({@code int[]}) diffset
+   */
+  private static Object compact(long[] d, int card) {
+    if(card >= d.length) {
+      return d;
+    }
+    int[] ids = new int[card];
+    for(int i = BitsUtil.nextSetBit(d, 0), j = 0; i >= 0; i = BitsUtil.nextSetBit(d, i + 1)) {
+      ids[j++] = i;
+    }
+    return ids;
+  }
 
-    DBIDIter i1 = first.iter(), i2 = second.iter();
-    while(i1.valid() && i2.valid()) {
-      int c = DBIDUtil.compare(i1, i2);
-      if(c < 0) {
-        i1.advance();
-      }
-      else if(c > 0) {
-        i2.advance();
+  /**
+   * Size of a dense or sparse diffset.
+   *
+   * @param d Diffset
+   * @return Number of transactions
+   */
+  private static int size(Object d) {
+    return d instanceof int[] ? ((int[]) d).length : BitsUtil.cardinality((long[]) d);
+  }
+
+  /**
+   * Compute the difference {@code y \ x} of two dense or sparse diffsets.
+   *
+   * @param y Diffset to remove from
+   * @param x Diffset to remove
+   * @return Difference, sparse if {@code y} is sparse
+   */
+  private static Object difference(Object y, Object x) {
+    if(y instanceof long[]) {
+      long[] d = BitsUtil.copy((long[]) y);
+      if(x instanceof long[]) {
+        BitsUtil.nandI(d, (long[]) x);
       }
       else {
-        ids.add(i1);
-        i1.advance();
-        i2.advance();
+        for(int id : (int[]) x) {
+          BitsUtil.clearI(d, id);
+        }
       }
+      return compact(d, BitsUtil.cardinality(d));
     }
-    return ids;
+    final int[] yi = (int[]) y;
+    int[] d = new int[yi.length];
+    int c = 0;
+    if(x instanceof long[]) {
+      final long[] xb = (long[]) x;
+      for(int id : yi) {
+        if(!BitsUtil.get(xb, id)) {
+          d[c++] = id;
+        }
+      }
+    }
+    else {
+      // Merge of two sorted lists.
+      final int[] xi = (int[]) x;
+      for(int i = 0, j = 0; i < yi.length; i++) {
+        while(j < xi.length && xi[j] < yi[i]) {
+          j++;
+        }
+        if(j == xi.length || xi[j] != yi[i]) {
+          d[c++] = yi[i];
+        }
+      }
+    }
+    return c < d.length ? Arrays.copyOf(d, c) : d;
   }
 
-  private DBIDs[] buildIndex(Relation<BitVector> relation, int dim, int minsupp) {
-    ArrayModifiableDBIDs[] idx = new ArrayModifiableDBIDs[dim];
-    for(int i = 0; i < dim; i++) {
-      idx[i] = DBIDUtil.newArray();
+  /**
+   * Extract the itemsets of a subset of the equivalence classes.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private class ExtractItemsets extends RecursiveAction {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Frequent items.
+     */
+    final int[] items;
+
+    /**
+     * Support of the frequent items.
+     */
+    final int[] supports;
+
+    /**
+     * Transaction bitsets of the frequent items.
+     */
+    final long[][] tids;
+
+    /**
+     * Minimum support.
+     */
+    final int minsupp;
+
+    /**
+     * First item, and step size.
+     */
+    final int start, step;
+
+    /**
+     * Progress (thread safe).
+     */
+    final FiniteProgress prog;
+
+    /**
+     * Itemset buffer.
+     */
+    final int[] buf;
+
+    /**
+     * Itemsets found.
+     */
+    final List<Itemset> solution = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param items Frequent items
+     * @param supports Support of the frequent items
+     * @param tids Transaction bitsets
+     * @param minsupp Minimum support
+     * @param start First item to process
+     * @param step Step size
+     * @param prog Progress
+     */
+    ExtractItemsets(int[] items, int[] supports, long[][] tids, int minsupp, int start, int step, FiniteProgress prog) {
+      this.items = items;
+      this.supports = supports;
+      this.tids = tids;
+      this.minsupp = minsupp;
+      this.start = start;
+      this.step = step;
+      this.prog = prog;
+      this.buf = new int[items.length];
     }
-    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
-      SparseFeatureVector<?> bv = relation.get(iter);
-      // TODO: only count those which satisfy minlength?
-      for(int it = bv.iter(); bv.iterValid(it); it = bv.iterAdvance(it)) {
-        idx[bv.iterDim(it)].add(iter);
+
+    @Override
+    protected void compute() {
+      for(int i = start; i < items.length; i += step) {
+        extractItemsets(i);
+        LOG.incrementProcessed(prog);
       }
     }
-    // Forget non-frequent 1-itemsets.
-    for(int i = 0; i < dim; i++) {
-      if(idx[i].size() < minsupp) {
-        idx[i] = null;
+
+    /**
+     * Extract all itemsets starting with the given item.
+     *
+     * @param i Item position
+     */
+    private void extractItemsets(int i) {
+      final int n = items.length - i - 1;
+      if(n + 1 < minlength) {
+        return;
       }
-      else {
-        idx[i].sort();
+      if(minlength <= 1) {
+        solution.add(new OneItemset(items[i], supports[i]));
+      }
+      if(maxlength <= 1 || n == 0) {
+        return;
+      }
+      // Build the diffsets of the 2-itemsets: d(XY) = t(X) \ t(Y)
+      int[] citems = new int[n], csupp = new int[n];
+      Object[] cdiff = new Object[n];
+      int c = 0;
+      for(int j = i + 1; j < items.length; j++) {
+        long[] d = BitsUtil.nandI(BitsUtil.copy(tids[i]), tids[j]);
+        final int card = BitsUtil.cardinality(d);
+        int s = supports[i] - card;
+        if(s >= minsupp) {
+          citems[c] = items[j];
+          csupp[c] = s;
+          cdiff[c++] = compact(d, card);
+        }
+      }
+      buf[0] = items[i];
+      extractItemsets(1, citems, csupp, cdiff, c);
+    }
+
+    /**
+     * Extract the itemsets of an equivalence class.
+     *
+     * @param plen Prefix length
+     * @param citems Items of the class
+     * @param csupp Support of the class members
+     * @param cdiff Diffsets of the class members, dense or sparse
+     * @param n Size of the class
+     */
+    private void extractItemsets(int plen, int[] citems, int[] csupp, Object[] cdiff, int n) {
+      final int len = plen + 1;
+      for(int a = 0; a < n; a++) {
+        if(plen + n - a < minlength) {
+          return; // Not enough items left.
+        }
+        buf[plen] = citems[a];
+        if(len >= minlength) {
+          solution.add(new SparseItemset(Arrays.copyOf(buf, len), csupp[a]));
+        }
+        if(len >= maxlength || a + 1 == n) {
+          continue;
+        }
+        // d(PXY) = d(PY) \ d(PX), sup(PXY) = sup(PX) - |d(PXY)|
+        int[] nitems = new int[n - a - 1], nsupp = new int[n - a - 1];
+        Object[] ndiff = new Object[n - a - 1];
+        int c = 0;
+        for(int b = a + 1; b < n; b++) {
+          Object d = difference(cdiff[b], cdiff[a]);
+          int s = csupp[a] - size(d);
+          if(s >= minsupp) {
+            nitems[c] = citems[b];
+            nsupp[c] = s;
+            ndiff[c++] = d;
+          }
+        }
+        if(c > 0) {
+          extractItemsets(len, nitems, nsupp, ndiff, c);
+        }
       }
     }
-    return idx;
   }
 
   @Override
@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.RecursiveAction;
 
 import de.lmu.ifi.dbs.elki.data.BitVector;
 import de.lmu.ifi.dbs.elki.data.SparseFeatureVector;
@@ -42,6 +43,7 @@ import de.lmu.ifi.dbs.elki.logging.progress.IndefiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.result.FrequentItemsetsResult;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.IntegerArrayQuickSort;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.IntegerComparator;
@@ -59,7 +61,8 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
  * item combinations.
  *
  * This implementation is in-memory only, and has not yet been carefully
- * optimized.
+ * optimized. The conditional trees of the different items are independent of
+ * each other, and are mined in parallel once the FP-tree has been built.
  *
  * The worst case memory use probably is O(min(n*l,i^l)) where i is the number
  * of items, l the average itemset length, and n the number of items. The worst
@@ -113,20 +116,18 @@ public class FPGrowth extends AbstractFrequentItemsetAlgorithm {
    * @return Frequent patterns found
    */
   public FrequentItemsetsResult run(Database db, final Relation<BitVector> relation) {
-    // TODO: implement with resizable array, to not need dim.
-    final int dim = RelationUtil.dimensionality(relation);
     final VectorFieldTypeInformation<BitVector> meta = RelationUtil.assumeVectorField(relation);
     // Compute absolute minsupport
     final int minsupp = getMinimumSupport(relation.size());
 
     LOG.verbose("Finding item frequencies for ordering.");
-    final int[] counts = countItemSupport(relation, dim);
+    final int[] counts = countItemSupport(relation);
     // Forward and backward indexes
-    int[] iidx = new int[dim];
+    int[] iidx = new int[counts.length];
     final int[] idx = buildIndex(counts, iidx, minsupp);
     final int items = idx.length;
 
-    LOG.statistics(new LongStatistic(STAT + "raw-items", dim));
+    LOG.statistics(new LongStatistic(STAT + "raw-items", counts.length));
     LOG.statistics(new LongStatistic(STAT + "raw-transactions", relation.size()));
     LOG.statistics(new DoubleStatistic(STAT + "minsupp-relative", minsupp / (double) relation.size()));
     LOG.statistics(new LongStatistic(STAT + "minsupp-absolute", minsupp));
@@ -159,25 +160,38 @@ public class FPGrowth extends AbstractFrequentItemsetAlgorithm {
     final IndefiniteProgress itemp = LOG.isVerbose() ? new IndefiniteProgress("Frequent itemsets", LOG) : null;
     final List<Itemset> solution = new ArrayList<>();
     // Start extraction with the least frequent items
-    tree.extract(minsupp, minlength, maxlength, true, new FPTree.Collector() {
-      @Override
-      public void collect(int support, int[] data, int start, int plen) {
-        // Always translate the indexes back to the original values via 'idx'!
-        if(plen - start == 1) {
-          solution.add(new OneItemset(idx[data[start]], support));
-          LOG.incrementProcessed(itemp);
-          return;
-        }
-        // Copy from buffer to a permanent storage
-        int[] indices = new int[plen - start];
-        for(int i = start, j = 0; i < plen; i++) {
-          indices[j++] = idx[data[i]]; // Translate to original items
-        }
-        Arrays.sort(indices);
-        solution.add(new SparseItemset(indices, support));
-        LOG.incrementProcessed(itemp);
+    final ParallelCore core = ParallelCore.getCore();
+    final int stop = (minlength > 1) ? minlength - 1 : 0;
+    final int chunks = Math.max(1, Math.min(core.getParallelism() << 2, items - stop));
+    if(chunks > 1) {
+      // The tree is shared, so it must not be modified by the workers.
+      final List<ExtractItemsets> tasks = new ArrayList<>(chunks);
+      for(int i = 0; i < chunks; i++) {
+        tasks.add(new ExtractItemsets(tree, minsupp, i, chunks, new ItemsetCollector(idx, itemp)));
       }
-    });
+      core.connect();
+      try {
+        core.invoke(new RecursiveAction() {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected void compute() {
+            invokeAll(tasks);
+          }
+        });
+      }
+      finally {
+        core.disconnect();
+      }
+      for(ExtractItemsets task : tasks) {
+        solution.addAll(task.col.solution);
+      }
+    }
+    else {
+      ItemsetCollector col = new ItemsetCollector(idx, itemp);
+      tree.extract(minsupp, minlength, maxlength, true, col);
+      solution.addAll(col.solution);
+    }
     LOG.setCompleted(itemp);
     Collections.sort(solution);
     LOG.statistics(etime.end());
@@ -189,23 +203,31 @@ public class FPGrowth extends AbstractFrequentItemsetAlgorithm {
   /**
    * Count the support of each 1-item.
    *
+   * The array is resized as necessary, so we do not need to know the
+   * dimensionality in advance.
+   *
    * @param relation Data
-   * @param dim Maximum dimensionality
    * @return Item counts
    */
-  private int[] countItemSupport(final Relation<BitVector> relation, final int dim) {
-    final int[] counts = new int[dim];
+  private int[] countItemSupport(final Relation<BitVector> relation) {
+    int[] counts = new int[16];
+    int maxdim = -1;
     FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Finding frequent 1-items", relation.size(), LOG) : null;
     for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
       SparseFeatureVector<?> bv = relation.get(iditer);
       // TODO: only count those which satisfy minlength?
       for(int it = bv.iter(); bv.iterValid(it); it = bv.iterAdvance(it)) {
-        counts[bv.iterDim(it)]++;
+        final int d = bv.iterDim(it);
+        if(d >= counts.length) {
+          counts = Arrays.copyOf(counts, Math.max(d + 1, counts.length << 1));
+        }
+        counts[d]++;
+        maxdim = d > maxdim ? d : maxdim;
       }
       LOG.incrementProcessed(prog);
     }
     LOG.ensureCompleted(prog);
-    return counts;
+    return Arrays.copyOf(counts, maxdim + 1);
   }
 
   /**
@@ -345,14 +367,35 @@ public class FPGrowth extends AbstractFrequentItemsetAlgorithm {
      * @param col Itemset collector
      */
     public void extract(int minsupp, int minlength, int maxlength, boolean destruct, Collector col) {
-      int[] buf = new int[header.length], buf2 = new int[header.length], buf3 = new int[header.length];
       int stop = (minlength > 1) ? minlength - 1 : 0;
       FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Extracting itemsets", header.length - stop, LOG) : null;
-      for(int j = header.length - 1; j >= stop; --j) {
+      extract(minsupp, minlength, maxlength, 0, 1, destruct, col, prog);
+      LOG.ensureCompleted(prog);
+    }
+
+    /**
+     * Extract itemsets ending in every step-th item, beginning with the least
+     * frequent items.
+     *
+     * Without destruction, this can safely be called concurrently, with
+     * different offsets.
+     *
+     * @param minsupp Minimum support
+     * @param minlength Minimum length
+     * @param maxlength Maximum length
+     * @param offset Offset of the first item (from the end)
+     * @param step Step size
+     * @param destruct Remove nodes
+     * @param col Itemset collector
+     * @param prog Progress (thread safe)
+     */
+    public void extract(int minsupp, int minlength, int maxlength, int offset, int step, boolean destruct, Collector col, FiniteProgress prog) {
+      int[] buf = new int[header.length], buf2 = new int[header.length], buf3 = new int[header.length];
+      int stop = (minlength > 1) ? minlength - 1 : 0;
+      for(int j = header.length - 1 - offset; j >= stop; j -= step) {
         extract(minsupp, minlength, maxlength, j, buf, 0, buf2, buf3, destruct, col);
         LOG.incrementProcessed(prog);
       }
-      LOG.ensureCompleted(prog);
     }
 
     /**
@@ -374,14 +417,21 @@ public class FPGrowth extends AbstractFrequentItemsetAlgorithm {
       if(header[item] == null) {
         return;
       }
-      // No siblings: single path only.
-      if(header[item].sibling == null) {
-        if(header[item].count < minsupp) {
+      // Single path only: enumerate all combinations with the current item.
+      if(isSinglePath(item)) {
+        final int support = header[item].count;
+        if(support < minsupp) {
           return;
         }
-        extractLinear(header[item].count, minsupp, minlength, maxlength, item, postfix, plen, buf2, col);
+        postfix[plen++] = item;
+        if(plen >= minlength && plen <= maxlength) {
+          col.collect(support, postfix, 0, plen);
+        }
+        if(item > 0 && plen < maxlength) {
+          extractLinear(support, minsupp, minlength, maxlength, item - 1, postfix, plen, buf2, col);
+        }
         if(destruct) {
-          Arrays.fill(header, null);
+          header[item] = null;
         }
         return;
       }
@@ -442,6 +492,35 @@ public class FPGrowth extends AbstractFrequentItemsetAlgorithm {
       }
     }
 
+    /**
+     * Test whether the tree restricted to the items up to the given item is a
+     * single path. Because transactions are inserted in ascending order, this
+     * is the case if all nodes of these items are ancestors of the only node
+     * of the given item.
+     *
+     * @param item Current item
+     * @return {@code true} if the tree is a single path
+     */
+    private boolean isSinglePath(int item) {
+      if(header[item].sibling != null) {
+        return false;
+      }
+      int depth = 0;
+      for(FPNode parent = header[item].parent; parent.key >= 0; parent = parent.parent) {
+        ++depth;
+      }
+      int nodes = 0;
+      for(int i = 0; i < item; i++) {
+        if(header[i] != null) {
+          if(header[i].sibling != null) {
+            return false;
+          }
+          ++nodes;
+        }
+      }
+      return nodes == depth;
+    }
+
     /**
      * Extract itemsets from a linear tree.
      *
@@ -664,6 +743,116 @@ public class FPGrowth extends AbstractFrequentItemsetAlgorithm {
     }
   }
 
+  /**
+   * Collect the itemsets found, translating the items back to the original
+   * dimensions.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private static class ItemsetCollector implements FPTree.Collector {
+    /**
+     * Item index.
+     */
+    final int[] idx;
+
+    /**
+     * Progress (thread safe).
+     */
+    final IndefiniteProgress itemp;
+
+    /**
+     * Itemsets found.
+     */
+    final List<Itemset> solution = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param idx Item index
+     * @param itemp Progress
+     */
+    ItemsetCollector(int[] idx, IndefiniteProgress itemp) {
+      this.idx = idx;
+      this.itemp = itemp;
+    }
+
+    @Override
+    public void collect(int support, int[] data, int start, int plen) {
+      // Always translate the indexes back to the original values via 'idx'!
+      if(plen - start == 1) {
+        solution.add(new OneItemset(idx[data[start]], support));
+        LOG.incrementProcessed(itemp);
+        return;
+      }
+      // Copy from buffer to a permanent storage
+      int[] indices = new int[plen - start];
+      for(int i = start, j = 0; i < plen; i++) {
+        indices[j++] = idx[data[i]]; // Translate to original items
+      }
+      Arrays.sort(indices);
+      solution.add(new SparseItemset(indices, support));
+      LOG.incrementProcessed(itemp);
+    }
+  }
+
+  /**
+   * Extract the itemsets ending in a subset of the items, from a shared tree.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private class ExtractItemsets extends RecursiveAction {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Shared FP-tree.
+     */
+    final FPTree tree;
+
+    /**
+     * Minimum support.
+     */
+    final int minsupp;
+
+    /**
+     * Offset of the first item, and step size.
+     */
+    final int offset, step;
+
+    /**
+     * Itemset collector.
+     */
+    final ItemsetCollector col;
+
+    /**
+     * Constructor.
+     *
+     * @param tree Shared FP-tree
+     * @param minsupp Minimum support
+     * @param offset Offset of the first item (from the end)
+     * @param step Step size
+     * @param col Itemset collector
+     */
+    ExtractItemsets(FPTree tree, int minsupp, int offset, int step, ItemsetCollector col) {
+      this.tree = tree;
+      this.minsupp = minsupp;
+      this.offset = offset;
+      this.step = step;
+      this.col = col;
+    }
+
+    @Override
+    protected void compute() {
+      tree.extract(minsupp, minlength, maxlength, offset, step, false, col, null);
+    }
+  }
+
   @Override
   public TypeInformation[] getInputTypeRestriction() {
     return TypeUtil.array(TypeUtil.BIT_VECTOR_FIELD);
@@ -30,6 +30,7 @@ import java.util.Properties;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.Logging.Level;
 import de.lmu.ifi.dbs.elki.logging.LoggingConfiguration;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
@@ -40,6 +41,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.ParameterException;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.UnspecifiedParameterException;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.WrongParameterValueException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.SerializedParameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.TrackParameters;
@@ -47,6 +49,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.TrackedPara
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ClassParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.StringParameter;
 
 /**
@@ -133,7 +136,10 @@ public abstract class AbstractApplication {
     final ClassParameter<Object> descriptionP = new ClassParameter<>(Parameterizer.DESCRIPTION_ID, Object.class, true);
     final StringParameter debugP = new StringParameter(Parameterizer.DEBUG_ID);
     final Flag verboseF = new Flag(Parameterizer.VERBOSE_ID);
+    final IntParameter threadsP = new IntParameter(Parameterizer.THREADS_ID) //
+        .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
     debugP.setOptional(true);
+    threadsP.setOptional(true);
 
     SerializedParameterization params = new SerializedParameterization(args);
     try {
@@ -171,6 +177,9 @@ public abstract class AbstractApplication {
           LoggingConfiguration.setVerbose(Level.VERBOSE);
         }
       }
+      if(config.grab(threadsP)) {
+        ParallelCore.getCore().setParallelism(threadsP.intValue());
+      }
       AbstractApplication task = ClassGenericsUtil.tryInstantiate(AbstractApplication.class, cls, config);
 
       if((helpF.isDefined() && helpF.getValue()) || (helpLongF.isDefined() && helpLongF.getValue())) {
@@ -321,6 +330,15 @@ public abstract class AbstractApplication {
      */
     public static final OptionID VERBOSE_ID = new OptionID("verbose", "Enable verbose messages.");
 
+    /**
+     * Optional parameter to set the number of threads used by parallel
+     * algorithms.
+     * <p>
+     * Key: {@code -parallel.threads}
+     * </p>
+     */
+    public static final OptionID THREADS_ID = new OptionID("parallel.threads", "Number of threads to use for parallel algorithms. Defaults to the number of available processors.");
+
     /**
      * Get the output file parameter.
      *
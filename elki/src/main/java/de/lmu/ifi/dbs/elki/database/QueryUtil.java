@@ -29,9 +29,11 @@ import de.lmu.ifi.dbs.elki.database.query.distance.PrimitiveDistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanDistanceKNNQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanEuclideanDistanceKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanPackedKNNQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanPrimitiveDistanceKNNQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.LinearScanDistanceRangeQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.LinearScanEuclideanDistanceRangeQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.LinearScanPackedRangeQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.LinearScanPrimitiveDistanceRangeQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.LinearScanPrimitiveSimilarityRangeQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.LinearScanSimilarityRangeQuery;
@@ -39,8 +41,10 @@ import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
 import de.lmu.ifi.dbs.elki.database.query.rknn.RKNNQuery;
 import de.lmu.ifi.dbs.elki.database.query.similarity.PrimitiveSimilarityQuery;
 import de.lmu.ifi.dbs.elki.database.query.similarity.SimilarityQuery;
+import de.lmu.ifi.dbs.elki.database.relation.AbstractPackedVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.similarityfunction.SimilarityFunction;
 
@@ -227,6 +231,10 @@ public final class QueryUtil {
     // Slight optimizations of linear scans
     if(distanceQuery instanceof PrimitiveDistanceQuery) {
       final PrimitiveDistanceQuery<O> pdq = (PrimitiveDistanceQuery<O>) distanceQuery;
+      if(pdq.getRelation() instanceof AbstractPackedVectorRelation && pdq.getDistanceFunction() instanceof NumberVectorDistanceFunction) {
+        final PrimitiveDistanceQuery<NumberVector> ndq = (PrimitiveDistanceQuery<NumberVector>) pdq;
+        return (KNNQuery<O>) new LinearScanPackedKNNQuery<>(ndq);
+      }
       if(EuclideanDistanceFunction.STATIC.equals(pdq.getDistanceFunction())) {
         final PrimitiveDistanceQuery<NumberVector> ndq = (PrimitiveDistanceQuery<NumberVector>) pdq;
         return (KNNQuery<O>) new LinearScanEuclideanDistanceKNNQuery<>(ndq);
@@ -248,6 +256,10 @@ public final class QueryUtil {
     // Slight optimizations of linear scans
     if(distanceQuery instanceof PrimitiveDistanceQuery) {
       final PrimitiveDistanceQuery<O> pdq = (PrimitiveDistanceQuery<O>) distanceQuery;
+      if(pdq.getRelation() instanceof AbstractPackedVectorRelation && pdq.getDistanceFunction() instanceof NumberVectorDistanceFunction) {
+        final PrimitiveDistanceQuery<NumberVector> ndq = (PrimitiveDistanceQuery<NumberVector>) pdq;
+        return (RangeQuery<O>) new LinearScanPackedRangeQuery<>(ndq);
+      }
       if(EuclideanDistanceFunction.STATIC.equals(pdq.getDistanceFunction())) {
         final PrimitiveDistanceQuery<NumberVector> ndq = (PrimitiveDistanceQuery<NumberVector>) pdq;
         return (RangeQuery<O>) new LinearScanEuclideanDistanceRangeQuery<>(ndq);
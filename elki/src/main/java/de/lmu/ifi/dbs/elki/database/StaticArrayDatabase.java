@@ -23,28 +23,47 @@ package de.lmu.ifi.dbs.elki.database;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.FloatVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayStaticDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDVar;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.relation.AbstractPackedVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.DBIDView;
 import de.lmu.ifi.dbs.elki.database.relation.MaterializedRelation;
+import de.lmu.ifi.dbs.elki.database.relation.PackedDoubleVectorRelation;
+import de.lmu.ifi.dbs.elki.database.relation.PackedFloatVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.datasource.DatabaseConnection;
 import de.lmu.ifi.dbs.elki.datasource.FileBasedDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.InputStreamDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.bundle.BundleMeta;
+import de.lmu.ifi.dbs.elki.datasource.bundle.BundleStreamSource;
 import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
 import de.lmu.ifi.dbs.elki.index.Index;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectListParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 
@@ -83,6 +102,11 @@ public class StaticArrayDatabase extends AbstractDatabase {
    */
   protected DatabaseConnection databaseConnection;
 
+  /**
+   * Store double and float vector fields in packed arrays.
+   */
+  protected boolean packed;
+
   /**
    * Constructor.
    *
@@ -90,10 +114,22 @@ public class StaticArrayDatabase extends AbstractDatabase {
    * @param indexFactories Indexes to add
    */
   public StaticArrayDatabase(DatabaseConnection databaseConnection, Collection<IndexFactory<?, ?>> indexFactories) {
+    this(databaseConnection, indexFactories, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param databaseConnection Database connection to get the initial data from.
+   * @param indexFactories Indexes to add
+   * @param packed Store double and float vector fields in packed arrays
+   */
+  public StaticArrayDatabase(DatabaseConnection databaseConnection, Collection<IndexFactory<?, ?>> indexFactories, boolean packed) {
     super();
     this.databaseConnection = databaseConnection;
     this.ids = null;
     this.idrep = null;
+    this.packed = packed;
 
     // Add indexes.
     if(indexFactories != null) {
@@ -118,64 +154,356 @@ public class StaticArrayDatabase extends AbstractDatabase {
       if(LOG.isDebugging()) {
         LOG.debugFine("Loading data from database connection.");
       }
+      if(packed && databaseConnection instanceof InputStreamDatabaseConnection) {
+        BundleStreamSource stream = ((InputStreamDatabaseConnection) databaseConnection).loadDataStream();
+        // Run at most once.
+        databaseConnection = null;
+        initializePacked(stream);
+        return;
+      }
       MultipleObjectsBundle bundle = databaseConnection.loadData();
       // Run at most once.
       databaseConnection = null;
 
-      // Find DBIDs for bundle
-      {
-        DBIDs bids = bundle.getDBIDs();
-        if(bids instanceof ArrayStaticDBIDs) {
-          this.ids = (ArrayStaticDBIDs) bids;
+      initializeIDs(bundle.getDBIDs(), bundle.dataLength());
+      DBIDArrayIter it = this.ids.iter();
+
+      int numrel = bundle.metaLength();
+      for(int i = 0; i < numrel; i++) {
+        Relation<?> relation = packed ? makePackedRelation(bundle, i) : null;
+        if(relation == null) {
+          @SuppressWarnings("unchecked")
+          SimpleTypeInformation<Object> ometa = (SimpleTypeInformation<Object>) bundle.meta(i);
+          WritableDataStore<Object> store = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_DB, ometa.getRestrictionClass());
+          for(it.seek(0); it.valid(); it.advance()) {
+            store.put(it, bundle.data(it.getOffset(), i));
+          }
+          relation = new MaterializedRelation<>(ometa, ids, null, store);
         }
-        else if(bids == null) {
-          this.ids = DBIDUtil.generateStaticDBIDRange(bundle.dataLength());
+        addRelation(relation);
+      }
+
+      // fire insertion event
+      eventManager.fireObjectsInserted(ids);
+    }
+  }
+
+  /**
+   * Initialize the database from a stream, storing double and float vector
+   * fields in packed arrays as they are read. This avoids materializing every
+   * vector as an object first.
+   *
+   * @param stream Data stream
+   */
+  private void initializePacked(BundleStreamSource stream) {
+    BundleMeta meta = null;
+    // Each column is either a PackedColumn or a List of objects.
+    ArrayList<Object> columns = new ArrayList<>();
+    DBIDVar var = null;
+    ArrayModifiableDBIDs sids = null;
+    int size = 0;
+    loop: while(true) {
+      switch(stream.nextEvent()){
+      case END_OF_STREAM:
+        break loop;
+      case META_CHANGED:
+        meta = stream.getMeta();
+        for(int i = 0; i < columns.size(); i++) {
+          Object col = columns.get(i);
+          if(col instanceof PackedColumn && !((PackedColumn) col).accepts(meta.get(i))) {
+            columns.set(i, ((PackedColumn) col).unpack());
+          }
         }
-        else {
-          this.ids = (ArrayStaticDBIDs) DBIDUtil.makeUnmodifiable(bids);
+        for(int i = columns.size(); i < meta.size(); i++) {
+          PackedColumn col = size == 0 ? PackedColumn.make(meta.get(i)) : null;
+          columns.add(col != null ? col : new ArrayList<>(Collections.nCopies(size, null)));
+        }
+        if(var == null && stream.hasDBIDs()) {
+          var = DBIDUtil.newVar();
+          sids = DBIDUtil.newArray();
+        }
+        continue;
+      case NEXT_OBJECT:
+        if(var != null && stream.assignDBID(var)) {
+          sids.add(var);
         }
+        for(int i = 0; i < columns.size(); i++) {
+          Object col = columns.get(i), data = stream.data(i);
+          if(col instanceof PackedColumn) {
+            if(((PackedColumn) col).add(data)) {
+              continue;
+            }
+            columns.set(i, col = ((PackedColumn) col).unpack());
+          }
+          @SuppressWarnings("unchecked")
+          List<Object> list = (List<Object>) col;
+          list.add(data);
+        }
+        ++size;
+        continue;
+      default:
+        LOG.warning("Unknown event.");
       }
-      // Replace id representation (it would be nicer if we would not need
-      // DBIDView at all)
-      this.idrep = new DBIDView(this.ids);
-      relations.add(this.idrep);
-      getHierarchy().add(this, idrep);
+    }
+    if(sids != null && sids.size() != size) {
+      LOG.warning("Not every object had an DBID - discarding DBIDs: " + size + " != " + sids.size());
+      sids = null;
+    }
+    initializeIDs(sids, size);
+    DBIDArrayIter it = this.ids.iter();
+    for(int i = 0; i < columns.size(); i++) {
+      Object col = columns.get(i);
+      if(col instanceof PackedColumn && ids instanceof DBIDRange) {
+        addRelation(((PackedColumn) col).relation((DBIDRange) ids));
+        continue;
+      }
+      @SuppressWarnings("unchecked")
+      List<Object> list = col instanceof PackedColumn ? ((PackedColumn) col).unpack() : (List<Object>) col;
+      @SuppressWarnings("unchecked")
+      SimpleTypeInformation<Object> ometa = (SimpleTypeInformation<Object>) meta.get(i);
+      WritableDataStore<Object> store = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_DB, ometa.getRestrictionClass());
+      for(it.seek(0); it.valid(); it.advance()) {
+        store.put(it, list.get(it.getOffset()));
+      }
+      addRelation(new MaterializedRelation<>(ometa, ids, null, store));
+    }
 
-      DBIDArrayIter it = this.ids.iter();
+    // fire insertion event
+    eventManager.fireObjectsInserted(ids);
+  }
 
-      int numrel = bundle.metaLength();
-      for(int i = 0; i < numrel; i++) {
-        SimpleTypeInformation<?> meta = bundle.meta(i);
+  /**
+   * Set up the DBIDs of the database.
+   *
+   * @param bids DBIDs supplied by the data source, may be {@code null}
+   * @param size Number of objects
+   */
+  private void initializeIDs(DBIDs bids, int size) {
+    if(bids instanceof ArrayStaticDBIDs) {
+      this.ids = (ArrayStaticDBIDs) bids;
+    }
+    else if(bids == null) {
+      this.ids = DBIDUtil.generateStaticDBIDRange(size);
+    }
+    else {
+      this.ids = (ArrayStaticDBIDs) DBIDUtil.makeUnmodifiable(bids);
+    }
+    // Replace id representation (it would be nicer if we would not need
+    // DBIDView at all)
+    this.idrep = new DBIDView(this.ids);
+    relations.add(this.idrep);
+    getHierarchy().add(this, idrep);
+  }
+
+  /**
+   * Add a relation to the database, and build the matching indexes.
+   *
+   * @param relation Relation to add
+   */
+  private void addRelation(Relation<?> relation) {
+    final SimpleTypeInformation<?> meta = relation.getDataTypeInformation();
+    relations.add(relation);
+    getHierarchy().add(this, relation);
+
+    // Try to add indexes where appropriate
+    for(IndexFactory<?, ?> factory : indexFactories) {
+      if(factory.getInputTypeRestriction().isAssignableFromType(meta)) {
         @SuppressWarnings("unchecked")
-        SimpleTypeInformation<Object> ometa = (SimpleTypeInformation<Object>) meta;
-        WritableDataStore<Object> store = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_DB, ometa.getRestrictionClass());
-        for(it.seek(0); it.valid(); it.advance()) {
-          store.put(it, bundle.data(it.getOffset(), i));
+        final IndexFactory<Object, ?> ofact = (IndexFactory<Object, ?>) factory;
+        @SuppressWarnings("unchecked")
+        final Relation<Object> orep = (Relation<Object>) relation;
+        final Index index = ofact.instantiate(orep);
+        Duration duration = LOG.isStatistics() ? LOG.newDuration(index.getClass().getName() + ".construction").begin() : null;
+        index.initialize();
+        if(duration != null) {
+          LOG.statistics(duration.end());
         }
-        Relation<?> relation = new MaterializedRelation<>(ometa, ids, null, store);
-        relations.add(relation);
-        getHierarchy().add(this, relation);
-
-        // Try to add indexes where appropriate
-        for(IndexFactory<?, ?> factory : indexFactories) {
-          if(factory.getInputTypeRestriction().isAssignableFromType(ometa)) {
-            @SuppressWarnings("unchecked")
-            final IndexFactory<Object, ?> ofact = (IndexFactory<Object, ?>) factory;
-            @SuppressWarnings("unchecked")
-            final Relation<Object> orep = (Relation<Object>) relation;
-            final Index index = ofact.instantiate(orep);
-            Duration duration = LOG.isStatistics() ? LOG.newDuration(index.getClass().getName() + ".construction").begin() : null;
-            index.initialize();
-            if(duration != null) {
-              LOG.statistics(duration.end());
-            }
-            getHierarchy().add(relation, index);
-          }
+        getHierarchy().add(relation, index);
+      }
+    }
+  }
+
+  /**
+   * Store a column of double or float vectors in a packed relation.
+   *
+   * @param bundle Bundle
+   * @param i Column number
+   * @return Packed relation, or {@code null} if the column cannot be packed.
+   */
+  @SuppressWarnings("unchecked")
+  private AbstractPackedVectorRelation<?> makePackedRelation(MultipleObjectsBundle bundle, int i) {
+    if(!(ids instanceof DBIDRange) || !(bundle.meta(i) instanceof VectorFieldTypeInformation)) {
+      return null;
+    }
+    VectorFieldTypeInformation<?> vmeta = (VectorFieldTypeInformation<?>) bundle.meta(i);
+    final Class<?> cls = vmeta.getRestrictionClass();
+    final DBIDRange range = (DBIDRange) ids;
+    AbstractPackedVectorRelation<?> relation = //
+    cls == DoubleVector.class ? new PackedDoubleVectorRelation((VectorFieldTypeInformation<DoubleVector>) vmeta, range, null) : //
+    cls == FloatVector.class ? new PackedFloatVectorRelation((VectorFieldTypeInformation<FloatVector>) vmeta, range, null) : null;
+    if(relation != null) {
+      for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+        relation.set(it, (NumberVector) bundle.data(it.getOffset(), i));
+      }
+    }
+    return relation;
+  }
+
+  /**
+   * Column of double or float vectors of fixed dimensionality, stored in a
+   * growing primitive array while the data is read.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private static class PackedColumn {
+    /**
+     * Column type.
+     */
+    VectorFieldTypeInformation<?> meta;
+
+    /**
+     * Dimensionality.
+     */
+    final int dim;
+
+    /**
+     * Data storage for double vectors, or {@code null}.
+     */
+    double[] ddata;
+
+    /**
+     * Data storage for float vectors, or {@code null}.
+     */
+    float[] fdata;
+
+    /**
+     * Number of vectors stored.
+     */
+    int size = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param meta Column type
+     * @param isfloat Store float values
+     */
+    private PackedColumn(VectorFieldTypeInformation<?> meta, boolean isfloat) {
+      this.meta = meta;
+      this.dim = meta.getDimensionality();
+      if(isfloat) {
+        fdata = new float[dim << 10];
+      }
+      else {
+        ddata = new double[dim << 10];
+      }
+    }
+
+    /**
+     * Make a packed column, if supported for the type.
+     *
+     * @param meta Column type
+     * @return Column, or {@code null}
+     */
+    static PackedColumn make(SimpleTypeInformation<?> meta) {
+      if(!(meta instanceof VectorFieldTypeInformation)) {
+        return null;
+      }
+      VectorFieldTypeInformation<?> vmeta = (VectorFieldTypeInformation<?>) meta;
+      if(vmeta.mindim() != vmeta.maxdim() || vmeta.maxdim() <= 0) {
+        return null;
+      }
+      final Class<?> cls = meta.getRestrictionClass();
+      return cls == DoubleVector.class ? new PackedColumn(vmeta, false) : //
+          cls == FloatVector.class ? new PackedColumn(vmeta, true) : null;
+    }
+
+    /**
+     * Update the column type, if compatible.
+     *
+     * @param nmeta New column type
+     * @return {@code false} if the column can no longer be packed
+     */
+    boolean accepts(SimpleTypeInformation<?> nmeta) {
+      if(!(nmeta instanceof VectorFieldTypeInformation) || nmeta.getRestrictionClass() != meta.getRestrictionClass()) {
+        return false;
+      }
+      VectorFieldTypeInformation<?> vmeta = (VectorFieldTypeInformation<?>) nmeta;
+      if(vmeta.mindim() != dim || vmeta.maxdim() != dim) {
+        return false;
+      }
+      meta = vmeta;
+      return true;
+    }
+
+    /**
+     * Append a vector.
+     *
+     * @param obj Vector
+     * @return {@code false} if the vector cannot be stored in this column
+     */
+    boolean add(Object obj) {
+      if(!(obj instanceof NumberVector) || ((NumberVector) obj).getDimensionality() != dim) {
+        return false;
+      }
+      final NumberVector vec = (NumberVector) obj;
+      final long need = (size + 1L) * dim;
+      if(need > AbstractPackedVectorRelation.MAX_ARRAY_SIZE) {
+        return false;
+      }
+      final int len = ddata != null ? ddata.length : fdata.length;
+      if(need > len) {
+        final int newlen = (int) Math.min(AbstractPackedVectorRelation.MAX_ARRAY_SIZE, Math.max(need, len + (long) (len >> 1)));
+        if(ddata != null) {
+          ddata = Arrays.copyOf(ddata, newlen);
+        }
+        else {
+          fdata = Arrays.copyOf(fdata, newlen);
+        }
+      }
+      final int off = size * dim;
+      if(ddata != null) {
+        for(int d = 0; d < dim; d++) {
+          ddata[off + d] = vec.doubleValue(d);
+        }
+      }
+      else {
+        for(int d = 0; d < dim; d++) {
+          fdata[off + d] = vec.floatValue(d);
         }
       }
+      ++size;
+      return true;
+    }
+
+    /**
+     * Convert the column to a list of vector objects.
+     *
+     * @return List of vectors
+     */
+    List<Object> unpack() {
+      ArrayList<Object> list = new ArrayList<>(size + 1);
+      for(int i = 0, off = 0; i < size; i++, off += dim) {
+        list.add(ddata != null ? DoubleVector.wrap(Arrays.copyOfRange(ddata, off, off + dim)) : new FloatVector(Arrays.copyOfRange(fdata, off, off + dim)));
+      }
+      ddata = null;
+      fdata = null;
+      return list;
+    }
 
-      // fire insertion event
-      eventManager.fireObjectsInserted(ids);
+    /**
+     * Build the packed relation.
+     *
+     * @param range DBIDs
+     * @return Relation
+     */
+    @SuppressWarnings("unchecked")
+    AbstractPackedVectorRelation<?> relation(DBIDRange range) {
+      if(ddata != null) {
+        return new PackedDoubleVectorRelation((VectorFieldTypeInformation<DoubleVector>) meta, range, null, Arrays.copyOf(ddata, size * dim));
+      }
+      return new PackedFloatVectorRelation((VectorFieldTypeInformation<FloatVector>) meta, range, null, Arrays.copyOf(fdata, size * dim));
     }
   }
 
@@ -192,6 +520,15 @@ public class StaticArrayDatabase extends AbstractDatabase {
    * @apiviz.exclude
    */
   public static class Parameterizer extends AbstractDatabase.Parameterizer {
+    /**
+     * Flag to store double and float vector fields in packed arrays, instead
+     * of individual vector objects.
+     * <p>
+     * Key: {@code -db.packed}
+     * </p>
+     */
+    public static final OptionID PACKED_ID = new OptionID("db.packed", "Store double and float vector fields in packed arrays instead of individual vector objects.");
+
     /**
      * Holds the database connection to get the initial data from.
      */
@@ -202,6 +539,11 @@ public class StaticArrayDatabase extends AbstractDatabase {
      */
     private Collection<IndexFactory<?, ?>> indexFactories;
 
+    /**
+     * Store vector fields in packed arrays.
+     */
+    private boolean packed;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -215,11 +557,15 @@ public class StaticArrayDatabase extends AbstractDatabase {
       if(config.grab(indexFactoryP)) {
         indexFactories = indexFactoryP.instantiateClasses(config);
       }
+      Flag packedF = new Flag(PACKED_ID);
+      if(config.grab(packedF)) {
+        packed = packedF.isTrue();
+      }
     }
 
     @Override
     protected StaticArrayDatabase makeInstance() {
-      return new StaticArrayDatabase(databaseConnection, indexFactories);
+      return new StaticArrayDatabase(databaseConnection, indexFactories, packed);
     }
   }
 }
@@ -118,24 +118,30 @@ public class LinearScanEuclideanDistanceKNNQuery<O extends NumberVector> extends
   }
 
   /**
-   * Perform a linear scan batch kNN for primitive distance functions.
+   * Squared Euclidean distance, aborting early when the bound is exceeded.
    *
-   * @param objs Objects list
-   * @param heaps Heaps array
+   * @param o1 First object
+   * @param o2 Second object
+   * @param bound Bound on the squared distance
+   * @return Squared distance, or a partial sum exceeding the bound
    */
   @Override
-  protected void linearScanBatchKNN(List<O> objs, List<KNNHeap> heaps) {
-    final int size = objs.size();
-    // Linear scan style KNN.
-    for(DBIDIter iter = relation.getDBIDs().iter(); iter.valid(); iter.advance()) {
-      O candidate = relation.get(iter);
-      for(int index = 0; index < size; index++) {
-        final KNNHeap heap = heaps.get(index);
-        final double dist = SQUARED.distance(objs.get(index), candidate);
-        if(dist <= heap.getKNNDistance()) {
-          heap.insert(dist, iter);
-        }
+  protected double boundedDistance(O o1, O o2, double bound) {
+    final int dim = o1.getDimensionality();
+    if(dim != o2.getDimensionality()) {
+      return SQUARED.distance(o1, o2);
+    }
+    double agg = 0.;
+    for(int d = 0; d < dim;) {
+      // Check the bound only every few dimensions.
+      for(final int end = Math.min(d + 8, dim); d < end; d++) {
+        final double delta = o1.doubleValue(d) - o2.doubleValue(d);
+        agg += delta * delta;
+      }
+      if(agg > bound) {
+        return agg;
       }
     }
+    return agg;
   }
-}
\ No newline at end of file
+}
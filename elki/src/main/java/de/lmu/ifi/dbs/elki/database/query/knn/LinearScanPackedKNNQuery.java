@@ -0,0 +1,108 @@
+package de.lmu.ifi.dbs.elki.database.query.knn;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2016
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.LinearScanQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.PrimitiveDistanceQuery;
+import de.lmu.ifi.dbs.elki.database.relation.AbstractPackedVectorRelation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+
+/**
+ * Linear scan kNN query on a packed vector relation, which accesses the data
+ * via lightweight views instead of creating a vector object for every
+ * candidate. Euclidean distance is computed as squared Euclidean distance.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ *
+ * @apiviz.uses AbstractPackedVectorRelation
+ *
+ * @param <O> Vector type
+ */
+public class LinearScanPackedKNNQuery<O extends NumberVector> extends AbstractDistanceKNNQuery<O> implements LinearScanQuery {
+  /**
+   * Packed relation.
+   */
+  private final AbstractPackedVectorRelation<?> packed;
+
+  /**
+   * Distance function to use.
+   */
+  private final NumberVectorDistanceFunction<?> rawdist;
+
+  /**
+   * Use the square root of the distances computed.
+   */
+  private final boolean sqrt;
+
+  /**
+   * Constructor.
+   *
+   * @param distanceQuery Distance query on a packed relation, using a
+   *        {@link NumberVectorDistanceFunction}
+   */
+  public LinearScanPackedKNNQuery(PrimitiveDistanceQuery<O> distanceQuery) {
+    super(distanceQuery);
+    this.packed = (AbstractPackedVectorRelation<?>) distanceQuery.getRelation();
+    this.sqrt = EuclideanDistanceFunction.STATIC.equals(distanceQuery.getDistanceFunction());
+    this.rawdist = sqrt ? SquaredEuclideanDistanceFunction.STATIC : (NumberVectorDistanceFunction<?>) distanceQuery.getDistanceFunction();
+  }
+
+  @Override
+  public KNNList getKNNForDBID(DBIDRef id, int k) {
+    return linearScan(packed.getView(id), k);
+  }
+
+  @Override
+  public KNNList getKNNForObject(O obj, int k) {
+    return linearScan(obj, k);
+  }
+
+  /**
+   * Main loop of the linear scan.
+   *
+   * @param obj Query object
+   * @param k Number of neighbors
+   * @return kNN result
+   */
+  private KNNList linearScan(NumberVector obj, int k) {
+    final KNNHeap heap = DBIDUtil.newHeap(k);
+    double max = Double.POSITIVE_INFINITY;
+    for(DBIDIter iter = packed.iterDBIDs(); iter.valid(); iter.advance()) {
+      final double dist = rawdist.distance(obj, packed.getView(iter));
+      if(dist <= max) {
+        max = heap.insert(dist, iter);
+      }
+    }
+    return sqrt ? heap.toKNNListSqrt() : heap.toKNNList();
+  }
+}
@@ -25,8 +25,10 @@ package de.lmu.ifi.dbs.elki.database.query.knn;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.RecursiveAction;
 
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
@@ -36,6 +38,7 @@ import de.lmu.ifi.dbs.elki.database.query.LinearScanQuery;
 import de.lmu.ifi.dbs.elki.database.query.distance.PrimitiveDistanceQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.PrimitiveDistanceFunction;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 
 /**
  * Instance of this query for a particular database.
@@ -50,6 +53,16 @@ import de.lmu.ifi.dbs.elki.distance.distancefunction.PrimitiveDistanceFunction;
  * @apiviz.uses PrimitiveDistanceFunction
  */
 public class LinearScanPrimitiveDistanceKNNQuery<O> extends AbstractDistanceKNNQuery<O> implements LinearScanQuery {
+  /**
+   * Number of query objects processed together in batch queries.
+   */
+  protected static final int QUERY_TILE = 64;
+
+  /**
+   * Number of data objects processed together in batch queries.
+   */
+  protected static final int DATA_TILE = 256;
+
   /**
    * Unboxed distance function.
    */
@@ -117,21 +130,145 @@ public class LinearScanPrimitiveDistanceKNNQuery<O> extends AbstractDistanceKNNQ
   /**
    * Perform a linear scan batch kNN for primitive distance functions.
    * 
+   * The queries and the data are processed in tiles, such that a tile of data
+   * objects is reused for a whole tile of queries while in the CPU cache.
+   * Query tiles are processed in parallel.
+   * 
    * @param objs Objects list
    * @param heaps Heaps array
    */
   protected void linearScanBatchKNN(List<O> objs, List<KNNHeap> heaps) {
     final int size = objs.size();
-    // Linear scan style KNN.
-    for(DBIDIter iter = relation.getDBIDs().iter(); iter.valid(); iter.advance()) {
-      O candidate = relation.get(iter);
-      for(int index = 0; index < size; index++) {
-        final KNNHeap heap = heaps.get(index);
-        final double dist = rawdist.distance(objs.get(index), candidate);
-        if(dist <= heap.getKNNDistance()) {
-          heap.insert(dist, iter);
+    final ArrayDBIDs data = DBIDUtil.ensureArray(relation.getDBIDs());
+    final ParallelCore core = ParallelCore.getCore();
+    if(core.getParallelism() > 1 && size > QUERY_TILE) {
+      core.connect();
+      try {
+        core.invoke(new TileRunner(objs, heaps, data, 0, size));
+      }
+      finally {
+        core.disconnect();
+      }
+      return;
+    }
+    for(int start = 0; start < size; start += QUERY_TILE) {
+      linearScanTile(objs, heaps, data, start, Math.min(start + QUERY_TILE, size));
+    }
+  }
+
+  /**
+   * Process a single tile of queries, against all data.
+   * 
+   * @param objs Query objects
+   * @param heaps Heaps of the query objects
+   * @param data Data objects
+   * @param qstart First query to process
+   * @param qend End of query tile (exclusive)
+   */
+  protected void linearScanTile(List<O> objs, List<KNNHeap> heaps, ArrayDBIDs data, int qstart, int qend) {
+    final int qsize = qend - qstart, dsize = data.size();
+    // Running k-distances, for pruning.
+    double[] kdists = new double[qsize];
+    for(int i = 0; i < qsize; i++) {
+      kdists[i] = heaps.get(qstart + i).getKNNDistance();
+    }
+    @SuppressWarnings("unchecked")
+    O[] cands = (O[]) new Object[Math.min(DATA_TILE, dsize)];
+    DBIDArrayIter iter = data.iter();
+    for(int dstart = 0; dstart < dsize; dstart += DATA_TILE) {
+      final int dlen = Math.min(DATA_TILE, dsize - dstart);
+      iter.seek(dstart);
+      for(int j = 0; j < dlen; j++, iter.advance()) {
+        cands[j] = relation.get(iter);
+      }
+      for(int i = 0; i < qsize; i++) {
+        final O obj = objs.get(qstart + i);
+        final KNNHeap heap = heaps.get(qstart + i);
+        double max = kdists[i];
+        for(int j = 0; j < dlen; j++) {
+          final double dist = boundedDistance(obj, cands[j], max);
+          if(dist <= max) {
+            max = heap.insert(dist, iter.seek(dstart + j));
+          }
         }
+        kdists[i] = max;
+      }
+    }
+  }
+
+  /**
+   * Compute the distance of two objects. If the distance exceeds the given
+   * bound, the computation may be aborted early, and any value larger than
+   * the bound may be returned.
+   * 
+   * @param o1 First object
+   * @param o2 Second object
+   * @param bound Distance bound (current k-distance)
+   * @return Distance
+   */
+  protected double boundedDistance(O o1, O o2, double bound) {
+    return rawdist.distance(o1, o2);
+  }
+
+  /**
+   * Process a range of query tiles, splitting it recursively.
+   * 
+   * @author Erich Schubert
+   */
+  private class TileRunner extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Query objects.
+     */
+    private List<O> objs;
+
+    /**
+     * Query heaps.
+     */
+    private List<KNNHeap> heaps;
+
+    /**
+     * Data objects.
+     */
+    private ArrayDBIDs data;
+
+    /**
+     * Query range.
+     */
+    private int start, end;
+
+    /**
+     * Constructor.
+     * 
+     * @param objs Query objects
+     * @param heaps Query heaps
+     * @param data Data objects
+     * @param start First query
+     * @param end End of queries (exclusive)
+     */
+    TileRunner(List<O> objs, List<KNNHeap> heaps, ArrayDBIDs data, int start, int end) {
+      super();
+      this.objs = objs;
+      this.heaps = heaps;
+      this.data = data;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if(end - start > QUERY_TILE) {
+        // Split at a tile boundary.
+        final int mid = start + ((((end - start) / QUERY_TILE) + 1) >>> 1) * QUERY_TILE;
+        invokeAll(new TileRunner(objs, heaps, data, start, mid), //
+            new TileRunner(objs, heaps, data, mid, end));
+        return;
       }
+      linearScanTile(objs, heaps, data, start, end);
     }
   }
-}
\ No newline at end of file
+}
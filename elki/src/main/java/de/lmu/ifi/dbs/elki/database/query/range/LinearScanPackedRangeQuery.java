@@ -0,0 +1,113 @@
+package de.lmu.ifi.dbs.elki.database.query.range;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2016
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.query.LinearScanQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.PrimitiveDistanceQuery;
+import de.lmu.ifi.dbs.elki.database.relation.AbstractPackedVectorRelation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+
+/**
+ * Linear scan range query on a packed vector relation, which accesses the
+ * data via lightweight views instead of creating a vector object for every
+ * candidate. Euclidean distance is computed as squared Euclidean distance.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ *
+ * @apiviz.uses AbstractPackedVectorRelation
+ *
+ * @param <O> Vector type
+ */
+public class LinearScanPackedRangeQuery<O extends NumberVector> extends AbstractDistanceRangeQuery<O> implements LinearScanQuery {
+  /**
+   * Packed relation.
+   */
+  private final AbstractPackedVectorRelation<?> packed;
+
+  /**
+   * Distance function to use.
+   */
+  private final NumberVectorDistanceFunction<?> rawdist;
+
+  /**
+   * Use the square root of the distances computed.
+   */
+  private final boolean sqrt;
+
+  /**
+   * Constructor.
+   *
+   * @param distanceQuery Distance query on a packed relation, using a
+   *        {@link NumberVectorDistanceFunction}
+   */
+  public LinearScanPackedRangeQuery(PrimitiveDistanceQuery<O> distanceQuery) {
+    super(distanceQuery);
+    this.packed = (AbstractPackedVectorRelation<?>) distanceQuery.getRelation();
+    this.sqrt = EuclideanDistanceFunction.STATIC.equals(distanceQuery.getDistanceFunction());
+    this.rawdist = sqrt ? SquaredEuclideanDistanceFunction.STATIC : (NumberVectorDistanceFunction<?>) distanceQuery.getDistanceFunction();
+  }
+
+  @Override
+  public void getRangeForDBID(DBIDRef id, double range, ModifiableDoubleDBIDList neighbors) {
+    linearScan(packed.getView(id), range, neighbors);
+  }
+
+  @Override
+  public void getRangeForObject(O obj, double range, ModifiableDoubleDBIDList neighbors) {
+    linearScan(obj, range, neighbors);
+  }
+
+  /**
+   * Main loop of the linear scan.
+   *
+   * @param obj Query object
+   * @param range Query radius
+   * @param result Output list
+   */
+  private void linearScan(NumberVector obj, double range, ModifiableDoubleDBIDList result) {
+    // Avoid a loss in numerical precision when using the squared radius:
+    final double upper = sqrt ? range * 1.0000001 : range;
+    final double bound = sqrt ? upper * upper : range;
+    for(DBIDIter iter = packed.iterDBIDs(); iter.valid(); iter.advance()) {
+      final double dist = rawdist.distance(obj, packed.getView(iter));
+      if(dist <= bound) {
+        if(!sqrt) {
+          result.add(dist, iter);
+          continue;
+        }
+        final double edist = Math.sqrt(dist);
+        if(edist <= range) { // double check, as we increased the radius above
+          result.add(edist, iter);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,275 @@
+package de.lmu.ifi.dbs.elki.database.relation;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.data.AbstractNumberVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+
+/**
+ * Abstract base class for relations that store a vector field in a single
+ * primitive array, in row-major order, instead of one object per vector.
+ *
+ * The relation keeps the type of the original vectors, so it binds to the same
+ * type requests (e.g. {@link de.lmu.ifi.dbs.elki.data.type.TypeUtil#DOUBLE_VECTOR_FIELD}).
+ * {@link #get} therefore creates a new vector of the original type from the
+ * packed values. Code aware of packed relations can avoid this copy by using
+ * {@link #doubleValue}, or the lightweight views returned by {@link #getView},
+ * which are only valid as long as the relation is not modified. The linear
+ * scan queries and the k-means loops access the vectors via
+ * {@link #getVector}, which uses these views.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ *
+ * @apiviz.has View
+ *
+ * @param <V> Vector type
+ */
+public abstract class AbstractPackedVectorRelation<V extends NumberVector> extends AbstractRelation<V> {
+  /**
+   * Maximum size of a Java array, as supported by common VMs.
+   */
+  public static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  /**
+   * Type information.
+   */
+  protected final VectorFieldTypeInformation<V> type;
+
+  /**
+   * Factory of the vector type.
+   */
+  protected final NumberVector.Factory<V> factory;
+
+  /**
+   * The DBIDs this is defined for.
+   */
+  protected final DBIDRange ids;
+
+  /**
+   * Dimensionality.
+   */
+  protected final int dim;
+
+  /**
+   * The relation name.
+   */
+  private String name;
+
+  /**
+   * Constructor.
+   *
+   * @param type Type information of the vectors
+   * @param ids IDs
+   * @param name Name
+   */
+  @SuppressWarnings("unchecked")
+  public AbstractPackedVectorRelation(VectorFieldTypeInformation<V> type, DBIDRange ids, String name) {
+    super();
+    this.dim = type.getDimensionality();
+    if((long) ids.size() * dim > MAX_ARRAY_SIZE) {
+      throw new AbortException("Cannot store " + ids.size() + " vectors of dimensionality " + dim + " in a packed relation, as this exceeds the maximum array size. Disable packed storage for this data set.");
+    }
+    this.type = type;
+    this.factory = (NumberVector.Factory<V>) type.getFactory();
+    this.ids = ids;
+    this.name = name;
+  }
+
+  /**
+   * Get a value by array position.
+   *
+   * @param pos Array position
+   * @return Value
+   */
+  protected abstract double value(int pos);
+
+  /**
+   * Set a value by array position.
+   *
+   * @param pos Array position
+   * @param val Value
+   */
+  protected abstract void setValue(int pos, double val);
+
+  @Override
+  public V get(DBIDRef id) {
+    return factory.newNumberVector(new View(position(id)));
+  }
+
+  /**
+   * Get a lightweight view of a vector, without copying the values.
+   *
+   * @param id Object id
+   * @return View of the packed values
+   */
+  public NumberVector getView(DBIDRef id) {
+    return new View(position(id));
+  }
+
+  /**
+   * Get a vector for read-only access: a lightweight view for packed
+   * relations, the stored vector otherwise.
+   *
+   * @param relation Relation
+   * @param id Object id
+   * @return Vector (do not keep views beyond modifications of the relation)
+   */
+  public static NumberVector getVector(Relation<? extends NumberVector> relation, DBIDRef id) {
+    return relation instanceof AbstractPackedVectorRelation ? ((AbstractPackedVectorRelation<?>) relation).getView(id) : relation.get(id);
+  }
+
+  /**
+   * Store a vector in the relation.
+   *
+   * @param id Object id
+   * @param vec Vector
+   */
+  public void set(DBIDRef id, NumberVector vec) {
+    assert (vec.getDimensionality() == dim) : "Dimensionality mismatch.";
+    for(int d = 0, p = position(id); d < dim; d++, p++) {
+      setValue(p, vec.doubleValue(d));
+    }
+  }
+
+  /**
+   * Get a single value, without creating a view.
+   *
+   * @param id Object id
+   * @param d Dimension
+   * @return Value
+   */
+  public double doubleValue(DBIDRef id, int d) {
+    return value(position(id) + d);
+  }
+
+  /**
+   * Get the position of the first value of an object in the array.
+   *
+   * @param id Object id
+   * @return Array position
+   */
+  protected int position(DBIDRef id) {
+    return ids.getOffset(id) * dim;
+  }
+
+  @Override
+  public DBIDRange getDBIDs() {
+    return ids;
+  }
+
+  @Override
+  public DBIDIter iterDBIDs() {
+    return ids.iter();
+  }
+
+  @Override
+  public int size() {
+    return ids.size();
+  }
+
+  @Override
+  public VectorFieldTypeInformation<V> getDataTypeInformation() {
+    return type;
+  }
+
+  @Override
+  public String getLongName() {
+    return (name != null) ? name : type.toString();
+  }
+
+  @Override
+  public String getShortName() {
+    return "relation";
+  }
+
+  /**
+   * Flyweight view of a single row of the packed array.
+   *
+   * @author Erich Schubert
+   */
+  private class View extends AbstractNumberVector {
+    /**
+     * Start position in the data array.
+     */
+    private final int off;
+
+    /**
+     * Constructor.
+     *
+     * @param off Start position in the data array
+     */
+    View(int off) {
+      this.off = off;
+    }
+
+    @Override
+    public int getDimensionality() {
+      return dim;
+    }
+
+    @Override
+    public double doubleValue(int dimension) {
+      return value(off + dimension);
+    }
+
+    @Override
+    public long longValue(int dimension) {
+      return (long) value(off + dimension);
+    }
+
+    @Override
+    @Deprecated
+    public Double getValue(int dimension) {
+      return value(off + dimension);
+    }
+
+    @Override
+    public double[] toArray() {
+      double[] ret = new double[dim];
+      for(int d = 0; d < dim; d++) {
+        ret[d] = value(off + d);
+      }
+      return ret;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder buf = new StringBuilder(dim * 8);
+      for(int d = 0; d < dim; d++) {
+        if(d > 0) {
+          buf.append(ATTRIBUTE_SEPARATOR);
+        }
+        buf.append(value(off + d));
+      }
+      return buf.toString();
+    }
+  }
+}
@@ -35,6 +35,7 @@ import de.lmu.ifi.dbs.elki.distance.distancefunction.DBIDDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.similarityfunction.DBIDSimilarityFunction;
 import de.lmu.ifi.dbs.elki.distance.similarityfunction.SimilarityFunction;
+import de.lmu.ifi.dbs.elki.index.CostEstimatingIndex;
 import de.lmu.ifi.dbs.elki.index.DistanceIndex;
 import de.lmu.ifi.dbs.elki.index.Index;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
@@ -43,6 +44,9 @@ import de.lmu.ifi.dbs.elki.index.RangeIndex;
 import de.lmu.ifi.dbs.elki.index.SimilarityIndex;
 import de.lmu.ifi.dbs.elki.index.SimilarityRangeIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.StringStatistic;
 import de.lmu.ifi.dbs.elki.result.AbstractHierarchicalResult;
 import de.lmu.ifi.dbs.elki.result.Result;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.hierarchy.Hierarchy.Iter;
@@ -129,20 +133,36 @@ public abstract class AbstractRelation<O> extends AbstractHierarchicalResult imp
     if(distanceQuery == null) {
       throw new AbortException("kNN query requested for 'null' distance!");
     }
-    for(Iter<Result> it = getHierarchy().iterChildrenReverse(this); it.valid(); it.advance()) {
+    // Query planning: prefer the cheapest index, by their cost estimates.
+    final int k = getKHint(hints);
+    final boolean approximate = acceptsApproximate(hints);
+    QueryPlan<KNNQuery<O>> plan = new QueryPlan<>();
+    int pos = 0;
+    for(Iter<Result> it = getHierarchy().iterChildrenReverse(this); it.valid(); it.advance(), pos++) {
       if(!(it.get() instanceof KNNIndex)) {
         continue;
       }
       @SuppressWarnings("unchecked")
       final KNNIndex<O> knnIndex = (KNNIndex<O>) it.get();
+      final double cost = knnIndex instanceof CostEstimatingIndex ? ((CostEstimatingIndex) knnIndex).estimateKNNCost(k) : Double.NaN;
+      if(!plan.improves(knnIndex, cost)) {
+        if(getLogger().isDebuggingFinest()) {
+          getLogger().debugFinest("Not considering index for kNN query (cost " + cost + "): " + knnIndex);
+        }
+        continue;
+      }
       KNNQuery<O> q = knnIndex.getKNNQuery(distanceQuery, hints);
       if(getLogger().isDebuggingFinest()) {
         getLogger().debugFinest((q != null ? "Using" : "Not using") + " index for kNN query: " + knnIndex);
       }
       if(q != null) {
-        return q;
+        plan.add(knnIndex, cost, pos, q);
       }
     }
+    if(plan.choose(approximate)) {
+      logQueryPlan("knn", plan.bestIndex, plan.bestCost);
+      return plan.best;
+    }
 
     // Default
     for(Object hint : hints) {
@@ -176,20 +196,36 @@ public abstract class AbstractRelation<O> extends AbstractHierarchicalResult imp
     if(distanceQuery == null) {
       throw new AbortException("Range query requested for 'null' distance!");
     }
-    for(Iter<Result> it = getHierarchy().iterChildrenReverse(this); it.valid(); it.advance()) {
+    // Query planning: prefer the cheapest index, by their cost estimates.
+    final double range = getRangeHint(hints);
+    final boolean approximate = acceptsApproximate(hints);
+    QueryPlan<RangeQuery<O>> plan = new QueryPlan<>();
+    int pos = 0;
+    for(Iter<Result> it = getHierarchy().iterChildrenReverse(this); it.valid(); it.advance(), pos++) {
       if(!(it.get() instanceof RangeIndex)) {
         continue;
       }
       @SuppressWarnings("unchecked")
       final RangeIndex<O> rangeIndex = (RangeIndex<O>) it.get();
+      final double cost = rangeIndex instanceof CostEstimatingIndex ? ((CostEstimatingIndex) rangeIndex).estimateRangeCost(range) : Double.NaN;
+      if(!plan.improves(rangeIndex, cost)) {
+        if(getLogger().isDebuggingFinest()) {
+          getLogger().debugFinest("Not considering index for range query (cost " + cost + "): " + rangeIndex);
+        }
+        continue;
+      }
       RangeQuery<O> q = rangeIndex.getRangeQuery(distanceQuery, hints);
       if(getLogger().isDebuggingFinest()) {
         getLogger().debugFinest((q != null ? "Using" : "Not using") + " index for range query: " + rangeIndex);
       }
       if(q != null) {
-        return q;
+        plan.add(rangeIndex, cost, pos, q);
       }
     }
+    if(plan.choose(approximate)) {
+      logQueryPlan("range", plan.bestIndex, plan.bestCost);
+      return plan.best;
+    }
 
     // Default
     for(Object hint : hints) {
@@ -317,6 +353,203 @@ public abstract class AbstractRelation<O> extends AbstractHierarchicalResult imp
     return getRKNNQuery(distanceQuery, hints);
   }
 
+  /**
+   * Test whether the caller accepts approximate answers, via
+   * {@link DatabaseQuery#HINT_APPROXIMATE} or
+   * {@link DatabaseQuery#HINT_OPTIMIZED_ONLY}.
+   *
+   * @param hints Query hints
+   * @return {@code true} if approximate indexes may compete on cost
+   */
+  private static boolean acceptsApproximate(Object[] hints) {
+    for(Object hint : hints) {
+      if(hint == DatabaseQuery.HINT_APPROXIMATE || hint == DatabaseQuery.HINT_OPTIMIZED_ONLY) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Query plan: the best exact and the best approximate index found so far.
+   *
+   * Among indexes of the same kind, indexes with a cost estimate are preferred
+   * over indexes without one; without comparable estimates the first match,
+   * i.e. the most recently added index, is used as before.
+   *
+   * An approximate index is only chosen over an exact index if the caller
+   * accepts approximate answers and both have a cost estimate (or neither has
+   * one, then the first match is used). An exact index without an estimate
+   * therefore is preferred over approximate indexes, and approximate indexes
+   * are only used otherwise if no exact index can answer the query.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   *
+   * @param <Q> Query type
+   */
+  private static class QueryPlan<Q> {
+    /**
+     * Best exact and approximate queries.
+     */
+    Q exact, approx;
+
+    /**
+     * Indexes of the best queries.
+     */
+    Index exactIndex, approxIndex;
+
+    /**
+     * Estimated costs of the best queries.
+     */
+    double exactCost = Double.NaN, approxCost = Double.NaN;
+
+    /**
+     * Positions of the indexes, for first-match order.
+     */
+    int exactPos, approxPos;
+
+    /**
+     * Chosen query.
+     */
+    Q best;
+
+    /**
+     * Chosen index.
+     */
+    Index bestIndex;
+
+    /**
+     * Estimated cost of the chosen query.
+     */
+    double bestCost = Double.NaN;
+
+    /**
+     * Test whether an index could improve the plan, before building its query.
+     *
+     * @param index Index
+     * @param cost Estimated cost, may be {@code NaN}
+     * @return {@code true} if the index should be considered
+     */
+    boolean improves(Index index, double cost) {
+      return isApproximate(index) ? improves(approx, approxCost, cost) : improves(exact, exactCost, cost);
+    }
+
+    /**
+     * Test whether a cost improves over the previous best of the same kind.
+     *
+     * @param prev Previous best query, may be {@code null}
+     * @param prevCost Previous cost, may be {@code NaN}
+     * @param cost New cost, may be {@code NaN}
+     * @return {@code true} if the new cost is better
+     */
+    private static boolean improves(Object prev, double prevCost, double cost) {
+      // Note: !(prevCost <= cost) is true if only the previous cost is NaN.
+      return prev == null || (cost == cost && !(prevCost <= cost));
+    }
+
+    /**
+     * Add a query to the plan.
+     *
+     * @param index Index
+     * @param cost Estimated cost, may be {@code NaN}
+     * @param pos Position of the index
+     * @param q Query
+     */
+    void add(Index index, double cost, int pos, Q q) {
+      if(isApproximate(index)) {
+        approx = q;
+        approxIndex = index;
+        approxCost = cost;
+        approxPos = pos;
+      }
+      else {
+        exact = q;
+        exactIndex = index;
+        exactCost = cost;
+        exactPos = pos;
+      }
+    }
+
+    /**
+     * Choose between the best exact and the best approximate query.
+     *
+     * @param acceptApproximate Caller accepts approximate answers
+     * @return {@code true} if any index can answer the query
+     */
+    boolean choose(boolean acceptApproximate) {
+      boolean useApprox = exact == null;
+      if(exact != null && approx != null && acceptApproximate) {
+        final boolean ee = exactCost == exactCost, ae = approxCost == approxCost;
+        useApprox = ee && ae ? approxCost < exactCost : (!ee && !ae && approxPos < exactPos);
+      }
+      best = useApprox ? approx : exact;
+      bestIndex = useApprox ? approxIndex : exactIndex;
+      bestCost = useApprox ? approxCost : exactCost;
+      return best != null;
+    }
+
+    /**
+     * Test whether an index is approximate.
+     *
+     * @param index Index
+     * @return {@code true} for approximate indexes
+     */
+    private static boolean isApproximate(Index index) {
+      return index instanceof CostEstimatingIndex && ((CostEstimatingIndex) index).isApproximate();
+    }
+  }
+
+  /**
+   * Find the number of neighbors in the query hints.
+   *
+   * @param hints Query hints
+   * @return Largest k given, {@code 0} if unknown
+   */
+  private static int getKHint(Object[] hints) {
+    int k = 0;
+    for(Object hint : hints) {
+      if(hint instanceof Integer) {
+        k = Math.max(k, (Integer) hint);
+      }
+    }
+    return k;
+  }
+
+  /**
+   * Find the query radius in the query hints.
+   *
+   * @param hints Query hints
+   * @return Largest radius given, {@code NaN} if unknown
+   */
+  private static double getRangeHint(Object[] hints) {
+    double range = Double.NaN;
+    for(Object hint : hints) {
+      if(hint instanceof Double) {
+        final double r = (Double) hint;
+        range = range == range ? Math.max(range, r) : r;
+      }
+    }
+    return range;
+  }
+
+  /**
+   * Log the index chosen by the query planner.
+   *
+   * @param type Query type
+   * @param index Index chosen
+   * @param cost Estimated cost
+   */
+  private void logQueryPlan(String type, Index index, double cost) {
+    if(getLogger().isStatistics()) {
+      final String prefix = this.getClass().getName() + ".query-planner." + type;
+      getLogger().statistics(new StringStatistic(prefix + ".index", index.getLongName()));
+      getLogger().statistics(new DoubleStatistic(prefix + ".estimated-cost", cost));
+      getLogger().statistics(new LongStatistic(prefix + ".linear-scan-cost", size()));
+    }
+  }
+
   /**
    * Get the class logger.
    *
@@ -0,0 +1,104 @@
+package de.lmu.ifi.dbs.elki.database.relation;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+
+/**
+ * Relation storing all vectors in a single {@code double[]} array, in row-major
+ * order. This avoids the per-object overhead of individual vectors, and keeps
+ * the data contiguous in memory.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class PackedDoubleVectorRelation extends AbstractPackedVectorRelation<DoubleVector> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(PackedDoubleVectorRelation.class);
+
+  /**
+   * Packed data.
+   */
+  private final double[] data;
+
+  /**
+   * Constructor.
+   *
+   * @param type Type information of the vectors
+   * @param ids IDs
+   * @param name Name
+   */
+  public PackedDoubleVectorRelation(VectorFieldTypeInformation<DoubleVector> type, DBIDRange ids, String name) {
+    super(type, ids, name);
+    this.data = new double[ids.size() * dim];
+  }
+
+  /**
+   * Constructor, using an already filled array.
+   *
+   * @param type Type information of the vectors
+   * @param ids IDs
+   * @param name Name
+   * @param data Packed data, of length {@code ids.size() * dim} (not copied!)
+   */
+  public PackedDoubleVectorRelation(VectorFieldTypeInformation<DoubleVector> type, DBIDRange ids, String name, double[] data) {
+    super(type, ids, name);
+    if(data.length != ids.size() * dim) {
+      throw new AbortException("Packed data has length " + data.length + ", expected " + ids.size() * dim + ".");
+    }
+    this.data = data;
+  }
+
+  @Override
+  protected double value(int pos) {
+    return data[pos];
+  }
+
+  @Override
+  protected void setValue(int pos, double val) {
+    data[pos] = val;
+  }
+
+  /**
+   * Get the packed data array. Object {@code i} in the DBID range is stored
+   * at positions {@code i * dim} to {@code (i + 1) * dim - 1}.
+   *
+   * @return Data array (not a copy!)
+   */
+  public double[] getData() {
+    return data;
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+}
@@ -26,31 +26,77 @@ package de.lmu.ifi.dbs.elki.datasource;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.util.List;
 
+import de.lmu.ifi.dbs.elki.datasource.bundle.BundleReader;
+import de.lmu.ifi.dbs.elki.datasource.bundle.BundleStreamSource;
+import de.lmu.ifi.dbs.elki.datasource.bundle.BundleWriter;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
 import de.lmu.ifi.dbs.elki.datasource.filter.ObjectFilter;
 import de.lmu.ifi.dbs.elki.datasource.parser.ArffParser;
 import de.lmu.ifi.dbs.elki.datasource.parser.NumberVectorLabelParser;
 import de.lmu.ifi.dbs.elki.datasource.parser.Parser;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
 import de.lmu.ifi.dbs.elki.utilities.io.FileUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.TrackParameters;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.TrackedParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Parameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
 
 /**
  * File based database connection based on the parser to be set.
  * 
+ * Optionally, the parsed and filtered data is cached in a bundle file next to
+ * the input file. The name of the cache file includes a hash of the
+ * modification time and size of the input file, and of the parser and filter
+ * configuration, so it is only reused if none of these changed. One cache file
+ * is kept per configuration; when a new cache file is written, cache files of
+ * the same input that are older than the input file are removed, as they can
+ * never match again. Caches of other configurations are kept, and can be
+ * deleted manually. If a filter uses an unseeded random generator, the result
+ * is not reproducible and is not cached.
+ * 
+ * The cache uses the regular bundle format, which {@link BundleReader} reads
+ * from a memory-mapped file. This avoids parsing, but the objects are still
+ * decoded: the bundle format stores rows with per-object serializers, so it
+ * does not allow zero-copy access to numeric columns.
+ * 
  * @author Arthur Zimek
  * @since 0.2
  * 
  * @apiviz.landmark
+ * @apiviz.uses BundleReader
+ * @apiviz.uses BundleWriter
  */
 @Alias("de.lmu.ifi.dbs.elki.database.connection.FileBasedDatabaseConnection")
 public class FileBasedDatabaseConnection extends InputStreamDatabaseConnection {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(FileBasedDatabaseConnection.class);
+
+  /**
+   * Input file, may be {@code null} when reading from a stream.
+   */
+  private File infile;
+
+  /**
+   * Description of the parser and filter configuration for the cache, or
+   * {@code null} to disable caching.
+   */
+  private String cacheConfig;
+
   /**
    * Constructor.
    * 
@@ -59,7 +105,22 @@ public class FileBasedDatabaseConnection extends InputStreamDatabaseConnection {
    * @param infile File to load the data from
    */
   public FileBasedDatabaseConnection(List<ObjectFilter> filters, Parser parser, File infile) {
+    this(filters, parser, infile, null);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param filters Filters, can be null
+   * @param parser the parser to provide a database
+   * @param infile File to load the data from
+   * @param cacheConfig Description of the parser and filter configuration,
+   *        used to validate the bundle cache; {@code null} disables caching.
+   */
+  public FileBasedDatabaseConnection(List<ObjectFilter> filters, Parser parser, File infile, String cacheConfig) {
     super(null, filters, parser);
+    this.infile = infile;
+    this.cacheConfig = cacheConfig;
     try {
       this.in = new BufferedInputStream(FileUtil.tryGzipInput(new FileInputStream(infile)));
     }
@@ -96,6 +157,163 @@ public class FileBasedDatabaseConnection extends InputStreamDatabaseConnection {
     super(in, filters, parser);
   }
 
+  @Override
+  public MultipleObjectsBundle loadData() {
+    if(cacheConfig == null || infile == null) {
+      return super.loadData();
+    }
+    File cachefile = getCacheFile();
+    if(cachefile.exists()) {
+      MultipleObjectsBundle bundle = readCache(cachefile);
+      if(bundle != null) {
+        try {
+          in.close();
+        }
+        catch(IOException e) {
+          LOG.exception(e);
+        }
+        return bundle;
+      }
+    }
+    MultipleObjectsBundle bundle = super.loadData();
+    writeCache(bundle, cachefile);
+    return bundle;
+  }
+
+  @Override
+  public BundleStreamSource loadDataStream() {
+    // The bundle cache is read and written as a whole.
+    return (cacheConfig == null || infile == null) ? super.loadDataStream() : loadData().asStream();
+  }
+
+  /**
+   * Get the cache file name, which includes a hash of the input file
+   * modification time and size, and of the configuration.
+   * 
+   * @return Cache file
+   */
+  protected File getCacheFile() {
+    final String key = infile.lastModified() + " " + infile.length() + " " + cacheConfig;
+    // 64 bit FNV-1a hash
+    long hash = 0xcbf29ce484222325L;
+    for(int i = 0; i < key.length(); i++) {
+      hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+    }
+    return new File(infile.getPath() + "." + Long.toHexString(hash) + ".bundle");
+  }
+
+  /**
+   * Read the cached bundle.
+   * 
+   * @param cachefile Cache file
+   * @return Bundle, or {@code null} if the cache could not be read.
+   */
+  private MultipleObjectsBundle readCache(File cachefile) {
+    if(LOG.isVerbose()) {
+      LOG.verbose("Reading cached bundle: " + cachefile);
+    }
+    Duration duration = LOG.isStatistics() ? LOG.newDuration(this.getClass().getName() + ".cache.load").begin() : null;
+    FileInputStream fis = null;
+    try {
+      fis = new FileInputStream(cachefile);
+      MultipleObjectsBundle bundle = new BundleReader(fis.getChannel()).asMultipleObjectsBundle();
+      if(duration != null) {
+        LOG.statistics(duration.end());
+      }
+      return bundle;
+    }
+    catch(IOException | AbortException e) {
+      LOG.warning("Could not read cache file " + cachefile + ", parsing the input file instead: " + e.getMessage());
+      return null;
+    }
+    finally {
+      if(fis != null) {
+        try {
+          fis.close();
+        }
+        catch(IOException e) {
+          LOG.exception(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Write the bundle cache. Failures only produce a warning.
+   * 
+   * @param bundle Bundle to write
+   * @param cachefile Cache file
+   */
+  private void writeCache(MultipleObjectsBundle bundle, File cachefile) {
+    if(LOG.isVerbose()) {
+      LOG.verbose("Writing bundle cache: " + cachefile);
+    }
+    // Write to a temporary file first, so we never leave incomplete caches.
+    File tmpfile = new File(cachefile.getPath() + ".tmp");
+    boolean success = false;
+    try {
+      FileOutputStream fos = new FileOutputStream(tmpfile);
+      try {
+        FileChannel channel = fos.getChannel();
+        new BundleWriter().writeBundleStream(bundle.asStream(), channel);
+        channel.force(false);
+      }
+      finally {
+        fos.close();
+      }
+      success = tmpfile.renameTo(cachefile);
+    }
+    catch(IOException | AbortException e) {
+      LOG.warning("Could not write cache file " + cachefile + ": " + e.getMessage());
+    }
+    if(!success && tmpfile.exists() && !tmpfile.delete()) {
+      LOG.warning("Could not remove temporary file " + tmpfile);
+    }
+    if(success) {
+      removeStaleCaches(cachefile);
+    }
+  }
+
+  /**
+   * Remove cache files of the same input file that were written before the
+   * last modification of the input file, and thus can no longer be used.
+   * 
+   * @param cachefile Current cache file, kept
+   */
+  private void removeStaleCaches(File cachefile) {
+    final File dir = infile.getAbsoluteFile().getParentFile();
+    final File[] files = dir != null ? dir.listFiles() : null;
+    if(files == null) {
+      return;
+    }
+    final String prefix = infile.getName() + ".";
+    final long modified = infile.lastModified();
+    for(File f : files) {
+      String name = f.getName();
+      if(!name.startsWith(prefix) || !name.endsWith(".bundle") || f.equals(cachefile.getAbsoluteFile())) {
+        continue;
+      }
+      // Only remove files that look like our caches: <input>.<hex>.bundle
+      String hex = name.substring(prefix.length(), name.length() - 7);
+      if(hex.isEmpty() || hex.length() > 16 || !hex.matches("[0-9a-f]+")) {
+        continue;
+      }
+      if(f.lastModified() < modified) {
+        if(LOG.isVerbose()) {
+          LOG.verbose("Removing stale bundle cache: " + f);
+        }
+        if(!f.delete()) {
+          LOG.warning("Could not remove stale cache file " + f);
+        }
+      }
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
   /**
    * Parameterization class.
    * 
@@ -112,11 +330,24 @@ public class FileBasedDatabaseConnection extends InputStreamDatabaseConnection {
      */
     public static final OptionID INPUT_ID = new OptionID("dbc.in", "The name of the input file to be parsed.");
 
+    /**
+     * Flag to cache the parsed and filtered data in a bundle file.
+     * <p>
+     * Key: {@code -dbc.cache}
+     * </p>
+     */
+    public static final OptionID CACHE_ID = new OptionID("dbc.cache", "Cache the parsed and filtered data in a bundle file next to the input file, and reuse it while the input file and the configuration are unchanged. Caches of outdated input files are removed, caches of other configurations are kept. Configurations with unseeded random filters are not cached.");
+
     /**
      * Input stream to process.
      */
     protected File infile;
 
+    /**
+     * Configuration description for caching, {@code null} to disable.
+     */
+    protected String cacheConfig;
+
     @Override
     protected void makeOptions(Parameterization config) {
       Class<? extends Parser> defaultParser = NumberVectorLabelParser.class;
@@ -129,13 +360,31 @@ public class FileBasedDatabaseConnection extends InputStreamDatabaseConnection {
           defaultParser = ArffParser.class;
         }
       }
-      configParser(config, Parser.class, defaultParser);
-      configFilters(config);
+      // Track the parser and filter parameters, as key for the cache.
+      TrackParameters track = new TrackParameters(config);
+      configParser(track, Parser.class, defaultParser);
+      configFilters(track);
+      Flag cacheF = new Flag(CACHE_ID);
+      if(config.grab(cacheF) && cacheF.isTrue()) {
+        StringBuilder buf = new StringBuilder();
+        for(TrackedParameter tp : track.getAllParameters()) {
+          Parameter<?> p = tp.getParameter();
+          // Results of unseeded random filters must not be reused.
+          if(p instanceof RandomParameter && p.isDefined() && "null".equals(p.getValueAsString())) {
+            LOG.warning("Not caching the input data, because parameter " + p.getName() + " uses an unseeded random generator.");
+            buf = null;
+            break;
+          }
+          buf.append(p.getOptionID().getName()).append('=');
+          buf.append(p.isDefined() ? p.getValueAsString() : "").append(' ');
+        }
+        cacheConfig = buf != null ? buf.toString() : null;
+      }
     }
 
     @Override
     protected FileBasedDatabaseConnection makeInstance() {
-      return new FileBasedDatabaseConnection(filters, parser, infile);
+      return new FileBasedDatabaseConnection(filters, parser, infile, cacheConfig);
     }
   }
 }
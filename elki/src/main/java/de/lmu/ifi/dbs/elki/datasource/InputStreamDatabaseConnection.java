@@ -26,6 +26,9 @@ package de.lmu.ifi.dbs.elki.datasource;
 import java.io.InputStream;
 import java.util.List;
 
+import de.lmu.ifi.dbs.elki.database.ids.DBIDVar;
+import de.lmu.ifi.dbs.elki.datasource.bundle.BundleMeta;
+import de.lmu.ifi.dbs.elki.datasource.bundle.BundleStreamSource;
 import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
 import de.lmu.ifi.dbs.elki.datasource.filter.ObjectFilter;
 import de.lmu.ifi.dbs.elki.datasource.parser.NumberVectorLabelParser;
@@ -120,6 +123,84 @@ public class InputStreamDatabaseConnection extends AbstractDatabaseConnection {
     }
   }
 
+  /**
+   * Load the data as a stream, without collecting it into a bundle first.
+   * This allows the database to store the objects in a different layout
+   * while they are read. Non-streaming parsers are parsed and filtered
+   * completely, as in {@link #loadData}.
+   *
+   * @return Stream of filtered objects
+   */
+  public BundleStreamSource loadDataStream() {
+    if(!(parser instanceof StreamingParser)) {
+      return loadData().asStream();
+    }
+    final StreamingParser streamParser = (StreamingParser) parser;
+    streamParser.initStream(in);
+    if(LOG.isDebugging()) {
+      LOG.debugFine("Parsing as stream.");
+    }
+    return new CleanupStream(invokeStreamFilters(streamParser));
+  }
+
+  /**
+   * Stream wrapper that releases the parser at the end of the stream.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private class CleanupStream implements BundleStreamSource {
+    /**
+     * Filtered stream.
+     */
+    private BundleStreamSource inner;
+
+    /**
+     * Constructor.
+     *
+     * @param inner Filtered stream
+     */
+    public CleanupStream(BundleStreamSource inner) {
+      super();
+      this.inner = inner;
+    }
+
+    @Override
+    public BundleMeta getMeta() {
+      return inner.getMeta();
+    }
+
+    @Override
+    public Object data(int rnum) {
+      return inner.data(rnum);
+    }
+
+    @Override
+    public boolean hasDBIDs() {
+      return inner.hasDBIDs();
+    }
+
+    @Override
+    public boolean assignDBID(DBIDVar var) {
+      return inner.assignDBID(var);
+    }
+
+    @Override
+    public Event nextEvent() {
+      Event ev = inner.nextEvent();
+      if(ev == Event.END_OF_STREAM) {
+        parser.cleanup();
+      }
+      return ev;
+    }
+
+    @Override
+    public MultipleObjectsBundle asMultipleObjectsBundle() {
+      return MultipleObjectsBundle.fromStream(this);
+    }
+  }
+
   @Override
   protected Logging getLogger() {
     return LOG;
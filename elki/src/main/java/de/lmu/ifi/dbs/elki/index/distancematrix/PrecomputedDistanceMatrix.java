@@ -23,8 +23,15 @@ package de.lmu.ifi.dbs.elki.index.distancematrix;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.RecursiveAction;
 
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
@@ -51,10 +58,13 @@ import de.lmu.ifi.dbs.elki.index.RangeIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 
 /**
@@ -67,6 +77,16 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
  * arrays of 31 bits (signed integer), we can store at most 2^16 objects
  * (precisely, 65536 objects) in a single array, which needs about 16 GB of RAM.
  *
+ * The matrix can optionally be stored in single precision, which halves the
+ * memory requirements, and it can be backed by a memory-mapped file (in the
+ * spirit of {@link de.lmu.ifi.dbs.elki.persistent.OnDiskUpperTriangleMatrix}),
+ * which is not subject to the array size limit, and thus needed for larger
+ * data sets. The file is only used when given explicitly, and it is kept after
+ * use (the mappings cannot be released explicitly, and are only unmapped when
+ * garbage collected), so it can be inspected or deleted by the user. The
+ * matrix is filled in parallel, using
+ * {@link ParallelCore}, so the distance function must be thread-safe.
+ *
  * @author Erich Schubert
  * @since 0.7.0
  *
@@ -82,6 +102,16 @@ public class PrecomputedDistanceMatrix<O> extends AbstractIndex<O> implements Di
    */
   private static final Logging LOG = Logging.getLogger(PrecomputedDistanceMatrix.class);
 
+  /**
+   * Maximum number of objects for on-heap storage.
+   */
+  private static final int MAX_ARRAY_SIZE = 65536;
+
+  /**
+   * Minimum number of distances per parallel task.
+   */
+  private static final int PARALLEL_THRESHOLD = 1 << 16;
+
   /**
    * Nested distance function.
    */
@@ -95,7 +125,17 @@ public class PrecomputedDistanceMatrix<O> extends AbstractIndex<O> implements Di
   /**
    * Distance matrix.
    */
-  private double[] matrix = null;
+  private Storage matrix = null;
+
+  /**
+   * Store distances with single precision only.
+   */
+  private boolean useFloat;
+
+  /**
+   * File to memory-map, may be {@code null}.
+   */
+  private final File filename;
 
   /**
    * DBID range.
@@ -114,8 +154,22 @@ public class PrecomputedDistanceMatrix<O> extends AbstractIndex<O> implements Di
    * @param distanceFunction Distance function
    */
   public PrecomputedDistanceMatrix(Relation<O> relation, DistanceFunction<? super O> distanceFunction) {
+    this(relation, distanceFunction, false, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param distanceFunction Distance function
+   * @param useFloat Store distances with single precision only
+   * @param filename File to memory-map the matrix to, may be {@code null}
+   */
+  public PrecomputedDistanceMatrix(Relation<O> relation, DistanceFunction<? super O> distanceFunction, boolean useFloat, File filename) {
     super(relation);
     this.distanceFunction = distanceFunction;
+    this.useFloat = useFloat;
+    this.filename = filename;
 
     if(!distanceFunction.isSymmetric()) {
       throw new AbortException("Distance matrixes currently only support symmetric distance functions (Patches welcome).");
@@ -130,28 +184,40 @@ public class PrecomputedDistanceMatrix<O> extends AbstractIndex<O> implements Di
     }
     ids = (DBIDRange) rids;
     size = ids.size();
-    if(size > 65536) {
-      throw new AbortException("Distance matrixes currently have a limit of 65536 objects (~16 GB). After this, the array size exceeds the Java integer range, and a different data structure needs to be used.");
-    }
 
     distanceQuery = distanceFunction.instantiate(relation);
 
-    final int msize = triangleSize(size);
-    matrix = new double[msize];
-    DBIDArrayIter ix = ids.iter(), iy = ids.iter();
+    final long msize = triangleSize(size);
+    if(filename == null && size > MAX_ARRAY_SIZE) {
+      throw new AbortException("Distance matrixes in memory have a limit of " + MAX_ARRAY_SIZE + " objects (~16 GB). For larger data sets, use a memory-mapped file with -" + Factory.Parameterizer.FILE_ID.getName());
+    }
+    if(filename != null) {
+      try {
+        matrix = new MappedStorage(filename, size, msize, useFloat);
+      }
+      catch(IOException e) {
+        throw new AbortException("Could not map the distance matrix file.", e);
+      }
+    }
+    else {
+      matrix = useFloat ? new FloatStorage((int) msize) : new DoubleStorage((int) msize);
+    }
 
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Precomputing distance matrix", msize, LOG) : null;
-    int pos = 0;
-    for(ix.seek(0); ix.valid(); ix.advance()) {
-      // y < x -- must match {@link #getOffset}!
-      for(iy.seek(0); iy.getOffset() < ix.getOffset(); iy.advance()) {
-        matrix[pos] = distanceQuery.distance(ix, iy);
-        pos++;
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Precomputing distance matrix", size, LOG) : null;
+    final ParallelCore core = ParallelCore.getCore();
+    FillTask task = new FillTask(0, size, prog);
+    if(core.getParallelism() > 1 && msize > PARALLEL_THRESHOLD) {
+      core.connect();
+      try {
+        core.invoke(task);
       }
-      if(prog != null) {
-        prog.setProcessed(prog.getProcessed() + ix.getOffset(), LOG);
+      finally {
+        core.disconnect();
       }
     }
+    else {
+      task.compute();
+    }
     LOG.ensureCompleted(prog);
   }
 
@@ -161,8 +227,8 @@ public class PrecomputedDistanceMatrix<O> extends AbstractIndex<O> implements Di
    * @param x Offset
    * @return Size of complete triangle
    */
-  protected static int triangleSize(int x) {
-    return (x * (x - 1)) >>> 1;
+  protected static long triangleSize(int x) {
+    return (x * (long) (x - 1)) >>> 1;
   }
 
   /**
@@ -172,14 +238,75 @@ public class PrecomputedDistanceMatrix<O> extends AbstractIndex<O> implements Di
    * @param y Y parameter
    * @return Array offset
    */
-  private int getOffset(int x, int y) {
+  private static long getOffset(int x, int y) {
     return (y < x) ? (triangleSize(x) + y) : (triangleSize(y) + x);
   }
 
   @Override
   public void logStatistics() {
     if(matrix != null) {
-      LOG.statistics(new LongStatistic(this.getClass().getName() + ".matrix-size", matrix.length));
+      LOG.statistics(new LongStatistic(this.getClass().getName() + ".matrix-size", triangleSize(size)));
+    }
+  }
+
+  /**
+   * Fill a block of rows of the triangle matrix, splitting it into blocks of
+   * roughly equal work for parallel processing.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private class FillTask extends RecursiveAction {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Row range.
+     */
+    final int start, end;
+
+    /**
+     * Progress, may be {@code null}.
+     */
+    final FiniteProgress prog;
+
+    /**
+     * Constructor.
+     *
+     * @param start First row
+     * @param end End row (exclusive)
+     * @param prog Progress, may be {@code null}
+     */
+    FillTask(int start, int end, FiniteProgress prog) {
+      this.start = start;
+      this.end = end;
+      this.prog = prog;
+    }
+
+    @Override
+    protected void compute() {
+      if(end - start > 1 && triangleSize(end) - triangleSize(start) > PARALLEL_THRESHOLD && getPool() != null) {
+        // Split where half of the triangle area is on either side.
+        int mid = (int) Math.sqrt(.5 * ((double) start * start + (double) end * end));
+        mid = Math.max(start + 1, Math.min(end - 1, mid));
+        invokeAll(new FillTask(start, mid, prog), new FillTask(mid, end, prog));
+        return;
+      }
+      DBIDArrayIter ix = ids.iter(), iy = ids.iter();
+      // y < x -- must match {@link #getOffset}!
+      long pos = triangleSize(start);
+      for(ix.seek(start); ix.getOffset() < end; ix.advance()) {
+        for(iy.seek(0); iy.getOffset() < ix.getOffset(); iy.advance()) {
+          matrix.set(pos, distanceQuery.distance(ix, iy));
+          pos++;
+        }
+        if(prog != null) {
+          prog.incrementProcessed(LOG);
+        }
+      }
     }
   }
 
@@ -226,7 +353,7 @@ public class PrecomputedDistanceMatrix<O> extends AbstractIndex<O> implements Di
     @Override
     public double distance(DBIDRef id1, DBIDRef id2) {
       final int x = ids.getOffset(id1), y = ids.getOffset(id2);
-      return (x != y) ? matrix[getOffset(x, y)] : 0.;
+      return (x != y) ? matrix.get(getOffset(x, y)) : 0.;
     }
 
     @Override
@@ -276,9 +403,9 @@ public class PrecomputedDistanceMatrix<O> extends AbstractIndex<O> implements Di
 
       final int x = ids.getOffset(id);
       // Case y < x: triangleSize(x) + y
-      int pos = triangleSize(x);
+      long pos = triangleSize(x);
       for(int y = 0; y < x; y++) {
-        final double dist = matrix[pos];
+        final double dist = matrix.get(pos);
         if(dist <= range) {
           result.add(dist, it.seek(y));
         }
@@ -288,7 +415,7 @@ public class PrecomputedDistanceMatrix<O> extends AbstractIndex<O> implements Di
       // Case y > x: triangleSize(y) + x
       pos = triangleSize(x + 1) + x;
       for(int y = x + 1; y < size; y++) {
-        final double dist = matrix[pos];
+        final double dist = matrix.get(pos);
         if(dist <= range) {
           result.add(dist, it.seek(y));
         }
@@ -321,9 +448,9 @@ public class PrecomputedDistanceMatrix<O> extends AbstractIndex<O> implements Di
       double max = Double.POSITIVE_INFINITY;
       final int x = ids.getOffset(id);
       // Case y < x: triangleSize(x) + y
-      int pos = triangleSize(x);
+      long pos = triangleSize(x);
       for(int y = 0; y < x; y++) {
-        final double dist = matrix[pos];
+        final double dist = matrix.get(pos);
         if(dist <= max) {
           max = heap.insert(dist, it.seek(y));
         }
@@ -333,7 +460,7 @@ public class PrecomputedDistanceMatrix<O> extends AbstractIndex<O> implements Di
       // Case y > x: triangleSize(y) + x
       pos = triangleSize(x + 1) + x;
       for(int y = x + 1; y < size; y++) {
-        final double dist = matrix[pos];
+        final double dist = matrix.get(pos);
         if(dist <= max) {
           max = heap.insert(dist, it.seek(y));
         }
@@ -358,6 +485,190 @@ public class PrecomputedDistanceMatrix<O> extends AbstractIndex<O> implements Di
     }
   }
 
+  /**
+   * Storage of the upper triangle of the distance matrix.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private abstract static class Storage {
+    /**
+     * Get a distance.
+     *
+     * @param pos Position, see {@link PrecomputedDistanceMatrix#getOffset}
+     * @return Distance
+     */
+    abstract double get(long pos);
+
+    /**
+     * Store a distance.
+     *
+     * @param pos Position, see {@link PrecomputedDistanceMatrix#getOffset}
+     * @param dist Distance
+     */
+    abstract void set(long pos, double dist);
+  }
+
+  /**
+   * On-heap storage with double precision.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private static class DoubleStorage extends Storage {
+    /**
+     * Distance values.
+     */
+    final double[] data;
+
+    /**
+     * Constructor.
+     *
+     * @param size Number of distances
+     */
+    DoubleStorage(int size) {
+      data = new double[size];
+    }
+
+    @Override
+    double get(long pos) {
+      return data[(int) pos];
+    }
+
+    @Override
+    void set(long pos, double dist) {
+      data[(int) pos] = dist;
+    }
+  }
+
+  /**
+   * On-heap storage with single precision.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private static class FloatStorage extends Storage {
+    /**
+     * Distance values.
+     */
+    final float[] data;
+
+    /**
+     * Constructor.
+     *
+     * @param size Number of distances
+     */
+    FloatStorage(int size) {
+      data = new float[size];
+    }
+
+    @Override
+    double get(long pos) {
+      return data[(int) pos];
+    }
+
+    @Override
+    void set(long pos, double dist) {
+      data[(int) pos] = (float) dist;
+    }
+  }
+
+  /**
+   * Storage in a memory-mapped file.
+   *
+   * As a single mapping is limited to 2 GB, the file is mapped in multiple
+   * segments. Values are stored in native byte order, as the file is only used
+   * as scratch space for the lifetime of the index: an existing file is always
+   * overwritten, and never reused, as neither the data nor the distance
+   * function can be verified. The header only identifies the file contents.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private static class MappedStorage extends Storage {
+    /**
+     * Magic number of the file format.
+     */
+    private static final int MAGIC = 0x444D4154;
+
+    /**
+     * Header: magic, matrix size and record size.
+     */
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * Number of records per segment, as power of two.
+     */
+    private static final int SEGMENT_SHIFT = 27;
+
+    /**
+     * Mask for the offset within a segment.
+     */
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    /**
+     * Mapped segments.
+     */
+    final ByteBuffer[] segments;
+
+    /**
+     * Store with single precision.
+     */
+    final boolean single;
+
+    /**
+     * Constructor.
+     *
+     * @param filename File name
+     * @param matrixsize Number of objects
+     * @param size Number of distances
+     * @param single Store with single precision
+     * @throws IOException on file errors
+     */
+    MappedStorage(File filename, int matrixsize, long size, boolean single) throws IOException {
+      this.single = single;
+      final int shift = single ? 2 : 3;
+      segments = new ByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+      // The mappings remain valid after the file has been closed.
+      try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+        file.setLength(HEADER_SIZE + (size << shift));
+        file.seek(0);
+        file.writeInt(MAGIC);
+        file.writeInt(matrixsize);
+        file.writeInt(1 << shift);
+        FileChannel channel = file.getChannel();
+        for(int i = 0; i < segments.length; i++) {
+          final long first = ((long) i) << SEGMENT_SHIFT;
+          final long len = Math.min(SEGMENT_MASK + 1, size - first) << shift;
+          segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + (first << shift), len).order(ByteOrder.nativeOrder());
+        }
+      }
+    }
+
+    @Override
+    double get(long pos) {
+      final ByteBuffer seg = segments[(int) (pos >>> SEGMENT_SHIFT)];
+      final int off = (int) (pos & SEGMENT_MASK);
+      return single ? seg.getFloat(off << 2) : seg.getDouble(off << 3);
+    }
+
+    @Override
+    void set(long pos, double dist) {
+      final ByteBuffer seg = segments[(int) (pos >>> SEGMENT_SHIFT)];
+      final int off = (int) (pos & SEGMENT_MASK);
+      if(single) {
+        seg.putFloat(off << 2, (float) dist);
+      }
+      else {
+        seg.putDouble(off << 3, dist);
+      }
+    }
+  }
+
   /**
    * Factory for the index.
    *
@@ -373,19 +684,42 @@ public class PrecomputedDistanceMatrix<O> extends AbstractIndex<O> implements Di
      */
     final protected DistanceFunction<? super O> distanceFunction;
 
+    /**
+     * Store distances with single precision only.
+     */
+    final protected boolean useFloat;
+
+    /**
+     * File to memory-map, may be {@code null}.
+     */
+    final protected File filename;
+
     /**
      * Constructor.
      *
      * @param distanceFunction Distance function
      */
     public Factory(DistanceFunction<? super O> distanceFunction) {
+      this(distanceFunction, false, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param distanceFunction Distance function
+     * @param useFloat Store distances with single precision only
+     * @param filename File to memory-map the matrix to, may be {@code null}
+     */
+    public Factory(DistanceFunction<? super O> distanceFunction, boolean useFloat, File filename) {
       super();
       this.distanceFunction = distanceFunction;
+      this.useFloat = useFloat;
+      this.filename = filename;
     }
 
     @Override
     public PrecomputedDistanceMatrix<O> instantiate(Relation<O> relation) {
-      return new PrecomputedDistanceMatrix<>(relation, distanceFunction);
+      return new PrecomputedDistanceMatrix<>(relation, distanceFunction, useFloat, filename);
     }
 
     @Override
@@ -408,11 +742,31 @@ public class PrecomputedDistanceMatrix<O> extends AbstractIndex<O> implements Di
        */
       public static final OptionID DISTANCE_ID = new OptionID("matrix.distance", "Distance function for the precomputed distance matrix.");
 
+      /**
+       * Flag to store distances with single precision only.
+       */
+      public static final OptionID FLOAT_ID = new OptionID("matrix.float", "Store the distances with single precision only, to halve the memory requirements.");
+
+      /**
+       * Option for the file to memory-map the matrix to.
+       */
+      public static final OptionID FILE_ID = new OptionID("matrix.file", "File to memory-map the distance matrix to, used as scratch space and overwritten. Required for data sets with more than 65536 objects.");
+
       /**
        * Nested distance function.
        */
       protected DistanceFunction<? super O> distanceFunction;
 
+      /**
+       * Store distances with single precision only.
+       */
+      protected boolean useFloat;
+
+      /**
+       * File to memory-map, may be {@code null}.
+       */
+      protected File filename;
+
       @Override
       protected void makeOptions(Parameterization config) {
         super.makeOptions(config);
@@ -420,11 +774,19 @@ public class PrecomputedDistanceMatrix<O> extends AbstractIndex<O> implements Di
         if(config.grab(distanceP)) {
           distanceFunction = distanceP.instantiateClass(config);
         }
+        Flag floatF = new Flag(FLOAT_ID);
+        if(config.grab(floatF)) {
+          useFloat = floatF.isTrue();
+        }
+        FileParameter fileP = new FileParameter(FILE_ID, FileParameter.FileType.OUTPUT_FILE, true);
+        if(config.grab(fileP)) {
+          filename = fileP.getValue();
+        }
       }
 
       @Override
       protected Factory<O> makeInstance() {
-        return new Factory<>(distanceFunction);
+        return new Factory<>(distanceFunction, useFloat, filename);
       }
     }
   }
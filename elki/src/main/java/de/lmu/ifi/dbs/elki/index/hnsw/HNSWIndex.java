@@ -0,0 +1,891 @@
+package de.lmu.ifi.dbs.elki.index.hnsw;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractRefiningIndex;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerMaxHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+/**
+ * Hierarchical navigable small world graphs (HNSW) for approximate nearest
+ * neighbor search with arbitrary distance functions.
+ *
+ * Every object is assigned a random, exponentially distributed maximum level.
+ * On each level, objects are linked to (a diverse selection of) their
+ * approximate nearest neighbors; queries descend greedily from the top level,
+ * and run a beam search of width {@code ef} on the bottom level.
+ *
+ * The graph is constructed by concurrent insertions, using the
+ * {@link ParallelExecutor}. Adjacency lists are stored as fixed size
+ * {@code int[]} arrays, with the number of neighbors in the first entry.
+ *
+ * Reference:
+ * <p>
+ * Y. A. Malkov and D. A. Yashunin<br />
+ * Efficient and robust approximate nearest neighbor search using Hierarchical
+ * Navigable Small World graphs<br />
+ * CoRR, abs/1603.09320
+ * </p>
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ *
+ * @apiviz.has HNSWKNNQuery
+ * @apiviz.has HNSWRangeQuery
+ *
+ * @param <O> Object type
+ */
+@Reference(authors = "Y. A. Malkov and D. A. Yashunin", //
+title = "Efficient and robust approximate nearest neighbor search using Hierarchical Navigable Small World graphs", //
+booktitle = "CoRR, abs/1603.09320", //
+url = "http://arxiv.org/abs/1603.09320")
+public class HNSWIndex<O> extends AbstractRefiningIndex<O> implements KNNIndex<O>, RangeIndex<O> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(HNSWIndex.class);
+
+  /**
+   * Distance query.
+   */
+  private DistanceQuery<O> distanceQuery;
+
+  /**
+   * Number of neighbors to link on each level (twice as many on level 0).
+   */
+  private int m;
+
+  /**
+   * Beam width during construction.
+   */
+  private int efConstruction;
+
+  /**
+   * Beam width for queries.
+   */
+  private int efSearch;
+
+  /**
+   * Random generator for the level assignment.
+   */
+  private RandomFactory random;
+
+  /**
+   * Indexed objects, graph nodes are offsets into this array.
+   */
+  private ArrayDBIDs ids;
+
+  /**
+   * Adjacency lists, indexed by node and level. The first entry of each list
+   * is the number of neighbors.
+   */
+  private int[][][] links;
+
+  /**
+   * Entry point of the search, an object on the top level.
+   */
+  private int entryPoint = -1;
+
+  /**
+   * Current top level.
+   */
+  private int maxLevel = -1;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param distanceQuery Distance query
+   * @param m Number of neighbors to link on each level
+   * @param efConstruction Beam width during construction
+   * @param efSearch Beam width for queries
+   * @param random Random generator for the level assignment
+   */
+  public HNSWIndex(Relation<O> relation, DistanceQuery<O> distanceQuery, int m, int efConstruction, int efSearch, RandomFactory random) {
+    super(relation);
+    this.distanceQuery = distanceQuery;
+    this.m = m;
+    this.efConstruction = efConstruction;
+    this.efSearch = efSearch;
+    this.random = random;
+  }
+
+  @Override
+  public void initialize() {
+    ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    links = new int[size][][];
+    if(size == 0) {
+      return;
+    }
+    // Assign levels with an exponential distribution, normalized by ln(m).
+    final Random rnd = random.getSingleThreadedRandom();
+    final double mL = 1. / Math.log(m);
+    final WritableIntegerDataStore nodes = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      final int node = it.getOffset();
+      final int level = (int) (-Math.log(1. - rnd.nextDouble()) * mL);
+      links[node] = new int[level + 1][];
+      for(int l = 0; l <= level; l++) {
+        links[node][l] = new int[(l == 0 ? m << 1 : m) + 1];
+      }
+      nodes.putInt(it, node);
+    }
+    // The first object is the initial entry point:
+    entryPoint = 0;
+    maxLevel = links[0].length - 1;
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building HNSW graph", size - 1, LOG) : null;
+    ParallelExecutor.run(ids.slice(1, size), prog, LOG, new InsertProcessor(nodes));
+    nodes.destroy();
+  }
+
+  /**
+   * Processor for parallel insertion into the graph.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private class InsertProcessor implements Processor {
+    /**
+     * Map from DBIDs to graph nodes.
+     */
+    private WritableIntegerDataStore nodes;
+
+    /**
+     * Constructor.
+     *
+     * @param nodes Map from DBIDs to graph nodes
+     */
+    public InsertProcessor(WritableIntegerDataStore nodes) {
+      this.nodes = nodes;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      final Searcher searcher = new Searcher(new int[links.length], false);
+      return new Instance() {
+        @Override
+        public void map(DBIDRef id) {
+          searcher.insert(nodes.intValue(id));
+        }
+      };
+    }
+
+    @Override
+    public void cleanup(Instance inst) {
+      // Nothing to do.
+    }
+  }
+
+  /**
+   * Search state, which must not be shared by multiple threads.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private class Searcher {
+    /**
+     * Iterators for accessing the objects.
+     */
+    private DBIDArrayIter iter = ids.iter(), iter2 = ids.iter();
+
+    /**
+     * Visited marker, by generation (for construction).
+     */
+    private int[] visitedGen;
+
+    /**
+     * Current generation.
+     */
+    private int gen = 0;
+
+    /**
+     * Visited nodes (for queries).
+     */
+    private TIntHashSet visitedSet;
+
+    /**
+     * Buffer for copying adjacency lists.
+     */
+    private int[] buf = new int[m << 1];
+
+    /**
+     * Candidates to expand.
+     */
+    private DoubleIntegerMinHeap candidates = new DoubleIntegerMinHeap();
+
+    /**
+     * Current results of the beam search.
+     */
+    private DoubleIntegerMaxHeap results = new DoubleIntegerMaxHeap();
+
+    /**
+     * Distance of the closest object found by the last search.
+     */
+    private double bestDist;
+
+    /**
+     * Count the distance computations as refinements.
+     */
+    private boolean count;
+
+    /**
+     * Constructor.
+     *
+     * @param visitedGen Visited marker array, or {@code null} to use a hash
+     *        set (for single queries)
+     * @param count Count distance computations as refinements
+     */
+    Searcher(int[] visitedGen, boolean count) {
+      this.visitedGen = visitedGen;
+      this.visitedSet = visitedGen == null ? new TIntHashSet() : null;
+      this.count = count;
+    }
+
+    /**
+     * Compute the distance to a graph node.
+     *
+     * @param obj Object
+     * @param node Graph node
+     * @return Distance
+     */
+    private double distance(O obj, int node) {
+      if(count) {
+        countRefinements(1);
+      }
+      return distanceQuery.distance(obj, iter.seek(node));
+    }
+
+    /**
+     * Start a new search.
+     */
+    private void resetVisited() {
+      if(visitedSet != null) {
+        visitedSet.clear();
+        return;
+      }
+      if(++gen == 0) { // Overflow: reset
+        Arrays.fill(visitedGen, 0);
+        gen = 1;
+      }
+    }
+
+    /**
+     * Mark a node as visited.
+     *
+     * @param node Node
+     * @return {@code true} if the node had not been visited before
+     */
+    private boolean visit(int node) {
+      if(visitedSet != null) {
+        return visitedSet.add(node);
+      }
+      if(visitedGen[node] == gen) {
+        return false;
+      }
+      visitedGen[node] = gen;
+      return true;
+    }
+
+    /**
+     * Copy the adjacency list of a node into the buffer.
+     *
+     * @param node Node
+     * @param level Level
+     * @return Number of neighbors
+     */
+    private int copyLinks(int node, int level) {
+      final int[] list = links[node][level];
+      synchronized(list) {
+        final int c = list[0];
+        System.arraycopy(list, 1, buf, 0, c);
+        return c;
+      }
+    }
+
+    /**
+     * Greedy search for the closest node on the upper levels.
+     *
+     * @param obj Query object
+     * @param ep Entry point
+     * @param epd Distance to the entry point
+     * @param top Top level
+     * @param bottom Bottom level (exclusive)
+     * @return Closest node found, its distance is in {@link #bestDist}.
+     */
+    private int descend(O obj, int ep, double epd, int top, int bottom) {
+      for(int level = top; level > bottom; level--) {
+        boolean changed = true;
+        while(changed) {
+          changed = false;
+          for(int i = 0, c = copyLinks(ep, level); i < c; i++) {
+            final int e = buf[i];
+            final double d = distance(obj, e);
+            if(d < epd) {
+              ep = e;
+              epd = d;
+              changed = true;
+            }
+          }
+        }
+      }
+      bestDist = epd;
+      return ep;
+    }
+
+    /**
+     * Beam search on a single level. The results are in {@link #results}.
+     *
+     * @param obj Query object
+     * @param ep Entry point
+     * @param epd Distance to the entry point
+     * @param ef Beam width
+     * @param level Level
+     * @param range Radius for range queries, negative otherwise
+     * @param rangeResult Output for range queries, or {@code null}
+     */
+    private void searchLevel(O obj, int ep, double epd, int ef, int level, double range, ModifiableDoubleDBIDList rangeResult) {
+      resetVisited();
+      candidates.clear();
+      results.clear();
+      visit(ep);
+      candidates.add(epd, ep);
+      results.add(epd, ep);
+      if(rangeResult != null && epd <= range) {
+        rangeResult.add(epd, iter.seek(ep));
+      }
+      while(!candidates.isEmpty()) {
+        final double cd = candidates.peekKey();
+        if(cd > results.peekKey() && results.size() >= ef && cd > range) {
+          break;
+        }
+        final int c = candidates.peekValue();
+        candidates.poll();
+        for(int i = 0, n = copyLinks(c, level); i < n; i++) {
+          final int e = buf[i];
+          if(!visit(e)) {
+            continue;
+          }
+          final double d = distance(obj, e);
+          if(rangeResult != null && d <= range) {
+            rangeResult.add(d, iter.seek(e));
+          }
+          if(results.size() < ef) {
+            results.add(d, e);
+            candidates.add(d, e);
+          }
+          else if(d < results.peekKey()) {
+            results.replaceTopElement(d, e);
+            candidates.add(d, e);
+          }
+          else if(d <= range) {
+            candidates.add(d, e);
+          }
+        }
+      }
+    }
+
+    /**
+     * Insert a node into the graph.
+     *
+     * @param q Node to insert
+     */
+    void insert(int q) {
+      final O obj = relation.get(iter2.seek(q));
+      final int ep0, top;
+      synchronized(HNSWIndex.this) {
+        ep0 = entryPoint;
+        top = maxLevel;
+      }
+      final int qlevel = links[q].length - 1;
+      int ep = descend(obj, ep0, distance(obj, ep0), top, qlevel);
+      double epd = bestDist;
+      for(int level = Math.min(top, qlevel); level >= 0; level--) {
+        searchLevel(obj, ep, epd, efConstruction, level, -1., null);
+        // Extract the results in ascending order, except the object itself.
+        double[] dists = new double[results.size()];
+        int[] nodes = new int[results.size()];
+        int cnt = results.size();
+        for(int i = cnt - 1; i >= 0; i--) {
+          dists[i] = results.peekKey();
+          nodes[i] = results.peekValue();
+          results.poll();
+        }
+        int n = 0;
+        for(int i = 0; i < cnt; i++) {
+          if(nodes[i] != q) {
+            dists[n] = dists[i];
+            nodes[n++] = nodes[i];
+          }
+        }
+        if(n == 0) {
+          continue;
+        }
+        ep = nodes[0];
+        epd = dists[0];
+        final int mmax = level == 0 ? m << 1 : m;
+        n = selectNeighbors(dists, nodes, n, m);
+        final int[] list = links[q][level];
+        synchronized(list) {
+          System.arraycopy(nodes, 0, list, 1, n);
+          list[0] = n;
+        }
+        for(int i = 0; i < n; i++) {
+          addLink(nodes[i], q, dists[i], level, mmax);
+        }
+      }
+      if(qlevel > top) {
+        synchronized(HNSWIndex.this) {
+          if(qlevel > maxLevel) {
+            maxLevel = qlevel;
+            entryPoint = q;
+          }
+        }
+      }
+    }
+
+    /**
+     * Add a reverse link, shrinking the adjacency list if necessary.
+     *
+     * @param node Node to modify
+     * @param q New neighbor
+     * @param d Distance to the new neighbor
+     * @param level Level
+     * @param mmax Maximum number of neighbors
+     */
+    private void addLink(int node, int q, double d, int level, int mmax) {
+      final int[] list = links[node][level];
+      synchronized(list) {
+        final int c = list[0];
+        for(int i = 1; i <= c; i++) {
+          if(list[i] == q) {
+            return;
+          }
+        }
+        if(c < mmax) {
+          list[c + 1] = q;
+          list[0] = c + 1;
+          return;
+        }
+        // Overflow: choose the best neighbors again.
+        final O obj = relation.get(iter2.seek(node));
+        double[] dists = new double[c + 1];
+        int[] nodes = new int[c + 1];
+        for(int i = 0; i < c; i++) {
+          nodes[i] = list[i + 1];
+          dists[i] = distance(obj, nodes[i]);
+        }
+        nodes[c] = q;
+        dists[c] = d;
+        DoubleIntegerArrayQuickSort.sort(dists, nodes, c + 1);
+        final int n = selectNeighbors(dists, nodes, c + 1, mmax);
+        System.arraycopy(nodes, 0, list, 1, n);
+        list[0] = n;
+      }
+    }
+
+    /**
+     * Neighbor selection heuristic: keep a candidate only if it is closer to
+     * the base object than to all neighbors selected so far, which yields
+     * neighbors in different directions.
+     *
+     * @param dists Distances to the base object, ascending
+     * @param nodes Candidates (modified: the selected nodes are moved to the
+     *        front)
+     * @param cnt Number of candidates
+     * @param max Maximum number of neighbors
+     * @return Number of neighbors selected
+     */
+    private int selectNeighbors(double[] dists, int[] nodes, int cnt, int max) {
+      int n = 0;
+      for(int i = 0; i < cnt && n < max; i++) {
+        final int e = nodes[i];
+        final double de = dists[i];
+        boolean good = true;
+        for(int j = 0; j < n; j++) {
+          if(distanceQuery.distance(iter2.seek(e), iter.seek(nodes[j])) < de) {
+            good = false;
+            break;
+          }
+        }
+        if(good) {
+          nodes[n] = e;
+          dists[n++] = de;
+        }
+      }
+      return n;
+    }
+
+    /**
+     * Run an approximate query on the bottom level.
+     *
+     * @param obj Query object
+     * @param ef Beam width
+     * @param range Radius for range queries, negative otherwise
+     * @param rangeResult Output for range queries, or {@code null}
+     */
+    void query(O obj, int ef, double range, ModifiableDoubleDBIDList rangeResult) {
+      final int ep = descend(obj, entryPoint, distance(obj, entryPoint), maxLevel, 0);
+      searchLevel(obj, ep, bestDist, ef, 0, range, rangeResult);
+    }
+  }
+
+  @Override
+  public KNNQuery<O> getKNNQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    if(!checkQuery(distanceQuery, hints)) {
+      return null;
+    }
+    return new HNSWKNNQuery(distanceQuery);
+  }
+
+  @Override
+  public RangeQuery<O> getRangeQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    if(!checkQuery(distanceQuery, hints)) {
+      return null;
+    }
+    return new HNSWRangeQuery(distanceQuery);
+  }
+
+  /**
+   * Check if the index can be used for a query.
+   *
+   * @param distanceQuery Distance query
+   * @param hints Query hints
+   * @return {@code true} if supported
+   */
+  private boolean checkQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    for(Object hint : hints) {
+      if(DatabaseQuery.HINT_EXACT.equals(hint)) {
+        return false;
+      }
+    }
+    // Query on the relation we index
+    if(distanceQuery.getRelation() != relation) {
+      return false;
+    }
+    if(!this.distanceQuery.getDistanceFunction().equals(distanceQuery.getDistanceFunction())) {
+      if(LOG.isDebugging()) {
+        LOG.debug("Distance function not supported by index - or 'equals' not implemented right!");
+      }
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public String getLongName() {
+    return "HNSW index";
+  }
+
+  @Override
+  public String getShortName() {
+    return "hnsw-index";
+  }
+
+  @Override
+  public Logging getLogger() {
+    return LOG;
+  }
+
+  @Override
+  public void logStatistics() {
+    super.logStatistics();
+    long edges = 0;
+    for(int[][] node : links) {
+      edges += node[0][0];
+    }
+    LOG.statistics(new LongStatistic(HNSWIndex.class.getName() + ".levels", maxLevel + 1));
+    LOG.statistics(new DoubleStatistic(HNSWIndex.class.getName() + ".degree.mean", edges / (double) Math.max(links.length, 1)));
+  }
+
+  /**
+   * kNN query implementation.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  protected class HNSWKNNQuery extends AbstractRefiningIndex<O>.AbstractKNNQuery {
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     */
+    public HNSWKNNQuery(DistanceQuery<O> distanceQuery) {
+      super(distanceQuery);
+    }
+
+    @Override
+    public KNNList getKNNForObject(O obj, int k) {
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      if(entryPoint < 0) {
+        return heap.toKNNList();
+      }
+      Searcher searcher = new Searcher(null, true);
+      searcher.query(obj, Math.max(efSearch, k), -1., null);
+      DBIDArrayIter it = ids.iter();
+      for(DoubleIntegerHeap.UnsortedIter iter = searcher.results.unsortedIter(); iter.valid(); iter.advance()) {
+        heap.insert(iter.getKey(), it.seek(iter.getValue()));
+      }
+      return heap.toKNNList();
+    }
+  }
+
+  /**
+   * Range query implementation.
+   *
+   * Objects within the radius are collected during the beam search; the
+   * search continues as long as candidates within the radius remain.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  protected class HNSWRangeQuery extends AbstractRefiningIndex<O>.AbstractRangeQuery {
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     */
+    public HNSWRangeQuery(DistanceQuery<O> distanceQuery) {
+      super(distanceQuery);
+    }
+
+    @Override
+    public void getRangeForObject(O obj, double range, ModifiableDoubleDBIDList result) {
+      if(entryPoint < 0) {
+        return;
+      }
+      new Searcher(null, true).query(obj, efSearch, range, result);
+      result.sort();
+    }
+  }
+
+  /**
+   * Index factory for HNSW indexes.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.has HNSWIndex
+   *
+   * @param <O> Object type
+   */
+  public static class Factory<O> implements IndexFactory<O, HNSWIndex<O>> {
+    /**
+     * Distance function to use.
+     */
+    DistanceFunction<? super O> distance;
+
+    /**
+     * Number of neighbors to link on each level.
+     */
+    int m;
+
+    /**
+     * Beam width during construction.
+     */
+    int efConstruction;
+
+    /**
+     * Beam width for queries.
+     */
+    int efSearch;
+
+    /**
+     * Random generator for the level assignment.
+     */
+    RandomFactory random;
+
+    /**
+     * Constructor.
+     *
+     * @param distance Distance function
+     * @param m Number of neighbors to link on each level
+     * @param efConstruction Beam width during construction
+     * @param efSearch Beam width for queries
+     * @param random Random generator for the level assignment
+     */
+    public Factory(DistanceFunction<? super O> distance, int m, int efConstruction, int efSearch, RandomFactory random) {
+      super();
+      this.distance = distance;
+      this.m = m;
+      this.efConstruction = efConstruction;
+      this.efSearch = efSearch;
+      this.random = random;
+    }
+
+    @Override
+    public HNSWIndex<O> instantiate(Relation<O> relation) {
+      return new HNSWIndex<>(relation, distance.instantiate(relation), m, efConstruction, efSearch, random);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return distance.getInputTypeRestriction();
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     *
+     * @apiviz.exclude
+     *
+     * @param <O> Object type
+     */
+    public static class Parameterizer<O> extends AbstractParameterizer {
+      /**
+       * Parameter for the distance function.
+       */
+      public static final OptionID DISTANCE_ID = new OptionID("hnsw.distance", "Distance function to build the index for.");
+
+      /**
+       * Number of neighbors to link.
+       */
+      public static final OptionID M_ID = new OptionID("hnsw.m", "Number of neighbors to link on each level (twice as many on the bottom level).");
+
+      /**
+       * Beam width during construction.
+       */
+      public static final OptionID EF_CONSTRUCTION_ID = new OptionID("hnsw.efconstruction", "Number of candidates to consider when inserting objects.");
+
+      /**
+       * Beam width for queries.
+       */
+      public static final OptionID EF_SEARCH_ID = new OptionID("hnsw.efsearch", "Number of candidates to consider for queries (at least k).");
+
+      /**
+       * Random generator.
+       */
+      public static final OptionID SEED_ID = new OptionID("hnsw.seed", "Random generator seed for the level assignment.");
+
+      /**
+       * Distance function to use.
+       */
+      DistanceFunction<? super O> distance;
+
+      /**
+       * Number of neighbors to link on each level.
+       */
+      int m;
+
+      /**
+       * Beam width during construction.
+       */
+      int efConstruction;
+
+      /**
+       * Beam width for queries.
+       */
+      int efSearch;
+
+      /**
+       * Random generator for the level assignment.
+       */
+      RandomFactory random;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        ObjectParameter<DistanceFunction<? super O>> distanceP = new ObjectParameter<>(DISTANCE_ID, DistanceFunction.class);
+        if(config.grab(distanceP)) {
+          distance = distanceP.instantiateClass(config);
+        }
+
+        IntParameter mP = new IntParameter(M_ID, 16) //
+        .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT);
+        if(config.grab(mP)) {
+          m = mP.intValue();
+        }
+
+        IntParameter efConstructionP = new IntParameter(EF_CONSTRUCTION_ID, 100) //
+        .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(efConstructionP)) {
+          efConstruction = efConstructionP.intValue();
+        }
+
+        IntParameter efSearchP = new IntParameter(EF_SEARCH_ID, 50) //
+        .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(efSearchP)) {
+          efSearch = efSearchP.intValue();
+        }
+
+        RandomParameter randomP = new RandomParameter(SEED_ID);
+        if(config.grab(randomP)) {
+          random = randomP.getValue();
+        }
+      }
+
+      @Override
+      protected HNSWIndex.Factory<O> makeInstance() {
+        return new HNSWIndex.Factory<>(distance, m, efConstruction, efSearch, random);
+      }
+    }
+  }
+}
@@ -0,0 +1,310 @@
+package de.lmu.ifi.dbs.elki.index.idistance;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Arrays;
+
+import de.lmu.ifi.dbs.elki.persistent.AbstractExternalizablePage;
+
+/**
+ * Page of the {@link PagedIDistanceIndex}.
+ *
+ * Entries are sorted by their iDistance key, consisting of the partition
+ * (reference point) number and the distance to the reference point. Leaf
+ * entries store the object id, directory entries the page id of the child,
+ * whose smallest key is the entry key. The meta page stores the reference
+ * points along with their partition radius.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class IDistancePage extends AbstractExternalizablePage {
+  /**
+   * Serial version.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Page types.
+   */
+  public static final byte META = 0, DIRECTORY = 1, LEAF = 2;
+
+  /**
+   * Bytes needed for a single entry.
+   */
+  public static final int ENTRY_SIZE = 16;
+
+  /**
+   * Bytes reserved for page headers and serialization overhead.
+   */
+  private static final int OVERHEAD = 64;
+
+  /**
+   * Page type.
+   */
+  byte type;
+
+  /**
+   * Number of entries.
+   */
+  int size;
+
+  /**
+   * Partition numbers of the keys.
+   */
+  int[] part;
+
+  /**
+   * Distances of the keys (for the meta page: partition radius).
+   */
+  double[] dist;
+
+  /**
+   * Object ids (leaf), child page ids (directory), reference points (meta).
+   */
+  int[] ref;
+
+  /**
+   * Sibling leaves.
+   */
+  int prev = -1, next = -1;
+
+  /**
+   * Number of indexed objects, for the meta page.
+   */
+  int count;
+
+  /**
+   * Root page and tree height, for the meta page.
+   */
+  int root = -1, height;
+
+  /**
+   * Dimensionality of the indexed data (-1 if not a vector field), for the
+   * meta page.
+   */
+  int dim = -1;
+
+  /**
+   * Checksum of the indexed objects, for the meta page.
+   */
+  long checksum;
+
+  /**
+   * Empty constructor for Externalizable interface.
+   */
+  public IDistancePage() {
+    super();
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param type Page type
+   * @param capacity Initial capacity
+   */
+  public IDistancePage(byte type, int capacity) {
+    super();
+    this.type = type;
+    this.part = new int[capacity];
+    this.dist = new double[capacity];
+    this.ref = new int[capacity];
+  }
+
+  /**
+   * Compute the number of entries that fit onto a page.
+   *
+   * @param pageSize Page size
+   * @return Capacity
+   */
+  public static int capacity(int pageSize) {
+    // ObjectOutputStream adds a block header every 1024 bytes.
+    return (pageSize - OVERHEAD - 5 * (pageSize / 1024 + 1)) / ENTRY_SIZE;
+  }
+
+  /**
+   * Compare two iDistance keys.
+   *
+   * @param p1 First partition
+   * @param d1 First distance
+   * @param p2 Second partition
+   * @param d2 Second distance
+   * @return Comparison result
+   */
+  public static int compare(int p1, double d1, int p2, double d2) {
+    return p1 < p2 ? -1 : p1 > p2 ? 1 : Double.compare(d1, d2);
+  }
+
+  /**
+   * Find the first entry with a key of at least the given key.
+   *
+   * @param p Partition
+   * @param d Distance
+   * @return Position, {@code size} if all keys are smaller
+   */
+  public int lowerBound(int p, double d) {
+    int left = 0, right = size;
+    while(left < right) {
+      final int mid = (left + right) >>> 1;
+      if(compare(part[mid], dist[mid], p, d) < 0) {
+        left = mid + 1;
+      }
+      else {
+        right = mid;
+      }
+    }
+    return left;
+  }
+
+  /**
+   * Choose the child of a directory page that may contain the given key.
+   *
+   * @param p Partition
+   * @param d Distance
+   * @return Child position
+   */
+  public int childFor(int p, double d) {
+    return Math.max(lowerBound(p, d) - 1, 0);
+  }
+
+  /**
+   * Insert an entry.
+   *
+   * @param pos Position
+   * @param p Partition
+   * @param d Distance
+   * @param r Object or page id
+   */
+  public void insert(int pos, int p, double d, int r) {
+    if(size == part.length) {
+      final int newsize = Math.max(size << 1, 4);
+      part = Arrays.copyOf(part, newsize);
+      dist = Arrays.copyOf(dist, newsize);
+      ref = Arrays.copyOf(ref, newsize);
+    }
+    System.arraycopy(part, pos, part, pos + 1, size - pos);
+    System.arraycopy(dist, pos, dist, pos + 1, size - pos);
+    System.arraycopy(ref, pos, ref, pos + 1, size - pos);
+    part[pos] = p;
+    dist[pos] = d;
+    ref[pos] = r;
+    ++size;
+  }
+
+  /**
+   * Append an entry.
+   *
+   * @param p Partition
+   * @param d Distance
+   * @param r Object or page id
+   */
+  public void add(int p, double d, int r) {
+    insert(size, p, d, r);
+  }
+
+  /**
+   * Remove an entry.
+   *
+   * @param pos Position
+   */
+  public void remove(int pos) {
+    --size;
+    System.arraycopy(part, pos + 1, part, pos, size - pos);
+    System.arraycopy(dist, pos + 1, dist, pos, size - pos);
+    System.arraycopy(ref, pos + 1, ref, pos, size - pos);
+  }
+
+  /**
+   * Move the upper half of the entries to a new page.
+   *
+   * @return New page, without page id
+   */
+  public IDistancePage split() {
+    final int half = size >>> 1, rest = size - half;
+    IDistancePage right = new IDistancePage(type, part.length);
+    System.arraycopy(part, half, right.part, 0, rest);
+    System.arraycopy(dist, half, right.dist, 0, rest);
+    System.arraycopy(ref, half, right.ref, 0, rest);
+    right.size = rest;
+    size = half;
+    return right;
+  }
+
+  /**
+   * Test if this is a leaf page.
+   *
+   * @return {@code true} for leaves
+   */
+  public boolean isLeaf() {
+    return type == LEAF;
+  }
+
+  @Override
+  public void writeExternal(ObjectOutput out) throws IOException {
+    super.writeExternal(out);
+    out.writeByte(type);
+    out.writeInt(size);
+    out.writeInt(prev);
+    out.writeInt(next);
+    out.writeInt(count);
+    if(type == META) {
+      out.writeInt(root);
+      out.writeInt(height);
+      out.writeInt(dim);
+      out.writeLong(checksum);
+    }
+    for(int i = 0; i < size; i++) {
+      out.writeInt(part[i]);
+      out.writeDouble(dist[i]);
+      out.writeInt(ref[i]);
+    }
+  }
+
+  @Override
+  public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+    super.readExternal(in);
+    type = in.readByte();
+    size = in.readInt();
+    prev = in.readInt();
+    next = in.readInt();
+    count = in.readInt();
+    if(type == META) {
+      root = in.readInt();
+      height = in.readInt();
+      dim = in.readInt();
+      checksum = in.readLong();
+    }
+    part = new int[size];
+    dist = new double[size];
+    ref = new int[size];
+    for(int i = 0; i < size; i++) {
+      part[i] = in.readInt();
+      dist[i] = in.readDouble();
+      ref[i] = in.readInt();
+    }
+  }
+}
@@ -0,0 +1,879 @@
+package de.lmu.ifi.dbs.elki.index.idistance;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.KMedoidsInitialization;
+import de.lmu.ifi.dbs.elki.data.type.FieldTypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDFactory;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDVar;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractRefiningIndex;
+import de.lmu.ifi.dbs.elki.index.DynamicIndex;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.PagedIndexFactory;
+import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.index.tree.TreeIndexHeader;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.persistent.PageFile;
+import de.lmu.ifi.dbs.elki.persistent.PageFileFactory;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.DoubleArray;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.IntegerArray;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+import de.lmu.ifi.dbs.elki.utilities.pairs.DoubleIntPair;
+
+/**
+ * Paged iDistance index, storing the one-dimensional iDistance keys in a
+ * B+-tree on a {@link PageFile}.
+ *
+ * Keys consist of the number of the closest reference point and the distance
+ * to it. The tree is bulk loaded from the sorted partitions, and supports
+ * incremental insertions and deletions (deletions do not rebalance the tree).
+ * The reference points and the partition radii are kept on a meta page.
+ *
+ * With a persistent page file, an existing index file is reopened instead of
+ * being rebuilt. This requires the same data with the same object ids (e.g.
+ * using a fixed DBID filter) and the same distance function. On reopening, the
+ * number of objects, the dimensionality, and a checksum of the object ids and
+ * their distances to the first reference point are verified. Call
+ * {@link #close()} to write cached pages and the file header.
+ *
+ * Queries use the same shrinking-sphere strategy as
+ * {@link InMemoryIDistanceIndex}, but skip partitions whose radius proves that
+ * they cannot contain results.
+ *
+ * Reference:
+ * <p>
+ * H. V. Jagadish, B. C. Ooi, K. L. Tan, C. Yu, R. Zhang<br />
+ * iDistance: An adaptive B+-tree based indexing method for nearest neighbor
+ * search.<br />
+ * ACM Transactions on Database Systems (TODS), 30(2), 364-397.
+ * </p>
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ *
+ * @apiviz.composedOf PageFile
+ * @apiviz.has IDistancePage
+ *
+ * @param <O> Object type
+ */
+@Reference(authors = "H. V. Jagadish, B. C. Ooi, K. L. Tan, C. Yu, R. Zhang", title = "iDistance: An adaptive B+-tree based indexing method for nearest neighbor search", booktitle = "ACM Transactions on Database Systems (TODS), 30(2), 364-397")
+public class PagedIDistanceIndex<O> extends AbstractRefiningIndex<O> implements RangeIndex<O>, KNNIndex<O>, DynamicIndex {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(PagedIDistanceIndex.class);
+
+  /**
+   * Page file.
+   */
+  private final PageFile<IDistancePage> file;
+
+  /**
+   * Distance query.
+   */
+  private DistanceQuery<O> distanceQuery;
+
+  /**
+   * Initialization method.
+   */
+  private KMedoidsInitialization<O> initialization;
+
+  /**
+   * Number of reference points.
+   */
+  private int numref;
+
+  /**
+   * Page capacity.
+   */
+  private int capacity;
+
+  /**
+   * Reference points.
+   */
+  private ArrayDBIDs referencepoints;
+
+  /**
+   * Meta page: reference points, radii, root page, height, size, and
+   * checksum.
+   */
+  private IDistancePage meta;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param file Page file
+   * @param distance Distance
+   * @param initialization Initialization method
+   * @param numref Number of reference points
+   */
+  public PagedIDistanceIndex(Relation<O> relation, PageFile<IDistancePage> file, DistanceQuery<O> distance, KMedoidsInitialization<O> initialization, int numref) {
+    super(relation);
+    this.file = file;
+    this.distanceQuery = distance;
+    this.initialization = initialization;
+    this.numref = numref;
+    if(!distance.getDistanceFunction().isMetric()) {
+      LOG.warning("iDistance assumes metric distance functions.\n" //
+          + distance.getDistanceFunction().getClass() + " does not report itself as metric.\n" //
+          + "iDistance will run, but may yield approximate results.");
+    }
+  }
+
+  @Override
+  public void initialize() {
+    capacity = IDistancePage.capacity(file.getPageSize());
+    TreeIndexHeader header = new TreeIndexHeader(file.getPageSize(), capacity, capacity, 0, 0);
+    if(file.initialize(header)) {
+      reopen(header);
+      return;
+    }
+    if(capacity < 4) {
+      throw new AbortException("Page size too small for an iDistance index: " + file.getPageSize());
+    }
+    referencepoints = DBIDUtil.ensureArray(initialization.chooseInitialMedoids(numref, relation.getDBIDs(), distanceQuery));
+    final int k = referencepoints.size(); // should be the same k anyway.
+    if(k > capacity) {
+      throw new AbortException("Page size too small to store " + k + " reference points.");
+    }
+    meta = new IDistancePage(IDistancePage.META, k);
+    meta.dim = dimensionality();
+    for(DBIDArrayIter riter = referencepoints.iter(); riter.valid(); riter.advance()) {
+      meta.add(riter.getOffset(), 0., DBIDUtil.asInteger(riter));
+    }
+    if(file.writePage(meta) != 0) {
+      throw new AbortException("The meta page must be the first page of the file.");
+    }
+    // Sorted partitions, as in the in-memory variant.
+    ModifiableDoubleDBIDList[] partitions = new ModifiableDoubleDBIDList[k];
+    for(int i = 0; i < k; i++) {
+      partitions[i] = DBIDUtil.newDistanceDBIDList(relation.size() / (2 * k));
+    }
+    double[] bestd = new double[2];
+    for(DBIDIter oiter = relation.iterDBIDs(); oiter.valid(); oiter.advance()) {
+      final int besti = assign(oiter, bestd);
+      partitions[besti].add(bestd[0], oiter);
+      meta.checksum += fingerprint(oiter, bestd[1]);
+    }
+    for(int i = 0; i < k; i++) {
+      partitions[i].sort();
+      meta.dist[i] = partitions[i].size() > 0 ? partitions[i].get(partitions[i].size() - 1).doubleValue() : 0.;
+    }
+    bulkLoad(partitions);
+    file.writePage(meta);
+  }
+
+  /**
+   * Restore the index state from an existing file.
+   *
+   * @param header File header
+   */
+  private void reopen(TreeIndexHeader header) {
+    capacity = header.getLeafCapacity();
+    meta = file.readPage(0);
+    if(meta == null || meta.type != IDistancePage.META) {
+      throw new AbortException("The page file does not contain an iDistance index.");
+    }
+    if(meta.count != relation.size()) {
+      throw new AbortException("The stored iDistance index contains " + meta.count + " objects, but the relation has " + relation.size() + ".\n" //
+          + "Load the same data with the same object ids, or remove the index file.");
+    }
+    if(meta.dim != dimensionality()) {
+      throw new AbortException("The stored iDistance index has dimensionality " + meta.dim + ", but the relation has " + dimensionality() + ".\n" //
+          + "Load the same data with the same object ids, or remove the index file.");
+    }
+    ArrayModifiableDBIDs refs = DBIDUtil.newArray(meta.size);
+    for(int i = 0; i < meta.size; i++) {
+      refs.add(DBIDUtil.importInteger(meta.ref[i]));
+    }
+    referencepoints = refs;
+    // Verify the checksum, this needs one distance computation per object.
+    DBIDVar ref0 = DBIDUtil.newVar();
+    referencepoints.assignVar(0, ref0);
+    long checksum = 0L;
+    for(DBIDIter oiter = relation.iterDBIDs(); oiter.valid(); oiter.advance()) {
+      checksum += fingerprint(oiter, distanceQuery.distance(oiter, ref0));
+    }
+    if(checksum != meta.checksum) {
+      throw new AbortException("The stored iDistance index was built for different data or object ids.\n" //
+          + "Load the same data with the same object ids, or remove the index file.");
+    }
+    if(LOG.isVerbose()) {
+      LOG.verbose("Reopened iDistance index with " + meta.count + " objects.");
+    }
+  }
+
+  /**
+   * Find the closest reference point.
+   *
+   * @param id Object
+   * @param bestd Output: distance to the reference point, and distance to the
+   *        first reference point
+   * @return Reference point number
+   */
+  private int assign(DBIDRef id, double[] bestd) {
+    bestd[0] = Double.POSITIVE_INFINITY;
+    int besti = -1;
+    for(DBIDArrayIter riter = referencepoints.iter(); riter.valid(); riter.advance()) {
+      double dist = distanceQuery.distance(id, riter);
+      if(riter.getOffset() == 0) {
+        bestd[1] = dist;
+      }
+      if(dist < bestd[0]) {
+        bestd[0] = dist;
+        besti = riter.getOffset();
+      }
+    }
+    assert (besti >= 0 && besti < referencepoints.size());
+    return besti;
+  }
+
+  /**
+   * Dimensionality of the relation.
+   *
+   * @return Dimensionality, or -1 if the relation is not a vector field
+   */
+  private int dimensionality() {
+    TypeInformation type = relation.getDataTypeInformation();
+    return type instanceof FieldTypeInformation ? ((FieldTypeInformation) type).getDimensionality() : -1;
+  }
+
+  /**
+   * Hash an object for the checksum of the meta page. The checksum is the sum
+   * of all object hashes, so it can be updated on insertions and deletions.
+   *
+   * @param id Object id
+   * @param dist0 Distance to the first reference point
+   * @return Hash value
+   */
+  private static long fingerprint(DBIDRef id, double dist0) {
+    long h = DBIDUtil.asInteger(id) * 0x9E3779B97F4A7C15L ^ Double.doubleToLongBits(dist0);
+    // Finalization step of MurmurHash3.
+    h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+    h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+    return h ^ (h >>> 33);
+  }
+
+  /**
+   * Bulk load the tree from sorted partitions.
+   *
+   * Leaves are filled completely, and only the keys of the current level are
+   * kept in memory.
+   *
+   * @param partitions Sorted partitions
+   */
+  private void bulkLoad(ModifiableDoubleDBIDList[] partitions) {
+    IntegerArray parts = new IntegerArray(), pages = new IntegerArray();
+    DoubleArray dists = new DoubleArray();
+    IDistancePage leaf = new IDistancePage(IDistancePage.LEAF, capacity);
+    file.setPageID(leaf);
+    int count = 0;
+    for(int p = 0; p < partitions.length; p++) {
+      for(DoubleDBIDListIter it = partitions[p].iter(); it.valid(); it.advance(), count++) {
+        if(leaf.size == capacity) {
+          IDistancePage nleaf = new IDistancePage(IDistancePage.LEAF, capacity);
+          file.setPageID(nleaf);
+          nleaf.prev = leaf.getPageID();
+          leaf.next = nleaf.getPageID();
+          finishPage(leaf, parts, dists, pages);
+          leaf = nleaf;
+        }
+        leaf.add(p, it.doubleValue(), DBIDUtil.asInteger(it));
+      }
+    }
+    finishPage(leaf, parts, dists, pages);
+    // Build directory levels.
+    int height = 1;
+    while(pages.size() > 1) {
+      IntegerArray nparts = new IntegerArray(), npages = new IntegerArray();
+      DoubleArray ndists = new DoubleArray();
+      IDistancePage dir = new IDistancePage(IDistancePage.DIRECTORY, capacity);
+      for(int i = 0; i < pages.size(); i++) {
+        if(dir.size == capacity) {
+          finishPage(dir, nparts, ndists, npages);
+          dir = new IDistancePage(IDistancePage.DIRECTORY, capacity);
+        }
+        dir.add(parts.get(i), dists.get(i), pages.get(i));
+      }
+      finishPage(dir, nparts, ndists, npages);
+      parts = nparts;
+      dists = ndists;
+      pages = npages;
+      ++height;
+    }
+    meta.root = pages.get(0);
+    meta.height = height;
+    meta.count = count;
+  }
+
+  /**
+   * Write a page, and record its smallest key for the next level.
+   *
+   * @param page Page
+   * @param parts Partitions of the next level
+   * @param dists Distances of the next level
+   * @param pages Page ids of the next level
+   */
+  private void finishPage(IDistancePage page, IntegerArray parts, DoubleArray dists, IntegerArray pages) {
+    pages.add(file.writePage(page));
+    parts.add(page.size > 0 ? page.part[0] : 0);
+    dists.add(page.size > 0 ? page.dist[0] : Double.NEGATIVE_INFINITY);
+  }
+
+  /**
+   * Find the leaf position of the first key of at least the given key.
+   *
+   * @param p Partition
+   * @param d Distance
+   * @return Cursor (not normalized)
+   */
+  private LeafCursor seek(int p, double d) {
+    IDistancePage node = file.readPage(meta.root);
+    for(int level = meta.height; level > 1; level--) {
+      node = file.readPage(node.ref[node.childFor(p, d)]);
+    }
+    return new LeafCursor(node, node.lowerBound(p, d));
+  }
+
+  @Override
+  public void insert(DBIDRef id) {
+    insertObject(id);
+    file.writePage(meta);
+  }
+
+  @Override
+  public void insertAll(DBIDs ids) {
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      insertObject(iter);
+    }
+    file.writePage(meta);
+  }
+
+  /**
+   * Insert a single object, without writing the meta page.
+   *
+   * @param id Object to insert
+   */
+  private void insertObject(DBIDRef id) {
+    double[] bestd = new double[2];
+    final int p = assign(id, bestd);
+    final double d = bestd[0];
+    // Descend, remembering the path.
+    final int height = meta.height;
+    IDistancePage[] path = new IDistancePage[height];
+    int[] pos = new int[height];
+    IDistancePage node = file.readPage(meta.root);
+    for(int level = height - 1; level > 0; level--) {
+      path[level] = node;
+      pos[level] = node.childFor(p, d);
+      node = file.readPage(node.ref[pos[level]]);
+    }
+    node.insert(node.lowerBound(p, d), p, d, DBIDUtil.asInteger(id));
+    // Split overflowing pages bottom-up.
+    for(int level = 0; node.size > capacity; level++) {
+      IDistancePage right = node.split();
+      file.setPageID(right);
+      if(node.isLeaf()) {
+        right.prev = node.getPageID();
+        right.next = node.next;
+        node.next = right.getPageID();
+        if(right.next >= 0) {
+          IDistancePage after = file.readPage(right.next);
+          after.prev = right.getPageID();
+          file.writePage(after);
+        }
+      }
+      file.writePage(right);
+      if(level + 1 == height) {
+        // Grow a new root.
+        file.writePage(node);
+        IDistancePage root = new IDistancePage(IDistancePage.DIRECTORY, capacity);
+        root.add(node.part[0], node.dist[0], node.getPageID());
+        root.add(right.part[0], right.dist[0], right.getPageID());
+        meta.root = file.writePage(root);
+        meta.height = height + 1;
+        node = null;
+        break;
+      }
+      file.writePage(node);
+      path[level + 1].insert(pos[level + 1] + 1, right.part[0], right.dist[0], right.getPageID());
+      node = path[level + 1];
+    }
+    if(node != null) {
+      file.writePage(node);
+    }
+    if(d > meta.dist[p]) {
+      meta.dist[p] = d;
+    }
+    meta.count++;
+    meta.checksum += fingerprint(id, bestd[1]);
+  }
+
+  @Override
+  public boolean delete(DBIDRef id) {
+    boolean found = deleteObject(id);
+    file.writePage(meta);
+    return found;
+  }
+
+  @Override
+  public void deleteAll(DBIDs ids) {
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      deleteObject(iter);
+    }
+    file.writePage(meta);
+  }
+
+  /**
+   * Delete a single object, without writing the meta page.
+   *
+   * Pages are not merged, and the partition radius is not reduced.
+   *
+   * @param id Object to delete
+   * @return {@code true} if the object was found
+   */
+  private boolean deleteObject(DBIDRef id) {
+    double[] bestd = new double[2];
+    final int p = assign(id, bestd);
+    final int ref = DBIDUtil.asInteger(id);
+    LeafCursor cur = seek(p, bestd[0]);
+    for(cur.forward(); cur.valid() && cur.page.part[cur.pos] == p && cur.page.dist[cur.pos] == bestd[0]; cur.advance()) {
+      if(cur.page.ref[cur.pos] == ref) {
+        cur.page.remove(cur.pos);
+        file.writePage(cur.page);
+        meta.count--;
+        meta.checksum -= fingerprint(id, bestd[1]);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Write all pending changes, and close the page file.
+   *
+   * The index must not be used afterwards.
+   */
+  public void close() {
+    file.writePage(meta);
+    file.close();
+  }
+
+  @Override
+  public KNNQuery<O> getKNNQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    // Query on the relation we index
+    if(distanceQuery.getRelation() != relation) {
+      return null;
+    }
+    DistanceFunction<? super O> distanceFunction = (DistanceFunction<? super O>) distanceQuery.getDistanceFunction();
+    if(!this.getDistanceFunction().equals(distanceFunction)) {
+      if(LOG.isDebugging()) {
+        LOG.debug("Distance function not supported by index - or 'equals' not implemented right!");
+      }
+      return null;
+    }
+    return new PagedIDistanceKNNQuery(distanceQuery);
+  }
+
+  @Override
+  public RangeQuery<O> getRangeQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    // Query on the relation we index
+    if(distanceQuery.getRelation() != relation) {
+      return null;
+    }
+    DistanceFunction<? super O> distanceFunction = (DistanceFunction<? super O>) distanceQuery.getDistanceFunction();
+    if(!this.getDistanceFunction().equals(distanceFunction)) {
+      if(LOG.isDebugging()) {
+        LOG.debug("Distance function not supported by index - or 'equals' not implemented right!");
+      }
+      return null;
+    }
+    return new PagedIDistanceRangeQuery(distanceQuery);
+  }
+
+  /**
+   * Distance function.
+   *
+   * @return Distance function
+   */
+  private DistanceFunction<? super O> getDistanceFunction() {
+    return distanceQuery.getDistanceFunction();
+  }
+
+  @Override
+  public String getLongName() {
+    return "paged iDistance index";
+  }
+
+  @Override
+  public String getShortName() {
+    return "paged-idistance-index";
+  }
+
+  @Override
+  public Logging getLogger() {
+    return LOG;
+  }
+
+  @Override
+  public void logStatistics() {
+    super.logStatistics();
+    file.logStatistics();
+    LOG.statistics(new LongStatistic(PagedIDistanceIndex.class.getName() + ".height", meta.height));
+    LOG.statistics(new LongStatistic(PagedIDistanceIndex.class.getName() + ".capacity", capacity));
+  }
+
+  /**
+   * Cursor over the leaf level.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private class LeafCursor {
+    /**
+     * Current page, {@code null} when exhausted.
+     */
+    IDistancePage page;
+
+    /**
+     * Position in the page.
+     */
+    int pos;
+
+    /**
+     * Constructor.
+     *
+     * @param page Page
+     * @param pos Position
+     */
+    LeafCursor(IDistancePage page, int pos) {
+      this.page = page;
+      this.pos = pos;
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param other Cursor to copy
+     */
+    LeafCursor(LeafCursor other) {
+      this(other.page, other.pos);
+    }
+
+    /**
+     * Move forward to the next valid entry, if the current is not valid.
+     */
+    void forward() {
+      --pos;
+      advance();
+    }
+
+    /**
+     * Advance to the next entry, following the leaf chain.
+     */
+    void advance() {
+      ++pos;
+      while(page != null && pos >= page.size) {
+        page = page.next >= 0 ? file.readPage(page.next) : null;
+        pos = 0;
+      }
+    }
+
+    /**
+     * Retract to the previous entry, following the leaf chain.
+     */
+    void retract() {
+      --pos;
+      while(page != null && pos < 0) {
+        page = page.prev >= 0 ? file.readPage(page.prev) : null;
+        pos = page != null ? page.size - 1 : -1;
+      }
+    }
+
+    /**
+     * Test if the cursor is valid.
+     *
+     * @return {@code true} if not exhausted
+     */
+    boolean valid() {
+      return page != null;
+    }
+
+    /**
+     * Lower bound for the current candidate.
+     *
+     * @param p Partition
+     * @param refd Query distance to the reference point
+     * @return Lower bound, NaN when leaving the partition
+     */
+    double lowerBound(int p, double refd) {
+      // This assumes a metric, as we exploit triangle inequality.
+      return page != null && page.part[pos] == p ? Math.abs(page.dist[pos] - refd) : Double.NaN;
+    }
+
+    /**
+     * Get the object id.
+     *
+     * @param var Variable to assign to
+     * @return {@code var}
+     */
+    DBIDVar get(DBIDVar var) {
+      DBIDFactory.FACTORY.assignVar(var, page.ref[pos]);
+      return var;
+    }
+  }
+
+  /**
+   * kNN query implementation.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  protected class PagedIDistanceKNNQuery extends AbstractRefiningIndex<O>.AbstractKNNQuery {
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     */
+    public PagedIDistanceKNNQuery(DistanceQuery<O> distanceQuery) {
+      super(distanceQuery);
+    }
+
+    @Override
+    public KNNList getKNNForObject(O obj, int k) {
+      DoubleIntPair[] priority = InMemoryIDistanceIndex.rankReferencePoints(distanceQuery, obj, referencepoints);
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      DBIDVar var = DBIDUtil.newVar();
+      double kdist = heap.getKNNDistance();
+      for(DoubleIntPair pair : priority) {
+        final int p = pair.second;
+        final double refd = pair.first;
+        // Partition cannot contain any result:
+        if(refd - meta.dist[p] > kdist) {
+          continue;
+        }
+        LeafCursor ifwd = seek(p, refd), ibwd = new LeafCursor(ifwd);
+        ifwd.forward();
+        ibwd.retract();
+        double lbfwd = ifwd.lowerBound(p, refd), lbbwd = ibwd.lowerBound(p, refd);
+        while(true) {
+          // Handle NaN carefully.
+          if(!(lbfwd <= kdist) && !(lbbwd <= kdist)) {
+            break;
+          }
+          // Careful: NaN handling: not NaN and not worse than fwd (may be NaN).
+          if(lbfwd <= kdist && !(lbfwd > lbbwd)) {
+            final double dist = refine(ifwd.get(var), obj);
+            if(dist <= kdist) {
+              kdist = heap.insert(dist, var);
+            }
+            ifwd.advance();
+            lbfwd = ifwd.lowerBound(p, refd);
+          }
+          if(lbbwd <= kdist && !(lbbwd > lbfwd)) {
+            final double dist = refine(ibwd.get(var), obj);
+            if(dist <= kdist) {
+              kdist = heap.insert(dist, var);
+            }
+            ibwd.retract();
+            lbbwd = ibwd.lowerBound(p, refd);
+          }
+        }
+      }
+      return heap.toKNNList();
+    }
+  }
+
+  /**
+   * Exact Range query implementation.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  protected class PagedIDistanceRangeQuery extends AbstractRefiningIndex<O>.AbstractRangeQuery {
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     */
+    public PagedIDistanceRangeQuery(DistanceQuery<O> distanceQuery) {
+      super(distanceQuery);
+    }
+
+    @Override
+    public void getRangeForObject(O obj, double range, ModifiableDoubleDBIDList result) {
+      DoubleIntPair[] priority = InMemoryIDistanceIndex.rankReferencePoints(distanceQuery, obj, referencepoints);
+      DBIDVar var = DBIDUtil.newVar();
+      for(DoubleIntPair pair : priority) {
+        final int p = pair.second;
+        final double refd = pair.first;
+        // Partition cannot contain any result:
+        if(refd - meta.dist[p] > range) {
+          continue;
+        }
+        // Only the range [refd - range; refd + range] needs to be scanned.
+        LeafCursor iter = seek(p, refd - range);
+        for(iter.forward(); iter.valid() && iter.page.part[iter.pos] == p; iter.advance()) {
+          if(iter.page.dist[iter.pos] > refd + range) {
+            break;
+          }
+          final double dist = refine(iter.get(var), obj);
+          if(dist <= range) {
+            result.add(dist, var);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Index factory for paged iDistance indexes.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.has PagedIDistanceIndex
+   *
+   * @param <V> Data type.
+   */
+  public static class Factory<V> extends PagedIndexFactory<V, PagedIDistanceIndex<V>> {
+    /**
+     * Distance function to use.
+     */
+    DistanceFunction<? super V> distance;
+
+    /**
+     * Initialization method.
+     */
+    KMedoidsInitialization<V> initialization;
+
+    /**
+     * Number of reference points
+     */
+    int k;
+
+    /**
+     * Constructor.
+     *
+     * @param pageFileFactory Page file factory
+     * @param distance Distance function
+     * @param initialization Initialization method
+     * @param k Number of reference points
+     */
+    public Factory(PageFileFactory<?> pageFileFactory, DistanceFunction<? super V> distance, KMedoidsInitialization<V> initialization, int k) {
+      super(pageFileFactory);
+      this.distance = distance;
+      this.initialization = initialization;
+      this.k = k;
+    }
+
+    @Override
+    public PagedIDistanceIndex<V> instantiate(Relation<V> relation) {
+      PageFile<IDistancePage> pagefile = makePageFile(IDistancePage.class);
+      return new PagedIDistanceIndex<>(relation, pagefile, distance.instantiate(relation), initialization, k);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return distance.getInputTypeRestriction();
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     *
+     * @apiviz.exclude
+     *
+     * @param <V> object type.
+     */
+    public static class Parameterizer<V> extends PagedIndexFactory.Parameterizer<V> {
+      /**
+       * Distance function to use.
+       */
+      DistanceFunction<? super V> distance;
+
+      /**
+       * Initialization method.
+       */
+      KMedoidsInitialization<V> initialization;
+
+      /**
+       * Number of reference points
+       */
+      int k;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        ObjectParameter<DistanceFunction<? super V>> distanceP = new ObjectParameter<>(InMemoryIDistanceIndex.Factory.Parameterizer.DISTANCE_ID, DistanceFunction.class);
+        if(config.grab(distanceP)) {
+          distance = distanceP.instantiateClass(config);
+        }
+
+        ObjectParameter<KMedoidsInitialization<V>> initializationP = new ObjectParameter<>(InMemoryIDistanceIndex.Factory.Parameterizer.REFERENCE_ID, KMedoidsInitialization.class);
+        if(config.grab(initializationP)) {
+          initialization = initializationP.instantiateClass(config);
+        }
+
+        IntParameter kP = new IntParameter(InMemoryIDistanceIndex.Factory.Parameterizer.K_ID)//
+        .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(kP)) {
+          k = kP.intValue();
+        }
+      }
+
+      @Override
+      protected PagedIDistanceIndex.Factory<V> makeInstance() {
+        return new PagedIDistanceIndex.Factory<>(pageFileFactory, distance, initialization, k);
+      }
+    }
+  }
+}
@@ -22,20 +22,19 @@ package de.lmu.ifi.dbs.elki.index.invertedlist;
  You should have received a copy of the GNU Affero General Public License
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
+
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
 
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.SparseNumberVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
-import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
-import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
-import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
-import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
-import de.lmu.ifi.dbs.elki.database.ids.HashSetModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
@@ -54,16 +53,40 @@ import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteArrayUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 
 /**
  * Simple index using inverted lists.
- * 
+ *
+ * Posting lists are stored in blocks of {@link #BLOCK_SIZE} entries. Object
+ * offsets are delta and varint encoded, and each block stores the maximum
+ * normalized weight it contains. Queries use block-max WAND: posting lists are
+ * only decoded and scored where the upper bounds of the current blocks can
+ * still reach the current kNN distance (or the query radius).
+ *
+ * The index is built in parallel, using {@link ParallelCore}.
+ *
+ * Reference:
+ * <p>
+ * S. Ding and T. Suel<br />
+ * Faster top-k document retrieval using block-max indexes<br />
+ * Proc. 34th Int. ACM SIGIR Conf. on Research and Development in Information
+ * Retrieval
+ * </p>
+ *
  * @author Erich Schubert
  * @since 0.7.0
- * 
+ *
  * @param <V> Vector type
  */
+@Reference(authors = "S. Ding and T. Suel", //
+title = "Faster top-k document retrieval using block-max indexes", //
+booktitle = "Proc. 34th Int. ACM SIGIR Conf. on Research and Development in Information Retrieval", //
+url = "http://dx.doi.org/10.1145/2009916.2010048")
 public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex<V> implements KNNIndex<V>, RangeIndex<V> {
   /**
    * Class logger.
@@ -71,18 +94,38 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
   private static final Logging LOG = Logging.getLogger(InMemoryInvertedIndex.class);
 
   /**
-   * Inverted index.
+   * Number of postings per block.
    */
-  ArrayList<ModifiableDoubleDBIDList> index;
+  public static final int BLOCK_SIZE = 128;
 
   /**
-   * Length storage.
+   * Minimum number of objects per parallel task.
    */
-  WritableDoubleDataStore length;
+  private static final int PARALLEL_THRESHOLD = 1 << 12;
+
+  /**
+   * Marker for exhausted posting lists.
+   */
+  private static final int NO_MORE = Integer.MAX_VALUE;
+
+  /**
+   * Inverted index, may contain {@code null} for unused dimensions.
+   */
+  PostingList[] index;
+
+  /**
+   * Object ids; postings refer to offsets into this array.
+   */
+  ArrayDBIDs ids;
+
+  /**
+   * Vector lengths, by offset.
+   */
+  double[] length;
 
   /**
    * Constructor.
-   * 
+   *
    * @param relation Data.
    */
   public InMemoryInvertedIndex(Relation<V> relation) {
@@ -94,165 +137,702 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
     if(index != null) {
       LOG.warning("Index was already initialized!");
     }
-    index = new ArrayList<>();
-    length = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_DB);
-    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
-      V obj = relation.get(iter);
-      if(obj instanceof SparseNumberVector) {
-        indexSparse(iter, (SparseNumberVector) obj);
+    ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    length = new double[size];
+    final ParallelCore core = ParallelCore.getCore();
+    final int chunks = Math.max(1, Math.min(core.getParallelism(), size / PARALLEL_THRESHOLD));
+    ArrayList<Scanner> scanners = new ArrayList<>(chunks);
+    for(int i = 0; i < chunks; i++) {
+      scanners.add(new Scanner(i * size / chunks, (i + 1) * size / chunks));
+    }
+    if(chunks > 1) {
+      core.connect();
+      try {
+        core.invoke(new BuildTask(scanners));
       }
-      else {
-        indexDense(iter, obj);
+      finally {
+        core.disconnect();
       }
     }
-    // Sort indexes
-    long count = 0L;
-    for(ModifiableDoubleDBIDList column : index) {
-      column.sort();
-      count += column.size();
+    else {
+      scanners.get(0).compute();
+      index = new PostingList[scanners.get(0).columns.size()];
+      compress(scanners, 0, index.length);
     }
-    double sparsity = count / (index.size() * (double) relation.size());
+    double sparsity = countPostings() / (index.length * (double) size);
     if(sparsity > .2) {
       LOG.warning("Inverted list indexes only perform well for very sparse data. Your data set has a sparsity of " + sparsity);
     }
   }
 
   /**
-   * Index a single (sparse) instance.
-   * 
-   * @param ref Object reference
-   * @param obj Object to index.
+   * Merge and compress the columns of the scanners.
+   *
+   * @param scanners Scanners, in object order
+   * @param start First dimension
+   * @param end End dimension (exclusive)
    */
-  private void indexSparse(DBIDRef ref, SparseNumberVector obj) {
-    double len = 0.;
-    for(int iter = obj.iter(); obj.iterValid(iter); iter = obj.iterAdvance(iter)) {
-      final int dim = obj.iterDim(iter);
-      final double val = obj.iterDoubleValue(iter);
-      if(val == 0. || val != val) {
+  void compress(ArrayList<Scanner> scanners, int start, int end) {
+    for(int dim = start; dim < end; dim++) {
+      int total = 0;
+      for(Scanner s : scanners) {
+        total += dim < s.columns.size() ? s.columns.get(dim).size : 0;
+      }
+      if(total == 0) {
         continue;
       }
-      len += val * val;
-      getOrCreateColumn(dim).add(val, ref);
+      int[] docs = new int[total];
+      double[] weights = new double[total];
+      int pos = 0;
+      for(Scanner s : scanners) {
+        if(dim < s.columns.size()) {
+          PostingBuilder col = s.columns.get(dim);
+          System.arraycopy(col.docs, 0, docs, pos, col.size);
+          System.arraycopy(col.weights, 0, weights, pos, col.size);
+          pos += col.size;
+        }
+      }
+      index[dim] = new PostingList(docs, weights, total, length);
     }
-    length.put(ref, len);
   }
 
   /**
-   * Index a single (dense) instance.
-   * 
-   * @param ref Object reference
-   * @param obj Object to index.
+   * Count the total number of postings.
+   *
+   * @return Number of postings
    */
-  private void indexDense(DBIDRef ref, V obj) {
-    double len = 0.;
-    for(int dim = 0, max = obj.getDimensionality(); dim < max; dim++) {
-      final double val = obj.doubleValue(dim);
-      if(val == 0. || val != val) {
-        continue;
+  private long countPostings() {
+    long count = 0L;
+    for(PostingList column : index) {
+      count += column != null ? column.size : 0;
+    }
+    return count;
+  }
+
+  /**
+   * Uncompressed posting list, used during construction.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  static class PostingBuilder {
+    /**
+     * Object offsets.
+     */
+    int[] docs = new int[16];
+
+    /**
+     * Weights.
+     */
+    double[] weights = new double[16];
+
+    /**
+     * Number of postings.
+     */
+    int size = 0;
+
+    /**
+     * Append a posting.
+     *
+     * @param doc Object offset
+     * @param weight Weight
+     */
+    void add(int doc, double weight) {
+      if(size == docs.length) {
+        final int newsize = docs.length << 1;
+        docs = Arrays.copyOf(docs, newsize);
+        weights = Arrays.copyOf(weights, newsize);
       }
-      len += val * val;
-      getOrCreateColumn(dim).add(val, ref);
+      docs[size] = doc;
+      weights[size++] = weight;
     }
-    length.put(ref, Math.sqrt(len));
   }
 
   /**
-   * Get (or create) a column.
-   * 
-   * @param dim Dimension
-   * @return Column
+   * Scan a range of objects, and collect their postings.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
    */
-  private ModifiableDoubleDBIDList getOrCreateColumn(int dim) {
-    while(dim >= index.size()) {
-      index.add(DBIDUtil.newDistanceDBIDList());
+  class Scanner extends RecursiveAction {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Object range.
+     */
+    final int start, end;
+
+    /**
+     * Collected postings, by dimension.
+     */
+    ArrayList<PostingBuilder> columns = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param start First object offset
+     * @param end End offset (exclusive)
+     */
+    Scanner(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      DBIDArrayIter iter = ids.iter().seek(start);
+      for(int i = start; i < end; i++, iter.advance()) {
+        V obj = relation.get(iter);
+        if(obj instanceof SparseNumberVector) {
+          indexSparse(i, (SparseNumberVector) obj);
+        }
+        else {
+          indexDense(i, obj);
+        }
+      }
+    }
+
+    /**
+     * Index a single (sparse) instance.
+     *
+     * @param off Object offset
+     * @param obj Object to index.
+     */
+    private void indexSparse(int off, SparseNumberVector obj) {
+      double len = 0.;
+      for(int iter = obj.iter(); obj.iterValid(iter); iter = obj.iterAdvance(iter)) {
+        final int dim = obj.iterDim(iter);
+        final double val = obj.iterDoubleValue(iter);
+        if(val == 0. || val != val) {
+          continue;
+        }
+        len += val * val;
+        getOrCreateColumn(dim).add(off, val);
+      }
+      length[off] = Math.sqrt(len);
+    }
+
+    /**
+     * Index a single (dense) instance.
+     *
+     * @param off Object offset
+     * @param obj Object to index.
+     */
+    private void indexDense(int off, V obj) {
+      double len = 0.;
+      for(int dim = 0, max = obj.getDimensionality(); dim < max; dim++) {
+        final double val = obj.doubleValue(dim);
+        if(val == 0. || val != val) {
+          continue;
+        }
+        len += val * val;
+        getOrCreateColumn(dim).add(off, val);
+      }
+      length[off] = Math.sqrt(len);
+    }
+
+    /**
+     * Get (or create) a column.
+     *
+     * @param dim Dimension
+     * @return Column
+     */
+    private PostingBuilder getOrCreateColumn(int dim) {
+      while(dim >= columns.size()) {
+        columns.add(new PostingBuilder());
+      }
+      return columns.get(dim);
     }
-    return index.get(dim);
   }
 
   /**
-   * Query the most similar objects, sparse version.
-   * 
-   * @param obj Query object
-   * @param scores Score storage
-   * @param cands Non-zero objects set
-   * @return Result
+   * Parallel construction: scan the objects, then compress the columns.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
    */
-  private double naiveQuerySparse(SparseNumberVector obj, WritableDoubleDataStore scores, HashSetModifiableDBIDs cands) {
-    double len = 0.; // Length of query object, for final normalization
-    for(int iter = obj.iter(); obj.iterValid(iter); iter = obj.iterAdvance(iter)) {
-      final int dim = obj.iterDim(iter);
-      final double val = obj.iterDoubleValue(iter);
-      if(val == 0. || val != val) {
-        continue;
+  class BuildTask extends RecursiveAction {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Scanners, in object order.
+     */
+    final ArrayList<Scanner> scanners;
+
+    /**
+     * Constructor.
+     *
+     * @param scanners Scanners
+     */
+    BuildTask(ArrayList<Scanner> scanners) {
+      this.scanners = scanners;
+    }
+
+    @Override
+    protected void compute() {
+      invokeAll(scanners);
+      int dims = 0;
+      for(Scanner s : scanners) {
+        dims = Math.max(dims, s.columns.size());
       }
-      len += val * val;
-      // No matching documents in index:
-      if(dim >= index.size()) {
-        continue;
+      index = new PostingList[dims];
+      final int ntasks = Math.max(1, Math.min(dims, scanners.size() << 2));
+      ArrayList<RecursiveAction> tasks = new ArrayList<>(ntasks);
+      for(int i = 0; i < ntasks; i++) {
+        final int start = i * dims / ntasks, end = (i + 1) * dims / ntasks;
+        tasks.add(new RecursiveAction() {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected void compute() {
+            compress(scanners, start, end);
+          }
+        });
+      }
+      invokeAll(tasks);
+    }
+  }
+
+  /**
+   * Block compressed posting list.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  static class PostingList {
+    /**
+     * Number of postings.
+     */
+    final int size;
+
+    /**
+     * Delta and varint encoded object offsets.
+     */
+    final byte[] docs;
+
+    /**
+     * Weights of the postings.
+     */
+    final double[] weights;
+
+    /**
+     * Byte offset of each block.
+     */
+    final int[] blockOffset;
+
+    /**
+     * Last object offset in each block.
+     */
+    final int[] blockLast;
+
+    /**
+     * Maximum absolute normalized weight in each block.
+     */
+    final double[] blockMax;
+
+    /**
+     * Maximum absolute normalized weight in the list.
+     */
+    final double max;
+
+    /**
+     * Constructor.
+     *
+     * @param docs Object offsets (ascending)
+     * @param weights Weights
+     * @param size Number of postings
+     * @param length Vector lengths, for normalization
+     */
+    PostingList(int[] docs, double[] weights, int size, double[] length) {
+      this.size = size;
+      this.weights = weights.length == size ? weights : Arrays.copyOf(weights, size);
+      final int nblocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+      blockOffset = new int[nblocks];
+      blockLast = new int[nblocks];
+      blockMax = new double[nblocks];
+      int bytes = 0;
+      for(int i = 0, prev = -1; i < size; prev = docs[i++]) {
+        bytes += ByteArrayUtil.getUnsignedVarintSize(docs[i] - prev);
       }
-      ModifiableDoubleDBIDList column = index.get(dim);
-      for(DoubleDBIDListIter n = column.iter(); n.valid(); n.advance()) {
-        scores.increment(n, n.doubleValue() * val);
-        cands.add(n);
+      ByteBuffer buf = ByteBuffer.wrap(this.docs = new byte[bytes]);
+      double lmax = 0.;
+      for(int b = 0, i = 0, prev = -1; b < nblocks; b++) {
+        blockOffset[b] = buf.position();
+        double bmax = 0.;
+        for(final int end = Math.min(i + BLOCK_SIZE, size); i < end; prev = docs[i++]) {
+          ByteArrayUtil.writeUnsignedVarint(buf, docs[i] - prev);
+          final double w = Math.abs(weights[i]) / length[docs[i]];
+          bmax = w > bmax ? w : bmax;
+        }
+        blockLast[b] = prev;
+        blockMax[b] = bmax;
+        lmax = bmax > lmax ? bmax : lmax;
       }
+      max = lmax;
+    }
+
+    /**
+     * Decode a block of object offsets.
+     *
+     * @param b Block number
+     * @param out Output buffer
+     * @return Number of postings in the block
+     */
+    int decode(int b, int[] out) {
+      final int cnt = Math.min(BLOCK_SIZE, size - b * BLOCK_SIZE);
+      int pos = blockOffset[b], prev = b > 0 ? blockLast[b - 1] : -1;
+      for(int j = 0; j < cnt; j++) {
+        int delta = 0;
+        for(int shift = 0;; shift += 7) {
+          final byte v = docs[pos++];
+          delta |= (v & 0x7F) << shift;
+          if(v >= 0) {
+            break;
+          }
+        }
+        out[j] = prev += delta;
+      }
+      return cnt;
+    }
+
+    /**
+     * Memory used by this list, approximately.
+     *
+     * @return Bytes
+     */
+    long byteSize() {
+      return docs.length + (weights.length << 3) + blockOffset.length * 16L;
     }
-    return Math.sqrt(len);
   }
 
   /**
-   * Query the most similar objects, dense version.
-   * 
-   * @param obj Query object
-   * @param scores Score storage
-   * @param cands Non-zero objects set
-   * @return Result
+   * Cursor over a posting list, for one query dimension.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
    */
-  private double naiveQueryDense(NumberVector obj, WritableDoubleDataStore scores, HashSetModifiableDBIDs cands) {
-    double len = 0.; // Length of query object, for final normalization
-    for(int dim = 0, max = obj.getDimensionality(); dim < max; dim++) {
-      final double val = obj.doubleValue(dim);
-      if(val == 0. || val != val) {
-        continue;
+  static class Cursor {
+    /**
+     * Posting list.
+     */
+    final PostingList list;
+
+    /**
+     * Query weight.
+     */
+    final double qv;
+
+    /**
+     * Upper bound of the score contribution of this list.
+     */
+    final double ub;
+
+    /**
+     * Decoded block.
+     */
+    final int[] buf = new int[BLOCK_SIZE];
+
+    /**
+     * Current block, its length, and the position within.
+     */
+    int block = -1, blen = 0, pos = 0;
+
+    /**
+     * Current object offset.
+     */
+    int doc;
+
+    /**
+     * Constructor.
+     *
+     * @param list Posting list
+     * @param qv Query weight
+     */
+    Cursor(PostingList list, double qv) {
+      this.list = list;
+      this.qv = qv;
+      this.ub = Math.abs(qv) * list.max;
+      load(0);
+    }
+
+    /**
+     * Decode a block, and move to its first posting.
+     *
+     * @param b Block
+     */
+    private void load(int b) {
+      blen = list.decode(block = b, buf);
+      doc = buf[pos = 0];
+    }
+
+    /**
+     * Advance to the next posting.
+     */
+    void next() {
+      if(++pos < blen) {
+        doc = buf[pos];
+      }
+      else if(block + 1 < list.blockLast.length) {
+        load(block + 1);
+      }
+      else {
+        doc = NO_MORE;
       }
-      len += val * val;
-      // No matching documents in index:
-      if(dim >= index.size()) {
+    }
+
+    /**
+     * Advance to the first posting with offset {@code >= target}.
+     *
+     * @param target Target offset
+     */
+    void advance(int target) {
+      if(doc >= target) {
+        return;
+      }
+      final int b = shallow(target);
+      if(b == list.blockLast.length) {
+        doc = NO_MORE;
+        return;
+      }
+      if(b != block) {
+        load(b);
+      }
+      while(buf[pos] < target) {
+        ++pos;
+      }
+      doc = buf[pos];
+    }
+
+    /**
+     * Find the block that would contain the target, without decoding.
+     *
+     * @param target Target offset
+     * @return Block number, or the number of blocks if exhausted
+     */
+    int shallow(int target) {
+      final int[] last = list.blockLast;
+      int b = block;
+      while(b < last.length && last[b] < target) {
+        ++b;
+      }
+      return b;
+    }
+
+    /**
+     * Weight of the current posting.
+     *
+     * @return Weight
+     */
+    double weight() {
+      return list.weights[block * BLOCK_SIZE + pos];
+    }
+  }
+
+  /**
+   * Receives the results of a search.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private interface Collector {
+    /**
+     * Minimum score ({@code dot / length}) of interest.
+     *
+     * @return Threshold
+     */
+    double threshold();
+
+    /**
+     * Collect a result.
+     *
+     * @param off Object offset
+     * @param dot Dot product with the query
+     */
+    void collect(int off, double dot);
+  }
+
+  /**
+   * Block-max WAND search for objects sharing dimensions with the query.
+   *
+   * @param terms Query cursors
+   * @param collector Result collector
+   */
+  private void search(Cursor[] terms, Collector collector) {
+    if(terms.length == 0) {
+      return;
+    }
+    Cursor[] order = terms.clone();
+    int live = order.length;
+    while(true) {
+      // Sort by current offset, exhausted lists last.
+      for(int i = 1; i < live; i++) {
+        final Cursor c = order[i];
+        int j = i;
+        for(; j > 0 && order[j - 1].doc > c.doc; j--) {
+          order[j] = order[j - 1];
+        }
+        order[j] = c;
+      }
+      while(live > 0 && order[live - 1].doc == NO_MORE) {
+        --live;
+      }
+      if(live == 0) {
+        return;
+      }
+      // Find the pivot: the first list at which the bounds reach the
+      // threshold.
+      final double threshold = collector.threshold();
+      double acc = 0.;
+      int p = 0;
+      for(; p < live; p++) {
+        acc += order[p].ub;
+        if(acc >= threshold) {
+          break;
+        }
+      }
+      if(p == live) {
+        return; // No further result possible.
+      }
+      final int pdoc = order[p].doc;
+      while(p + 1 < live && order[p + 1].doc == pdoc) {
+        ++p;
+      }
+      // Check the maxima of the current blocks.
+      double bacc = 0.;
+      int skip = p + 1 < live ? order[p + 1].doc : NO_MORE;
+      for(int i = 0; i <= p; i++) {
+        final Cursor c = order[i];
+        final int b = c.shallow(pdoc);
+        if(b < c.list.blockLast.length) {
+          bacc += Math.abs(c.qv) * c.list.blockMax[b];
+          skip = Math.min(skip, c.list.blockLast[b] + 1);
+        }
+      }
+      if(bacc < threshold) {
+        // No object up to the end of the shortest block can qualify.
+        for(int i = 0; i <= p; i++) {
+          order[i].advance(skip);
+        }
         continue;
       }
-      ModifiableDoubleDBIDList column = index.get(dim);
-      for(DoubleDBIDListIter n = column.iter(); n.valid(); n.advance()) {
-        scores.increment(n, n.doubleValue() * val);
-        cands.add(n);
+      if(order[0].doc == pdoc) {
+        // Score the pivot, in query dimension order.
+        double dot = 0.;
+        for(Cursor c : terms) {
+          if(c.doc == pdoc) {
+            dot += c.weight() * c.qv;
+          }
+        }
+        collector.collect(pdoc, dot);
+        for(int i = 0; i <= p; i++) {
+          order[i].next();
+        }
+      }
+      else {
+        for(int i = 0; i < p && order[i].doc < pdoc; i++) {
+          order[i].advance(pdoc);
+        }
       }
     }
-    return Math.sqrt(len);
   }
 
   /**
-   * Query the most similar objects, abstract version.
-   * 
+   * Build the cursors for a query, and compute the query length.
+   *
    * @param obj Query object
-   * @param scores Score storage (must be initialized with zeros!)
-   * @param cands Non-zero objects set (must be empty)
-   * @return Result
+   * @param terms Output list of cursors
+   * @return Length of the query vector
    */
-  private double naiveQuery(V obj, WritableDoubleDataStore scores, HashSetModifiableDBIDs cands) {
+  private double prepareQuery(V obj, ArrayList<Cursor> terms) {
+    double len = 0.; // Length of query object, for final normalization
     if(obj instanceof SparseNumberVector) {
-      return naiveQuerySparse((SparseNumberVector) obj, scores, cands);
+      SparseNumberVector sobj = (SparseNumberVector) obj;
+      for(int iter = sobj.iter(); sobj.iterValid(iter); iter = sobj.iterAdvance(iter)) {
+        len += addTerm(sobj.iterDim(iter), sobj.iterDoubleValue(iter), terms);
+      }
     }
     else {
-      return naiveQueryDense(obj, scores, cands);
+      for(int dim = 0, max = obj.getDimensionality(); dim < max; dim++) {
+        len += addTerm(dim, obj.doubleValue(dim), terms);
+      }
+    }
+    return Math.sqrt(len);
+  }
+
+  /**
+   * Add a query term.
+   *
+   * @param dim Dimension
+   * @param val Value
+   * @param terms Output list of cursors
+   * @return Squared value, for computing the length
+   */
+  private double addTerm(int dim, double val, ArrayList<Cursor> terms) {
+    if(val == 0. || val != val) {
+      return 0.;
     }
+    // No matching documents in index:
+    if(dim < index.length && index[dim] != null) {
+      terms.add(new Cursor(index[dim], val));
+    }
+    return val * val;
+  }
+
+  /**
+   * Allow for rounding errors when comparing to a threshold.
+   *
+   * @param threshold Threshold
+   * @return Slightly lower threshold
+   */
+  private static double slack(double threshold) {
+    return threshold - Math.abs(threshold) * 1e-12;
+  }
+
+  /**
+   * Cosine distance, clamped as in {@link CosineDistanceFunction}.
+   *
+   * @param sim Cosine similarity
+   * @return Distance
+   */
+  private static double cosineDistance(double sim) {
+    return sim < 1. ? 1. - sim : 0.;
+  }
+
+  /**
+   * Arc cosine distance, clamped as in {@link ArcCosineDistanceFunction}.
+   *
+   * Rounding may yield similarities slightly larger than 1, for which
+   * {@code Math.acos} would return NaN.
+   *
+   * @param sim Cosine similarity
+   * @return Distance
+   */
+  private static double arcCosineDistance(double sim) {
+    return sim < 1. ? Math.acos(sim) : 0.;
   }
 
   @Override
   public void logStatistics() {
-    long count = 0L;
-    for(ModifiableDoubleDBIDList column : index) {
-      count += column.size();
+    long count = countPostings(), bytes = 0L;
+    for(PostingList column : index) {
+      bytes += column != null ? column.byteSize() : 0;
     }
-    double sparsity = count / (index.size() * (double) relation.size());
+    double sparsity = count / (index.length * (double) relation.size());
     LOG.statistics(new DoubleStatistic(this.getClass().getName() + ".sparsity", sparsity));
+    LOG.statistics(new LongStatistic(this.getClass().getName() + ".postings.bytes", bytes));
   }
 
   @Override
@@ -291,15 +871,15 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
 
   /**
    * kNN query object, for cosine distance.
-   * 
+   *
    * @author Erich Schubert
-   * 
+   *
    * @apiviz.exclude
    */
   protected class CosineKNNQuery extends AbstractDistanceKNNQuery<V> {
     /**
      * Constructor.
-     * 
+     *
      * @param distanceQuery Distance query
      */
     public CosineKNNQuery(DistanceQuery<V> distanceQuery) {
@@ -308,34 +888,41 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
 
     @Override
     public KNNList getKNNForObject(V obj, int k) {
-      HashSetModifiableDBIDs cands = DBIDUtil.newHashSet();
-      WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(cands, //
-          DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
-      double len = naiveQuery(obj, scores, cands);
-      // TODO: delay the division by len!
-      KNNHeap heap = DBIDUtil.newHeap(k);
-      for(DBIDIter n = cands.iter(); n.valid(); n.advance()) {
-        double dist = 1. - scores.doubleValue(n) / (length.doubleValue(n) * len);
-        if(heap.getKNNDistance() >= dist) {
-          heap.insert(dist, n);
+      ArrayList<Cursor> terms = new ArrayList<>();
+      final double len = prepareQuery(obj, terms);
+      final KNNHeap heap = DBIDUtil.newHeap(k);
+      final DBIDArrayIter it = ids.iter();
+      search(terms.toArray(new Cursor[terms.size()]), new Collector() {
+        @Override
+        public double threshold() {
+          final double kdist = heap.getKNNDistance();
+          // dist = 1 - sim/len <-> sim = len * (1-dist)
+          return kdist < Double.POSITIVE_INFINITY ? slack((1. - kdist) * len) : Double.NEGATIVE_INFINITY;
         }
-      }
 
+        @Override
+        public void collect(int off, double dot) {
+          double dist = cosineDistance(dot / (length[off] * len));
+          if(heap.getKNNDistance() >= dist) {
+            heap.insert(dist, it.seek(off));
+          }
+        }
+      });
       return heap.toKNNList();
     }
   }
 
   /**
    * kNN query object, for arc cosine distance.
-   * 
+   *
    * @author Erich Schubert
-   * 
+   *
    * @apiviz.exclude
    */
   protected class ArcCosineKNNQuery extends AbstractDistanceKNNQuery<V> {
     /**
      * Constructor.
-     * 
+     *
      * @param distanceQuery Distance query
      */
     public ArcCosineKNNQuery(DistanceQuery<V> distanceQuery) {
@@ -344,34 +931,41 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
 
     @Override
     public KNNList getKNNForObject(V obj, int k) {
-      HashSetModifiableDBIDs cands = DBIDUtil.newHashSet();
-      WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(cands, //
-          DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
-      double len = naiveQuery(obj, scores, cands);
-      // TODO: delay the division by len and acos!
-      KNNHeap heap = DBIDUtil.newHeap(k);
-      for(DBIDIter n = cands.iter(); n.valid(); n.advance()) {
-        double dist = Math.acos(scores.doubleValue(n) / (length.doubleValue(n) * len));
-        if(heap.getKNNDistance() >= dist) {
-          heap.insert(dist, n);
+      ArrayList<Cursor> terms = new ArrayList<>();
+      final double len = prepareQuery(obj, terms);
+      final KNNHeap heap = DBIDUtil.newHeap(k);
+      final DBIDArrayIter it = ids.iter();
+      search(terms.toArray(new Cursor[terms.size()]), new Collector() {
+        @Override
+        public double threshold() {
+          final double kdist = heap.getKNNDistance();
+          // dist = acos(sim/len) <-> sim = cos(dist)*len
+          return kdist < Double.POSITIVE_INFINITY ? slack(Math.cos(kdist) * len) : Double.NEGATIVE_INFINITY;
         }
-      }
 
+        @Override
+        public void collect(int off, double dot) {
+          double dist = arcCosineDistance(dot / (length[off] * len));
+          if(heap.getKNNDistance() >= dist) {
+            heap.insert(dist, it.seek(off));
+          }
+        }
+      });
       return heap.toKNNList();
     }
   }
 
   /**
    * kNN query object, for cosine distance.
-   * 
+   *
    * @author Erich Schubert
-   * 
+   *
    * @apiviz.exclude
    */
   protected class CosineRangeQuery extends AbstractDistanceRangeQuery<V> {
     /**
      * Constructor.
-     * 
+     *
      * @param distanceQuery Distance query
      */
     public CosineRangeQuery(DistanceQuery<V> distanceQuery) {
@@ -379,33 +973,40 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
     }
 
     @Override
-    public void getRangeForObject(V obj, double range, ModifiableDoubleDBIDList result) {
-      HashSetModifiableDBIDs cands = DBIDUtil.newHashSet();
-      WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(cands, //
-          DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
-      double len = naiveQuery(obj, scores, cands);
+    public void getRangeForObject(V obj, double range, final ModifiableDoubleDBIDList result) {
+      ArrayList<Cursor> terms = new ArrayList<>();
+      final double len = prepareQuery(obj, terms);
       // dist = 1 - sim/len <-> sim = len * (1-dist)
-      double simrange = (1. - range) * len;
-      for(DBIDIter n = cands.iter(); n.valid(); n.advance()) {
-        double sim = scores.doubleValue(n) / length.doubleValue(n);
-        if(sim >= simrange) {
-          result.add(1. - sim / len, n);
+      final double simrange = (1. - range) * len;
+      final DBIDArrayIter it = ids.iter();
+      search(terms.toArray(new Cursor[terms.size()]), new Collector() {
+        @Override
+        public double threshold() {
+          return slack(simrange);
         }
-      }
+
+        @Override
+        public void collect(int off, double dot) {
+          double sim = dot / length[off];
+          if(sim >= simrange) {
+            result.add(cosineDistance(sim / len), it.seek(off));
+          }
+        }
+      });
     }
   }
 
   /**
    * kNN query object, for cosine distance.
-   * 
+   *
    * @author Erich Schubert
-   * 
+   *
    * @apiviz.exclude
    */
   protected class ArcCosineRangeQuery extends AbstractDistanceRangeQuery<V> {
     /**
      * Constructor.
-     * 
+     *
      * @param distanceQuery Distance query
      */
     public ArcCosineRangeQuery(DistanceQuery<V> distanceQuery) {
@@ -413,29 +1014,36 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
     }
 
     @Override
-    public void getRangeForObject(V obj, double range, ModifiableDoubleDBIDList result) {
-      HashSetModifiableDBIDs cands = DBIDUtil.newHashSet();
-      WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(cands, //
-          DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
-      double len = naiveQuery(obj, scores, cands);
+    public void getRangeForObject(V obj, double range, final ModifiableDoubleDBIDList result) {
+      ArrayList<Cursor> terms = new ArrayList<>();
+      final double len = prepareQuery(obj, terms);
       // dist = acos(sim/len) <-> sim = cos(dist)*len
-      double simrange = Math.cos(range) * len;
-      for(DBIDIter n = cands.iter(); n.valid(); n.advance()) {
-        double sim = scores.doubleValue(n) / length.doubleValue(n);
-        if(sim >= simrange) {
-          result.add(Math.acos(sim / len), n);
+      final double simrange = Math.cos(range) * len;
+      final DBIDArrayIter it = ids.iter();
+      search(terms.toArray(new Cursor[terms.size()]), new Collector() {
+        @Override
+        public double threshold() {
+          return slack(simrange);
         }
-      }
+
+        @Override
+        public void collect(int off, double dot) {
+          double sim = dot / length[off];
+          if(sim >= simrange) {
+            result.add(arcCosineDistance(sim / len), it.seek(off));
+          }
+        }
+      });
     }
   }
 
   /**
    * Index factory
-   * 
+   *
    * @author Erich Schubert
-   * 
+   *
    * @apiviz.has InMemoryInvertedIndex
-   * 
+   *
    * @param <V> Vector type
    */
   public static class Factory<V extends NumberVector> implements IndexFactory<V, InMemoryInvertedIndex<V>> {
@@ -451,11 +1059,11 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
 
     /**
      * Parameterizer for inverted list index.
-     * 
+     *
      * @author Erich Schubert
-     * 
+     *
      * @apiviz.exclude
-     * 
+     *
      * @param <V> Vector type
      */
     public static class Parameterizer<V extends NumberVector> extends AbstractParameterizer {
@@ -23,16 +23,14 @@ package de.lmu.ifi.dbs.elki.index.lsh;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import gnu.trove.iterator.TIntObjectIterator;
-import gnu.trove.map.TIntObjectMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
-
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
@@ -44,11 +42,13 @@ import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.index.AbstractRefiningIndex;
+import de.lmu.ifi.dbs.elki.index.CostEstimatingIndex;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
 import de.lmu.ifi.dbs.elki.index.lsh.hashfamilies.LocalitySensitiveHashFunctionFamily;
 import de.lmu.ifi.dbs.elki.index.lsh.hashfunctions.LocalitySensitiveHashFunction;
+import de.lmu.ifi.dbs.elki.index.lsh.hashfunctions.MultiProbeLocalitySensitiveHashFunction;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
@@ -62,6 +62,11 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 /**
  * Locality Sensitive Hashing.
  *
+ * The buckets of each hash table are stored in a compact array layout
+ * (compressed sparse rows), using offsets into the indexed DBIDs. With hash
+ * functions that support it, queries can probe multiple neighboring buckets
+ * of each table, which allows using much fewer hash tables.
+ *
  * @author Erich Schubert
  * @since 0.6.0
  *
@@ -91,6 +96,11 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
    */
   int numberOfBuckets;
 
+  /**
+   * Number of buckets to probe in each table.
+   */
+  int probes;
+
   /**
    * Constructor.
    *
@@ -99,15 +109,28 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
    * @param numberOfBuckets Number of buckets to use.
    */
   public InMemoryLSHIndex(LocalitySensitiveHashFunctionFamily<? super V> family, int l, int numberOfBuckets) {
+    this(family, l, numberOfBuckets, 1);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param family Projection family
+   * @param l Number of hash tables to use
+   * @param numberOfBuckets Number of buckets to use.
+   * @param probes Number of buckets to probe in each table.
+   */
+  public InMemoryLSHIndex(LocalitySensitiveHashFunctionFamily<? super V> family, int l, int numberOfBuckets, int probes) {
     super();
     this.family = family;
     this.l = l;
     this.numberOfBuckets = numberOfBuckets;
+    this.probes = probes;
   }
 
   @Override
   public Instance instantiate(Relation<V> relation) {
-    return new Instance(relation, family.generateHashFunctions(relation, l), numberOfBuckets);
+    return new Instance(relation, family.generateHashFunctions(relation, l), numberOfBuckets, probes);
   }
 
   @Override
@@ -122,32 +145,56 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
    *
    * @apiviz.has LocalitySensitiveHashFunction
    */
-  public class Instance extends AbstractRefiningIndex<V> implements KNNIndex<V>, RangeIndex<V> {
+  public class Instance extends AbstractRefiningIndex<V> implements KNNIndex<V>, RangeIndex<V>, CostEstimatingIndex {
     /**
      * Hash functions to use.
      */
     ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions;
 
     /**
-     * The actual table
+     * Indexed objects; bucket contents are offsets into this array.
+     */
+    ArrayDBIDs ids;
+
+    /**
+     * Bucket start offsets for each table, of length numberOfBuckets + 1.
+     */
+    int[][] bucketStart;
+
+    /**
+     * Bucket contents for each table, as offsets into {@link #ids}.
      */
-    ArrayList<TIntObjectMap<DBIDs>> hashtables;
+    int[][] bucketContents;
 
     /**
      * Number of buckets to use.
      */
     private int numberOfBuckets;
 
+    /**
+     * Number of buckets to probe in each table.
+     */
+    private int probes;
+
+    /**
+     * Expected number of candidates per query, estimated from the bucket
+     * occupancy.
+     */
+    private double expectedCandidates = Double.NaN;
+
     /**
      * Constructor.
      *
      * @param relation Relation to index.
      * @param hashfunctions Hash functions.
+     * @param numberOfBuckets Number of buckets to use.
+     * @param probes Number of buckets to probe in each table.
      */
-    public Instance(Relation<V> relation, ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions, int numberOfBuckets) {
+    public Instance(Relation<V> relation, ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions, int numberOfBuckets, int probes) {
       super(relation);
       this.hashfunctions = hashfunctions;
       this.numberOfBuckets = numberOfBuckets;
+      this.probes = probes;
     }
 
     @Override
@@ -163,59 +210,103 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
     @Override
     public void initialize() {
       final int numhash = hashfunctions.size();
-      hashtables = new ArrayList<>(numhash);
-      for(int i = 0; i < numhash; i++) {
-        hashtables.add(new TIntObjectHashMap<DBIDs>(numberOfBuckets));
-      }
+      ids = DBIDUtil.ensureArray(relation.getDBIDs());
+      final int size = ids.size();
+      bucketStart = new int[numhash][];
+      bucketContents = new int[numhash][];
 
       // TODO: We assume all hash functions have the same dimensionality.
       double[] buf = new double[hashfunctions.get(0).getNumberOfProjections()];
-      FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Building LSH index", relation.size(), LOG) : null;
-      int expect = Math.max(2, (int) Math.ceil(relation.size() / (double) numberOfBuckets));
-      for(DBIDIter iter = relation.getDBIDs().iter(); iter.valid(); iter.advance()) {
-        V obj = relation.get(iter);
-        for(int i = 0; i < numhash; i++) {
-          final TIntObjectMap<DBIDs> table = hashtables.get(i);
-          final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
-          // Get the initial (unbounded) hash code:
-          int hash = hashfunc.hashObject(obj, buf);
-          // Reduce to hash table size
-          int bucket = hash % numberOfBuckets;
-          DBIDs cur = table.get(bucket);
-          if(cur == null) {
-            table.put(bucket, DBIDUtil.deref(iter));
-          }
-          else if(cur.size() > 1) {
-            ((ModifiableDBIDs) cur).add(iter);
-          }
-          else {
-            ModifiableDBIDs newbuck = DBIDUtil.newArray(expect);
-            newbuck.addDBIDs(cur);
-            newbuck.add(iter);
-            table.put(bucket, newbuck);
-          }
+      int[] buckets = new int[size];
+      FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Building LSH hash tables", numhash, LOG) : null;
+      for(int i = 0; i < numhash; i++) {
+        final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
+        // Count the bucket sizes, then use counting sort.
+        int[] start = new int[numberOfBuckets + 1];
+        for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+          final int bucket = bucket(hashfunc.hashObject(relation.get(iter), buf));
+          buckets[iter.getOffset()] = bucket;
+          ++start[bucket + 1];
+        }
+        for(int b = 0; b < numberOfBuckets; b++) {
+          start[b + 1] += start[b];
         }
+        int[] pos = Arrays.copyOf(start, numberOfBuckets);
+        int[] contents = new int[size];
+        for(int j = 0; j < size; j++) {
+          contents[pos[buckets[j]]++] = j;
+        }
+        bucketStart[i] = start;
+        bucketContents[i] = contents;
         LOG.incrementProcessed(progress);
       }
       LOG.ensureCompleted(progress);
-      if(LOG.isStatistics()) {
-        int min = Integer.MAX_VALUE, max = 0;
-        for(int i = 0; i < numhash; i++) {
-          final TIntObjectMap<DBIDs> table = hashtables.get(i);
-          for(TIntObjectIterator<DBIDs> iter = table.iterator(); iter.hasNext();) {
-            iter.advance();
-            int size = iter.value().size();
-            if(size < min) {
-              min = size;
-            }
-            if(size > max) {
-              max = size;
-            }
+      // A query point from the data distribution falls into a bucket with
+      // probability proportional to its size; the union over all tables is
+      // bounded by the data set size.
+      double candidates = 0.;
+      int min = Integer.MAX_VALUE, max = 0;
+      for(int i = 0; i < numhash; i++) {
+        final int[] start = bucketStart[i];
+        for(int b = 0; b < numberOfBuckets; b++) {
+          final int bsize = start[b + 1] - start[b];
+          if(bsize > 0) {
+            candidates += bsize * (double) bsize;
+            min = bsize < min ? bsize : min;
+            max = bsize > max ? bsize : max;
           }
         }
+      }
+      expectedCandidates = Math.min(candidates / Math.max(size, 1) * probes, size);
+      if(LOG.isStatistics()) {
         LOG.statistics(new LongStatistic(this.getClass().getName() + ".fill.min", min));
         LOG.statistics(new LongStatistic(this.getClass().getName() + ".fill.max", max));
-        LOG.statistics(new LongStatistic(this.getClass().getName() + ".hashtables", hashtables.size()));
+        LOG.statistics(new LongStatistic(this.getClass().getName() + ".hashtables", numhash));
+        LOG.statistics(new LongStatistic(this.getClass().getName() + ".probes", probes));
+      }
+    }
+
+    /**
+     * Reduce a hash code to the hash table size.
+     *
+     * @param hash Hash code
+     * @return Bucket number
+     */
+    private int bucket(int hash) {
+      final int bucket = hash % numberOfBuckets;
+      return bucket < 0 ? bucket + numberOfBuckets : bucket;
+    }
+
+    /**
+     * Collect the candidates from all hash tables.
+     *
+     * @param obj Query object
+     * @param candidates Output candidates
+     */
+    private void collectCandidates(V obj, ModifiableDBIDs candidates) {
+      final int numhash = hashfunctions.size();
+      double[] buf = new double[hashfunctions.get(0).getNumberOfProjections()];
+      int[] hashes = new int[probes];
+      DBIDArrayIter iter = ids.iter();
+      for(int i = 0; i < numhash; i++) {
+        final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
+        final int n;
+        if(probes > 1 && hashfunc instanceof MultiProbeLocalitySensitiveHashFunction) {
+          @SuppressWarnings("unchecked")
+          final MultiProbeLocalitySensitiveHashFunction<? super V> mhashfunc = (MultiProbeLocalitySensitiveHashFunction<? super V>) hashfunc;
+          n = mhashfunc.hashProbes(obj, buf, hashes);
+        }
+        else {
+          hashes[0] = hashfunc.hashObject(obj, buf);
+          n = 1;
+        }
+        final int[] start = bucketStart[i], contents = bucketContents[i];
+        for(int p = 0; p < n; p++) {
+          final int bucket = bucket(hashes[p]);
+          for(int j = start[bucket], end = start[bucket + 1]; j < end; j++) {
+            candidates.add(iter.seek(contents[j]));
+          }
+        }
       }
     }
 
@@ -224,6 +315,21 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
       return LOG;
     }
 
+    @Override
+    public double estimateKNNCost(int k) {
+      return expectedCandidates;
+    }
+
+    @Override
+    public double estimateRangeCost(double range) {
+      return expectedCandidates;
+    }
+
+    @Override
+    public boolean isApproximate() {
+      return true;
+    }
+
     @Override
     public KNNQuery<V> getKNNQuery(DistanceQuery<V> distanceQuery, Object... hints) {
       for(Object hint : hints) {
@@ -271,27 +377,8 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
 
       @Override
       public KNNList getKNNForObject(V obj, int k) {
-        ModifiableDBIDs candidates = null;
-        final int numhash = hashtables.size();
-        double[] buf = new double[hashfunctions.get(0).getNumberOfProjections()];
-        for(int i = 0; i < numhash; i++) {
-          final TIntObjectMap<DBIDs> table = hashtables.get(i);
-          final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
-          // Get the initial (unbounded) hash code:
-          int hash = hashfunc.hashObject(obj, buf);
-          // Reduce to hash table size
-          int bucket = hash % numberOfBuckets;
-          DBIDs cur = table.get(bucket);
-          if(cur != null) {
-            if(candidates == null) {
-              candidates = DBIDUtil.newHashSet(cur.size() * numhash + k);
-            }
-            candidates.addDBIDs(cur);
-          }
-        }
-        if(candidates == null) {
-          candidates = DBIDUtil.newArray();
-        }
+        ModifiableDBIDs candidates = DBIDUtil.newHashSet();
+        collectCandidates(obj, candidates);
 
         // Refine.
         KNNHeap heap = DBIDUtil.newHeap(k);
@@ -324,20 +411,7 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
       @Override
       public void getRangeForObject(V obj, double range, ModifiableDoubleDBIDList result) {
         ModifiableDBIDs candidates = DBIDUtil.newHashSet();
-        final int numhash = hashtables.size();
-        double[] buf = new double[hashfunctions.get(0).getNumberOfProjections()];
-        for(int i = 0; i < numhash; i++) {
-          final TIntObjectMap<DBIDs> table = hashtables.get(i);
-          final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
-          // Get the initial (unbounded) hash code:
-          int hash = hashfunc.hashObject(obj, buf);
-          // Reduce to hash table size
-          int bucket = hash % numberOfBuckets;
-          DBIDs cur = table.get(bucket);
-          if(cur != null) {
-            candidates.addDBIDs(cur);
-          }
-        }
+        collectCandidates(obj, candidates);
 
         // Refine.
         for(DBIDIter iter = candidates.iter(); iter.valid(); iter.advance()) {
@@ -374,6 +448,11 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
      */
     public static final OptionID BUCKETS_ID = new OptionID("lsh.buckets", "Number of hash buckets to use.");
 
+    /**
+     * Number of buckets to probe in each hash table (multi-probe LSH).
+     */
+    public static final OptionID PROBES_ID = new OptionID("lsh.probes", "Number of buckets to probe in each hash table (multi-probe LSH).");
+
     /**
      * LSH hash function family to use.
      */
@@ -389,6 +468,11 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
      */
     int numberOfBuckets;
 
+    /**
+     * Number of buckets to probe in each table.
+     */
+    int probes;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -409,11 +493,17 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
       if(config.grab(bucketsP)) {
         numberOfBuckets = bucketsP.intValue();
       }
+
+      IntParameter probesP = new IntParameter(PROBES_ID, 1);
+      probesP.addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(probesP)) {
+        probes = probesP.intValue();
+      }
     }
 
     @Override
     protected InMemoryLSHIndex<V> makeInstance() {
-      return new InMemoryLSHIndex<>(family, l, numberOfBuckets);
+      return new InMemoryLSHIndex<>(family, l, numberOfBuckets, probes);
     }
   }
 }
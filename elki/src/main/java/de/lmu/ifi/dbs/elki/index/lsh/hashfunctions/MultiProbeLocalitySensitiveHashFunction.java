@@ -0,0 +1,60 @@
+package de.lmu.ifi.dbs.elki.index.lsh.hashfunctions;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+
+/**
+ * LSH hash function that can also enumerate neighboring buckets, in order of
+ * decreasing likelihood of containing near neighbors of the query.
+ *
+ * Reference:
+ * <p>
+ * Q. Lv and W. Josephson and Z. Wang and M. Charikar and K. Li<br />
+ * Multi-Probe LSH: Efficient Indexing for High-Dimensional Similarity
+ * Search<br />
+ * Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB 2007)
+ * </p>
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ *
+ * @param <V> Object type
+ */
+@Reference(authors = "Q. Lv and W. Josephson and Z. Wang and M. Charikar and K. Li", //
+title = "Multi-Probe LSH: Efficient Indexing for High-Dimensional Similarity Search", //
+booktitle = "Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB 2007)", //
+url = "http://www.vldb.org/conf/2007/papers/research/p950-lv.pdf")
+public interface MultiProbeLocalitySensitiveHashFunction<V> extends LocalitySensitiveHashFunction<V> {
+  /**
+   * Compute the hash value of an object, followed by the hash values of the
+   * most promising neighboring buckets.
+   *
+   * @param obj Object to hash
+   * @param buf Buffer, sized according to the number of projections.
+   * @param hashes Output array, the first entry is the regular hash value.
+   * @return Number of hash values produced
+   */
+  int hashProbes(V obj, double[] buf, int[] hashes);
+}
@@ -23,16 +23,23 @@ package de.lmu.ifi.dbs.elki.index.lsh.hashfunctions;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.util.Arrays;
 import java.util.Random;
 
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.math.linearalgebra.randomprojections.RandomProjectionFamily;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleObjectMinHeap;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 
 /**
  * LSH hash function for vector space data. Depending on the choice of random
  * vectors, it can be appropriate for Manhattan and Euclidean distances.
  *
+ * For multi-probe queries, the neighboring buckets are obtained by moving
+ * the projections by one bin width; perturbation sets are enumerated by the
+ * squared distance to the bin boundaries (query-directed probing).
+ *
  * Reference:
  * <p>
  * M. Datar and N. Immorlica and P. Indyk and V. S. Mirrokni<br />
@@ -47,7 +54,7 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 title = "Locality-sensitive hashing scheme based on p-stable distributions", //
 booktitle = "Proc. 20th annual symposium on Computational geometry", //
 url = "http://dx.doi.org/10.1145/997817.997857")
-public class MultipleProjectionsLocalitySensitiveHashFunction implements LocalitySensitiveHashFunction<NumberVector> {
+public class MultipleProjectionsLocalitySensitiveHashFunction implements MultiProbeLocalitySensitiveHashFunction<NumberVector> {
   /**
    * Projection matrix.
    */
@@ -121,6 +128,66 @@ public class MultipleProjectionsLocalitySensitiveHashFunction implements Localit
     return fastModPrime(t1sum);
   }
 
+  @Override
+  public int hashProbes(NumberVector vec, double[] buf, int[] hashes) {
+    // Project the vector:
+    projection.project(vec, buf);
+    final int num = shift.length, num2 = num << 1;
+    // Score of moving down (even) or up (odd) in each projection:
+    double[] scores = new double[num2];
+    int[] perts = new int[num2];
+    long t1sum = 0L;
+    for(int i = 0; i < num; i++) {
+      final double v = (buf[i] + shift[i]) * iwidth;
+      final int ai = (int) Math.floor(v);
+      t1sum += (randoms1[i] & MASK32) * ai; // unsigned math!
+      final double f = v - ai;
+      scores[i << 1] = f * f;
+      scores[(i << 1) + 1] = (1. - f) * (1. - f);
+      perts[i << 1] = i << 1;
+      perts[(i << 1) + 1] = (i << 1) + 1;
+    }
+    hashes[0] = fastModPrime(t1sum);
+    if(hashes.length == 1) {
+      return 1;
+    }
+    DoubleIntegerArrayQuickSort.sort(scores, perts, num2);
+    // Perturbation sets, as ascending positions in the sorted perturbations.
+    DoubleObjectMinHeap<int[]> heap = new DoubleObjectMinHeap<>();
+    heap.add(scores[0], new int[] { 0 });
+    int produced = 1;
+    while(produced < hashes.length && !heap.isEmpty()) {
+      final double score = heap.peekKey();
+      final int[] set = heap.peekValue();
+      heap.poll();
+      final int last = set[set.length - 1];
+      if(last + 1 < num2) {
+        // Shift: replace the last perturbation with the next one.
+        int[] shifted = set.clone();
+        shifted[set.length - 1] = last + 1;
+        heap.add(score - scores[last] + scores[last + 1], shifted);
+        // Expand: add the next perturbation.
+        int[] expanded = Arrays.copyOf(set, set.length + 1);
+        expanded[set.length] = last + 1;
+        heap.add(score + scores[last + 1], expanded);
+      }
+      // Sets that move a projection twice are not valid.
+      long sum = t1sum;
+      boolean valid = true;
+      for(int j = 0; j < set.length && valid; j++) {
+        final int p = perts[set[j]], i = p >>> 1;
+        for(int k = 0; k < j; k++) {
+          valid &= (perts[set[k]] >>> 1) != i;
+        }
+        sum += ((p & 1) == 0) ? -(randoms1[i] & MASK32) : (randoms1[i] & MASK32);
+      }
+      if(valid) {
+        hashes[produced++] = fastModPrime(sum);
+      }
+    }
+    return produced;
+  }
+
   /**
    * Fast modulo operation for the largest unsigned integer prime.
    *
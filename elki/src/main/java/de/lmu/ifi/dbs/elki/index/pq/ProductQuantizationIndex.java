@@ -0,0 +1,854 @@
+package de.lmu.ifi.dbs.elki.index.pq;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeansLloyd;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.RandomlyChosenInitialMeans;
+import de.lmu.ifi.dbs.elki.data.Cluster;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.model.KMeansModel;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.database.ProxyDatabase;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.MaterializedRelation;
+import de.lmu.ifi.dbs.elki.database.relation.ProxyView;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPNormDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.WeightedLPNormDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractRefiningIndex;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.LessEqualConstraint;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+/**
+ * Product quantization (PQ) index for approximate nearest neighbor search in
+ * large, high-dimensional vector data sets.
+ *
+ * The dimensions are split into {@code m} contiguous subspaces, and a codebook
+ * of at most 256 centroids is trained for each subspace using
+ * {@link KMeansLloyd} on a sample. Every vector is then stored as {@code m}
+ * bytes in a single flat array. Optionally, a coarse quantizer partitions the
+ * data into inverted lists first (IVF-PQ), and the residuals to the coarse
+ * centroids are encoded instead.
+ *
+ * Queries compute a table of distances from the query to all centroids of each
+ * subspace once (asymmetric distance computation), and scan the codes of the
+ * probed lists using table lookups only. The best candidates are then
+ * re-ranked using exact distances, so the returned distances are exact, but
+ * true neighbors may be missed.
+ *
+ * Reference:
+ * <p>
+ * H. Jégou, M. Douze, C. Schmid<br />
+ * Product Quantization for Nearest Neighbor Search<br />
+ * IEEE Transactions on Pattern Analysis and Machine Intelligence 33(1)
+ * </p>
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ *
+ * @apiviz.has PQKNNQuery
+ * @apiviz.uses KMeansLloyd
+ *
+ * @param <V> Vector type
+ */
+@Reference(authors = "H. Jégou, M. Douze, C. Schmid", //
+title = "Product Quantization for Nearest Neighbor Search", //
+booktitle = "IEEE Transactions on Pattern Analysis and Machine Intelligence 33(1)", //
+url = "http://dx.doi.org/10.1109/TPAMI.2010.57")
+public class ProductQuantizationIndex<V extends NumberVector> extends AbstractRefiningIndex<V> implements KNNIndex<V> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(ProductQuantizationIndex.class);
+
+  /**
+   * Maximum number of centroids per subspace, to fit into a byte.
+   */
+  public static final int MAX_CENTROIDS = 256;
+
+  /**
+   * Maximum size of a single chunk of codes, in bytes.
+   */
+  private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+  /**
+   * Number of subspaces (bytes per vector).
+   */
+  private int m;
+
+  /**
+   * Number of centroids per subspace.
+   */
+  private int ks;
+
+  /**
+   * Number of coarse inverted lists.
+   */
+  private int nlist;
+
+  /**
+   * Number of inverted lists to scan for each query.
+   */
+  private int nprobe;
+
+  /**
+   * Number of k-means iterations for training.
+   */
+  private int maxiter;
+
+  /**
+   * Training sample size.
+   */
+  private int samplesize;
+
+  /**
+   * Number of candidates to re-rank, relative to k.
+   */
+  private int refine;
+
+  /**
+   * Random generator for sampling and k-means initialization.
+   */
+  private RandomFactory random;
+
+  /**
+   * Dimensionality.
+   */
+  private int dim;
+
+  /**
+   * First dimension of each subspace, and the end of the last.
+   */
+  private int[] bounds;
+
+  /**
+   * Coarse centroids.
+   */
+  private double[][] coarse;
+
+  /**
+   * Codebooks: for each subspace, the centroids concatenated.
+   */
+  private double[][] codebooks;
+
+  /**
+   * Number of centroids actually used in each subspace.
+   */
+  private int[] sizes;
+
+  /**
+   * Object ids, grouped by inverted list.
+   */
+  private ArrayDBIDs ids;
+
+  /**
+   * Start offset of each inverted list, and the end of the last.
+   */
+  private int[] lists;
+
+  /**
+   * Codes, {@code m} bytes per object in the order of {@link #ids}. Split into
+   * chunks of {@code 1 << chunkshift} objects, as the total size may exceed
+   * the maximum array size.
+   */
+  private byte[][] codes;
+
+  /**
+   * Number of objects per chunk of codes, as power of two.
+   */
+  private int chunkshift;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Relation to index
+   * @param m Number of subspaces
+   * @param ks Number of centroids per subspace
+   * @param nlist Number of coarse inverted lists
+   * @param nprobe Number of lists to scan for each query
+   * @param maxiter Number of k-means iterations
+   * @param samplesize Training sample size
+   * @param refine Number of candidates to re-rank, relative to k
+   * @param random Random generator
+   */
+  public ProductQuantizationIndex(Relation<V> relation, int m, int ks, int nlist, int nprobe, int maxiter, int samplesize, int refine, RandomFactory random) {
+    super(relation);
+    this.m = m;
+    this.ks = ks;
+    this.nlist = nlist;
+    this.nprobe = nprobe;
+    this.maxiter = maxiter;
+    this.samplesize = samplesize;
+    this.refine = refine;
+    this.random = random;
+  }
+
+  @Override
+  public void initialize() {
+    dim = RelationUtil.dimensionality(relation);
+    m = Math.min(m, dim);
+    bounds = new int[m + 1];
+    for(int j = 0; j <= m; j++) {
+      bounds[j] = j * dim / m;
+    }
+    DBIDs sample = relation.size() > samplesize ? DBIDUtil.randomSample(relation.getDBIDs(), samplesize, random) : relation.getDBIDs();
+    trainCoarse(sample);
+    trainCodebooks(DBIDUtil.ensureArray(sample));
+    encode();
+  }
+
+  /**
+   * Train the coarse quantizer.
+   *
+   * @param sample Training sample
+   */
+  private void trainCoarse(DBIDs sample) {
+    nlist = Math.min(nlist, sample.size());
+    if(nlist <= 1) {
+      // Center the data only.
+      nlist = 1;
+      double[] mean = new double[dim];
+      for(DBIDIter it = sample.iter(); it.valid(); it.advance()) {
+        V vec = relation.get(it);
+        for(int d = 0; d < dim; d++) {
+          mean[d] += vec.doubleValue(d);
+        }
+      }
+      for(int d = 0; d < dim; d++) {
+        mean[d] /= sample.size();
+      }
+      coarse = new double[][] { mean };
+      return;
+    }
+    Relation<V> view = new ProxyView<>(sample, relation);
+    coarse = kMeans(new ProxyDatabase(sample, view), view, nlist);
+    nlist = coarse.length;
+  }
+
+  /**
+   * Train the codebook of each subspace on the residuals of the sample.
+   *
+   * @param sample Training sample
+   */
+  private void trainCodebooks(ArrayDBIDs sample) {
+    ks = Math.min(ks, sample.size());
+    double[][] residuals = new double[sample.size()][];
+    int i = 0;
+    for(DBIDIter it = sample.iter(); it.valid(); it.advance(), i++) {
+      V vec = relation.get(it);
+      residuals[i] = residual(vec, coarse[nearest(coarse, vec)], new double[dim]);
+    }
+    codebooks = new double[m][];
+    sizes = new int[m];
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Training PQ codebooks", m, LOG) : null;
+    for(int j = 0; j < m; j++) {
+      final int start = bounds[j], len = bounds[j + 1] - start;
+      WritableDataStore<DoubleVector> store = DataStoreUtil.makeStorage(sample, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, DoubleVector.class);
+      i = 0;
+      for(DBIDIter it = sample.iter(); it.valid(); it.advance(), i++) {
+        double[] sub = new double[len];
+        System.arraycopy(residuals[i], start, sub, 0, len);
+        store.put(it, new DoubleVector(sub));
+      }
+      Relation<DoubleVector> rel = new MaterializedRelation<>(new VectorFieldTypeInformation<>(DoubleVector.FACTORY, len), sample, null, store);
+      double[][] centroids = kMeans(new ProxyDatabase(sample, rel), rel, ks);
+      sizes[j] = centroids.length;
+      double[] book = codebooks[j] = new double[centroids.length * len];
+      for(int c = 0; c < centroids.length; c++) {
+        System.arraycopy(centroids[c], 0, book, c * len, len);
+      }
+      LOG.incrementProcessed(prog);
+    }
+    LOG.ensureCompleted(prog);
+  }
+
+  /**
+   * Run k-means, and return the non-empty centroids.
+   *
+   * @param db Database
+   * @param rel Relation
+   * @param k Number of clusters
+   * @param <T> Vector type
+   * @return Centroids
+   */
+  private <T extends NumberVector> double[][] kMeans(ProxyDatabase db, Relation<T> rel, int k) {
+    KMeansLloyd<T> kmeans = new KMeansLloyd<>(SquaredEuclideanDistanceFunction.STATIC, k, maxiter, new RandomlyChosenInitialMeans<>(random));
+    List<Cluster<KMeansModel>> clusters = kmeans.run(db, rel).getAllClusters();
+    double[][] centroids = new double[clusters.size()][];
+    int c = 0;
+    for(Cluster<KMeansModel> cluster : clusters) {
+      centroids[c++] = cluster.getModel().getMean();
+    }
+    return centroids;
+  }
+
+  /**
+   * Encode all objects, grouped by inverted list.
+   */
+  private void encode() {
+    ArrayDBIDs all = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = all.size();
+    // Assign to inverted lists, and count the list sizes.
+    int[] assignment = new int[size];
+    lists = new int[nlist + 1];
+    DBIDArrayIter it = all.iter();
+    if(nlist > 1) {
+      for(int i = 0; it.valid(); it.advance(), i++) {
+        ++lists[assignment[i] = nearest(coarse, relation.get(it))];
+      }
+    }
+    else {
+      lists[0] = size;
+    }
+    for(int c = 0, pos = 0; c <= nlist; c++) {
+      final int s = lists[c];
+      lists[c] = pos;
+      pos += s;
+    }
+    // Bucket sort into list order.
+    int[] order = new int[size], fill = lists.clone();
+    for(int i = 0; i < size; i++) {
+      order[fill[assignment[i]]++] = i;
+    }
+    ArrayModifiableDBIDs sorted = DBIDUtil.newArray(size);
+    chunkshift = 31 - Integer.numberOfLeadingZeros(Math.max(1, MAX_CHUNK_BYTES / m));
+    final int chunkmask = (1 << chunkshift) - 1;
+    codes = new byte[(int) (((long) size + chunkmask) >>> chunkshift)][];
+    for(int c = 0; c < codes.length; c++) {
+      codes[c] = new byte[(int) (Math.min(size - ((long) c << chunkshift), 1 << chunkshift) * m)];
+    }
+    double[] res = new double[dim];
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Encoding vectors", size, LOG) : null;
+    for(int i = 0; i < size; i++) {
+      it.seek(order[i]);
+      sorted.add(it);
+      residual(relation.get(it), coarse[assignment[order[i]]], res);
+      final byte[] chunk = codes[i >>> chunkshift];
+      for(int j = 0, off = (i & chunkmask) * m; j < m; j++) {
+        chunk[off + j] = (byte) nearestCode(j, res);
+      }
+      LOG.incrementProcessed(prog);
+    }
+    LOG.ensureCompleted(prog);
+    ids = sorted;
+  }
+
+  /**
+   * Compute the residual of a vector to a centroid.
+   *
+   * @param vec Vector
+   * @param center Centroid
+   * @param buf Output buffer
+   * @return Output buffer
+   */
+  private double[] residual(NumberVector vec, double[] center, double[] buf) {
+    for(int d = 0; d < dim; d++) {
+      buf[d] = vec.doubleValue(d) - center[d];
+    }
+    return buf;
+  }
+
+  /**
+   * Find the nearest centroid.
+   *
+   * @param centroids Centroids
+   * @param vec Vector
+   * @return Index of the nearest centroid
+   */
+  private int nearest(double[][] centroids, NumberVector vec) {
+    int best = 0;
+    double bestd = Double.POSITIVE_INFINITY;
+    for(int c = 0; c < centroids.length; c++) {
+      final double[] cen = centroids[c];
+      double d = 0.;
+      for(int i = 0; i < dim && d < bestd; i++) {
+        final double v = vec.doubleValue(i) - cen[i];
+        d += v * v;
+      }
+      if(d < bestd) {
+        bestd = d;
+        best = c;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Find the nearest code of a subspace.
+   *
+   * @param j Subspace
+   * @param res Residual vector
+   * @return Code
+   */
+  private int nearestCode(int j, double[] res) {
+    final int start = bounds[j], len = bounds[j + 1] - start;
+    final double[] book = codebooks[j];
+    int best = 0;
+    double bestd = Double.POSITIVE_INFINITY;
+    for(int c = 0, off = 0; c < sizes[j]; c++, off += len) {
+      double d = 0.;
+      for(int i = 0; i < len; i++) {
+        final double v = res[start + i] - book[off + i];
+        d += v * v;
+      }
+      if(d < bestd) {
+        bestd = d;
+        best = c;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public KNNQuery<V> getKNNQuery(DistanceQuery<V> distanceQuery, Object... hints) {
+    for(Object hint : hints) {
+      if(DatabaseQuery.HINT_EXACT.equals(hint)) {
+        return null;
+      }
+    }
+    if(distanceQuery.getRelation() != relation) {
+      return null;
+    }
+    DistanceFunction<? super V> df = distanceQuery.getDistanceFunction();
+    if(df instanceof SquaredEuclideanDistanceFunction) {
+      return new PQKNNQuery(distanceQuery, 2.);
+    }
+    if(df instanceof LPNormDistanceFunction && !(df instanceof WeightedLPNormDistanceFunction)) {
+      double p = ((LPNormDistanceFunction) df).getP();
+      if(p < Double.POSITIVE_INFINITY) {
+        return new PQKNNQuery(distanceQuery, p);
+      }
+    }
+    // Not supported.
+    return null;
+  }
+
+  @Override
+  public String getLongName() {
+    return "Product quantization index";
+  }
+
+  @Override
+  public String getShortName() {
+    return "pq-index";
+  }
+
+  @Override
+  public Logging getLogger() {
+    return LOG;
+  }
+
+  @Override
+  public void logStatistics() {
+    super.logStatistics();
+    LOG.statistics(new LongStatistic(ProductQuantizationIndex.class.getName() + ".lists", nlist));
+    LOG.statistics(new LongStatistic(ProductQuantizationIndex.class.getName() + ".code-bytes", (long) ids.size() * m));
+  }
+
+  /**
+   * kNN query using asymmetric distance computation and re-ranking.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  protected class PQKNNQuery extends AbstractRefiningIndex<V>.AbstractKNNQuery {
+    /**
+     * Exponent of the L_p norm.
+     */
+    final double p;
+
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     * @param p Exponent of the L_p norm
+     */
+    public PQKNNQuery(DistanceQuery<V> distanceQuery, double p) {
+      super(distanceQuery);
+      this.p = p;
+    }
+
+    @Override
+    public KNNList getKNNForObject(V obj, int k) {
+      // Choose the inverted lists to scan.
+      int[] probe = new int[nlist];
+      for(int c = 0; c < nlist; c++) {
+        probe[c] = c;
+      }
+      if(nprobe < nlist) {
+        double[] cdist = new double[nlist];
+        for(int c = 0; c < nlist; c++) {
+          cdist[c] = preDistance(obj, coarse[c], 0, dim);
+        }
+        DoubleIntegerArrayQuickSort.sort(cdist, probe, nlist);
+      }
+      // Candidates by approximate distance.
+      KNNHeap candidates = DBIDUtil.newHeap(k * refine);
+      double[] res = new double[dim], table = new double[m * MAX_CENTROIDS];
+      DBIDArrayIter it = ids.iter();
+      for(int l = 0; l < nprobe && l < nlist; l++) {
+        final int c = probe[l];
+        buildTable(residual(obj, coarse[c], res), table);
+        double max = candidates.getKNNDistance();
+        for(int i = lists[c], end = lists[c + 1]; i < end;) {
+          // Scan the list one chunk at a time.
+          final int chunkid = i >>> chunkshift;
+          final byte[] chunk = codes[chunkid];
+          final int cend = (int) Math.min(end, (chunkid + 1L) << chunkshift);
+          for(int off = (i - (chunkid << chunkshift)) * m; i < cend; i++, off += m) {
+            double d = 0.;
+            for(int j = 0, toff = 0; j < m && d <= max; j++, toff += MAX_CENTROIDS) {
+              d += table[toff + (chunk[off + j] & 0xFF)];
+            }
+            if(d <= max) {
+              max = candidates.insert(d, it.seek(i));
+            }
+          }
+        }
+      }
+      // Re-rank the candidates using exact distances.
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      for(DoubleDBIDListIter iter = candidates.toKNNList().iter(); iter.valid(); iter.advance()) {
+        heap.insert(refine(iter, obj), iter);
+      }
+      return heap.toKNNList();
+    }
+
+    /**
+     * Build the table of distances from a residual to all codebook entries.
+     *
+     * @param res Residual of the query
+     * @param table Output table, {@link #MAX_CENTROIDS} entries per subspace
+     */
+    private void buildTable(double[] res, double[] table) {
+      for(int j = 0, toff = 0; j < m; j++, toff += MAX_CENTROIDS) {
+        final int start = bounds[j], len = bounds[j + 1] - start;
+        final double[] book = codebooks[j];
+        for(int c = 0, off = 0; c < sizes[j]; c++, off += len) {
+          double d = 0.;
+          for(int i = 0; i < len; i++) {
+            d += pow(Math.abs(res[start + i] - book[off + i]));
+          }
+          table[toff + c] = d;
+        }
+      }
+    }
+
+    /**
+     * Aggregate distance, without taking the root.
+     *
+     * @param vec Vector
+     * @param center Centroid
+     * @param start First dimension
+     * @param end End dimension
+     * @return Aggregated distance
+     */
+    private double preDistance(NumberVector vec, double[] center, int start, int end) {
+      double d = 0.;
+      for(int i = start; i < end; i++) {
+        d += pow(Math.abs(vec.doubleValue(i) - center[i]));
+      }
+      return d;
+    }
+
+    /**
+     * Raise a (non-negative) difference to the power of p.
+     *
+     * @param v Value
+     * @return v^p
+     */
+    private double pow(double v) {
+      return p == 2. ? v * v : p == 1. ? v : Math.pow(v, p);
+    }
+  }
+
+  /**
+   * Index factory for product quantization indexes.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.has ProductQuantizationIndex
+   *
+   * @param <V> Vector type
+   */
+  public static class Factory<V extends NumberVector> implements IndexFactory<V, ProductQuantizationIndex<V>> {
+    /**
+     * Number of subspaces.
+     */
+    int m;
+
+    /**
+     * Number of centroids per subspace.
+     */
+    int ks;
+
+    /**
+     * Number of coarse inverted lists.
+     */
+    int nlist;
+
+    /**
+     * Number of lists to scan for each query.
+     */
+    int nprobe;
+
+    /**
+     * Number of k-means iterations.
+     */
+    int maxiter;
+
+    /**
+     * Training sample size.
+     */
+    int samplesize;
+
+    /**
+     * Number of candidates to re-rank, relative to k.
+     */
+    int refine;
+
+    /**
+     * Random generator.
+     */
+    RandomFactory random;
+
+    /**
+     * Constructor.
+     *
+     * @param m Number of subspaces
+     * @param ks Number of centroids per subspace
+     * @param nlist Number of coarse inverted lists
+     * @param nprobe Number of lists to scan for each query
+     * @param maxiter Number of k-means iterations
+     * @param samplesize Training sample size
+     * @param refine Number of candidates to re-rank, relative to k
+     * @param random Random generator
+     */
+    public Factory(int m, int ks, int nlist, int nprobe, int maxiter, int samplesize, int refine, RandomFactory random) {
+      super();
+      this.m = m;
+      this.ks = ks;
+      this.nlist = nlist;
+      this.nprobe = nprobe;
+      this.maxiter = maxiter;
+      this.samplesize = samplesize;
+      this.refine = refine;
+      this.random = random;
+    }
+
+    @Override
+    public ProductQuantizationIndex<V> instantiate(Relation<V> relation) {
+      return new ProductQuantizationIndex<>(relation, m, ks, nlist, nprobe, maxiter, samplesize, refine, random);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return TypeUtil.NUMBER_VECTOR_FIELD;
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     *
+     * @apiviz.exclude
+     *
+     * @param <V> Vector type
+     */
+    public static class Parameterizer<V extends NumberVector> extends AbstractParameterizer {
+      /**
+       * Number of subspaces.
+       */
+      public static final OptionID M_ID = new OptionID("pq.subspaces", "Number of subspaces to quantize independently (bytes per vector).");
+
+      /**
+       * Number of centroids per subspace.
+       */
+      public static final OptionID KS_ID = new OptionID("pq.centroids", "Number of centroids per subspace (at most 256).");
+
+      /**
+       * Number of coarse lists.
+       */
+      public static final OptionID NLIST_ID = new OptionID("pq.lists", "Number of inverted lists of the coarse quantizer (IVF-PQ), 1 to disable.");
+
+      /**
+       * Number of lists to probe.
+       */
+      public static final OptionID NPROBE_ID = new OptionID("pq.probe", "Number of inverted lists to scan for each query.");
+
+      /**
+       * Number of k-means iterations.
+       */
+      public static final OptionID MAXITER_ID = new OptionID("pq.maxiter", "Maximum number of k-means iterations for training.");
+
+      /**
+       * Training sample size.
+       */
+      public static final OptionID SAMPLE_ID = new OptionID("pq.sample", "Number of objects to sample for training the quantizers.");
+
+      /**
+       * Re-ranking factor.
+       */
+      public static final OptionID REFINE_ID = new OptionID("pq.refine", "Number of candidates to re-rank with exact distances, as multiple of k.");
+
+      /**
+       * Random generator.
+       */
+      public static final OptionID SEED_ID = new OptionID("pq.seed", "Random generator seed for sampling and k-means initialization.");
+
+      /**
+       * Number of subspaces.
+       */
+      int m;
+
+      /**
+       * Number of centroids per subspace.
+       */
+      int ks;
+
+      /**
+       * Number of coarse inverted lists.
+       */
+      int nlist;
+
+      /**
+       * Number of lists to scan for each query.
+       */
+      int nprobe;
+
+      /**
+       * Number of k-means iterations.
+       */
+      int maxiter;
+
+      /**
+       * Training sample size.
+       */
+      int samplesize;
+
+      /**
+       * Number of candidates to re-rank, relative to k.
+       */
+      int refine;
+
+      /**
+       * Random generator.
+       */
+      RandomFactory random;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        IntParameter mP = new IntParameter(M_ID, 8) //
+        .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(mP)) {
+          m = mP.intValue();
+        }
+
+        IntParameter ksP = new IntParameter(KS_ID, MAX_CENTROIDS) //
+        .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT) //
+        .addConstraint(new LessEqualConstraint(MAX_CENTROIDS));
+        if(config.grab(ksP)) {
+          ks = ksP.intValue();
+        }
+
+        IntParameter nlistP = new IntParameter(NLIST_ID, 1) //
+        .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(nlistP)) {
+          nlist = nlistP.intValue();
+        }
+
+        IntParameter nprobeP = new IntParameter(NPROBE_ID, 1) //
+        .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(nprobeP)) {
+          nprobe = nprobeP.intValue();
+        }
+
+        IntParameter maxiterP = new IntParameter(MAXITER_ID, 25) //
+        .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(maxiterP)) {
+          maxiter = maxiterP.intValue();
+        }
+
+        IntParameter sampleP = new IntParameter(SAMPLE_ID, 50000) //
+        .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(sampleP)) {
+          samplesize = sampleP.intValue();
+        }
+
+        IntParameter refineP = new IntParameter(REFINE_ID, 10) //
+        .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(refineP)) {
+          refine = refineP.intValue();
+        }
+
+        RandomParameter randomP = new RandomParameter(SEED_ID);
+        if(config.grab(randomP)) {
+          random = randomP.getValue();
+        }
+      }
+
+      @Override
+      protected ProductQuantizationIndex.Factory<V> makeInstance() {
+        return new ProductQuantizationIndex.Factory<>(m, ks, nlist, nprobe, maxiter, samplesize, refine, random);
+      }
+    }
+  }
+}
@@ -34,6 +34,7 @@ import de.lmu.ifi.dbs.elki.database.query.knn.PreprocessorKNNQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.CostEstimatingIndex;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.preprocessed.AbstractPreprocessorIndex;
@@ -52,7 +53,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
  *
  * @param <O> Object type
  */
-public abstract class AbstractMaterializeKNNPreprocessor<O> extends AbstractPreprocessorIndex<O, KNNList> implements KNNIndex<O> {
+public abstract class AbstractMaterializeKNNPreprocessor<O> extends AbstractPreprocessorIndex<O, KNNList> implements KNNIndex<O>, CostEstimatingIndex {
   /**
    * The query k value.
    */
@@ -152,6 +153,26 @@ public abstract class AbstractMaterializeKNNPreprocessor<O> extends AbstractPrep
     return new PreprocessorKNNQuery<>(relation, this);
   }
 
+  /**
+   * {@inheritDoc}
+   * 
+   * Materialized neighbors do not need any distance computations.
+   */
+  @Override
+  public double estimateKNNCost(int k) {
+    return k <= this.k ? 0. : Double.NaN;
+  }
+
+  @Override
+  public double estimateRangeCost(double range) {
+    return Double.NaN;
+  }
+
+  @Override
+  public boolean isApproximate() {
+    return false;
+  }
+
   /**
    * The parameterizable factory.
    *
@@ -22,17 +22,24 @@ package de.lmu.ifi.dbs.elki.index.preprocessed.knn;
  You should have received a copy of the GNU Affero General Public License
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
+import de.lmu.ifi.dbs.elki.algorithm.KDTreeKNNJoin;
 import de.lmu.ifi.dbs.elki.algorithm.KNNJoin;
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.SpatialEntry;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.SpatialIndexTree;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.kd.DualTreeKNNSearch;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.rstar.RStarTreeNode;
 import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.result.ResultUtil;
 
 /**
  * Class to materialize the kNN using a spatial join on an R-tree.
  *
+ * If the relation does not have a spatial index, a dual-tree join on a
+ * temporary k-d-tree is used instead ({@link KDTreeKNNJoin}).
+ *
  * @author Erich Schubert
  * @since 0.5.0
  *
@@ -57,6 +64,12 @@ public class KNNJoinMaterializeKNNPreprocessor<V extends NumberVector> extends A
 
   @Override
   protected void preprocess() {
+    // Without a spatial index, use a dual-tree join on a k-d-tree instead.
+    if(ResultUtil.filterResults(relation.getHierarchy(), relation, SpatialIndexTree.class).isEmpty()) {
+      KDTreeKNNJoin<V> knnjoin = new KDTreeKNNJoin<>(distanceFunction, k, DualTreeKNNSearch.DEFAULT_LEAFSIZE);
+      storage = knnjoin.run(relation, relation.getDBIDs());
+      return;
+    }
     // Run KNNJoin
     KNNJoin<V, ?, ?> knnjoin = new KNNJoin<V, RStarTreeNode, SpatialEntry>(distanceFunction, k);
     storage = knnjoin.run(relation, relation.getDBIDs());
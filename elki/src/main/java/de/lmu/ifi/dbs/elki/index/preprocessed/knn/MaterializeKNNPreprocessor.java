@@ -30,6 +30,7 @@ import javax.swing.event.EventListenerList;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
@@ -47,9 +48,16 @@ import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.progress.StepProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.KNNProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.WriteDataStoreProcessor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedObject;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 
 /**
  * A preprocessor for annotation of the k nearest neighbors (and their
@@ -75,12 +83,20 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    */
   private static final Logging LOG = Logging.getLogger(MaterializeKNNPreprocessor.class);
 
+  /**
+   * Number of objects to query at once in bulk mode.
+   */
+  private static final int BULK_BLOCKSIZE = 1024;
+
   /**
    * Flag to use bulk operations.
-   *
-   * TODO: right now, bulk is not that good - so don't use
    */
-  private static final boolean usebulk = false;
+  protected final boolean bulk;
+
+  /**
+   * Flag to materialize the neighborhoods in parallel.
+   */
+  protected final boolean parallel;
 
   /**
    * KNNQuery instance to use.
@@ -100,7 +116,22 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    * @param k query k
    */
   public MaterializeKNNPreprocessor(Relation<O> relation, DistanceFunction<? super O> distanceFunction, int k) {
+    this(relation, distanceFunction, k, false, false);
+  }
+
+  /**
+   * Constructor with preprocessing step.
+   *
+   * @param relation Relation to preprocess
+   * @param distanceFunction the distance function to use
+   * @param k query k
+   * @param bulk Use bulk kNN queries
+   * @param parallel Materialize in parallel
+   */
+  public MaterializeKNNPreprocessor(Relation<O> relation, DistanceFunction<? super O> distanceFunction, int k, boolean bulk, boolean parallel) {
     super(relation, distanceFunction, k);
+    this.bulk = bulk;
+    this.parallel = parallel;
     this.knnQuery = relation.getKNNQuery(distanceQuery, k, DatabaseQuery.HINT_BULK, DatabaseQuery.HINT_HEAVY_USE, DatabaseQuery.HINT_NO_CACHE);
   }
 
@@ -119,27 +150,81 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
     }
     Duration duration = log.isStatistics() ? log.newDuration(this.getClass().getName() + ".precomputation-time").begin() : null;
     FiniteProgress progress = getLogger().isVerbose() ? new FiniteProgress("Materializing k nearest neighbors (k=" + k + ")", ids.size(), getLogger()) : null;
-    // Try bulk
-    List<? extends KNNList> kNNList = null;
-    if(usebulk) {
-      kNNList = knnQuery.getKNNForBulkDBIDs(ids, k);
-      if(kNNList != null) {
-        int i = 0;
-        for(DBIDIter id = ids.iter(); id.valid(); id.advance(), i++) {
-          storage.put(id, kNNList.get(i));
-          log.incrementProcessed(progress);
+    final boolean isstatic = relation.getDBIDs() instanceof DBIDRange;
+    if(parallel && !isstatic && log.isVerbose()) {
+      log.verbose("Parallel kNN materialization requires a static database, materializing " + (bulk ? "in bulk" : "sequentially") + " instead.");
+    }
+    if(parallel && isstatic) {
+      materializeParallel(ids, progress);
+    }
+    else if(bulk) {
+      materializeBulk(ids, progress);
+    }
+    else {
+      materializeSequential(ids, progress);
+    }
+    log.ensureCompleted(progress);
+    if(duration != null) {
+      log.statistics(duration.end());
+    }
+  }
+
+  /**
+   * Materialize the neighborhoods one object at a time.
+   *
+   * @param ids Objects to process
+   * @param progress Progress
+   */
+  private void materializeSequential(ArrayDBIDs ids, FiniteProgress progress) {
+    final Logging log = getLogger();
+    final boolean ismetric = getDistanceQuery().getDistanceFunction().isMetric();
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      if(ismetric && storage.get(iter) != null) {
+        log.incrementProcessed(progress);
+        continue; // Previously computed (duplicate point?)
+      }
+      KNNList knn = knnQuery.getKNNForDBID(iter, k);
+      storage.put(iter, knn);
+      if(ismetric) {
+        for(DoubleDBIDListIter it = knn.iter(); it.valid() && it.doubleValue() == 0.; it.advance()) {
+          storage.put(it, knn); // Reuse
         }
       }
+      log.incrementProcessed(progress);
     }
-    else {
-      final boolean ismetric = getDistanceQuery().getDistanceFunction().isMetric();
-      for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+  }
+
+  /**
+   * Materialize the neighborhoods using bulk queries.
+   *
+   * The objects are processed in blocks, such that the kNN query can share
+   * work across the query points of a block. For metric distances, duplicate
+   * points found in earlier blocks are not queried again.
+   *
+   * @param ids Objects to process
+   * @param progress Progress
+   */
+  private void materializeBulk(ArrayDBIDs ids, FiniteProgress progress) {
+    final Logging log = getLogger();
+    final boolean ismetric = getDistanceQuery().getDistanceFunction().isMetric();
+    ArrayModifiableDBIDs block = DBIDUtil.newArray(Math.min(BULK_BLOCKSIZE, ids.size()));
+    for(DBIDIter iter = ids.iter(); iter.valid();) {
+      block.clear();
+      for(; iter.valid() && block.size() < BULK_BLOCKSIZE; iter.advance()) {
         if(ismetric && storage.get(iter) != null) {
           log.incrementProcessed(progress);
           continue; // Previously computed (duplicate point?)
         }
-        KNNList knn = knnQuery.getKNNForDBID(iter, k);
-        storage.put(iter, knn);
+        block.add(iter);
+      }
+      if(block.size() == 0) {
+        continue;
+      }
+      List<? extends KNNList> kNNList = knnQuery.getKNNForBulkDBIDs(block, k);
+      int i = 0;
+      for(DBIDIter id = block.iter(); id.valid(); id.advance(), i++) {
+        KNNList knn = kNNList.get(i);
+        storage.put(id, knn);
         if(ismetric) {
           for(DoubleDBIDListIter it = knn.iter(); it.valid() && it.doubleValue() == 0.; it.advance()) {
             storage.put(it, knn); // Reuse
@@ -148,10 +233,24 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
         log.incrementProcessed(progress);
       }
     }
-    log.ensureCompleted(progress);
-    if(duration != null) {
-      log.statistics(duration.end());
-    }
+  }
+
+  /**
+   * Materialize the neighborhoods in parallel, using the
+   * {@link ParallelExecutor}.
+   *
+   * This requires the storage to be array-based, i.e. a static database.
+   *
+   * @param ids Objects to process
+   * @param progress Progress
+   */
+  private void materializeParallel(ArrayDBIDs ids, FiniteProgress progress) {
+    KNNProcessor<O> knnm = new KNNProcessor<>(k, knnQuery);
+    SharedObject<KNNList> knnv = new SharedObject<>();
+    WriteDataStoreProcessor<KNNList> storek = new WriteDataStoreProcessor<>(storage);
+    knnm.connectKNNOutput(knnv);
+    storek.connectInput(knnv);
+    ParallelExecutor.run(ids, progress, getLogger(), knnm, storek);
   }
 
   @Override
@@ -396,6 +495,32 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    * @param <O> The object type
    */
   public static class Factory<O> extends AbstractMaterializeKNNPreprocessor.Factory<O> {
+    /**
+     * Flag to use bulk kNN queries.
+     * <p>
+     * Key: {@code -materialize.bulk}
+     * </p>
+     */
+    public static final OptionID BULK_ID = new OptionID("materialize.bulk", "Use bulk kNN queries, which allows sharing work across query points.");
+
+    /**
+     * Flag to materialize the neighborhoods in parallel.
+     * <p>
+     * Key: {@code -materialize.parallel}
+     * </p>
+     */
+    public static final OptionID PARALLEL_ID = new OptionID("materialize.parallel", "Materialize the neighborhoods using multiple threads. Requires a static database, otherwise the neighborhoods are materialized sequentially.");
+
+    /**
+     * Use bulk kNN queries.
+     */
+    protected boolean bulk;
+
+    /**
+     * Materialize in parallel.
+     */
+    protected boolean parallel;
+
     /**
      * Index factory.
      *
@@ -403,12 +528,26 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
      * @param distanceFunction distance function
      */
     public Factory(int k, DistanceFunction<? super O> distanceFunction) {
+      this(k, distanceFunction, false, false);
+    }
+
+    /**
+     * Index factory.
+     *
+     * @param k k parameter
+     * @param distanceFunction distance function
+     * @param bulk Use bulk kNN queries
+     * @param parallel Materialize in parallel
+     */
+    public Factory(int k, DistanceFunction<? super O> distanceFunction, boolean bulk, boolean parallel) {
       super(k, distanceFunction);
+      this.bulk = bulk;
+      this.parallel = parallel;
     }
 
     @Override
     public MaterializeKNNPreprocessor<O> instantiate(Relation<O> relation) {
-      MaterializeKNNPreprocessor<O> instance = new MaterializeKNNPreprocessor<>(relation, distanceFunction, k);
+      MaterializeKNNPreprocessor<O> instance = new MaterializeKNNPreprocessor<>(relation, distanceFunction, k, bulk, parallel);
       return instance;
     }
 
@@ -420,9 +559,32 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
      * @apiviz.exclude
      */
     public static class Parameterizer<O> extends AbstractMaterializeKNNPreprocessor.Factory.Parameterizer<O> {
+      /**
+       * Use bulk kNN queries.
+       */
+      protected boolean bulk;
+
+      /**
+       * Materialize in parallel.
+       */
+      protected boolean parallel;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        Flag bulkF = new Flag(BULK_ID);
+        if(config.grab(bulkF)) {
+          bulk = bulkF.isTrue();
+        }
+        Flag parallelF = new Flag(PARALLEL_ID);
+        if(config.grab(parallelF)) {
+          parallel = parallelF.isTrue();
+        }
+      }
+
       @Override
       protected Factory<O> makeInstance() {
-        return new Factory<>(k, distanceFunction);
+        return new Factory<>(k, distanceFunction, bulk, parallel);
       }
     }
   }
@@ -265,6 +265,11 @@ public class SpacefillingMaterializeKNNPreprocessor<O extends NumberVector> exte
     return super.getKNNQuery(distQ, hints);
   }
 
+  @Override
+  public boolean isApproximate() {
+    return true;
+  }
+
   /**
    * Index factory class
    *
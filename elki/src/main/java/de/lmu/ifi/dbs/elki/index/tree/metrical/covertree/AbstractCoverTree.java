@@ -22,7 +22,9 @@ package de.lmu.ifi.dbs.elki.index.tree.metrical.covertree;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import de.lmu.ifi.dbs.elki.data.FeatureVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
@@ -32,10 +34,12 @@ import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.index.AbstractIndex;
+import de.lmu.ifi.dbs.elki.index.CostEstimatingIndex;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.LoggingUtil;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.math.MathUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
@@ -52,7 +56,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
  *
  * @param <O> Object type
  */
-public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
+public abstract class AbstractCoverTree<O> extends AbstractIndex<O> implements CostEstimatingIndex {
   /**
    * Constant expansion rate. 2 would be the intuitive value, but the original
    * version used 1.3, so we copy this. This means that in every level, the
@@ -210,6 +214,58 @@ public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   * 
+   * Rough estimate: at every level along the way to the query point, we
+   * expect to compare to about k + truncate candidates.
+   */
+  @Override
+  public double estimateKNNCost(int k) {
+    final int size = relation.size();
+    if(size <= 1) {
+      return size;
+    }
+    return Math.min(size, (Math.max(k, 1) + truncate) * Math.log(size) * MathUtil.ONE_BY_LOG2);
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * We estimate the number of results from the selectivity of the radius
+   * relative to the radius of the root, assuming uniformly distributed data
+   * (in the dimensionality of the data, if they are vectors). Without a
+   * radius, we assume queries that return about as many results as a leaf
+   * holds.
+   */
+  @Override
+  public double estimateRangeCost(double range) {
+    final int size = relation.size();
+    final double radius = getRootRadius();
+    if(!(range == range) || !(radius > 0)) {
+      return estimateKNNCost(range == range ? size : truncate);
+    }
+    // Dimensionality of the data, if they are vectors.
+    final DBIDIter it = relation.iterDBIDs();
+    final O first = it.valid() ? relation.get(it) : null;
+    final int dim = first instanceof FeatureVector ? Math.max(1, ((FeatureVector<?>) first).getDimensionality()) : 1;
+    final double sel = range < radius ? Math.pow(range / radius, dim) : 1.;
+    return estimateKNNCost((int) Math.ceil(sel * size));
+  }
+
+  /**
+   * Get the radius of the tree root, i.e., the maximum distance of any object
+   * to the root object.
+   * 
+   * @return Root radius, {@code 0} if the tree is empty
+   */
+  protected abstract double getRootRadius();
+
+  @Override
+  public boolean isApproximate() {
+    return false;
+  }
+
   @Override
   public void logStatistics() {
     getLogger().statistics(new LongStatistic(this.getClass().getName() + ".distance-computations", distComputations));
@@ -25,7 +25,9 @@ package de.lmu.ifi.dbs.elki.index.tree.metrical.covertree;
 
 import java.util.ArrayList;
 
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBID;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
@@ -42,6 +44,7 @@ import de.lmu.ifi.dbs.elki.database.query.range.AbstractDistanceRangeQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.index.DynamicIndex;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
@@ -67,7 +70,12 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
  * parent nodes. It thus needs more than twice the memory of
  * {@link SimplifiedCoverTree}, but computes fewer distances.
  *
- * TODO: allow insertions and removals, as in the original publication.
+ * The tree supports insertions and deletions. New objects are added to the
+ * nearest covering child, and leaves that grow too large are rebuilt. Inner
+ * nodes whose singletons grow too many group them into new children, and the
+ * scale of a node is raised when a new object is outside of its cover radius.
+ * Deleting the routing object of a subtree reinserts the remaining objects of
+ * the subtree.
  *
  * @author Erich Schubert
  * @since 0.7.0
@@ -79,7 +87,7 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 title = "Cover trees for nearest neighbor", //
 booktitle = "In Proc. 23rd International Conference on Machine Learning (ICML)", //
 url = "http://dx.doi.org/10.1145/1143844.1143857")
-public class CoverTree<O> extends AbstractCoverTree<O>implements RangeIndex<O>, KNNIndex<O> {
+public class CoverTree<O> extends AbstractCoverTree<O>implements RangeIndex<O>, KNNIndex<O>, DynamicIndex {
   /**
    * Class logger.
    */
@@ -131,9 +139,14 @@ public class CoverTree<O> extends AbstractCoverTree<O>implements RangeIndex<O>,
     ArrayList<Node> children;
 
     /**
-     * Expansion scale.
+     * Expansion scale; children cover a radius of the next lower scale.
      */
-    // int scale = SCALE_LEAF;
+    int scale;
+
+    /**
+     * Number of singletons at which to try to split an inner node.
+     */
+    int splitSize = 0;
 
     /**
      * Constructor.
@@ -141,13 +154,15 @@ public class CoverTree<O> extends AbstractCoverTree<O>implements RangeIndex<O>,
      * @param r Object.
      * @param maxDist Maximum distance to any descendant.
      * @param parentDist Distance from parent.
+     * @param scale Expansion scale.
      */
-    public Node(DBIDRef r, double maxDist, double parentDist) {
+    public Node(DBIDRef r, double maxDist, double parentDist, int scale) {
       this.singletons = DBIDUtil.newDistanceDBIDList();
       this.singletons.add(0., r);
       this.children = new ArrayList<>();
       this.maxDist = maxDist;
       this.parentDist = parentDist;
+      this.scale = scale;
     }
 
     /**
@@ -156,11 +171,13 @@ public class CoverTree<O> extends AbstractCoverTree<O>implements RangeIndex<O>,
      * @param r Object.
      * @param maxDist Maximum distance to any descendant.
      * @param parentDist Distance from parent.
+     * @param scale Expansion scale.
      * @param singletons Singletons.
      */
-    public Node(DBIDRef r, double maxDist, double parentDist, DoubleDBIDList singletons) {
+    public Node(DBIDRef r, double maxDist, double parentDist, int scale, DoubleDBIDList singletons) {
       assert(!singletons.contains(r));
-      this.singletons = DBIDUtil.newDistanceDBIDList(singletons.size() + 1);
+      // Capacity of at least 2, so the list can grow on dynamic insertions.
+      this.singletons = DBIDUtil.newDistanceDBIDList(singletons.size() + 2);
       this.singletons.add(0., r);
       for(DoubleDBIDListIter it = singletons.iter(); it.valid(); it.advance()) {
         this.singletons.add(it.doubleValue(), it);
@@ -168,6 +185,7 @@ public class CoverTree<O> extends AbstractCoverTree<O>implements RangeIndex<O>,
       this.children = null;
       this.maxDist = maxDist;
       this.parentDist = parentDist;
+      this.scale = scale;
     }
 
     /**
@@ -233,7 +251,7 @@ public class CoverTree<O> extends AbstractCoverTree<O>implements RangeIndex<O>,
     // Leaf node, because points coincide, we are too deep, or have too few
     // elements remaining:
     if(max <= 0 || scale <= scaleBottom || elems.size() < truncate) {
-      return new Node(cur, max, parentDist, elems);
+      return new Node(cur, max, parentDist, scale, elems);
     }
     // Find neighbors in the cover of the current object:
     ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList();
@@ -244,7 +262,7 @@ public class CoverTree<O> extends AbstractCoverTree<O>implements RangeIndex<O>,
       return bulkConstruct(cur, nextScale, parentDist, elems);
     }
     // We will have at least one other child, so build the parent:
-    Node node = new Node(cur, max, parentDist);
+    Node node = new Node(cur, max, parentDist, scale);
     // Routing element now is a singleton:
     final boolean curSingleton = elems.size() == 0;
     if(!curSingleton) {
@@ -275,13 +293,299 @@ public class CoverTree<O> extends AbstractCoverTree<O>implements RangeIndex<O>,
         node.children = null; // First in leaf is enough.
       }
       else {
-        node.singletons.add(parentDist, cur); // Add as regular singleton.
+        node.singletons.add(0., cur); // Add as regular singleton.
       }
     }
     // TODO: improve recycling of lists?
     return node;
   }
 
+  @Override
+  public void insert(DBIDRef id) {
+    if(root == null) {
+      root = new Node(id, 0., 0., Integer.MAX_VALUE, DBIDUtil.newDistanceDBIDList(0));
+      return;
+    }
+    root = insert(root, id, distance(id, root.singletons.iter()), Integer.MAX_VALUE);
+  }
+
+  @Override
+  public void insertAll(DBIDs ids) {
+    if(root == null) {
+      bulkLoad(ids);
+      return;
+    }
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      insert(it);
+    }
+  }
+
+  /**
+   * Insert an object into a subtree.
+   *
+   * @param cur Subtree root
+   * @param id Object to insert
+   * @param d Distance of the object to the routing object
+   * @param maxScale Maximum scale of the subtree
+   * @return New subtree root
+   */
+  private Node insert(Node cur, DBIDRef id, double d, int maxScale) {
+    // Outside of the cover radius: raise the scale of the node.
+    if(!cur.isLeaf() && d > scaleToDist(cur.scale + 1)) {
+      cur = raiseScale(cur, Math.min(distToScale(d) - 1, maxScale));
+    }
+    cur.maxDist = d > cur.maxDist ? d : cur.maxDist;
+    if(cur.isLeaf()) {
+      cur.singletons.add(d, id);
+      // Split leaves that have grown too large:
+      if(cur.singletons.size() > truncate << 1 && cur.maxDist > 0) {
+        DoubleDBIDListIter it = cur.singletons.iter();
+        ModifiableDoubleDBIDList elems = DBIDUtil.newDistanceDBIDList(cur.singletons.size() - 1);
+        for(it.advance(); it.valid(); it.advance()) {
+          elems.add(it.doubleValue(), it);
+        }
+        return bulkConstruct(DBIDUtil.deref(cur.singletons.iter()), maxScale, cur.parentDist, elems);
+      }
+      return cur;
+    }
+    // Find the nearest child covering the new object:
+    final double fmax = scaleToDist(cur.scale - 1);
+    final DoubleDBIDListIter rit = cur.singletons.iter();
+    Node best = null;
+    double bestd = Double.POSITIVE_INFINITY;
+    for(Node c : cur.children) {
+      // Cheap lower bound via the triangle inequality:
+      if(Math.abs(d - c.parentDist) > fmax) {
+        continue;
+      }
+      final DoubleDBIDListIter f = c.singletons.iter();
+      final double dc = DBIDUtil.equal(f, rit) ? d : distance(id, f);
+      if(dc <= fmax && dc < bestd) {
+        best = c;
+        bestd = dc;
+      }
+    }
+    if(best != null) {
+      Node n = insert(best, id, bestd, cur.scale - 1);
+      if(n != best) {
+        cur.children.set(cur.children.indexOf(best), n);
+      }
+      return cur;
+    }
+    // Form a new child with a singleton, if it covers the new object:
+    DoubleDBIDListIter it = cur.singletons.iter();
+    for(it.advance(); it.valid(); it.advance()) {
+      if(Math.abs(d - it.doubleValue()) > fmax) {
+        continue;
+      }
+      final double ds = DBIDUtil.equal(it, rit) ? d : distance(id, it);
+      if(ds <= fmax) {
+        ModifiableDoubleDBIDList elems = DBIDUtil.newDistanceDBIDList(1);
+        elems.add(ds, id);
+        cur.children.add(new Node(it, ds, it.doubleValue(), cur.scale - 1, elems));
+        cur.singletons.removeSwap(it.getOffset());
+        return cur;
+      }
+    }
+    cur.singletons.add(d, id);
+    if(cur.singletons.size() > Math.max(truncate << 1, cur.splitSize)) {
+      splitSingletons(cur);
+      // Singletons that are well separated remain; do not retry too often.
+      cur.splitSize = cur.singletons.size() << 1;
+    }
+    return cur;
+  }
+
+  /**
+   * Raise the scale of a subtree, by adding a new node on top, which has the
+   * old node as its only child.
+   *
+   * @param cur Subtree root
+   * @param scale New scale
+   * @return New subtree root
+   */
+  private Node raiseScale(Node cur, int scale) {
+    assert (scale > cur.scale);
+    Node node = new Node(cur.singletons.iter(), cur.maxDist, cur.parentDist, scale);
+    cur.parentDist = 0.;
+    node.children.add(cur);
+    return node;
+  }
+
+  /**
+   * Split the singletons of an inner node, by grouping singletons within the
+   * cover radius of the next lower scale into new child nodes.
+   *
+   * @param cur Inner node
+   */
+  private void splitSingletons(Node cur) {
+    final DoubleDBIDListIter rit = cur.singletons.iter();
+    ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList(cur.singletons.size());
+    ModifiableDoubleDBIDList remaining = DBIDUtil.newDistanceDBIDList(cur.singletons.size());
+    remaining.add(0., rit);
+    DoubleDBIDListIter it = cur.singletons.iter();
+    for(it.advance(); it.valid(); it.advance()) {
+      if(DBIDUtil.equal(it, rit)) {
+        remaining.add(0., it); // Keep the routing object as singleton.
+      }
+      else {
+        candidates.add(it.doubleValue(), it);
+      }
+    }
+    final double cover = scaleToDist(cur.scale);
+    ModifiableDoubleDBIDList elems = DBIDUtil.newDistanceDBIDList();
+    for(DoubleDBIDListIter ci = candidates.iter(); ci.valid();) {
+      assert (ci.getOffset() == 0);
+      elems.clear(); // Recycle.
+      collectByCover(ci, candidates, cover, elems);
+      if(elems.size() == 0) {
+        remaining.add(ci.doubleValue(), ci);
+      }
+      else {
+        cur.children.add(bulkConstruct(ci, cur.scale - 1, ci.doubleValue(), elems));
+      }
+      candidates.removeSwap(0);
+    }
+    cur.singletons = remaining;
+  }
+
+  @Override
+  public boolean delete(DBIDRef id) {
+    if(root == null) {
+      return false;
+    }
+    if(DBIDUtil.equal(id, root.singletons.iter())) {
+      root = rebuild(root, id);
+      return true;
+    }
+    ArrayModifiableDBIDs reinsert = DBIDUtil.newArray();
+    if(!delete(root, id, distance(id, root.singletons.iter()), reinsert)) {
+      return false;
+    }
+    // Objects of subtrees that lost their routing object:
+    for(DBIDIter it = reinsert.iter(); it.valid(); it.advance()) {
+      insert(it);
+    }
+    return true;
+  }
+
+  @Override
+  public void deleteAll(DBIDs ids) {
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      delete(it);
+    }
+  }
+
+  /**
+   * Delete an object from a subtree, where it is not the routing object.
+   *
+   * A child routed by the deleted object is removed, and its remaining objects
+   * are collected for reinsertion, because a rebuilt subtree with a different
+   * routing object may violate the cover of the parent.
+   *
+   * @param cur Subtree root
+   * @param id Object to delete
+   * @param d Distance of the object to the routing object
+   * @param reinsert Output list of objects to reinsert
+   * @return {@code true} if the object was found
+   */
+  private boolean delete(Node cur, DBIDRef id, double d, ArrayModifiableDBIDs reinsert) {
+    if(d > cur.maxDist) {
+      return false; // Not covered.
+    }
+    DoubleDBIDListIter it = cur.singletons.iter();
+    for(it.advance(); it.valid(); it.advance()) {
+      if(DBIDUtil.equal(it, id)) {
+        cur.singletons.removeSwap(it.getOffset());
+        return true;
+      }
+    }
+    if(cur.isLeaf()) {
+      return false;
+    }
+    final DoubleDBIDListIter rit = cur.singletons.iter();
+    for(int i = 0; i < cur.children.size(); i++) {
+      final Node c = cur.children.get(i);
+      if(d - c.parentDist > c.maxDist) {
+        continue; // Not covered.
+      }
+      final DoubleDBIDListIter f = c.singletons.iter();
+      if(DBIDUtil.equal(f, id)) {
+        collectObjects(c, reinsert);
+        reinsert.remove(id);
+        cur.children.remove(i);
+        if(cur.children.isEmpty()) {
+          makeLeaf(cur);
+        }
+        return true;
+      }
+      final double dc = DBIDUtil.equal(f, rit) ? d : distance(id, f);
+      if(delete(c, id, dc, reinsert)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Turn a node without children into a leaf, removing the duplicate entry
+   * of the routing object from the singletons.
+   *
+   * @param cur Node
+   */
+  private void makeLeaf(Node cur) {
+    cur.children = null;
+    DoubleDBIDListIter rit = cur.singletons.iter(), it = cur.singletons.iter();
+    for(it.advance(); it.valid(); it.advance()) {
+      if(DBIDUtil.equal(it, rit)) {
+        cur.singletons.removeSwap(it.getOffset());
+        return;
+      }
+    }
+  }
+
+  /**
+   * Rebuild the tree after deleting the routing object of the root.
+   *
+   * @param cur Tree root
+   * @param id Object to remove
+   * @return New tree, or {@code null} if empty
+   */
+  private Node rebuild(Node cur, DBIDRef id) {
+    ArrayModifiableDBIDs elems = DBIDUtil.newArray();
+    collectObjects(cur, elems);
+    elems.remove(id);
+    if(elems.size() == 0) {
+      return null;
+    }
+    DBIDArrayIter it = elems.iter();
+    DBID first = DBIDUtil.deref(it);
+    ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList(elems.size() - 1);
+    for(it.advance(); it.valid(); it.advance()) {
+      candidates.add(distance(first, it), it);
+    }
+    return bulkConstruct(first, Integer.MAX_VALUE, 0., candidates);
+  }
+
+  /**
+   * Collect all objects stored in a subtree.
+   *
+   * @param cur Subtree root
+   * @param elems Output list
+   */
+  private void collectObjects(Node cur, ArrayModifiableDBIDs elems) {
+    DoubleDBIDListIter it = cur.singletons.iter();
+    if(!cur.isLeaf()) {
+      it.advance(); // Routing object is stored in a child or as singleton.
+      for(Node c : cur.children) {
+        collectObjects(c, elems);
+      }
+    }
+    for(; it.valid(); it.advance()) {
+      elems.add(it);
+    }
+  }
+
   /**
    * Collect some statistics on the tree.
    *
@@ -304,6 +608,80 @@ public class CoverTree<O> extends AbstractCoverTree<O>implements RangeIndex<O>,
     }
   }
 
+  /**
+   * Verify the covering and separation invariants of the tree, and the stored
+   * distances. This is expensive, and meant for testing.
+   *
+   * @return Description of the first violation found, or {@code null}
+   */
+  String checkInvariants() {
+    return root != null ? checkInvariants(root) : null;
+  }
+
+  /**
+   * Verify the invariants of a subtree.
+   *
+   * @param cur Subtree root
+   * @return Description of the first violation found, or {@code null}
+   */
+  private String checkInvariants(Node cur) {
+    final DoubleDBIDListIter rit = cur.singletons.iter();
+    // All objects must be within the maximum distance:
+    ArrayModifiableDBIDs all = DBIDUtil.newArray();
+    collectObjects(cur, all);
+    for(DBIDIter it = all.iter(); it.valid(); it.advance()) {
+      if(distance(rit, it) > cur.maxDist * (1 + 1e-12)) {
+        return "Object not within the maximum distance of its subtree.";
+      }
+    }
+    DoubleDBIDListIter it = cur.singletons.iter();
+    for(it.advance(); it.valid(); it.advance()) {
+      if(Math.abs(distance(rit, it) - it.doubleValue()) > 1e-12) {
+        return "Wrong distance of a singleton.";
+      }
+    }
+    if(cur.isLeaf()) {
+      return null;
+    }
+    // Children and singletons must be covered, and separated from each other:
+    final double cover = scaleToDist(cur.scale + 1) * (1 + 1e-12);
+    final double sep = scaleToDist(cur.scale - 1);
+    ArrayModifiableDBIDs level = DBIDUtil.newArray();
+    for(Node c : cur.children) {
+      final DoubleDBIDListIter f = c.singletons.iter();
+      if(c.scale >= cur.scale) {
+        return "Child scale is not below the parent scale.";
+      }
+      if(Math.abs(distance(rit, f) - c.parentDist) > 1e-12) {
+        return "Wrong parent distance of a child.";
+      }
+      if(c.parentDist > cover) {
+        return "Child not covered by its parent.";
+      }
+      level.add(f);
+    }
+    for(it.seek(1); it.valid(); it.advance()) {
+      if(it.doubleValue() > cover) {
+        return "Singleton not covered by its node.";
+      }
+      level.add(it);
+    }
+    for(DBIDArrayIter a = level.iter(); a.valid(); a.advance()) {
+      for(DBIDArrayIter b = level.iter().seek(a.getOffset() + 1); b.valid(); b.advance()) {
+        if(distance(a, b) <= sep) {
+          return "Children or singletons are not separated.";
+        }
+      }
+    }
+    for(Node c : cur.children) {
+      String err = checkInvariants(c);
+      if(err != null) {
+        return err;
+      }
+    }
+    return null;
+  }
+
   @Override
   public RangeQuery<O> getRangeQuery(DistanceQuery<O> distanceQuery, Object... hints) {
     // Query on the relation we index
@@ -334,6 +712,11 @@ public class CoverTree<O> extends AbstractCoverTree<O>implements RangeIndex<O>,
     return new CoverTreeKNNQuery(dq);
   }
 
+  @Override
+  protected double getRootRadius() {
+    return root != null ? root.maxDist : 0.;
+  }
+
   @Override
   protected Logging getLogger() {
     return LOG;
@@ -356,6 +739,9 @@ public class CoverTree<O> extends AbstractCoverTree<O>implements RangeIndex<O>,
 
     @Override
     public void getRangeForObject(O obj, double range, ModifiableDoubleDBIDList ret) {
+      if(root == null) {
+        return;
+      }
       ArrayList<Node> open = new ArrayList<Node>(); // LIFO stack
       open.add(root);
       while(!open.isEmpty()) {
@@ -418,6 +804,9 @@ public class CoverTree<O> extends AbstractCoverTree<O>implements RangeIndex<O>,
       }
 
       KNNHeap knnList = DBIDUtil.newHeap(k);
+      if(root == null) {
+        return knnList.toKNNList();
+      }
       double d_k = Double.POSITIVE_INFINITY;
 
       final DoubleObjectMinHeap<Node> pq = new DoubleObjectMinHeap<>();
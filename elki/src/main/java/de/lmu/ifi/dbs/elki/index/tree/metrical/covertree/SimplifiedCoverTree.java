@@ -314,6 +314,11 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements Range
     return new CoverTreeKNNQuery(dq);
   }
 
+  @Override
+  protected double getRootRadius() {
+    return root != null ? root.maxDist : 0.;
+  }
+
   @Override
   protected Logging getLogger() {
     return LOG;
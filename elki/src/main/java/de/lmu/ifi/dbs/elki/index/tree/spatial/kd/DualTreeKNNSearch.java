@@ -0,0 +1,504 @@
+package de.lmu.ifi.dbs.elki.index.tree.spatial.kd;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.spatial.SpatialComparable;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.SpatialPrimitiveDistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.statistics.Counter;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.QuickSelect;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+
+/**
+ * Dual-tree k-nearest-neighbor search on the array layout of the in-memory
+ * k-d-trees ({@link SmallMemoryKDTree}, {@link MinimalisticMemoryKDTree}).
+ *
+ * Both the query objects and the reference objects are arranged as an implicit
+ * k-d-tree, i.e. each interval is split at its middle element, which is the
+ * median of the current axis. Bounding boxes are computed for the intervals,
+ * and pairs of query and reference nodes are pruned as soon as their minimum
+ * distance exceeds the largest current k-nearest-neighbor distance of the
+ * query node. This shares the tree traversal across all queries of a node,
+ * which is much cheaper than independent queries on low-dimensional data.
+ *
+ * Reference:
+ * <p>
+ * A. G. Gray and A. W. Moore<br />
+ * 'N-Body' Problems in Statistical Learning<br />
+ * Advances in Neural Information Processing Systems 13 (NIPS 2000)
+ * </p>
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ *
+ * @param <O> Vector type
+ */
+@Reference(authors = "A. G. Gray and A. W. Moore", //
+title = "'N-Body' Problems in Statistical Learning", //
+booktitle = "Advances in Neural Information Processing Systems 13 (NIPS 2000)", //
+url = "http://papers.nips.cc/paper/1800-n-body-problems-in-statistical-learning")
+public class DualTreeKNNSearch<O extends NumberVector> {
+  /**
+   * Default size of the leaves used by the dual-tree search.
+   */
+  public static final int DEFAULT_LEAFSIZE = 16;
+
+  /**
+   * Data relation.
+   */
+  private Relation<? extends O> relation;
+
+  /**
+   * Distance function.
+   */
+  private SpatialPrimitiveDistanceFunction<? super O> distanceFunction;
+
+  /**
+   * Maximum size of leaf nodes.
+   */
+  private int leafsize;
+
+  /**
+   * Counter for distance computations, may be {@code null}.
+   */
+  private Counter distcalc;
+
+  /**
+   * Reference objects, in tree order.
+   */
+  private List<O> refs;
+
+  /**
+   * Reference iterator, for adding neighbors.
+   */
+  private DBIDArrayIter refiter;
+
+  /**
+   * Query objects, in tree order.
+   */
+  private List<O> queries;
+
+  /**
+   * Heaps of the query objects, in tree order.
+   */
+  private KNNHeap[] heaps;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param distanceFunction Distance function
+   * @param leafsize Maximum size of leaf nodes
+   * @param distcalc Counter for distance computations, may be {@code null}
+   */
+  public DualTreeKNNSearch(Relation<? extends O> relation, SpatialPrimitiveDistanceFunction<? super O> distanceFunction, int leafsize, Counter distcalc) {
+    super();
+    this.relation = relation;
+    this.distanceFunction = distanceFunction;
+    this.leafsize = leafsize;
+    this.distcalc = distcalc;
+  }
+
+  /**
+   * Arrange the objects as implicit k-d-tree, in the same layout as
+   * {@link MinimalisticMemoryKDTree}.
+   *
+   * @param relation Data relation
+   * @param ids Objects to arrange
+   * @param leafsize Maximum size of leaf nodes
+   * @return Objects in tree order
+   */
+  public static ArrayDBIDs arrange(Relation<? extends NumberVector> relation, DBIDs ids, int leafsize) {
+    ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
+    List<NumberVector> vecs = new ArrayList<>(aids.size());
+    for(DBIDIter it = aids.iter(); it.valid(); it.advance()) {
+      vecs.add(relation.get(it));
+    }
+    int[] perm = arrange(vecs, leafsize, false);
+    ArrayModifiableDBIDs sorted = DBIDUtil.newArray(perm.length);
+    DBIDArrayIter it = aids.iter();
+    for(int i : perm) {
+      sorted.add(it.seek(i));
+    }
+    return sorted;
+  }
+
+  /**
+   * Compute the permutation that arranges the vectors as implicit k-d-tree.
+   *
+   * @param vecs Vectors
+   * @param leafsize Maximum size of leaf nodes
+   * @param binary Use a binary layout, where the middle element is part of the
+   *        right subtree, instead of the layout of the index.
+   * @return Permutation
+   */
+  private static int[] arrange(List<? extends NumberVector> vecs, int leafsize, boolean binary) {
+    final int size = vecs.size();
+    Permutation p = new Permutation(size);
+    if(size > leafsize) {
+      arrange(vecs, p, 0, size, 0, vecs.get(0).getDimensionality(), leafsize, binary);
+    }
+    return p.perm;
+  }
+
+  /**
+   * Recursively arrange the objects by partial sorting.
+   *
+   * @param vecs Vectors
+   * @param p Permutation to modify
+   * @param left Interval minimum
+   * @param right Interval maximum
+   * @param axis Current splitting axis
+   * @param dims Dimensionality
+   * @param leafsize Maximum size of leaf nodes
+   * @param binary Use a binary layout
+   */
+  private static void arrange(List<? extends NumberVector> vecs, Permutation p, int left, int right, int axis, int dims, int leafsize, boolean binary) {
+    for(int i = left; i < right; i++) {
+      p.keys[i] = vecs.get(p.perm[i]).doubleValue(axis);
+    }
+    int middle = (left + right) >>> 1;
+    QuickSelect.quickSelect(p, Permutation.ADAPTER, left, right, middle);
+    final int next = (axis + 1) % dims;
+    if(left + leafsize < middle) {
+      arrange(vecs, p, left, middle, next, dims, leafsize, binary);
+    }
+    middle += binary ? 0 : 1;
+    if(middle + leafsize < right) {
+      arrange(vecs, p, middle, right, next, dims, leafsize, binary);
+    }
+  }
+
+  /**
+   * Find the k nearest neighbors of all query objects.
+   *
+   * @param reference Reference objects, arranged as implicit k-d-tree
+   * @param refsize Number of reference objects
+   * @param ids Query objects
+   * @param k Number of neighbors
+   * @return kNN lists, in the order of the query objects
+   */
+  public List<KNNList> getKNNForBulkDBIDs(DBIDArrayIter reference, int refsize, ArrayDBIDs ids, int k) {
+    refiter = reference;
+    refs = new ArrayList<>(refsize);
+    for(reference.seek(0); reference.getOffset() < refsize; reference.advance()) {
+      refs.add(relation.get(reference));
+    }
+    // Arrange the query objects as tree, too:
+    final int size = ids.size();
+    List<O> vecs = new ArrayList<>(size);
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      vecs.add(relation.get(it));
+    }
+    final int[] perm = arrange(vecs, leafsize, true);
+    queries = new ArrayList<>(size);
+    heaps = new KNNHeap[size];
+    for(int i = 0; i < size; i++) {
+      queries.add(vecs.get(perm[i]));
+      heaps[i] = DBIDUtil.newHeap(k);
+    }
+    if(refsize > 0 && size > 0) {
+      Node qroot = buildTree(queries, 0, size, true);
+      Node rroot = buildTree(refs, 0, refsize, false);
+      dualTree(qroot, rroot, distanceFunction.minDist(qroot, rroot));
+    }
+
+    // Restore the original query order.
+    KNNList[] result = new KNNList[size];
+    for(int i = 0; i < size; i++) {
+      result[perm[i]] = heaps[i].toKNNList();
+    }
+    refs = queries = null;
+    refiter = null;
+    heaps = null;
+    return Arrays.asList(result);
+  }
+
+  /**
+   * Build the explicit node structure with bounding boxes.
+   *
+   * @param vecs Vectors, in tree order
+   * @param start Interval start
+   * @param end Interval end (exclusive)
+   * @param binary Binary layout, otherwise the middle element is a separate
+   *        child, as in the index layout
+   * @return Node
+   */
+  private Node buildTree(List<O> vecs, int start, int end, boolean binary) {
+    final int dim = vecs.get(start).getDimensionality();
+    Node node = new Node(start, end, dim);
+    if(end - start <= leafsize) {
+      for(int i = start; i < end; i++) {
+        node.extend(vecs.get(i));
+      }
+      return node;
+    }
+    final int middle = (start + end) >>> 1;
+    Node left = buildTree(vecs, start, middle, binary);
+    if(binary) {
+      node.children = new Node[] { left, buildTree(vecs, middle, end, binary) };
+    }
+    else {
+      // Left subtree, middle element, and right subtree:
+      Node mid = buildTree(vecs, middle, middle + 1, binary);
+      node.children = middle + 1 < end ? new Node[] { left, mid, buildTree(vecs, middle + 1, end, binary) } : new Node[] { left, mid };
+    }
+    for(Node child : node.children) {
+      node.extend(child);
+    }
+    return node;
+  }
+
+  /**
+   * Process a pair of query and reference nodes.
+   *
+   * @param q Query node
+   * @param r Reference node
+   * @param mindist Minimum distance of the nodes
+   */
+  private void dualTree(Node q, Node r, double mindist) {
+    if(mindist > q.bound) {
+      return;
+    }
+    if(q.children == null && r.children == null) {
+      baseCase(q, r);
+      return;
+    }
+    if(r.children == null || (q.children != null && q.size() >= r.size())) {
+      // Split the query node.
+      for(Node child : q.children) {
+        dualTree(child, r, distanceFunction.minDist(child, r));
+      }
+    }
+    else {
+      // Split the reference node, visiting the closest children first.
+      final Node[] children = r.children;
+      final double[] dists = new double[children.length];
+      final int[] order = new int[children.length];
+      for(int i = 0; i < children.length; i++) {
+        dists[i] = distanceFunction.minDist(q, children[i]);
+        // Insertion sort of at most three children:
+        int j = i;
+        for(; j > 0 && dists[order[j - 1]] > dists[i]; j--) {
+          order[j] = order[j - 1];
+        }
+        order[j] = i;
+      }
+      for(int i = 0; i < children.length; i++) {
+        dualTree(q, children[order[i]], dists[order[i]]);
+      }
+    }
+    if(q.children != null) {
+      q.updateBound();
+    }
+  }
+
+  /**
+   * Compare all objects of two leaves.
+   *
+   * @param q Query leaf
+   * @param r Reference leaf
+   */
+  private void baseCase(Node q, Node r) {
+    double bound = 0.;
+    for(int i = q.start; i < q.end; i++) {
+      final O qvec = queries.get(i);
+      final KNNHeap heap = heaps[i];
+      double kdist = heap.getKNNDistance();
+      if(r.size() > 1 && distanceFunction.minDist(qvec, r) > kdist) {
+        bound = kdist > bound ? kdist : bound;
+        continue;
+      }
+      for(int j = r.start; j < r.end; j++) {
+        final double dist = distanceFunction.distance(qvec, refs.get(j));
+        if(dist <= kdist) {
+          kdist = heap.insert(dist, refiter.seek(j));
+        }
+      }
+      if(distcalc != null) {
+        distcalc.increment(r.size());
+      }
+      bound = kdist > bound ? kdist : bound;
+    }
+    q.bound = bound;
+  }
+
+  /**
+   * Permutation with the current sort keys, for arranging the tree.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private static class Permutation {
+    /**
+     * Adapter for {@link QuickSelect}.
+     */
+    static final QuickSelect.Adapter<Permutation> ADAPTER = new QuickSelect.Adapter<Permutation>() {
+      @Override
+      public void swap(Permutation data, int i, int j) {
+        final int tmp = data.perm[i];
+        data.perm[i] = data.perm[j];
+        data.perm[j] = tmp;
+        final double tmpk = data.keys[i];
+        data.keys[i] = data.keys[j];
+        data.keys[j] = tmpk;
+      }
+
+      @Override
+      public boolean compareGreater(Permutation data, int i, int j) {
+        return data.keys[i] > data.keys[j];
+      }
+    };
+
+    /**
+     * Permutation of the objects.
+     */
+    final int[] perm;
+
+    /**
+     * Sort keys of the current axis.
+     */
+    final double[] keys;
+
+    /**
+     * Constructor.
+     *
+     * @param size Number of objects
+     */
+    Permutation(int size) {
+      perm = new int[size];
+      keys = new double[size];
+      for(int i = 0; i < size; i++) {
+        perm[i] = i;
+      }
+    }
+  }
+
+  /**
+   * Node of the dual-tree search: an interval of the tree order with its
+   * bounding box.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private static class Node implements SpatialComparable {
+    /**
+     * Interval of the tree order.
+     */
+    final int start, end;
+
+    /**
+     * Bounding box.
+     */
+    final double[] min, max;
+
+    /**
+     * Child nodes, {@code null} for leaves.
+     */
+    Node[] children;
+
+    /**
+     * Upper bound of the kNN distances of the query objects in this node.
+     */
+    double bound = Double.POSITIVE_INFINITY;
+
+    /**
+     * Constructor.
+     *
+     * @param start Interval start
+     * @param end Interval end (exclusive)
+     * @param dim Dimensionality
+     */
+    Node(int start, int end, int dim) {
+      this.start = start;
+      this.end = end;
+      this.min = new double[dim];
+      this.max = new double[dim];
+      Arrays.fill(min, Double.POSITIVE_INFINITY);
+      Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Extend the bounding box.
+     *
+     * @param obj Object to include
+     */
+    void extend(SpatialComparable obj) {
+      for(int d = 0; d < min.length; d++) {
+        final double lo = obj.getMin(d), hi = obj.getMax(d);
+        min[d] = lo < min[d] ? lo : min[d];
+        max[d] = hi > max[d] ? hi : max[d];
+      }
+    }
+
+    /**
+     * Update the kNN distance bound from the children.
+     */
+    void updateBound() {
+      double b = 0.;
+      for(Node child : children) {
+        b = child.bound > b ? child.bound : b;
+      }
+      bound = b;
+    }
+
+    /**
+     * Number of objects in this node.
+     *
+     * @return Size
+     */
+    int size() {
+      return end - start;
+    }
+
+    @Override
+    public int getDimensionality() {
+      return min.length;
+    }
+
+    @Override
+    public double getMin(int dimension) {
+      return min[dimension];
+    }
+
+    @Override
+    public double getMax(int dimension) {
+      return max[dimension];
+    }
+  }
+}
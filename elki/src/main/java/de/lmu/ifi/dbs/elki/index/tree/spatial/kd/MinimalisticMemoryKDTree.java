@@ -23,11 +23,14 @@ package de.lmu.ifi.dbs.elki.index.tree.spatial.kd;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.util.List;
+
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.VectorUtil;
 import de.lmu.ifi.dbs.elki.data.VectorUtil.SortDBIDsBySingleDimension;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
@@ -45,6 +48,7 @@ import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.Norm;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.SpatialPrimitiveDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPNormDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SparseLPNormDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
@@ -315,6 +319,21 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
       return knns.toKNNList();
     }
 
+    /**
+     * Bulk kNN queries use a dual-tree search, if the distance function
+     * supports bounding boxes.
+     */
+    @Override
+    public List<? extends KNNList> getKNNForBulkDBIDs(ArrayDBIDs ids, int k) {
+      if(!(norm instanceof SpatialPrimitiveDistanceFunction)) {
+        return super.getKNNForBulkDBIDs(ids, k);
+      }
+      @SuppressWarnings("unchecked")
+      final SpatialPrimitiveDistanceFunction<? super O> df = (SpatialPrimitiveDistanceFunction<? super O>) norm;
+      final int joinleaf = Math.max(leafsize, DualTreeKNNSearch.DEFAULT_LEAFSIZE);
+      return new DualTreeKNNSearch<O>(relation, df, joinleaf, distcalc).getKNNForBulkDBIDs(sorted.iter(), sorted.size(), ids, k);
+    }
+
     /**
      * Perform a kNN search on the kd-tree.
      *
@@ -0,0 +1,667 @@
+package de.lmu.ifi.dbs.elki.index.vafile;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPNormDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractRefiningIndex;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.persistent.OnDiskArray;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleMaxHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+
+/**
+ * Disk-resident vector-approximation file.
+ *
+ * The approximations are bit-packed, using log2(partitions) bits per
+ * dimension, and written to an {@link OnDiskArray}. Queries scan the memory
+ * mapped file sequentially, and only fetch the candidate vectors from the
+ * relation for refinement. Only the quantile grid and the object ids are kept
+ * in main memory.
+ *
+ * The quantile grid is stored in the file header. An existing file is
+ * reopened instead of being rebuilt; this requires the same data in the same
+ * order, which is verified by recomputing the approximations. Call
+ * {@link #close()} to release the file.
+ *
+ * Reference:
+ * <p>
+ * Weber, R. and Blott, S.<br>
+ * An approximation based data structure for similarity search<br />
+ * in: Report TR1997b, ETH Zentrum, Zurich, Switzerland
+ * </p>
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ *
+ * @apiviz.composedOf OnDiskArray
+ * @apiviz.has OnDiskVAFileRangeQuery
+ * @apiviz.has OnDiskVAFileKNNQuery
+ * @apiviz.uses VALPNormDistance
+ *
+ * @param <V> Vector type
+ */
+@Title("An approximation based data structure for similarity search")
+@Reference(authors = "Weber, R. and Blott, S.", title = "An approximation based data structure for similarity search", booktitle = "Report TR1997b, ETH Zentrum, Zurich, Switzerland", url = "http://citeseerx.ist.psu.edu/viewdoc/download?doi=10.1.1.40.480&rep=rep1&type=pdf")
+public class OnDiskVAFile<V extends NumberVector> extends AbstractRefiningIndex<V> implements KNNIndex<V>, RangeIndex<V> {
+  /**
+   * Logging class.
+   */
+  private static final Logging LOG = Logging.getLogger(OnDiskVAFile.class);
+
+  /**
+   * Magic number of the file format.
+   */
+  private static final int MAGIC = 0x56414631;
+
+
+  /**
+   * Number of partitions.
+   */
+  private int partitions;
+
+  /**
+   * Bits per dimension.
+   */
+  private int bits;
+
+  /**
+   * Quantile grid we use.
+   */
+  private double[][] splitPositions;
+
+  /**
+   * File to store the approximations in, may be {@code null}.
+   */
+  private File filename;
+
+  /**
+   * Whether the file is a temporary file, to be deleted on close.
+   */
+  private boolean temporary;
+
+  /**
+   * Approximations on disk.
+   */
+  private OnDiskArray file;
+
+  /**
+   * Object ids, in the order of the records.
+   */
+  private ArrayDBIDs ids;
+
+  /**
+   * Number of scans we performed.
+   */
+  int scans;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Relation to index
+   * @param partitions Number of partitions for each dimension.
+   * @param filename File name, {@code null} for a temporary file
+   */
+  public OnDiskVAFile(Relation<V> relation, int partitions, File filename) {
+    super(relation);
+    this.partitions = partitions;
+    this.filename = filename;
+    this.scans = 0;
+  }
+
+  @Override
+  public void initialize() {
+    final int dim = RelationUtil.dimensionality(relation);
+    bits = Integer.numberOfTrailingZeros(partitions);
+    final int recordsize = (dim * bits + 7) >>> 3;
+    ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    try {
+      if(filename != null && filename.exists() && filename.length() > 0) {
+        reopen(dim, recordsize);
+        return;
+      }
+      splitPositions = VAFile.computeSplitPositions(relation, partitions);
+      if(filename == null) {
+        filename = File.createTempFile("elki-vafile", null);
+        filename.deleteOnExit();
+        temporary = true;
+      }
+      file = new OnDiskArray(filename, MAGIC, headerSize(dim), recordsize, ids.size());
+      ByteBuffer header = file.getExtraHeader();
+      header.putInt(dim);
+      header.putInt(partitions);
+      for(double[] split : splitPositions) {
+        for(double v : split) {
+          header.putDouble(v);
+        }
+      }
+      int[] cells = new int[dim];
+      byte[] record = new byte[recordsize];
+      ByteBuffer buf = null;
+      for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        if(buf == null || !buf.hasRemaining()) {
+          buf = file.getRecordsBuffer(iter.getOffset());
+        }
+        calculateApproximation(relation.get(iter), cells);
+        pack(cells, record);
+        buf.put(record);
+      }
+    }
+    catch(IOException e) {
+      throw new AbortException("Could not write the VA file.", e);
+    }
+  }
+
+  /**
+   * Reopen an existing file, and verify that it matches the relation.
+   *
+   * @param dim Dimensionality
+   * @param recordsize Record size
+   * @throws IOException on IO errors, including a mismatching header size
+   */
+  private void reopen(int dim, int recordsize) throws IOException {
+    file = new OnDiskArray(filename, MAGIC, headerSize(dim), recordsize, false);
+    ByteBuffer header = file.getExtraHeader();
+    if(header.getInt() != dim || header.getInt() != partitions || file.getNumRecords() != ids.size()) {
+      close();
+      throw new AbortException("The VA file " + filename + " does not match the relation.\n" //
+          + "Load the same data in the same order, or remove the file.");
+    }
+    splitPositions = new double[dim][partitions + 1];
+    for(double[] split : splitPositions) {
+      for(int i = 0; i < split.length; i++) {
+        split[i] = header.getDouble();
+      }
+    }
+    // Verify the approximations. Vectors that changed within their grid cells
+    // are fine, as the refinement uses the relation.
+    Scanner scanner = new Scanner();
+    int[] cells = new int[dim];
+    for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      calculateApproximation(relation.get(iter), cells);
+      if(!Arrays.equals(cells, scanner.next().approximation)) {
+        close();
+        throw new AbortException("The VA file " + filename + " was built for different data.\n" //
+            + "Load the same data in the same order, or remove the file.");
+      }
+    }
+    if(LOG.isVerbose()) {
+      LOG.verbose("Reopened VA file with " + ids.size() + " approximations.");
+    }
+  }
+
+  /**
+   * Size of the extra header: dimensionality, number of partitions, and the
+   * quantile grid.
+   *
+   * @param dim Dimensionality
+   * @return Header size
+   */
+  private int headerSize(int dim) {
+    return 8 + dim * (partitions + 1) * 8;
+  }
+
+  /**
+   * Close the file. The index must not be used afterwards.
+   */
+  public void close() {
+    if(file == null) {
+      return;
+    }
+    try {
+      file.close();
+    }
+    catch(IOException e) {
+      throw new AbortException("Could not close the VA file.", e);
+    }
+    file = null;
+    if(temporary && !filename.delete()) {
+      LOG.warning("Could not delete temporary file " + filename);
+    }
+  }
+
+  /**
+   * Calculate the grid cells of a vector.
+   *
+   * @param dv Data vector
+   * @param cells Output array
+   */
+  private void calculateApproximation(NumberVector dv, int[] cells) {
+    for(int d = 0; d < splitPositions.length; d++) {
+      final double[] split = splitPositions[d];
+      final double val = dv.doubleValue(d);
+      int lo = 0, hi = partitions - 1;
+      // Find the last split position <= val, clamped to the grid.
+      while(lo < hi) {
+        final int mid = (lo + hi + 1) >>> 1;
+        if(split[mid] <= val) {
+          lo = mid;
+        }
+        else {
+          hi = mid - 1;
+        }
+      }
+      cells[d] = lo;
+    }
+  }
+
+  /**
+   * Pack the grid cells into a bit string.
+   *
+   * @param cells Grid cells
+   * @param record Output record
+   */
+  private void pack(int[] cells, byte[] record) {
+    long acc = 0L;
+    int accbits = 0, out = 0;
+    for(int d = 0; d < cells.length; d++) {
+      acc |= ((long) cells[d]) << accbits;
+      accbits += bits;
+      while(accbits >= 8) {
+        record[out++] = (byte) acc;
+        acc >>>= 8;
+        accbits -= 8;
+      }
+    }
+    if(accbits > 0) {
+      record[out] = (byte) acc;
+    }
+  }
+
+  /**
+   * Unpack the grid cells from a bit string.
+   *
+   * @param record Input record
+   * @param cells Output grid cells
+   */
+  private void unpack(byte[] record, int[] cells) {
+    final long mask = (1L << bits) - 1;
+    long acc = 0L;
+    int accbits = 0, in = 0;
+    for(int d = 0; d < cells.length; d++) {
+      while(accbits < bits) {
+        acc |= (record[in++] & 0xFFL) << accbits;
+        accbits += 8;
+      }
+      cells[d] = (int) (acc & mask);
+      acc >>>= bits;
+      accbits -= bits;
+    }
+  }
+
+  /**
+   * Scan the approximations.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private class Scanner {
+    /**
+     * Buffer over the records of the current segment.
+     */
+    ByteBuffer buf;
+
+    /**
+     * Number of the next record.
+     */
+    int pos;
+
+    /**
+     * Current record.
+     */
+    byte[] record = new byte[(splitPositions.length * bits + 7) >>> 3];
+
+    /**
+     * Approximation of the current record.
+     */
+    VectorApproximation approx = new VectorApproximation(null, new int[splitPositions.length]);
+
+    /**
+     * Read the next approximation.
+     *
+     * @return Approximation, valid until the next call.
+     */
+    VectorApproximation next() {
+      if(buf == null || !buf.hasRemaining()) {
+        try {
+          buf = file.getRecordsBuffer(pos);
+        }
+        catch(IOException e) {
+          throw new AbortException("Could not read the VA file.", e);
+        }
+      }
+      buf.get(record);
+      ++pos;
+      unpack(record, approx.approximation);
+      return approx;
+    }
+  }
+
+  /**
+   * Get the query approximation and distance bounds.
+   *
+   * @param query Query vector
+   * @param p LP norm p
+   * @return Approximative distance function
+   */
+  private VALPNormDistance makeDistance(V query, double p) {
+    int[] cells = new int[splitPositions.length];
+    calculateApproximation(query, cells);
+    return new VALPNormDistance(p, splitPositions, query, new VectorApproximation(null, cells));
+  }
+
+  /**
+   * Get the number of bytes scanned.
+   *
+   * @return Number of scanned bytes.
+   */
+  public long getScannedBytes() {
+    return splitPositions != null ? scans * (long) ids.size() * ((splitPositions.length * bits + 7) >>> 3) : 0L;
+  }
+
+  @Override
+  public Logging getLogger() {
+    return LOG;
+  }
+
+  @Override
+  public void logStatistics() {
+    super.logStatistics();
+    LOG.statistics(new LongStatistic(OnDiskVAFile.class.getName() + ".scanned-bytes", getScannedBytes()));
+  }
+
+  @Override
+  public String getLongName() {
+    return "On-disk VA-file index";
+  }
+
+  @Override
+  public String getShortName() {
+    return "ondisk-va-file";
+  }
+
+  @Override
+  public KNNQuery<V> getKNNQuery(DistanceQuery<V> distanceQuery, Object... hints) {
+    // Query on the relation we index
+    if(distanceQuery.getRelation() != relation) {
+      return null;
+    }
+    DistanceFunction<? super V> df = distanceQuery.getDistanceFunction();
+    if(df instanceof LPNormDistanceFunction) {
+      double p = ((LPNormDistanceFunction) df).getP();
+      return new OnDiskVAFileKNNQuery(distanceQuery, p);
+    }
+    // Not supported.
+    return null;
+  }
+
+  @Override
+  public RangeQuery<V> getRangeQuery(DistanceQuery<V> distanceQuery, Object... hints) {
+    // Query on the relation we index
+    if(distanceQuery.getRelation() != relation) {
+      return null;
+    }
+    DistanceFunction<? super V> df = distanceQuery.getDistanceFunction();
+    if(df instanceof LPNormDistanceFunction) {
+      double p = ((LPNormDistanceFunction) df).getP();
+      return new OnDiskVAFileRangeQuery(distanceQuery, p);
+    }
+    // Not supported.
+    return null;
+  }
+
+  /**
+   * Range query for this index.
+   *
+   * @author Erich Schubert
+   */
+  public class OnDiskVAFileRangeQuery extends AbstractRefiningIndex<V>.AbstractRangeQuery {
+    /**
+     * LP Norm p parameter.
+     */
+    final double p;
+
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query object
+     * @param p LP norm p
+     */
+    public OnDiskVAFileRangeQuery(DistanceQuery<V> distanceQuery, double p) {
+      super(distanceQuery);
+      this.p = p;
+    }
+
+    @Override
+    public void getRangeForObject(V query, double eps, ModifiableDoubleDBIDList result) {
+      VALPNormDistance vadist = makeDistance(query, p);
+      // Count a VA file scan
+      scans += 1;
+
+      Scanner scanner = new Scanner();
+      for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        if(vadist.getMinDist(scanner.next()) > eps) {
+          continue;
+        }
+        // refine the next element
+        final double dist = refine(iter, query);
+        if(dist <= eps) {
+          result.add(dist, iter);
+        }
+      }
+    }
+  }
+
+  /**
+   * KNN query for this index.
+   *
+   * @author Erich Schubert
+   */
+  public class OnDiskVAFileKNNQuery extends AbstractRefiningIndex<V>.AbstractKNNQuery {
+    /**
+     * LP Norm p parameter.
+     */
+    final double p;
+
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query object
+     * @param p LP norm p
+     */
+    public OnDiskVAFileKNNQuery(DistanceQuery<V> distanceQuery, double p) {
+      super(distanceQuery);
+      this.p = p;
+    }
+
+    @Override
+    public KNNList getKNNForObject(V query, int k) {
+      VALPNormDistance vadist = makeDistance(query, p);
+      // Heap for the kth smallest maximum distance (yes, we need a max heap!)
+      DoubleMaxHeap minMaxHeap = new DoubleMaxHeap(k + 1);
+      double minMaxDist = Double.POSITIVE_INFINITY;
+      // Candidates with minDist <= kth maxDist
+      ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList();
+
+      // Count a VA file scan
+      scans += 1;
+
+      // Approximation step
+      Scanner scanner = new Scanner();
+      for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        VectorApproximation va = scanner.next();
+        double minDist = vadist.getMinDist(va);
+        // Skip excess candidate generation:
+        if(minDist > minMaxDist) {
+          continue;
+        }
+        candidates.add(minDist, iter);
+
+        // Update candidate pruning heap
+        minMaxHeap.add(vadist.getMaxDist(va), k);
+        if(minMaxHeap.size() >= k) {
+          minMaxDist = minMaxHeap.peek();
+        }
+      }
+      // sort candidates by lower bound (minDist)
+      candidates.sort();
+
+      // refinement step
+      KNNHeap result = DBIDUtil.newHeap(k);
+      for(DoubleDBIDListIter iter = candidates.iter(); iter.valid(); iter.advance()) {
+        // Stop when we are sure to have all elements
+        if(iter.doubleValue() > result.getKNNDistance()) {
+          break;
+        }
+        // refine the next element
+        result.insert(refine(iter, query), iter);
+      }
+      return result.toKNNList();
+    }
+  }
+
+  /**
+   * Index factory class.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.stereotype factory
+   * @apiviz.has OnDiskVAFile
+   *
+   * @param <V> Vector type
+   */
+  public static class Factory<V extends NumberVector> implements IndexFactory<V, OnDiskVAFile<V>> {
+    /**
+     * Name of the file storing the approximations.
+     *
+     * <pre>
+     * -vafile.file approximations.va
+     * </pre>
+     */
+    public static final OptionID FILE_ID = new OptionID("vafile.file", "The name of the file storing the approximations. An existing file is reopened. A temporary file is used if not given.");
+
+    /**
+     * Number of partitions.
+     */
+    int numpart = 2;
+
+    /**
+     * File name.
+     */
+    File filename;
+
+    /**
+     * Constructor.
+     *
+     * @param numpart Number of partitions
+     * @param filename File name, may be {@code null}
+     */
+    public Factory(int numpart, File filename) {
+      super();
+      this.numpart = numpart;
+      this.filename = filename;
+    }
+
+    @Override
+    public OnDiskVAFile<V> instantiate(Relation<V> relation) {
+      return new OnDiskVAFile<>(relation, numpart, filename);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return TypeUtil.NUMBER_VECTOR_FIELD;
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     *
+     * @apiviz.exclude
+     */
+    public static class Parameterizer extends AbstractParameterizer {
+      /**
+       * Number of partitions.
+       */
+      int numpart = 2;
+
+      /**
+       * File name.
+       */
+      File filename;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        IntParameter partitionsP = new IntParameter(VAFile.Factory.PARTITIONS_ID);
+        partitionsP.addConstraint(CommonConstraints.GREATER_THAN_ONE_INT);
+        if(config.grab(partitionsP)) {
+          numpart = partitionsP.getValue();
+        }
+        FileParameter fileP = new FileParameter(FILE_ID, FileParameter.FileType.OUTPUT_FILE, true);
+        if(config.grab(fileP)) {
+          filename = fileP.getValue();
+        }
+      }
+
+      @Override
+      protected Factory<?> makeInstance() {
+        return new Factory<>(numpart, filename);
+      }
+    }
+  }
+}
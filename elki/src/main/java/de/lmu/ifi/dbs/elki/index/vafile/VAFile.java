@@ -146,13 +146,25 @@ public class VAFile<V extends NumberVector> extends AbstractRefiningIndex<V> imp
    * @throws IllegalArgumentException
    */
   public void setPartitions(Relation<V> relation) throws IllegalArgumentException {
+    splitPositions = computeSplitPositions(relation, partitions);
+  }
+
+  /**
+   * Compute the quantile grid of a data set.
+   * 
+   * @param relation Data relation
+   * @param partitions Number of partitions, must be a power of 2
+   * @return Split positions, {@code partitions + 1} for each dimension
+   * @throws IllegalArgumentException
+   */
+  protected static double[][] computeSplitPositions(Relation<? extends NumberVector> relation, int partitions) throws IllegalArgumentException {
     if((Math.log(partitions) / Math.log(2)) != (int) (Math.log(partitions) / Math.log(2))) {
       throw new IllegalArgumentException("Number of partitions must be a power of 2!");
     }
 
     final int dimensions = RelationUtil.dimensionality(relation);
     final int size = relation.size();
-    splitPositions = new double[dimensions][partitions + 1];
+    double[][] splitPositions = new double[dimensions][partitions + 1];
 
     for(int d = 0; d < dimensions; d++) {
       double[] tempdata = new double[size];
@@ -170,6 +182,7 @@ public class VAFile<V extends NumberVector> extends AbstractRefiningIndex<V> imp
       // make sure that last object will be included
       splitPositions[d][partitions] = tempdata[size - 1] + 0.000001;
     }
+    return splitPositions;
   }
 
   /**
@@ -163,7 +163,7 @@ public class VALPNormDistance {
     for(int d = 0; d < dimensions; d++) {
       final double val = query.doubleValue(d);
       for(int i = 0; i < bordercount; i++) {
-        lookup[d][i] = Math.pow(splitPositions[d][i] - val, p);
+        lookup[d][i] = Math.pow(Math.abs(splitPositions[d][i] - val), p);
       }
     }
   }
@@ -23,17 +23,15 @@ package de.lmu.ifi.dbs.elki.parallel;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
 import de.lmu.ifi.dbs.elki.parallel.variables.SharedVariable;
 import de.lmu.ifi.dbs.elki.parallel.variables.SharedVariable.Instance;
@@ -41,7 +39,11 @@ import de.lmu.ifi.dbs.elki.parallel.variables.SharedVariable.Instance;
 /**
  * Class to run processors in parallel, on all available cores.
  *
- * TODO: add progress
+ * The input is split recursively into blocks, which are processed by the
+ * work-stealing {@link ParallelCore}. The minimum block size adapts to the
+ * data size and the number of threads: we produce a number of blocks per
+ * thread, such that idle threads can steal work from threads that got stuck
+ * with expensive objects.
  *
  * @author Erich Schubert
  * @since 0.7.0
@@ -50,6 +52,11 @@ import de.lmu.ifi.dbs.elki.parallel.variables.SharedVariable.Instance;
  * @apiviz.uses ParallelCore
  */
 public class ParallelExecutor {
+  /**
+   * Number of blocks to produce per thread, at least.
+   */
+  private static final int BLOCKS_PER_THREAD = 16;
+
   /**
    * Run a task on all available CPUs.
    *
@@ -57,48 +64,51 @@ public class ParallelExecutor {
    * @param procs Processors to run
    */
   public static final void run(DBIDs ids, Processor... procs) {
+    run(ids, null, null, procs);
+  }
+
+  /**
+   * Run a task on all available CPUs.
+   *
+   * @param ids IDs to process
+   * @param prog Progress to update (may be {@code null})
+   * @param log Logger to report progress to
+   * @param procs Processors to run
+   */
+  public static final void run(DBIDs ids, FiniteProgress prog, Logging log, Processor... procs) {
     ParallelCore core = ParallelCore.getCore();
     core.connect();
     try {
-      // TODO: try different strategies anyway!
       ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
       final int size = aids.size();
-      int numparts = core.getParallelism();
-      // TODO: are there better heuristics for choosing this?
-      numparts = (size > numparts * numparts * 16) ? numparts * Math.max(1, numparts - 1) : numparts;
-
-      final int blocksize = (size + (numparts - 1)) / numparts;
-      List<Future<ArrayDBIDs>> parts = new ArrayList<>(numparts);
-      for(int i = 0; i < numparts; i++) {
-        final int start = i * blocksize;
-        final int end = (start + blocksize < size) ? start + blocksize : size;
-        Callable<ArrayDBIDs> run = new BlockArrayRunner(aids, start, end, procs);
-        parts.add(core.submit(run));
-      }
-
-      for(Future<ArrayDBIDs> fut : parts) {
-        fut.get();
-      }
-    }
-    catch(ExecutionException e) {
-      throw new RuntimeException("Processor execution failed.", e);
-    }
-    catch(InterruptedException e) {
-      throw new RuntimeException("Parallel execution interrupted.");
+      final int parallelism = core.getParallelism();
+      // Clamp, such that minblock << 1 cannot overflow on huge inputs.
+      final int minblock = Math.min(Integer.MAX_VALUE >> 1, parallelism > 1 ? Math.max(1, size / BLOCKS_PER_THREAD / parallelism) : size);
+      core.invoke(new BlockArrayRunner(aids, 0, size, minblock, procs, prog, log));
     }
     finally {
       core.disconnect();
     }
+    if(prog != null) {
+      prog.ensureCompleted(log);
+    }
   }
 
   /**
    * Run for an array part, without step size.
    *
+   * The block is split recursively until the minimum block size is reached.
+   *
    * @author Erich Schubert
    *
    * @apiviz.uses Processor
    */
-  protected static class BlockArrayRunner implements Callable<ArrayDBIDs>, Executor {
+  protected static class BlockArrayRunner extends RecursiveAction implements Executor {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
     /**
      * Array IDs to process
      */
@@ -114,15 +124,30 @@ public class ParallelExecutor {
      */
     private int end;
 
+    /**
+     * Minimum block size, do not split further.
+     */
+    private int minblock;
+
     /**
      * The processor masters that own the instances.
      */
     private Processor[] procs;
 
+    /**
+     * Progress to update, may be {@code null}.
+     */
+    private FiniteProgress prog;
+
+    /**
+     * Logger for progress reporting.
+     */
+    private Logging log;
+
     /**
      * Variables map.
      */
-    private HashMap<SharedVariable<?>, SharedVariable.Instance<?>> variables = new HashMap<>();
+    private HashMap<SharedVariable<?>, SharedVariable.Instance<?>> variables;
 
     /**
      * Constructor.
@@ -130,18 +155,31 @@ public class ParallelExecutor {
      * @param ids IDs to process
      * @param start Starting position
      * @param end End position
+     * @param minblock Minimum block size
      * @param procs Processors to run
+     * @param prog Progress to update
+     * @param log Logger for progress
      */
-    protected BlockArrayRunner(ArrayDBIDs ids, int start, int end, Processor[] procs) {
+    protected BlockArrayRunner(ArrayDBIDs ids, int start, int end, int minblock, Processor[] procs, FiniteProgress prog, Logging log) {
       super();
       this.ids = ids;
       this.start = start;
       this.end = end;
+      this.minblock = minblock;
       this.procs = procs;
+      this.prog = prog;
+      this.log = log;
     }
 
     @Override
-    public ArrayDBIDs call() {
+    protected void compute() {
+      if(end - start > minblock << 1) {
+        final int mid = (start + end) >>> 1;
+        invokeAll(new BlockArrayRunner(ids, start, mid, minblock, procs, prog, log), //
+            new BlockArrayRunner(ids, mid, end, minblock, procs, prog, log));
+        return;
+      }
+      variables = new HashMap<>();
       Processor.Instance[] instances = new Processor.Instance[procs.length];
       for(int i = 0; i < procs.length; i++) {
         instances[i] = procs[i].instantiate(this);
@@ -149,7 +187,7 @@ public class ParallelExecutor {
 
       DBIDArrayIter iter = ids.iter();
       iter.seek(start);
-      for(int c = end - start; iter.valid() && c >= 0; iter.advance(), c--) {
+      for(int c = end - start; iter.valid() && c > 0; iter.advance(), c--) {
         for(int i = 0; i < instances.length; i++) {
           instances[i].map(iter);
         }
@@ -157,7 +195,10 @@ public class ParallelExecutor {
       for(int i = 0; i < instances.length; i++) {
         procs[i].cleanup(instances[i]);
       }
-      return ids;
+      variables = null;
+      if(prog != null) {
+        prog.incrementProcessed(end - start, log);
+      }
     }
 
     @Override
@@ -0,0 +1,363 @@
+package de.lmu.ifi.dbs.elki.persistent;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import de.lmu.ifi.dbs.elki.index.tree.TreeIndexHeader;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteBufferObjectInput;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteBufferObjectOutput;
+
+/**
+ * A page file that stores pages in a memory-mapped file.
+ * 
+ * In contrast to {@link PersistentPageFile}, pages are serialized directly
+ * from and into the mapped buffers, without seek and read system calls and
+ * without allocating a temporary byte array for every access. The file is
+ * mapped in segments of several pages each, which are added as the file grows.
+ * 
+ * The header and the list of empty pages are stored the same way as in
+ * {@link PersistentPageFile}, but the page serialization format differs, so
+ * the files are not interchangeable. Pages are kept when the file is closed,
+ * such that the file can be reopened later.
+ * 
+ * The file is never truncated, because the mappings cannot be released
+ * explicitly, and truncating a mapped file is not safe. The unused part of the
+ * last segment is recognized by the largest page ID stored in the header, and
+ * the list of empty pages is stored after the pages in use.
+ * 
+ * @author Erich Schubert
+ * @since 0.7.2
+ * 
+ * @apiviz.composedOf PageHeader
+ * @apiviz.composedOf MappedByteBuffer
+ * 
+ * @param <P> Page type
+ */
+public class MappedPageFile<P extends ExternalizablePage> extends AbstractStoringPageFile<P> {
+  /**
+   * Our logger
+   */
+  private static final Logging LOG = Logging.getLogger(MappedPageFile.class);
+
+  /**
+   * Indicates an empty page.
+   */
+  private static final int EMPTY_PAGE = 0;
+
+  /**
+   * Indicates a filled page.
+   */
+  private static final int FILLED_PAGE = 1;
+
+  /**
+   * Approximate size of a mapped segment, in bytes.
+   */
+  private static final int SEGMENT_SIZE = 1 << 24;
+
+  /**
+   * The file storing the pages.
+   */
+  private final RandomAccessFile file;
+
+  /**
+   * File channel used for mapping.
+   */
+  private final FileChannel channel;
+
+  /**
+   * Mapped segments of the file. Replaced (not modified) when a segment is
+   * added, so readers do not need to synchronize.
+   */
+  private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+  /**
+   * Number of pages per mapped segment.
+   */
+  private int pagesPerSegment;
+
+  /**
+   * The header of this page file.
+   */
+  protected PageHeader header;
+
+  /**
+   * The type of pages we use.
+   */
+  protected final Class<P> pageclass;
+
+  /**
+   * Whether we are initializing from an existing file.
+   */
+  private boolean existed;
+
+  /**
+   * Constructor.
+   * 
+   * @param pageSize the page size
+   * @param fileName the file name
+   * @param pageclass the class of pages to be used
+   */
+  public MappedPageFile(int pageSize, String fileName, Class<P> pageclass) {
+    super(pageSize);
+    this.pageclass = pageclass;
+    File f = new File(fileName);
+    // An empty file (e.g. a new temporary file) has no header yet.
+    existed = f.exists() && f.length() > 0;
+    try {
+      file = new RandomAccessFile(f, "rw");
+      channel = file.getChannel();
+    }
+    catch(IOException e) {
+      throw new AbortException("IO error in loading memory-mapped page file.", e);
+    }
+  }
+
+  /**
+   * Get a buffer positioned at the given page.
+   * 
+   * The buffer is a view of the mapped segment, so it can be used
+   * concurrently with other accesses.
+   * 
+   * @param pageID Page number
+   * @return Buffer, limited to the page
+   * @throws IOException on mapping errors
+   */
+  private ByteBuffer pageBuffer(int pageID) throws IOException {
+    final int segment = pageID / pagesPerSegment;
+    final MappedByteBuffer[] segs = segments;
+    MappedByteBuffer seg = segment < segs.length ? segs[segment] : null;
+    if(seg == null) {
+      seg = mapSegment(segment);
+    }
+    ByteBuffer buf = seg.duplicate();
+    final int offset = (pageID - segment * pagesPerSegment) * pageSize;
+    buf.limit(offset + pageSize).position(offset);
+    return buf;
+  }
+
+  /**
+   * Map a segment of the file, growing the file if necessary.
+   * 
+   * @param segment Segment number
+   * @return Mapped segment
+   * @throws IOException on mapping errors
+   */
+  private synchronized MappedByteBuffer mapSegment(int segment) throws IOException {
+    MappedByteBuffer[] segs = segments;
+    MappedByteBuffer seg = segment < segs.length ? segs[segment] : null;
+    if(seg == null) {
+      final long segsize = (long) pagesPerSegment * pageSize;
+      final long offset = header.getReservedPages() * (long) pageSize + segment * segsize;
+      seg = channel.map(FileChannel.MapMode.READ_WRITE, offset, segsize);
+      segs = Arrays.copyOf(segs, Math.max(segs.length, segment + 1));
+      segs[segment] = seg;
+      segments = segs;
+    }
+    return seg;
+  }
+
+  @Override
+  public P readPage(int pageID) {
+    try {
+      countRead();
+      ByteBufferObjectInput in = new ByteBufferObjectInput(pageBuffer(pageID));
+      int type = in.readInt();
+      if(type == EMPTY_PAGE) {
+        return null;
+      }
+      if(type != FILLED_PAGE) {
+        throw new IllegalArgumentException("Unknown type: " + type);
+      }
+      P page = pageclass.newInstance();
+      page.readExternal(in);
+      return page;
+    }
+    catch(InstantiationException | IllegalAccessException | ClassNotFoundException e) {
+      throw new AbortException("Error instanciating an index page", e);
+    }
+    catch(IOException e) {
+      throw new RuntimeException("IOException occurred during reading of page " + pageID + "\n", e);
+    }
+  }
+
+  @Override
+  public void deletePage(int pageID) {
+    try {
+      // put id to empty pages list
+      super.deletePage(pageID);
+      countWrite();
+      pageBuffer(pageID).putInt(EMPTY_PAGE);
+    }
+    catch(IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public void writePage(int pageID, P page) {
+    try {
+      countWrite();
+      ByteBufferObjectOutput out = new ByteBufferObjectOutput(pageBuffer(pageID));
+      out.writeInt(FILLED_PAGE);
+      page.writeExternal(out);
+      page.setDirty(false);
+    }
+    catch(IOException e) {
+      throw new IllegalArgumentException("Size of page " + page + " is greater than specified pagesize: " + pageSize, e);
+    }
+  }
+
+  /**
+   * Closes this file, flushing all pages to disk.
+   */
+  @Override
+  public void close() {
+    try {
+      for(MappedByteBuffer seg : segments) {
+        if(seg != null) {
+          seg.force();
+        }
+      }
+      segments = new MappedByteBuffer[0];
+      if(header instanceof TreeIndexHeader) {
+        TreeIndexHeader tiHeader = (TreeIndexHeader) header;
+        // write the list of empty pages after the pages in use
+        tiHeader.writeEmptyPages(emptyPages, file, pagesEnd(nextPageID));
+        tiHeader.setLargestPageID(nextPageID);
+      }
+      header.writeHeader(file);
+      file.close();
+    }
+    catch(IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Clears this PageFile, by marking all pages as empty.
+   */
+  @Override
+  public void clear() {
+    try {
+      for(int i = 0; i < nextPageID; i++) {
+        pageBuffer(i).putInt(EMPTY_PAGE);
+      }
+      nextPageID = 0;
+      emptyPages.clear();
+    }
+    catch(IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Get the file position after the given number of pages.
+   * 
+   * @param pages Number of pages
+   * @return File position
+   */
+  private long pagesEnd(int pages) {
+    return (header.getReservedPages() + (long) pages) * pageSize;
+  }
+
+  /**
+   * Get the header of this page file.
+   * 
+   * @return the header used by this page file
+   */
+  public PageHeader getHeader() {
+    return header;
+  }
+
+  @Override
+  public void setNextPageID(int next_page_id) {
+    this.nextPageID = next_page_id;
+    while(!emptyPages.isEmpty() && emptyPages.peek() >= this.nextPageID) {
+      emptyPages.pop();
+    }
+  }
+
+  @Override
+  public boolean initialize(PageHeader header) {
+    this.header = header;
+    this.pagesPerSegment = Math.max(1, SEGMENT_SIZE / pageSize);
+    try {
+      if(existed) {
+        LOG.debug("Initializing from an existing page file.");
+        header.readHeader(file);
+
+        if(header instanceof TreeIndexHeader) {
+          TreeIndexHeader tiHeader = (TreeIndexHeader) header;
+          nextPageID = tiHeader.getLargestPageID();
+          try {
+            emptyPages = tiHeader.readEmptyPages(file, pagesEnd(nextPageID));
+          }
+          catch(ClassNotFoundException e) {
+            throw new RuntimeException("ClassNotFoundException occurred when reading empty pages.", e);
+          }
+        }
+        else { // must scan complete file
+          final long npages = file.length() / pageSize - header.getReservedPages();
+          for(int i = 0; i < npages; i++) {
+            int type = pageBuffer(i).getInt();
+            if(type == EMPTY_PAGE) {
+              emptyPages.push(i);
+            }
+            else if(type == FILLED_PAGE) {
+              nextPageID = i + 1;
+            }
+            else {
+              throw new IllegalArgumentException("Unknown type: " + type);
+            }
+          }
+          // Empty pages in the unused part of the last segment:
+          setNextPageID(nextPageID);
+        }
+      }
+      else {
+        LOG.debug("Initializing with a new page file.");
+        header.writeHeader(file);
+      }
+    }
+    catch(IOException e) {
+      throw new RuntimeException("IOException occurred.", e);
+    }
+    return existed;
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+}
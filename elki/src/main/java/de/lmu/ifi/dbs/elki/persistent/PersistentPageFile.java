@@ -39,6 +39,12 @@ import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
  * A PersistentPageFile stores objects persistently that implement the
  * <code>Page</code> interface. For convenience each page is represented by a
  * single file. All pages are stored in a specified directory.
+ * <p>
+ * Closing the page file keeps the pages, so that an index can be reopened from
+ * the same file: the file is cut after the last page in use, and for a
+ * {@link TreeIndexHeader} the list of empty pages is stored after the pages,
+ * while the header keeps its size and the largest page id. An empty file (e.g.
+ * a freshly created temporary file) is initialized as a new page file.
  * 
  * @author Elke Achtert
  * @since 0.2
@@ -96,8 +102,9 @@ public class PersistentPageFile<P extends ExternalizablePage> extends AbstractSt
     // init the file
     File f = new File(fileName);
 
-    // create from existing file
-    existed = f.exists();
+    // create from existing file (an empty file, e.g. a new temporary file, has
+    // no header yet)
+    existed = f.exists() && f.length() > 0;
     try {
       file = new RandomAccessFile(f, "rw");
     }
@@ -173,17 +180,23 @@ public class PersistentPageFile<P extends ExternalizablePage> extends AbstractSt
   }
 
   /**
-   * Closes this file.
+   * Closes this file, but keeps the pages stored, so that the file can be
+   * reopened later.
    */
   @Override
   public void close() {
     try {
-      super.close();
-      if(!emptyPages.isEmpty() && header instanceof TreeIndexHeader) {
-        // write the list of empty pages to the end of the file
-        ((TreeIndexHeader) header).writeEmptyPages(emptyPages, file);
+      // Note: do not call super.close(), which would clear the file.
+      // Drop unused trailing space, e.g. the empty pages list of a previous
+      // session, which would otherwise accumulate on repeated reopening.
+      final long end = pagesEnd(nextPageID);
+      file.setLength(end);
+      if(header instanceof TreeIndexHeader) {
+        // write the list of empty pages after the pages (this also resets the
+        // stored size, if there are no empty pages anymore)
+        ((TreeIndexHeader) header).writeEmptyPages(emptyPages, file, end);
+        ((TreeIndexHeader) header).setLargestPageID(nextPageID);
       }
-      ((TreeIndexHeader) header).setLargestPageID(nextPageID);
       header.writeHeader(file);
       file.close();
     }
@@ -199,12 +212,24 @@ public class PersistentPageFile<P extends ExternalizablePage> extends AbstractSt
   public void clear() {
     try {
       file.setLength(header.size());
+      nextPageID = 0;
+      emptyPages.clear();
     }
     catch(IOException e) {
       throw new RuntimeException(e);
     }
   }
 
+  /**
+   * Get the file position after the given number of pages.
+   * 
+   * @param pages Number of pages
+   * @return File position
+   */
+  private long pagesEnd(int pages) {
+    return (header.getReservedPages() + (long) pages) * pageSize;
+  }
+
   /**
    * Reconstruct a serialized object from the specified byte array.
    * 
@@ -331,7 +356,7 @@ public class PersistentPageFile<P extends ExternalizablePage> extends AbstractSt
           TreeIndexHeader tiHeader = (TreeIndexHeader) header;
           nextPageID = tiHeader.getLargestPageID();
           try {
-            emptyPages = tiHeader.readEmptyPages(file);
+            emptyPages = tiHeader.readEmptyPages(file, pagesEnd(nextPageID));
           }
           catch(ClassNotFoundException e) {
             throw new RuntimeException("ClassNotFoundException occurred when reading empty pages.", e);
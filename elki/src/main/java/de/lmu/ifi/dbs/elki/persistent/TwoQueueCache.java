@@ -0,0 +1,553 @@
+package de.lmu.ifi.dbs.elki.persistent;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.lmu.ifi.dbs.elki.index.tree.Node;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+
+/**
+ * A scan-resistant page cache for concurrent access, based on the 2Q
+ * replacement strategy.
+ * 
+ * Pages are first admitted to a small FIFO queue. Only pages that are accessed
+ * again after they have been evicted from this queue (which is detected using
+ * a queue of recently evicted page ids) are promoted to the main LRU queue.
+ * Therefore, a single scan over many pages does not evict the frequently used
+ * pages.
+ * 
+ * To reduce lock contention, the cache is split into stripes by page id, each
+ * protected by its own lock. Optionally, directory nodes of index trees are
+ * pinned in memory: they are never evicted, do not count towards the cache
+ * size, and can be read without locking.
+ * 
+ * The backing file is shared by all stripes, and file implementations such as
+ * {@link PersistentPageFile} seek on a single file handle. Therefore, all
+ * access to the backing file is serialized by a separate file lock, which may
+ * be acquired while holding a stripe lock, but never the other way round.
+ * 
+ * Cache hits and misses are counted separately for directory and leaf pages.
+ * 
+ * @author Erich Schubert
+ * @since 0.7.2
+ * 
+ * @apiviz.uses PageFile
+ * 
+ * @param <P> Page type
+ */
+@Reference(authors = "T. Johnson, D. Shasha", //
+title = "2Q: A Low Overhead High Performance Buffer Management Replacement Algorithm", //
+booktitle = "Proc. 20th Int. Conf. on Very Large Data Bases (VLDB'94)", //
+url = "http://www.vldb.org/conf/1994/P439.PDF")
+public class TwoQueueCache<P extends Page> extends AbstractPageFile<P> {
+  /**
+   * Our class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(TwoQueueCache.class);
+
+  /**
+   * Cache size in bytes.
+   */
+  protected int cacheSizeBytes;
+
+  /**
+   * Number of stripes.
+   */
+  protected int numstripes;
+
+  /**
+   * Pin directory pages.
+   */
+  protected boolean pinDirectory;
+
+  /**
+   * The cache stripes.
+   */
+  private ArrayList<Stripe> stripes;
+
+  /**
+   * Pinned directory pages.
+   */
+  private ConcurrentHashMap<Integer, P> pinned = new ConcurrentHashMap<>();
+
+  /**
+   * Hit and miss counters. These are atomic, so that reads of pinned pages do
+   * not need to acquire any lock.
+   */
+  private final AtomicLong dirhits = new AtomicLong(), dirmisses = new AtomicLong(),
+      leafhits = new AtomicLong(), leafmisses = new AtomicLong();
+
+  /**
+   * The underlying file of this cache. If an object is dropped it is written to
+   * the file.
+   */
+  protected PageFile<P> file;
+
+  /**
+   * Lock for all access to the backing file.
+   */
+  private final Object fileLock = new Object();
+
+  /**
+   * Constructor.
+   * 
+   * @param cacheSizeBytes the maximum number of bytes for this cache
+   * @param numstripes Number of stripes (power of two)
+   * @param pinDirectory Pin directory pages in memory
+   * @param file the underlying file of this cache, if a page is dropped it is
+   *        written to the file
+   */
+  public TwoQueueCache(int cacheSizeBytes, int numstripes, boolean pinDirectory, PageFile<P> file) {
+    this.file = file;
+    this.cacheSizeBytes = cacheSizeBytes;
+    this.numstripes = Integer.highestOneBit(Math.max(1, numstripes));
+    this.pinDirectory = pinDirectory;
+  }
+
+  /**
+   * Get the stripe of a page.
+   * 
+   * @param pageID Page id
+   * @return Stripe
+   */
+  private Stripe stripe(int pageID) {
+    // Mix the bits, as page ids of one level are often allocated sequentially.
+    int h = pageID * 0x9E3779B9;
+    return stripes.get((h ^ (h >>> 16)) & (stripes.size() - 1));
+  }
+
+  /**
+   * Test whether a page is a directory page.
+   * 
+   * @param page Page
+   * @return {@code true} for directory nodes
+   */
+  private static boolean isDirectory(Page page) {
+    return page instanceof Node && !((Node<?>) page).isLeaf();
+  }
+
+  /**
+   * Count a cache hit.
+   * 
+   * @param directory Directory page
+   */
+  private void countHit(boolean directory) {
+    (directory ? dirhits : leafhits).incrementAndGet();
+  }
+
+  /**
+   * Count a cache miss.
+   * 
+   * @param directory Directory page
+   */
+  private void countMiss(boolean directory) {
+    (directory ? dirmisses : leafmisses).incrementAndGet();
+  }
+
+  @Override
+  public P readPage(int pageID) {
+    countRead();
+    final Stripe stripe = stripe(pageID);
+    while(true) {
+      P page = pinned.get(pageID);
+      if(page != null) {
+        countHit(true);
+        return page;
+      }
+      final long version;
+      synchronized(stripe) {
+        page = stripe.get(pageID);
+        version = stripe.version;
+      }
+      if(page != null) {
+        if(LOG.isDebuggingFine()) {
+          LOG.debugFine("Read from cache: " + pageID);
+        }
+        return page;
+      }
+      if(LOG.isDebuggingFine()) {
+        LOG.debugFine("Read from backing: " + pageID);
+      }
+      // Do not hold the stripe lock during I/O.
+      synchronized(fileLock) {
+        page = file.readPage(pageID);
+      }
+      if(page == null) {
+        return null;
+      }
+      synchronized(stripe) {
+        // A concurrent write may have made the page we read stale: retry.
+        if(stripe.version != version) {
+          continue;
+        }
+        if(pinDirectory && isDirectory(page)) {
+          P prev = pinned.putIfAbsent(pageID, page);
+          countMiss(true);
+          return prev != null ? prev : page;
+        }
+        return stripe.admit(pageID, page);
+      }
+    }
+  }
+
+  @Override
+  public void writePage(int pageID, P page) {
+    countWrite();
+    page.setDirty(true);
+    final Stripe stripe = stripe(pageID);
+    synchronized(stripe) {
+      ++stripe.version;
+      if(pinDirectory && isDirectory(page)) {
+        stripe.remove(pageID);
+        pinned.put(pageID, page);
+      }
+      else {
+        pinned.remove(pageID); // Directory node could have become a leaf
+        stripe.put(pageID, page);
+      }
+    }
+    if(LOG.isDebuggingFine()) {
+      LOG.debugFine("Write to cache: " + pageID);
+    }
+  }
+
+  @Override
+  public void deletePage(int pageID) {
+    countWrite();
+    final Stripe stripe = stripe(pageID);
+    synchronized(stripe) {
+      ++stripe.version;
+      pinned.remove(pageID);
+      stripe.remove(pageID);
+    }
+    synchronized(fileLock) {
+      file.deletePage(pageID);
+    }
+  }
+
+  /**
+   * Write page through to disk.
+   * 
+   * @param page page
+   */
+  protected void expirePage(P page) {
+    if(LOG.isDebuggingFine()) {
+      LOG.debugFine("Write to backing:" + page.getPageID());
+    }
+    if(page.isDirty()) {
+      synchronized(fileLock) {
+        file.writePage(page);
+      }
+    }
+  }
+
+  @Override
+  public int setPageID(P page) {
+    synchronized(fileLock) {
+      return file.setPageID(page);
+    }
+  }
+
+  @Override
+  public int getNextPageID() {
+    synchronized(fileLock) {
+      return file.getNextPageID();
+    }
+  }
+
+  @Override
+  public void setNextPageID(int nextPageID) {
+    synchronized(fileLock) {
+      file.setNextPageID(nextPageID);
+    }
+  }
+
+  @Override
+  public int getPageSize() {
+    return file.getPageSize();
+  }
+
+  @Override
+  public boolean initialize(PageHeader header) {
+    boolean created = file.initialize(header);
+    final int cacheSize = cacheSizeBytes / header.getPageSize();
+    if(cacheSize <= 0) {
+      throw new AbortException("Invalid cache size: " + cacheSizeBytes + " / " + header.getPageSize() + " = " + cacheSize);
+    }
+    // Do not use more stripes than pages.
+    int n = Math.min(numstripes, Integer.highestOneBit(cacheSize));
+    ArrayList<Stripe> stripes = new ArrayList<>(n);
+    for(int i = 0; i < n; i++) {
+      // Distribute the remainder onto the first stripes.
+      stripes.add(new Stripe(cacheSize / n + (i < cacheSize % n ? 1 : 0)));
+    }
+    this.stripes = stripes;
+    if(LOG.isDebugging()) {
+      LOG.debug("2Q cache size is " + cacheSize + " pages in " + n + " stripes.");
+    }
+    return created;
+  }
+
+  @Override
+  public void close() {
+    flush();
+    synchronized(fileLock) {
+      file.close();
+    }
+  }
+
+  /**
+   * Flushes this caches by writing any entry to the underlying file.
+   */
+  public void flush() {
+    for(P page : pinned.values()) {
+      expirePage(page);
+    }
+    pinned.clear();
+    for(Stripe stripe : stripes) {
+      synchronized(stripe) {
+        stripe.flush();
+      }
+    }
+  }
+
+  /**
+   * Clears this cache.
+   */
+  @Override
+  public void clear() {
+    pinned.clear();
+    for(Stripe stripe : stripes) {
+      synchronized(stripe) {
+        stripe.clear();
+      }
+    }
+  }
+
+  @Override
+  public void logStatistics() {
+    super.logStatistics();
+    if(LOG.isStatistics()) {
+      final String prefix = this.getClass().getName();
+      LOG.statistics(new LongStatistic(prefix + ".directory.hits", dirhits.get()));
+      LOG.statistics(new LongStatistic(prefix + ".directory.misses", dirmisses.get()));
+      LOG.statistics(new LongStatistic(prefix + ".leaf.hits", leafhits.get()));
+      LOG.statistics(new LongStatistic(prefix + ".leaf.misses", leafmisses.get()));
+      LOG.statistics(new LongStatistic(prefix + ".pinned", pinned.size()));
+    }
+    file.logStatistics();
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * A single stripe of the cache. All methods must be called while holding
+   * the lock of the stripe.
+   * 
+   * @author Erich Schubert
+   */
+  private class Stripe {
+    /**
+     * Maximum number of pages in this stripe.
+     */
+    final int capacity;
+
+    /**
+     * Maximum size of the first-in queue.
+     */
+    final int maxin;
+
+    /**
+     * Maximum number of remembered page ids.
+     */
+    final int maxout;
+
+    /**
+     * FIFO queue for pages seen only once recently.
+     */
+    LinkedHashMap<Integer, P> in = new LinkedHashMap<>();
+
+    /**
+     * LRU queue for frequently used pages.
+     */
+    LinkedHashMap<Integer, P> main = new LinkedHashMap<>(16, .75f, true);
+
+    /**
+     * Ids of pages recently evicted from the first-in queue.
+     */
+    LinkedHashSet<Integer> out = new LinkedHashSet<>();
+
+    /**
+     * Modification counter, incremented on every write or delete. Used to
+     * detect pages that became stale while being read from the backing file.
+     */
+    long version;
+
+    /**
+     * Constructor.
+     * 
+     * @param capacity Capacity
+     */
+    Stripe(int capacity) {
+      this.capacity = capacity;
+      this.maxin = Math.max(1, capacity >> 2);
+      this.maxout = Math.max(1, capacity >> 1);
+    }
+
+    /**
+     * Get a page from the cache.
+     * 
+     * @param pageID Page id
+     * @return Page, or {@code null}
+     */
+    P get(int pageID) {
+      P page = main.get(pageID); // Updates the LRU order.
+      if(page == null) {
+        page = in.get(pageID); // Does not change the FIFO order.
+      }
+      if(page != null) {
+        countHit(isDirectory(page));
+      }
+      return page;
+    }
+
+    /**
+     * Admit a page that was read from the backing file.
+     * 
+     * @param pageID Page id
+     * @param page Page read
+     * @return Cached page (may be a different instance, if another thread was
+     *         faster)
+     */
+    P admit(int pageID, P page) {
+      P prev = main.get(pageID);
+      prev = prev != null ? prev : in.get(pageID);
+      if(prev != null) {
+        return prev;
+      }
+      countMiss(isDirectory(page));
+      put(pageID, page);
+      return page;
+    }
+
+    /**
+     * Put a page into the cache.
+     * 
+     * @param pageID Page id
+     * @param page Page
+     */
+    void put(int pageID, P page) {
+      if(main.containsKey(pageID)) {
+        main.put(pageID, page);
+        return;
+      }
+      if(in.containsKey(pageID)) {
+        in.put(pageID, page); // Keeps the FIFO position.
+        return;
+      }
+      if(out.remove(pageID)) {
+        // Accessed again after eviction: promote.
+        main.put(pageID, page);
+      }
+      else {
+        in.put(pageID, page);
+      }
+      evict();
+    }
+
+    /**
+     * Evict pages until the capacity constraints are satisfied.
+     */
+    void evict() {
+      while(in.size() + main.size() > capacity) {
+        if(in.size() > maxin || main.isEmpty()) {
+          Iterator<Map.Entry<Integer, P>> it = in.entrySet().iterator();
+          Map.Entry<Integer, P> e = it.next();
+          it.remove();
+          expirePage(e.getValue());
+          out.add(e.getKey());
+          if(out.size() > maxout) {
+            Iterator<Integer> oit = out.iterator();
+            oit.next();
+            oit.remove();
+          }
+        }
+        else {
+          Iterator<P> it = main.values().iterator();
+          P p = it.next();
+          it.remove();
+          expirePage(p);
+        }
+      }
+    }
+
+    /**
+     * Remove a page from the cache, without writing it.
+     * 
+     * @param pageID Page id
+     */
+    void remove(int pageID) {
+      if(main.remove(pageID) == null) {
+        in.remove(pageID);
+      }
+    }
+
+    /**
+     * Write all pages, and empty the cache.
+     */
+    void flush() {
+      for(P page : in.values()) {
+        expirePage(page);
+      }
+      for(P page : main.values()) {
+        expirePage(page);
+      }
+      clear();
+    }
+
+    /**
+     * Empty the cache.
+     */
+    void clear() {
+      ++version;
+      in.clear();
+      main.clear();
+      out.clear();
+    }
+  }
+}
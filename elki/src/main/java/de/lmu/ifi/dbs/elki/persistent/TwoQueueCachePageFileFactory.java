@@ -0,0 +1,169 @@
+package de.lmu.ifi.dbs.elki.persistent;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Page file factory for a scan-resistant, lock-striped 2Q cache.
+ * 
+ * @author Erich Schubert
+ * @since 0.7.2
+ * 
+ * @apiviz.has TwoQueueCache
+ * @apiviz.composedOf PageFileFactory
+ * 
+ * @param <P> Page type
+ */
+public class TwoQueueCachePageFileFactory<P extends Page> implements PageFileFactory<P> {
+  /**
+   * Inner page file factory.
+   */
+  private PageFileFactory<P> pageFileFactory;
+
+  /**
+   * Cache size, in bytes.
+   */
+  private int cacheSize;
+
+  /**
+   * Number of lock stripes.
+   */
+  private int stripes;
+
+  /**
+   * Pin directory pages.
+   */
+  private boolean pinDirectory;
+
+  /**
+   * Constructor.
+   * 
+   * @param pageFileFactory Inner page file
+   * @param cacheSize Size of cache, in bytes.
+   * @param stripes Number of lock stripes
+   * @param pinDirectory Pin directory pages in memory
+   */
+  public TwoQueueCachePageFileFactory(PageFileFactory<P> pageFileFactory, int cacheSize, int stripes, boolean pinDirectory) {
+    super();
+    this.pageFileFactory = pageFileFactory;
+    this.cacheSize = cacheSize;
+    this.stripes = stripes;
+    this.pinDirectory = pinDirectory;
+  }
+
+  @Override
+  public PageFile<P> newPageFile(Class<P> cls) {
+    PageFile<P> inner = pageFileFactory.newPageFile(cls);
+    return new TwoQueueCache<>(cacheSize, stripes, pinDirectory, inner);
+  }
+
+  @Override
+  public int getPageSize() {
+    return pageFileFactory.getPageSize();
+  }
+
+  /**
+   * Parameterization class.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  public static class Parameterizer extends AbstractParameterizer {
+    /**
+     * Number of lock stripes, will be rounded down to a power of two.
+     * <p>
+     * Key: {@code -pagefile.stripes}
+     * </p>
+     */
+    public static final OptionID STRIPES_ID = new OptionID("pagefile.stripes", "Number of lock stripes of the cache (rounded down to a power of two).");
+
+    /**
+     * Flag to pin directory pages in memory.
+     * <p>
+     * Key: {@code -pagefile.pin-directory}
+     * </p>
+     */
+    public static final OptionID PIN_DIRECTORY_ID = new OptionID("pagefile.pin-directory", "Keep all directory pages in memory, in addition to the cache size.");
+
+    /**
+     * Inner page file factory.
+     */
+    PageFileFactory<Page> pageFileFactory;
+
+    /**
+     * Cache size, in bytes.
+     */
+    protected int cacheSize;
+
+    /**
+     * Number of lock stripes.
+     */
+    protected int stripes;
+
+    /**
+     * Pin directory pages.
+     */
+    protected boolean pinDirectory;
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      super.makeOptions(config);
+      ObjectParameter<PageFileFactory<Page>> pffP = new ObjectParameter<>(LRUCachePageFileFactory.Parameterizer.PAGEFILE_ID, PageFileFactory.class, PersistentPageFileFactory.class);
+      if(config.grab(pffP)) {
+        pageFileFactory = pffP.instantiateClass(config);
+      }
+
+      IntParameter cacheSizeP = new IntParameter(LRUCachePageFileFactory.Parameterizer.CACHE_SIZE_ID);
+      cacheSizeP.addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT);
+      if(config.grab(cacheSizeP)) {
+        cacheSize = cacheSizeP.getValue();
+      }
+
+      IntParameter stripesP = new IntParameter(STRIPES_ID, 16) //
+      .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(stripesP)) {
+        stripes = stripesP.intValue();
+      }
+
+      Flag pinF = new Flag(PIN_DIRECTORY_ID);
+      if(config.grab(pinF)) {
+        pinDirectory = pinF.isTrue();
+      }
+    }
+
+    @Override
+    protected TwoQueueCachePageFileFactory<Page> makeInstance() {
+      return new TwoQueueCachePageFileFactory<>(pageFileFactory, cacheSize, stripes, pinDirectory);
+    }
+  }
+}
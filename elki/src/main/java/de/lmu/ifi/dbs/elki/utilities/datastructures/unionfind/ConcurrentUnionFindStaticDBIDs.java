@@ -0,0 +1,186 @@
+package de.lmu.ifi.dbs.elki.utilities.datastructures.unionfind;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.StaticDBIDs;
+
+/**
+ * Lock-free union-find for {@link StaticDBIDs}, that may be used by multiple
+ * threads concurrently.
+ *
+ * To instantiate, use {@link UnionFindUtil#makeConcurrent}.
+ *
+ * Components are linked by compare-and-swap, always attaching the root with
+ * the larger index to the root with the smaller index. Thus, the root of a
+ * component is always its element with the smallest index, independent of
+ * the order of the union operations. Path halving is also done using
+ * compare-and-swap, and is therefore safe with concurrent unions.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class ConcurrentUnionFindStaticDBIDs implements UnionFind {
+  /**
+   * Object ids.
+   */
+  private ArrayDBIDs ids;
+
+  /**
+   * Range of object ids, if available.
+   */
+  private DBIDRange range;
+
+  /**
+   * Index, if not a range.
+   */
+  private WritableIntegerDataStore index;
+
+  /**
+   * Parent element.
+   */
+  private AtomicIntegerArray parent;
+
+  /**
+   * Constructor (package private, use {@link UnionFindUtil#makeConcurrent}).
+   *
+   * @param ids Object ids
+   */
+  ConcurrentUnionFindStaticDBIDs(StaticDBIDs ids) {
+    this.ids = DBIDUtil.ensureArray(ids);
+    if(ids instanceof DBIDRange) {
+      range = (DBIDRange) ids;
+    }
+    else {
+      index = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
+      int j = 0;
+      for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        index.put(iter, j++);
+      }
+    }
+    parent = new AtomicIntegerArray(ids.size());
+    for(int i = 0; i < ids.size(); i++) {
+      parent.set(i, i);
+    }
+  }
+
+  /**
+   * Get the index of an element.
+   *
+   * @param element Element
+   * @return Index
+   */
+  private int indexOf(DBIDRef element) {
+    return range != null ? range.getOffset(element) : index.intValue(element);
+  }
+
+  @Override
+  public int find(DBIDRef element) {
+    int cur = indexOf(element);
+    assert (cur >= 0 && cur < ids.size());
+    return findIndex(cur);
+  }
+
+  /**
+   * Find the root of an element, by index.
+   *
+   * @param cur Element index
+   * @return Root index
+   */
+  private int findIndex(int cur) {
+    while(true) {
+      final int p = parent.get(cur);
+      if(p == cur) {
+        return cur;
+      }
+      final int gp = parent.get(p);
+      if(p != gp) {
+        parent.compareAndSet(cur, p, gp); // Path halving, may fail.
+      }
+      cur = gp;
+    }
+  }
+
+  @Override
+  public int union(DBIDRef first, DBIDRef second) {
+    int x = indexOf(first), y = indexOf(second);
+    while(true) {
+      x = findIndex(x);
+      y = findIndex(y);
+      if(x == y) {
+        return x;
+      }
+      if(x < y) {
+        final int tmp = x;
+        x = y;
+        y = tmp;
+      }
+      // Link x to y; fails if x is no longer a root.
+      if(parent.compareAndSet(x, x, y)) {
+        return y;
+      }
+    }
+  }
+
+  @Override
+  public boolean isConnected(DBIDRef first, DBIDRef second) {
+    int x = indexOf(first), y = indexOf(second);
+    while(true) {
+      x = findIndex(x);
+      y = findIndex(y);
+      if(x == y) {
+        return true;
+      }
+      // Only disconnected if x is still a root.
+      if(parent.get(x) == x) {
+        return false;
+      }
+    }
+  }
+
+  @Override
+  public DBIDs getRoots() {
+    ArrayModifiableDBIDs roots = DBIDUtil.newArray();
+    for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      // roots or one element in component
+      if(parent.get(iter.getOffset()) == iter.getOffset()) {
+        roots.add(iter);
+      }
+    }
+    return roots;
+  }
+}
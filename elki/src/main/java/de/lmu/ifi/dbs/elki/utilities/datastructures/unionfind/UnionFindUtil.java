@@ -44,4 +44,14 @@ public class UnionFindUtil {
     }
     return new WeightedQuickUnionStaticDBIDs(ids);
   }
+
+  /**
+   * Make a union-find that may be used by multiple threads concurrently.
+   *
+   * @param ids Object ids
+   * @return Union-find data structure
+   */
+  public static UnionFind makeConcurrent(StaticDBIDs ids) {
+    return new ConcurrentUnionFindStaticDBIDs(ids);
+  }
 }
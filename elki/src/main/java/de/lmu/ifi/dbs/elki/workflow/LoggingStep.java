@@ -27,15 +27,19 @@ import de.lmu.ifi.dbs.elki.application.AbstractApplication;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.Logging.Level;
 import de.lmu.ifi.dbs.elki.logging.LoggingConfiguration;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.WrongParameterValueException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.StringParameter;
 
 /**
- * Pseudo-step to configure logging / verbose mode.
+ * Pseudo-step to configure logging / verbose mode, and the number of threads
+ * used by parallel algorithms.
  * 
  * @author Erich Schubert
  * @since 0.4.0
@@ -55,7 +59,21 @@ public class LoggingStep implements WorkflowStep {
    * @param levels Level settings array
    */
   public LoggingStep(int verbose, String[][] levels) {
+    this(verbose, levels, 0);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param verbose Verbose flag
+   * @param levels Level settings array
+   * @param threads Number of threads, 0 to keep the current setting
+   */
+  public LoggingStep(int verbose, String[][] levels, int threads) {
     super();
+    if (threads > 0) {
+      ParallelCore.getCore().setParallelism(threads);
+    }
     if (verbose <= 0) {
       LoggingConfiguration.setVerbose(Level.WARNING);
     } else if (verbose == 1) {
@@ -105,6 +123,11 @@ public class LoggingStep implements WorkflowStep {
      */
     protected String[][] levels = null;
 
+    /**
+     * Number of threads, 0 to keep the current setting.
+     */
+    protected int threads = 0;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -132,11 +155,17 @@ public class LoggingStep implements WorkflowStep {
           i++;
         }
       }
+      final IntParameter threadsP = new IntParameter(AbstractApplication.Parameterizer.THREADS_ID) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      threadsP.setOptional(true);
+      if (config.grab(threadsP)) {
+        threads = threadsP.intValue();
+      }
     }
 
     @Override
     protected LoggingStep makeInstance() {
-      return new LoggingStep(verbose, levels);
+      return new LoggingStep(verbose, levels, threads);
     }
   }
 }
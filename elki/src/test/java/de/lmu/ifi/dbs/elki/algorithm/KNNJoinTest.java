@@ -123,6 +123,27 @@ public class KNNJoinTest {
       org.junit.Assert.assertEquals("Manhattan mean 2NN", mean2nnManhattan, meansize.getMean(), 0.00001);
       org.junit.Assert.assertEquals("Manhattan variance 2NN", var2nnManhattan, meansize.getSampleVariance(), 0.00001);
     }
+    // k-d tree join, which does not need an index
+    {
+      Relation<KNNList> result = new KDTreeKNNJoin<NumberVector>(EuclideanDistanceFunction.STATIC, 2, 2).run(relation);
+
+      MeanVariance meansize = new MeanVariance();
+      for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
+        meansize.put(result.get(iditer).size());
+      }
+      org.junit.Assert.assertEquals("Euclidean mean 2NN", mean2nnEuclid, meansize.getMean(), 0.00001);
+      org.junit.Assert.assertEquals("Euclidean variance 2NN", var2nnEuclid, meansize.getSampleVariance(), 0.00001);
+    }
+    {
+      Relation<KNNList> result = new KDTreeKNNJoin<NumberVector>(ManhattanDistanceFunction.STATIC, 2, 2).run(relation);
+
+      MeanVariance meansize = new MeanVariance();
+      for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
+        meansize.put(result.get(iditer).size());
+      }
+      org.junit.Assert.assertEquals("Manhattan mean 2NN", mean2nnManhattan, meansize.getMean(), 0.00001);
+      org.junit.Assert.assertEquals("Manhattan variance 2NN", var2nnManhattan, meansize.getSampleVariance(), 0.00001);
+    }
   }
 
   /**
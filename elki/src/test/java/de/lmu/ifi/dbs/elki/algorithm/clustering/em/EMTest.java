@@ -23,13 +23,18 @@ package de.lmu.ifi.dbs.elki.algorithm.clustering.em;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import static org.junit.Assert.assertEquals;
+
 import org.junit.Test;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeans;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.trivial.ByLabelClustering;
 import de.lmu.ifi.dbs.elki.data.Clustering;
 import de.lmu.ifi.dbs.elki.data.DoubleVector;
 import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.evaluation.clustering.ClusterContingencyTable;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
 
@@ -105,4 +110,149 @@ public class EMTest extends AbstractSimpleAlgorithmTest {
     testFMeasure(db, result, 0.518248);
     testClusterSizes(result, new int[] { 0, 0, 1, 99, 235, 375 });
   }
-}
\ No newline at end of file
+
+  /**
+   * Run EM in parallel, which must yield the same result as sequential EM.
+   */
+  @Test
+  public void testEMResultsParallel() {
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+
+    // Setup algorithm
+    ListParameterization params = new ListParameterization();
+    params.addParameter(KMeans.SEED_ID, 0);
+    params.addParameter(EM.Parameterizer.K_ID, 6);
+    params.addFlag(EM.Parameterizer.PARALLEL_ID);
+    EM<DoubleVector, ?> em = ClassGenericsUtil.parameterizeOrAbort(EM.class, params);
+    testParameterizationOk(params);
+
+    try {
+      ParallelCore.getCore().setParallelism(4);
+      // run EM on database
+      Clustering<?> result = em.run(db);
+      testFMeasure(db, result, 0.969408);
+      testClusterSizes(result, new int[] { 3, 6, 91, 98, 200, 312 });
+    }
+    finally {
+      ParallelCore.getCore().setParallelism(ParallelCore.ALL_PROCESSORS);
+    }
+  }
+
+  /**
+   * Run EM in parallel with diagonal models, which must yield the same result
+   * as sequential EM.
+   */
+  @Test
+  public void testEMResultsParallelDiagonal() {
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+
+    // Setup algorithm
+    ListParameterization params = new ListParameterization();
+    params.addParameter(KMeans.SEED_ID, 0);
+    params.addParameter(EM.Parameterizer.K_ID, 6);
+    params.addParameter(EM.Parameterizer.INIT_ID, DiagonalGaussianModelFactory.class);
+    params.addFlag(EM.Parameterizer.PARALLEL_ID);
+    EM<DoubleVector, ?> em = ClassGenericsUtil.parameterizeOrAbort(EM.class, params);
+    testParameterizationOk(params);
+
+    try {
+      ParallelCore.getCore().setParallelism(4);
+      // run EM on database
+      Clustering<?> result = em.run(db);
+      testFMeasure(db, result, 0.9302319);
+      testClusterSizes(result, new int[] { 7, 22, 93, 97, 200, 291 });
+    }
+    finally {
+      ParallelCore.getCore().setParallelism(ParallelCore.ALL_PROCESSORS);
+    }
+  }
+
+  /**
+   * Run EM in parallel with spherical models, which must yield the same result
+   * as sequential EM.
+   */
+  @Test
+  public void testEMResultsParallelSpherical() {
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+
+    // Setup algorithm
+    ListParameterization params = new ListParameterization();
+    params.addParameter(KMeans.SEED_ID, 1);
+    params.addParameter(EM.Parameterizer.K_ID, 6);
+    params.addParameter(EM.Parameterizer.INIT_ID, SphericalGaussianModelFactory.class);
+    params.addFlag(EM.Parameterizer.PARALLEL_ID);
+    EM<DoubleVector, ?> em = ClassGenericsUtil.parameterizeOrAbort(EM.class, params);
+    testParameterizationOk(params);
+
+    try {
+      ParallelCore.getCore().setParallelism(4);
+      // run EM on database
+      Clustering<?> result = em.run(db);
+      testFMeasure(db, result, 0.518248);
+      testClusterSizes(result, new int[] { 0, 0, 1, 99, 235, 375 });
+    }
+    finally {
+      ParallelCore.getCore().setParallelism(ParallelCore.ALL_PROCESSORS);
+    }
+  }
+
+  /**
+   * Run online EM with mini-batches and compare the result to a golden
+   * standard.
+   *
+   * The default budget of ten passes over the data is comparable to ten
+   * iterations of batch EM, which reach a log-likelihood of about 1.67 on this
+   * data set (the converged batch result is 2.50, after about 170 iterations).
+   * The mini-batch result is therefore compared to batch EM truncated to ten
+   * iterations, not to the converged result of {@link #testEMResults}.
+   */
+  @Test
+  public void testEMResultsMiniBatch() {
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+
+    // Setup algorithm
+    ListParameterization params = new ListParameterization();
+    params.addParameter(KMeans.SEED_ID, 0);
+    params.addParameter(EM.Parameterizer.K_ID, 6);
+    params.addParameter(EM.Parameterizer.MINIBATCH_ID, 100);
+    params.addParameter(EM.Parameterizer.SEED_ID, 0);
+    EM<DoubleVector, ?> em = ClassGenericsUtil.parameterizeOrAbort(EM.class, params);
+    testParameterizationOk(params);
+
+    // Batch EM with the same number of passes over the data
+    ListParameterization bparams = new ListParameterization();
+    bparams.addParameter(KMeans.SEED_ID, 0);
+    bparams.addParameter(EM.Parameterizer.K_ID, 6);
+    bparams.addParameter(KMeans.MAXITER_ID, 10);
+    EM<DoubleVector, ?> bem = ClassGenericsUtil.parameterizeOrAbort(EM.class, bparams);
+    testParameterizationOk(bparams);
+
+    try {
+      ParallelCore.getCore().setParallelism(1);
+      // run EM on database
+      Clustering<?> result = em.run(db);
+      testFMeasure(db, result, 0.548298);
+      testClusterSizes(result, new int[] { 22, 76, 77, 97, 156, 282 });
+
+      Clustering<?> bresult = bem.run(db);
+      testFMeasure(db, bresult, 0.593615);
+      assertEquals("Mini-batch EM differs from batch EM with the same budget.", fMeasure(db, bresult), fMeasure(db, result), 0.05);
+    }
+    finally {
+      ParallelCore.getCore().setParallelism(ParallelCore.ALL_PROCESSORS);
+    }
+  }
+
+  /**
+   * Compute the pair-counting F-measure with respect to the labels.
+   *
+   * @param db Database
+   * @param clustering Clustering result
+   * @return F-measure
+   */
+  private static double fMeasure(Database db, Clustering<?> clustering) {
+    ClusterContingencyTable ct = new ClusterContingencyTable(true, false);
+    ct.process(clustering, new ByLabelClustering().run(db));
+    return ct.getPaircount().f1Measure();
+  }
+}
@@ -23,13 +23,21 @@ package de.lmu.ifi.dbs.elki.algorithm.clustering.gdbscan.parallel;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.DBSCAN;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.gdbscan.GeneralizedDBSCAN;
+import de.lmu.ifi.dbs.elki.data.Cluster;
 import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.model.CoreObjectsModel;
 import de.lmu.ifi.dbs.elki.data.model.Model;
 import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
 
@@ -85,4 +93,98 @@ public class ParallelGeneralizedDBSCANTest extends AbstractSimpleAlgorithmTest {
     testFMeasure(db, result, 0.954382);
     testClusterSizes(result, new int[] { 11, 200, 203, 224 });
   }
-}
\ No newline at end of file
+
+  /**
+   * Run the union-find mode with fixed parameters and compare the result to a
+   * golden standard.
+   */
+  @Test
+  public void testUnionFindDBSCANResults() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+
+    // setup algorithm
+    ListParameterization params = new ListParameterization();
+    params.addParameter(DBSCAN.Parameterizer.EPSILON_ID, 0.04);
+    params.addParameter(DBSCAN.Parameterizer.MINPTS_ID, 20);
+    params.addFlag(ParallelGeneralizedDBSCAN.Parameterizer.UNIONFIND_ID);
+    ParallelGeneralizedDBSCAN dbscan = ClassGenericsUtil.parameterizeOrAbort(ParallelGeneralizedDBSCAN.class, params);
+    testParameterizationOk(params);
+
+    // run DBSCAN on database
+    Clustering<Model> result = dbscan.run(db);
+
+    testFMeasure(db, result, 0.996413);
+    testClusterSizes(result, new int[] { 29, 50, 101, 150 });
+  }
+
+  /**
+   * Run the union-find mode with fixed parameters and compare the result to a
+   * golden standard.
+   */
+  @Test
+  public void testUnionFindDBSCANOnSingleLinkDataset() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+
+    // Setup algorithm
+    ListParameterization params = new ListParameterization();
+    params.addParameter(DBSCAN.Parameterizer.EPSILON_ID, 11.5);
+    params.addParameter(DBSCAN.Parameterizer.MINPTS_ID, 120);
+    params.addFlag(ParallelGeneralizedDBSCAN.Parameterizer.UNIONFIND_ID);
+    ParallelGeneralizedDBSCAN dbscan = ClassGenericsUtil.parameterizeOrAbort(ParallelGeneralizedDBSCAN.class, params);
+    testParameterizationOk(params);
+
+    // run DBSCAN on database
+    Clustering<Model> result = dbscan.run(db);
+    testFMeasure(db, result, 0.954382);
+    testClusterSizes(result, new int[] { 11, 200, 203, 224 });
+  }
+
+  /**
+   * Run the union-find mode with the core model, and check the core points
+   * against the sequential algorithm.
+   */
+  @Test
+  public void testUnionFindCoreModel() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+
+    // setup algorithm
+    ListParameterization params = new ListParameterization();
+    params.addParameter(DBSCAN.Parameterizer.EPSILON_ID, 0.04);
+    params.addParameter(DBSCAN.Parameterizer.MINPTS_ID, 20);
+    params.addFlag(ParallelGeneralizedDBSCAN.Parameterizer.UNIONFIND_ID);
+    params.addFlag(ParallelGeneralizedDBSCAN.Parameterizer.COREMODEL_ID);
+    ParallelGeneralizedDBSCAN dbscan = ClassGenericsUtil.parameterizeOrAbort(ParallelGeneralizedDBSCAN.class, params);
+    testParameterizationOk(params);
+
+    // run DBSCAN on database
+    Clustering<Model> result = dbscan.run(db);
+    testFMeasure(db, result, 0.996413);
+    testClusterSizes(result, new int[] { 29, 50, 101, 150 });
+
+    // Reference: sequential GDBSCAN
+    params = new ListParameterization();
+    params.addParameter(DBSCAN.Parameterizer.EPSILON_ID, 0.04);
+    params.addParameter(DBSCAN.Parameterizer.MINPTS_ID, 20);
+    params.addFlag(GeneralizedDBSCAN.Parameterizer.COREMODEL_ID);
+    GeneralizedDBSCAN ref = ClassGenericsUtil.parameterizeOrAbort(GeneralizedDBSCAN.class, params);
+    testParameterizationOk(params);
+    assertEquals("Core points differ.", countCores(ref.run(db)), countCores(result));
+  }
+
+  /**
+   * Count the core points of a clustering.
+   *
+   * @param result Clustering
+   * @return Number of core points
+   */
+  private static int countCores(Clustering<Model> result) {
+    int cores = 0;
+    for(Cluster<Model> c : result.getAllClusters()) {
+      assertTrue("Not a core model: " + c.getModel(), c.getModel() instanceof CoreObjectsModel);
+      DBIDs core = ((CoreObjectsModel) c.getModel()).getCoreObjects();
+      assertTrue("Core points not in cluster.", DBIDUtil.intersectionSize(core, c.getIDs()) == core.size());
+      cores += core.size();
+    }
+    return cores;
+  }
+}
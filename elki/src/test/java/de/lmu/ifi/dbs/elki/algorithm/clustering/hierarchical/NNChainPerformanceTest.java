@@ -0,0 +1,94 @@
+package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+
+/**
+ * Benchmark of the nearest-neighbor chain algorithm against AGNES and the
+ * Anderberg algorithm. Timings are only meaningful when run individually.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class NNChainPerformanceTest {
+  final private int size = 3000;
+
+  final private int iterations = 3;
+
+  final private long seed = 123456L;
+
+  @Ignore
+  @Test
+  public void testRuntime() throws Exception {
+    Random rnd = new Random(seed);
+    double[][] data = new double[size][2];
+    for(double[] row : data) {
+      row[0] = rnd.nextGaussian();
+      row[1] = rnd.nextGaussian();
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+
+    LinkageMethod[] linkages = { CompleteLinkageMethod.STATIC, GroupAverageLinkageMethod.STATIC, WardLinkageMethod.STATIC };
+    for(LinkageMethod linkage : linkages) {
+      // Pretest, to trigger hotspot compiler, hopefully.
+      new NNChain<NumberVector>(SquaredEuclideanDistanceFunction.STATIC, linkage).run(db);
+      new AnderbergHierarchicalClustering<NumberVector>(SquaredEuclideanDistanceFunction.STATIC, linkage).run(db);
+
+      long nstart = System.nanoTime();
+      for(int j = 0; j < iterations; j++) {
+        new NNChain<NumberVector>(SquaredEuclideanDistanceFunction.STATIC, linkage).run(db);
+      }
+      long ntime = System.nanoTime() - nstart;
+
+      long astart = System.nanoTime();
+      for(int j = 0; j < iterations; j++) {
+        new AnderbergHierarchicalClustering<NumberVector>(SquaredEuclideanDistanceFunction.STATIC, linkage).run(db);
+      }
+      long atime = System.nanoTime() - astart;
+
+      // AGNES is O(n^3), a single run suffices.
+      long gstart = System.nanoTime();
+      new AGNES<NumberVector>(SquaredEuclideanDistanceFunction.STATIC, linkage).run(db);
+      long gtime = (System.nanoTime() - gstart) * iterations;
+
+      // System.err.println(linkage.getClass().getSimpleName() + " NNChain: " + ntime * 1E-9 + " Anderberg: " + atime * 1E-9 + " AGNES: " + gtime * 1E-9);
+      assertTrue("NN-chain slower than AGNES: " + ntime + " >= " + gtime, ntime < gtime);
+      assertTrue("NN-chain much slower than Anderberg: " + ntime + " >= " + atime, ntime < 1.5 * atime);
+    }
+  }
+}
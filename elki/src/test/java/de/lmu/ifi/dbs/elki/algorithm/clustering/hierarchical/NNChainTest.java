@@ -0,0 +1,143 @@
+package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.extraction.ExtractFlatClusteringFromHierarchy;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.datastore.DoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.result.Result;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+import de.lmu.ifi.dbs.elki.workflow.AlgorithmStep;
+
+/**
+ * Perform agglomerative hierarchical clustering, using the nearest-neighbor
+ * chain algorithm.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class NNChainTest extends AbstractSimpleAlgorithmTest {
+  /**
+   * Run agglomerative hierarchical clustering with fixed parameters and compare
+   * the result to a golden standard.
+   */
+  @Test
+  public void testWard() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+
+    // Setup algorithm
+    ListParameterization params = new ListParameterization();
+    params.addParameter(ExtractFlatClusteringFromHierarchy.Parameterizer.MINCLUSTERS_ID, 3);
+    params.addParameter(AlgorithmStep.Parameterizer.ALGORITHM_ID, NNChain.class);
+    ExtractFlatClusteringFromHierarchy c = ClassGenericsUtil.parameterizeOrAbort(ExtractFlatClusteringFromHierarchy.class, params);
+    testParameterizationOk(params);
+
+    // run clustering algorithm on database
+    Result result = c.run(db);
+    Clustering<?> clustering = findSingleClustering(result);
+    testFMeasure(db, clustering, 0.93866265);
+    testClusterSizes(clustering, new int[] { 200, 211, 227 });
+  }
+
+  /**
+   * Run agglomerative hierarchical clustering with fixed parameters and compare
+   * the result to a golden standard.
+   */
+  @Test
+  public void testCompleteLink() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+
+    // Setup algorithm
+    ListParameterization params = new ListParameterization();
+    params.addParameter(ExtractFlatClusteringFromHierarchy.Parameterizer.MINCLUSTERS_ID, 3);
+    params.addParameter(AlgorithmStep.Parameterizer.ALGORITHM_ID, NNChain.class);
+    params.addParameter(AGNES.Parameterizer.LINKAGE_ID, CompleteLinkageMethod.class);
+    ExtractFlatClusteringFromHierarchy c = ClassGenericsUtil.parameterizeOrAbort(ExtractFlatClusteringFromHierarchy.class, params);
+    testParameterizationOk(params);
+
+    // run clustering algorithm on database
+    Result result = c.run(db);
+    Clustering<?> clustering = findSingleClustering(result);
+    testFMeasure(db, clustering, 0.938167802);
+    testClusterSizes(clustering, new int[] { 200, 217, 221 });
+  }
+
+  /**
+   * Compare the merge distances to the Anderberg algorithm, for all reducible
+   * linkages.
+   */
+  @Test
+  public void testAgainstAnderberg() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    LinkageMethod[] linkages = { SingleLinkageMethod.STATIC, CompleteLinkageMethod.STATIC, //
+        GroupAverageLinkageMethod.STATIC, WeightedAverageLinkageMethod.STATIC, WardLinkageMethod.STATIC };
+    for(LinkageMethod linkage : linkages) {
+      PointerHierarchyRepresentationResult ref = new AnderbergHierarchicalClustering<NumberVector>(SquaredEuclideanDistanceFunction.STATIC, linkage).run(db);
+      PointerHierarchyRepresentationResult res = new NNChain<NumberVector>(SquaredEuclideanDistanceFunction.STATIC, linkage).run(db);
+      assertArrayEquals(linkage.getClass().getSimpleName(), sortedDistances(ref), sortedDistances(res), 1e-10);
+    }
+  }
+
+  /**
+   * Centroid linkage is not reducible, and must be rejected.
+   */
+  @Test(expected = AbortException.class)
+  public void testNonReducible() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    new NNChain<NumberVector>(SquaredEuclideanDistanceFunction.STATIC, CentroidLinkageMethod.STATIC).run(db);
+  }
+
+  /**
+   * Get the sorted merge distances of a hierarchy.
+   *
+   * @param res Pointer hierarchy
+   * @return Sorted distances
+   */
+  private static double[] sortedDistances(PointerHierarchyRepresentationResult res) {
+    DBIDs ids = res.getDBIDs();
+    DoubleDataStore lambda = res.getParentDistanceStore();
+    double[] dists = new double[ids.size()];
+    int i = 0;
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      dists[i++] = lambda.doubleValue(it);
+    }
+    Arrays.sort(dists);
+    return dists;
+  }
+}
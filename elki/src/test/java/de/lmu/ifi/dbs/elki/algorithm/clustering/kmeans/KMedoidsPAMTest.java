@@ -23,13 +23,18 @@ package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.Cluster;
 import de.lmu.ifi.dbs.elki.data.Clustering;
 import de.lmu.ifi.dbs.elki.data.DoubleVector;
 import de.lmu.ifi.dbs.elki.data.model.MedoidModel;
 import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
 
@@ -63,4 +68,56 @@ public class KMedoidsPAMTest extends AbstractSimpleAlgorithmTest {
     testFMeasure(db, result, 0.998005);
     testClusterSizes(result, new int[] { 199, 200, 200, 200, 201 });
   }
-}
\ No newline at end of file
+
+  /**
+   * Run KMedians PAM with eager swapping and compare the result to a golden
+   * standard.
+   */
+  @Test
+  public void testKMedoidsPAMEager() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+
+    // Setup algorithm
+    ListParameterization params = new ListParameterization();
+    params.addParameter(KMeans.K_ID, 5);
+    params.addFlag(KMedoidsPAM.Parameterizer.EAGER_ID);
+    KMedoidsPAM<DoubleVector> kmedians = ClassGenericsUtil.parameterizeOrAbort(KMedoidsPAM.class, params);
+    testParameterizationOk(params);
+
+    // run KMedians on database
+    Clustering<MedoidModel> result = kmedians.run(db);
+    testFMeasure(db, result, 0.998005);
+    testClusterSizes(result, new int[] { 199, 200, 200, 200, 201 });
+  }
+
+  /**
+   * The parallel swap search must choose the same medoids as the sequential
+   * search.
+   */
+  @Test
+  public void testParallel() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    ListParameterization params = new ListParameterization();
+    params.addParameter(KMeans.K_ID, 5);
+    KMedoidsPAM<DoubleVector> kmedians = ClassGenericsUtil.parameterizeOrAbort(KMedoidsPAM.class, params);
+    testParameterizationOk(params);
+    try {
+      // One thread searches all candidates in a single chunk; with 4 threads,
+      // the 1000 candidates are split into 3 chunks of at least 256.
+      ParallelCore.getCore().setParallelism(1);
+      Clustering<MedoidModel> seq = kmedians.run(db);
+      ParallelCore.getCore().setParallelism(4);
+      Clustering<MedoidModel> par = kmedians.run(db);
+      for(Cluster<MedoidModel> c : seq.getAllClusters()) {
+        boolean found = false;
+        for(Cluster<MedoidModel> c2 : par.getAllClusters()) {
+          found |= DBIDUtil.equal(c.getModel().getMedoid(), c2.getModel().getMedoid());
+        }
+        assertTrue("Medoid not found in parallel result.", found);
+      }
+    }
+    finally {
+      ParallelCore.getCore().setParallelism(ParallelCore.ALL_PROCESSORS);
+    }
+  }
+}
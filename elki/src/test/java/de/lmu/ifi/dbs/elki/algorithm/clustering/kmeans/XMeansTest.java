@@ -62,4 +62,27 @@ public class XMeansTest extends AbstractSimpleAlgorithmTest {
     testFMeasure(db, result, 0.95927231008);
     testClusterSizes(result, new int[] { 1, 2, 2, 2, 3, 5, 5, 51, 106, 153 });
   }
+
+  /**
+   * Repeated runs must give the same result, although the clusters have
+   * different identity hash codes in every run.
+   */
+  @Test
+  public void testXMeansRepeatable() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    for(int i = 0; i < 10; i++) {
+      ListParameterization params = new ListParameterization();
+      params.addParameter(XMeans.Parameterizer.K_MIN_ID, 2);
+      params.addParameter(KMeans.K_ID, 20);
+      params.addParameter(XMeans.Parameterizer.INNER_KMEANS_ID, KMeansLloyd.class);
+      params.addParameter(XMeans.Parameterizer.INFORMATION_CRITERION_ID, BayesianInformationCriterion.class);
+      params.addParameter(KMeans.SEED_ID, 0); // Initializer seed
+      params.addParameter(XMeans.Parameterizer.SEED_ID, 0); // X-means seed
+      XMeans<DoubleVector, ?> xmeans = ClassGenericsUtil.parameterizeOrAbort(XMeans.class, params);
+      testParameterizationOk(params);
+
+      Clustering<?> result = xmeans.run(db);
+      testClusterSizes(result, new int[] { 1, 2, 2, 2, 3, 5, 5, 51, 106, 153 });
+    }
+  }
 }
@@ -0,0 +1,134 @@
+package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.parallel;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.AbstractKMeans;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeans;
+import de.lmu.ifi.dbs.elki.data.Cluster;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.model.KMeansModel;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.ParameterException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Performs a full KMeans run, and compares the result with a clustering derived
+ * from the data set labels. This test ensures that KMeans's performance doesn't
+ * unexpectedly drop on this data set (and also ensures that the algorithms
+ * work, as a side effect).
+ * 
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class ParallelKMeansElkanTest extends AbstractSimpleAlgorithmTest {
+  /**
+   * Run KMeans with fixed parameters and compare the result to a golden
+   * standard.
+   * 
+   * @throws ParameterException
+   */
+  @Test
+  public void testParallelKMeansElkan() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+
+    // Setup algorithm
+    ListParameterization params = new ListParameterization();
+    params.addParameter(KMeans.K_ID, 5);
+    params.addParameter(KMeans.SEED_ID, 7);
+    AbstractKMeans<DoubleVector, ?> kmeans = ClassGenericsUtil.parameterizeOrAbort(ParallelKMeansElkan.class, params);
+    testParameterizationOk(params);
+
+    // run KMeans on database
+    Clustering<?> result = kmeans.run(db);
+    testFMeasure(db, result, 0.998005);
+    testClusterSizes(result, new int[] { 199, 200, 200, 200, 201 });
+  }
+
+  /**
+   * Repeated runs with multiple threads must produce identical results.
+   */
+  @Test
+  public void testDeterministic() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    ParallelCore core = ParallelCore.getCore();
+    try {
+      core.setParallelism(4);
+      List<Cluster<KMeansModel>> first = runSeeded(db);
+      for(int i = 0; i < 3; i++) {
+        List<Cluster<KMeansModel>> next = runSeeded(db);
+        assertEquals("Number of clusters differs.", first.size(), next.size());
+        for(int j = 0; j < first.size(); j++) {
+          assertEquals("Cluster size differs.", first.get(j).size(), next.get(j).size());
+          assertArrayEquals("Cluster mean differs.", first.get(j).getModel().getMean(), next.get(j).getModel().getMean(), 0.);
+        }
+      }
+    }
+    finally {
+      core.setParallelism(ParallelCore.ALL_PROCESSORS);
+    }
+  }
+
+  /**
+   * Run k-means with a fixed seed.
+   *
+   * @param db Database
+   * @return Clusters
+   */
+  private List<Cluster<KMeansModel>> runSeeded(Database db) {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(KMeans.K_ID, 20);
+    params.addParameter(KMeans.SEED_ID, 1);
+    ParallelKMeansElkan<DoubleVector> kmeans = ClassGenericsUtil.parameterizeOrAbort(ParallelKMeansElkan.class, params);
+    testParameterizationOk(params);
+    List<Cluster<KMeansModel>> clusters = kmeans.run(db).getAllClusters();
+    // The order of the initial means is not fixed, so sort by mean.
+    Collections.sort(clusters, new Comparator<Cluster<KMeansModel>>() {
+      @Override
+      public int compare(Cluster<KMeansModel> o1, Cluster<KMeansModel> o2) {
+        double[] m1 = o1.getModel().getMean(), m2 = o2.getModel().getMean();
+        for(int d = 0; d < m1.length; d++) {
+          int c = Double.compare(m1[d], m2[d]);
+          if(c != 0) {
+            return c;
+          }
+        }
+        return 0;
+      }
+    });
+    return clusters;
+  }
+}
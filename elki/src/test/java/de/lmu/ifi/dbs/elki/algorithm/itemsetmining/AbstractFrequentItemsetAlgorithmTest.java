@@ -0,0 +1,104 @@
+package de.lmu.ifi.dbs.elki.algorithm.itemsetmining;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.datasource.FileBasedDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.parser.SimpleTransactionParser;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.result.FrequentItemsetsResult;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Shared code for the regression tests of frequent itemset mining.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public abstract class AbstractFrequentItemsetAlgorithmTest extends AbstractSimpleAlgorithmTest {
+  /**
+   * Compare the results of parallel and sequential execution, and with a
+   * different algorithm.
+   *
+   * @param cls Algorithm to test
+   * @param other Reference algorithm
+   */
+  protected void testParallel(Class<? extends AbstractFrequentItemsetAlgorithm> cls, AbstractFrequentItemsetAlgorithm other) {
+    Database db = loadTransactions();
+    try {
+      ParallelCore.getCore().setParallelism(4);
+      List<Itemset> par = run(cls, db, 10, 0, 0).getItemsets();
+      ParallelCore.getCore().setParallelism(1);
+      List<Itemset> seq = run(cls, db, 10, 0, 0).getItemsets();
+      List<Itemset> ref = other.run(db).getItemsets();
+      assertEquals("Number of itemsets", 8059, seq.size());
+      assertEquals("Parallel result differs", seq.toString(), par.toString());
+      assertEquals(other.getClass().getSimpleName() + " result differs", ref.toString(), seq.toString());
+    }
+    finally {
+      ParallelCore.getCore().setParallelism(ParallelCore.ALL_PROCESSORS);
+    }
+  }
+
+  /**
+   * Load the transaction data set.
+   *
+   * @return Database
+   */
+  protected Database loadTransactions() {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(FileBasedDatabaseConnection.Parameterizer.PARSER_ID, SimpleTransactionParser.class);
+    return makeSimpleDatabase(UNITTEST + "itemsets/zutaten.txt.gz", 16401, params, null);
+  }
+
+  /**
+   * Run an itemset mining algorithm with the given parameters.
+   *
+   * @param cls Algorithm class
+   * @param db Database
+   * @param minsupp Minimum support
+   * @param minlength Minimum length
+   * @param maxlength Maximum length
+   * @return Result
+   */
+  protected FrequentItemsetsResult run(Class<? extends AbstractFrequentItemsetAlgorithm> cls, Database db, int minsupp, int minlength, int maxlength) {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(AbstractFrequentItemsetAlgorithm.Parameterizer.MINSUPP_ID, minsupp);
+    if(minlength > 0) {
+      params.addParameter(AbstractFrequentItemsetAlgorithm.Parameterizer.MINLENGTH_ID, minlength);
+    }
+    if(maxlength > 0) {
+      params.addParameter(AbstractFrequentItemsetAlgorithm.Parameterizer.MAXLENGTH_ID, maxlength);
+    }
+    AbstractFrequentItemsetAlgorithm alg = ClassGenericsUtil.parameterizeOrAbort(cls, params);
+    testParameterizationOk(params);
+    return alg.run(db);
+  }
+}
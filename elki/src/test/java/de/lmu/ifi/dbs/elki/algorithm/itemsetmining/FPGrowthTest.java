@@ -0,0 +1,60 @@
+package de.lmu.ifi.dbs.elki.algorithm.itemsetmining;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.database.Database;
+
+/**
+ * Regression test for FP-Growth.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class FPGrowthTest extends AbstractFrequentItemsetAlgorithmTest {
+  /**
+   * Run FP-Growth with fixed parameters and compare the result to a golden
+   * standard.
+   */
+  @Test
+  public void testFPGrowth() {
+    Database db = loadTransactions();
+    assertEquals("Number of itemsets", 184, run(FPGrowth.class, db, 200, 0, 0).getItemsets().size());
+    assertEquals("Number of itemsets", 128, run(FPGrowth.class, db, 200, 2, 0).getItemsets().size());
+    assertEquals("Number of itemsets", 146, run(FPGrowth.class, db, 200, 1, 2).getItemsets().size());
+    assertEquals("Number of itemsets", 38, run(FPGrowth.class, db, 200, 3, 0).getItemsets().size());
+  }
+
+  /**
+   * Compare the results of parallel and sequential execution, and with
+   * {@link Eclat}.
+   */
+  @Test
+  public void testParallel() {
+    testParallel(FPGrowth.class, new Eclat(10, 0, 0));
+  }
+}
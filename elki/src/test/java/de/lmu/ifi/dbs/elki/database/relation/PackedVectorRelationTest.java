@@ -0,0 +1,203 @@
+package de.lmu.ifi.dbs.elki.database.relation;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeans;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeansHamerly;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeansLloyd;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.FirstKInitialMeans;
+
+import de.lmu.ifi.dbs.elki.data.Cluster;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.FloatVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanPackedKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.LinearScanPackedRangeQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.datasource.FileBasedDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.parser.NumberVectorLabelParser;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.ManhattanDistanceFunction;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Unit test for packed vector relations: the packed relations must contain
+ * the same values as the regular materialized relation.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class PackedVectorRelationTest {
+  /**
+   * Test data set.
+   */
+  public static final String filename = "data/testdata/unittests/hierarchical-3d2d1d.csv";
+
+  @Test
+  public void testPackedDouble() {
+    Relation<? extends NumberVector> ref = load(false, false);
+    Relation<? extends NumberVector> rel = load(true, false);
+    assertTrue("Relation was not packed.", rel instanceof PackedDoubleVectorRelation);
+    compare(ref, rel);
+  }
+
+  @Test
+  public void testPackedFloat() {
+    Relation<? extends NumberVector> ref = load(false, true);
+    Relation<? extends NumberVector> rel = load(true, true);
+    assertTrue("Relation was not packed.", rel instanceof PackedFloatVectorRelation);
+    compare(ref, rel);
+  }
+
+  @Test
+  public void testConcreteType() {
+    Relation<DoubleVector> drel = makeDatabase(true, false).getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    assertTrue("Relation was not packed.", drel instanceof PackedDoubleVectorRelation);
+    assertTrue(drel.get(drel.iterDBIDs()) instanceof DoubleVector);
+    Relation<FloatVector> frel = makeDatabase(true, true).getRelation(TypeUtil.FLOAT_VECTOR_FIELD);
+    assertTrue("Relation was not packed.", frel instanceof PackedFloatVectorRelation);
+    assertTrue(frel.get(frel.iterDBIDs()) instanceof FloatVector);
+  }
+
+  @Test
+  public void testKMeans() {
+    int[] ref = kmeansSizes(makeDatabase(false, false), KMeansLloyd.class);
+    int[] rel = kmeansSizes(makeDatabase(true, false), KMeansLloyd.class);
+    assertArrayEquals("k-means on packed data differs.", ref, rel);
+    ref = kmeansSizes(makeDatabase(false, true), KMeansHamerly.class);
+    rel = kmeansSizes(makeDatabase(true, true), KMeansHamerly.class);
+    assertArrayEquals("k-means on packed data differs.", ref, rel);
+  }
+
+  /**
+   * Run k-means, and get the cluster sizes.
+   *
+   * @param db Database
+   * @param cls k-means variant
+   * @return Sorted cluster sizes
+   */
+  private int[] kmeansSizes(Database db, Class<?> cls) {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(KMeans.K_ID, 3);
+    // Deterministic initialization, as the DBIDs of both databases differ.
+    params.addParameter(KMeans.INIT_ID, FirstKInitialMeans.class);
+    KMeans<?, ?> kmeans = ClassGenericsUtil.parameterizeOrAbort(cls, params);
+    Clustering<?> result = kmeans.run(db);
+    List<? extends Cluster<?>> clusters = result.getAllClusters();
+    int[] sizes = new int[clusters.size()];
+    for(int i = 0; i < sizes.length; i++) {
+      sizes[i] = clusters.get(i).size();
+    }
+    Arrays.sort(sizes); // The cluster order is not stable.
+    return sizes;
+  }
+
+  /**
+   * Load the test data set.
+   *
+   * @param packed Use packed storage
+   * @param floats Use float vectors
+   * @return Vector relation
+   */
+  private Relation<? extends NumberVector> load(boolean packed, boolean floats) {
+    Database db = makeDatabase(packed, floats);
+    return db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+
+  /**
+   * Load the test data set.
+   *
+   * @param packed Use packed storage
+   * @param floats Use float vectors
+   * @return Database
+   */
+  private Database makeDatabase(boolean packed, boolean floats) {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(FileBasedDatabaseConnection.Parameterizer.INPUT_ID, filename);
+    if(packed) {
+      params.addFlag(StaticArrayDatabase.Parameterizer.PACKED_ID);
+    }
+    if(floats) {
+      params.addParameter(NumberVectorLabelParser.Parameterizer.VECTOR_TYPE_ID, FloatVector.Factory.class);
+    }
+    Database db = ClassGenericsUtil.parameterizeOrAbort(StaticArrayDatabase.class, params);
+    db.initialize();
+    return db;
+  }
+
+  /**
+   * Compare the values and kNN query results of two relations.
+   *
+   * @param ref Reference relation
+   * @param rel Packed relation
+   */
+  private <V extends NumberVector, W extends NumberVector> void compare(Relation<V> ref, Relation<W> rel) {
+    assertEquals("Size differs.", ref.size(), rel.size());
+    final int dim = ((AbstractPackedVectorRelation<?>) rel).getDataTypeInformation().getDimensionality();
+    KNNQuery<V> refq = ref.getKNNQuery(EuclideanDistanceFunction.STATIC, 10);
+    KNNQuery<W> relq = rel.getKNNQuery(EuclideanDistanceFunction.STATIC, 10);
+    assertTrue("Packed linear scan not used.", relq instanceof LinearScanPackedKNNQuery);
+    RangeQuery<V> refr = ref.getRangeQuery(ManhattanDistanceFunction.STATIC, 0.2);
+    RangeQuery<W> relr = rel.getRangeQuery(ManhattanDistanceFunction.STATIC, 0.2);
+    assertTrue("Packed linear scan not used.", relr instanceof LinearScanPackedRangeQuery);
+    // Both databases use different DBIDs, but the same order.
+    for(DBIDIter it = ref.iterDBIDs(), it2 = rel.iterDBIDs(); it.valid(); it.advance(), it2.advance()) {
+      NumberVector a = ref.get(it), b = rel.get(it2);
+      assertEquals("Dimensionality differs.", a.getDimensionality(), b.getDimensionality());
+      assertEquals("Dimensionality differs.", dim, b.getDimensionality());
+      for(int d = 0; d < dim; d++) {
+        assertEquals("Value differs.", a.doubleValue(d), b.doubleValue(d), 0.);
+        assertEquals("Value differs.", a.doubleValue(d), ((AbstractPackedVectorRelation<?>) rel).doubleValue(it2, d), 0.);
+      }
+      KNNList refk = refq.getKNNForDBID(it, 10), relk = relq.getKNNForDBID(it2, 10);
+      assertEquals("kNN size differs.", refk.size(), relk.size());
+      DoubleDBIDListIter ri = refk.iter(), pi = relk.iter();
+      for(; ri.valid(); ri.advance(), pi.advance()) {
+        assertEquals("kNN distance differs.", ri.doubleValue(), pi.doubleValue(), 0.);
+      }
+      DoubleDBIDList refrl = refr.getRangeForDBID(it, 0.2), relrl = relr.getRangeForDBID(it2, 0.2);
+      assertEquals("Range query size differs.", refrl.size(), relrl.size());
+    }
+  }
+}
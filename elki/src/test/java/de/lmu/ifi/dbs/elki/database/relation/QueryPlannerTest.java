@@ -0,0 +1,156 @@
+package de.lmu.ifi.dbs.elki.database.relation;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.PreprocessorKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.datasource.FileBasedDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.CostEstimatingIndex;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.lsh.InMemoryLSHIndex;
+import de.lmu.ifi.dbs.elki.index.lsh.hashfamilies.EuclideanHashFunctionFamily;
+import de.lmu.ifi.dbs.elki.index.preprocessed.knn.MaterializeKNNPreprocessor;
+import de.lmu.ifi.dbs.elki.index.tree.metrical.covertree.CoverTree;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.kd.MinimalisticMemoryKDTree;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.RTreeSettings;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.rstar.RStarTreeFactory;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.rstar.RStarTreeNode;
+import de.lmu.ifi.dbs.elki.persistent.MemoryPageFileFactory;
+import de.lmu.ifi.dbs.elki.result.ResultUtil;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+/**
+ * Unit test for the cost-based choice of indexes in relations.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class QueryPlannerTest {
+  /**
+   * Test data set.
+   */
+  public static final String filename = "data/testdata/unittests/hierarchical-3d2d1d.csv";
+
+  @Test
+  public void testCheapestIndex() {
+    // The materialized neighbors are the cheapest, even though they were added
+    // before the cover tree.
+    MaterializeKNNPreprocessor.Factory<NumberVector> knn = new MaterializeKNNPreprocessor.Factory<>(10, EuclideanDistanceFunction.STATIC);
+    CoverTree.Factory<NumberVector> tree = new CoverTree.Factory<>(EuclideanDistanceFunction.STATIC, 1.3, 10);
+    Relation<NumberVector> rel = load(Arrays.<IndexFactory<?, ?>> asList(knn, tree));
+    KNNQuery<NumberVector> q = rel.getKNNQuery(EuclideanDistanceFunction.STATIC, 5);
+    assertTrue("Materialized neighbors not used: " + q, q instanceof PreprocessorKNNQuery);
+    // The preprocessor cannot answer queries with larger k.
+    q = rel.getKNNQuery(EuclideanDistanceFunction.STATIC, 20);
+    assertTrue("Cover tree not used: " + q, q instanceof CoverTree.CoverTreeKNNQuery);
+    RangeQuery<NumberVector> r = rel.getRangeQuery(EuclideanDistanceFunction.STATIC, 0.1);
+    assertTrue("Cover tree not used: " + r, r instanceof CoverTree.CoverTreeRangeQuery);
+  }
+
+  @Test
+  public void testApproximateIndex() {
+    // The LSH index is only chosen when approximate answers are acceptable.
+    CoverTree.Factory<NumberVector> tree = new CoverTree.Factory<>(EuclideanDistanceFunction.STATIC, 1.3, 10);
+    InMemoryLSHIndex<NumberVector> lsh = new InMemoryLSHIndex<>(new EuclideanHashFunctionFamily(new RandomFactory(0L), .2, 3), 2, 1000);
+    Relation<NumberVector> rel = load(Arrays.<IndexFactory<?, ?>> asList(tree, lsh));
+    KNNQuery<NumberVector> q = rel.getKNNQuery(EuclideanDistanceFunction.STATIC, 5);
+    assertTrue("Cover tree not used: " + q, q instanceof CoverTree.CoverTreeKNNQuery);
+    q = rel.getKNNQuery(EuclideanDistanceFunction.STATIC, 5, DatabaseQuery.HINT_APPROXIMATE);
+    assertFalse("LSH index not used: " + q, q instanceof CoverTree.CoverTreeKNNQuery);
+    RangeQuery<NumberVector> r = rel.getRangeQuery(EuclideanDistanceFunction.STATIC, 0.1);
+    assertTrue("Cover tree not used: " + r, r instanceof CoverTree.CoverTreeRangeQuery);
+  }
+
+  @Test
+  public void testIndexWithoutEstimate() {
+    // The k-d-tree has no estimate, and must not shadow the cover tree.
+    CoverTree.Factory<NumberVector> tree = new CoverTree.Factory<>(EuclideanDistanceFunction.STATIC, 1.3, 10);
+    MinimalisticMemoryKDTree.Factory<NumberVector> kd = new MinimalisticMemoryKDTree.Factory<>();
+    Relation<NumberVector> rel = load(Arrays.<IndexFactory<?, ?>> asList(tree, kd));
+    KNNQuery<NumberVector> q = rel.getKNNQuery(EuclideanDistanceFunction.STATIC, 5);
+    assertTrue("Cover tree not used: " + q, q instanceof CoverTree.CoverTreeKNNQuery);
+  }
+
+  @Test
+  public void testExactIndexWithoutEstimate() {
+    // The k-d-tree is the only exact index, and has no estimate. It is
+    // preferred over the approximate LSH index, whose costs are not comparable.
+    MinimalisticMemoryKDTree.Factory<NumberVector> kd = new MinimalisticMemoryKDTree.Factory<>();
+    InMemoryLSHIndex<NumberVector> lsh = new InMemoryLSHIndex<>(new EuclideanHashFunctionFamily(new RandomFactory(0L), .2, 3), 2, 1000);
+    Relation<NumberVector> rel = load(Arrays.<IndexFactory<?, ?>> asList(kd, lsh));
+    KNNQuery<NumberVector> q = rel.getKNNQuery(EuclideanDistanceFunction.STATIC, 5, DatabaseQuery.HINT_APPROXIMATE);
+    assertTrue("k-d-tree not used: " + q, q instanceof MinimalisticMemoryKDTree.KDTreeKNNQuery);
+    q = rel.getKNNQuery(EuclideanDistanceFunction.STATIC, 5);
+    assertTrue("k-d-tree not used: " + q, q instanceof MinimalisticMemoryKDTree.KDTreeKNNQuery);
+  }
+
+  @Test
+  public void testRangeEstimate() {
+    // The range cost estimates must grow with the radius, up to a linear scan.
+    CoverTree.Factory<NumberVector> tree = new CoverTree.Factory<>(EuclideanDistanceFunction.STATIC, 1.3, 10);
+    RStarTreeFactory<NumberVector> rstar = new RStarTreeFactory<>(new MemoryPageFileFactory<RStarTreeNode>(1024), new RTreeSettings());
+    Relation<NumberVector> rel = load(Arrays.<IndexFactory<?, ?>> asList(tree, rstar));
+    List<CostEstimatingIndex> indexes = ResultUtil.filterResults(rel.getHierarchy(), rel, CostEstimatingIndex.class);
+    assertEquals("Indexes not found.", 2, indexes.size());
+    for(CostEstimatingIndex index : indexes) {
+      final double small = index.estimateRangeCost(0.01);
+      final double medium = index.estimateRangeCost(0.2);
+      final double large = index.estimateRangeCost(1e6);
+      assertTrue("Estimate does not grow with the radius: " + index, small < medium && medium < large);
+      assertEquals("Large radius not a linear scan: " + index, rel.size(), large, 0.);
+    }
+  }
+
+  /**
+   * Load the test data set.
+   *
+   * @param indexes Index factories
+   * @return Vector relation
+   */
+  private Relation<NumberVector> load(List<IndexFactory<?, ?>> indexes) {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(FileBasedDatabaseConnection.Parameterizer.INPUT_ID, filename);
+    FileBasedDatabaseConnection dbc = ClassGenericsUtil.parameterizeOrAbort(FileBasedDatabaseConnection.class, params);
+    StaticArrayDatabase db = new StaticArrayDatabase(dbc, indexes);
+    db.initialize();
+    return db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+}
@@ -0,0 +1,176 @@
+package de.lmu.ifi.dbs.elki.datasource;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
+import de.lmu.ifi.dbs.elki.datasource.filter.selection.ShuffleObjectsFilter;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Unit test for the bundle cache of the file based database connection.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class FileBasedDatabaseConnectionTest {
+  /**
+   * Test data set.
+   */
+  public static final String filename = "data/testdata/unittests/hierarchical-3d2d1d.csv";
+
+  @Test
+  public void testBundleCache() throws IOException {
+    File dir = Files.createTempDirectory("elki-bundle-cache").toFile();
+    File input = new File(dir, "input.csv");
+    Files.copy(new File(filename).toPath(), input.toPath());
+    try {
+      MultipleObjectsBundle ref = load(input, false);
+      assertEquals("Cache file written without caching enabled.", 1, dir.listFiles().length);
+      MultipleObjectsBundle first = load(input, true);
+      File[] files = dir.listFiles();
+      assertEquals("No cache file written.", 2, files.length);
+      File cache = files[0].equals(input) ? files[1] : files[0];
+      assertTrue("Not a bundle file: " + cache, cache.getName().endsWith(".bundle"));
+      // Corrupt the input file: the cache must be used.
+      long mtime = input.lastModified(), length = input.length();
+      Files.write(input.toPath(), new byte[(int) length]);
+      assertTrue(input.setLastModified(mtime));
+      MultipleObjectsBundle second = load(input, true);
+      compare(ref, first);
+      compare(ref, second);
+    }
+    finally {
+      for(File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testStaleCacheRemoved() throws IOException {
+    File dir = Files.createTempDirectory("elki-bundle-cache").toFile();
+    File input = new File(dir, "input.csv");
+    Files.copy(new File(filename).toPath(), input.toPath());
+    try {
+      load(input, true);
+      assertEquals("No cache file written.", 2, dir.listFiles().length);
+      // Modify the input file, the old cache must be replaced.
+      Files.write(input.toPath(), "1 2 3 a\n4 5 6 b\n".getBytes("UTF-8"));
+      assertTrue(input.setLastModified(System.currentTimeMillis() + 10000));
+      MultipleObjectsBundle bundle = load(input, true);
+      assertEquals("Wrong number of objects.", 2, bundle.dataLength());
+      assertEquals("Stale cache file not removed.", 2, dir.listFiles().length);
+    }
+    finally {
+      for(File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testUnseededNotCached() throws IOException {
+    File dir = Files.createTempDirectory("elki-bundle-cache").toFile();
+    File input = new File(dir, "input.csv");
+    Files.copy(new File(filename).toPath(), input.toPath());
+    try {
+      ListParameterization params = new ListParameterization();
+      params.addParameter(AbstractDatabaseConnection.Parameterizer.FILTERS_ID, ShuffleObjectsFilter.class);
+      load(input, true, params);
+      assertEquals("Unseeded random filter was cached.", 1, dir.listFiles().length);
+      params = new ListParameterization();
+      params.addParameter(AbstractDatabaseConnection.Parameterizer.FILTERS_ID, ShuffleObjectsFilter.class);
+      params.addParameter(ShuffleObjectsFilter.Parameterizer.SEED_ID, 0L);
+      load(input, true, params);
+      assertEquals("Seeded random filter was not cached.", 2, dir.listFiles().length);
+    }
+    finally {
+      for(File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  /**
+   * Load a data file.
+   *
+   * @param input Input file
+   * @param cache Enable caching
+   * @return Bundle
+   */
+  private MultipleObjectsBundle load(File input, boolean cache) {
+    return load(input, cache, new ListParameterization());
+  }
+
+  /**
+   * Load a data file.
+   *
+   * @param input Input file
+   * @param cache Enable caching
+   * @param params Additional parameters
+   * @return Bundle
+   */
+  private MultipleObjectsBundle load(File input, boolean cache, ListParameterization params) {
+    params.addParameter(FileBasedDatabaseConnection.Parameterizer.INPUT_ID, input);
+    if(cache) {
+      params.addFlag(FileBasedDatabaseConnection.Parameterizer.CACHE_ID);
+    }
+    FileBasedDatabaseConnection dbc = ClassGenericsUtil.parameterizeOrAbort(FileBasedDatabaseConnection.class, params);
+    MultipleObjectsBundle bundle = dbc.loadData();
+    assertNotNull(bundle);
+    return bundle;
+  }
+
+  /**
+   * Compare two bundles.
+   *
+   * @param ref Reference bundle
+   * @param bundle Bundle to compare
+   */
+  private void compare(MultipleObjectsBundle ref, MultipleObjectsBundle bundle) {
+    assertEquals("Number of columns differs.", ref.metaLength(), bundle.metaLength());
+    assertEquals("Number of rows differs.", ref.dataLength(), bundle.dataLength());
+    for(int c = 0; c < ref.metaLength(); c++) {
+      assertEquals("Column type differs.", ref.meta(c).toString(), bundle.meta(c).toString());
+      for(int r = 0; r < ref.dataLength(); r++) {
+        assertEquals("Value differs.", String.valueOf(ref.data(r, c)), String.valueOf(bundle.data(r, c)));
+      }
+    }
+  }
+}
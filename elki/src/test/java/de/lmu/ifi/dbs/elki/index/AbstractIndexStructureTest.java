@@ -26,10 +26,17 @@ package de.lmu.ifi.dbs.elki.index;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.List;
+
 import de.lmu.ifi.dbs.elki.data.DoubleVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.QueryUtil;
 import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
@@ -224,4 +231,46 @@ public abstract class AbstractIndexStructureTest {
       }
     }
   }
+
+  /**
+   * Test bulk kNN queries against a linear scan, for all objects and for a
+   * subset of the objects.
+   *
+   * @param inputparams Parameters
+   * @param expectKNNQuery Expected kNN query class
+   */
+  protected void testBulkKNN(ListParameterization inputparams, Class<?> expectKNNQuery) {
+    inputparams.addParameter(FileBasedDatabaseConnection.Parameterizer.INPUT_ID, dataset);
+
+    // get database
+    Database db = ClassGenericsUtil.parameterizeOrAbort(StaticArrayDatabase.class, inputparams);
+    db.initialize();
+    Relation<DoubleVector> rep = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> dist = db.getDistanceQuery(rep, EuclideanDistanceFunction.STATIC);
+
+    KNNQuery<DoubleVector> knnq = db.getKNNQuery(dist, k);
+    assertTrue("Returned knn query is not of expected class: expected " + expectKNNQuery + " got " + knnq.getClass(), expectKNNQuery.isAssignableFrom(knnq.getClass()));
+    KNNQuery<DoubleVector> linq = QueryUtil.getLinearScanKNNQuery(dist);
+
+    ArrayModifiableDBIDs subset = DBIDUtil.newArray();
+    int j = 0;
+    for(DBIDIter iter = rep.iterDBIDs(); iter.valid(); iter.advance(), j++) {
+      if(j % 7 == 3) {
+        subset.add(iter);
+      }
+    }
+    for(ArrayDBIDs ids : new ArrayDBIDs[] { DBIDUtil.ensureArray(rep.getDBIDs()), subset }) {
+      List<? extends KNNList> res = knnq.getKNNForBulkDBIDs(ids, k);
+      assertEquals("Number of results does not match.", ids.size(), res.size());
+      int i = 0;
+      for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance(), i++) {
+        KNNList expect = linq.getKNNForDBID(iter, k), got = res.get(i);
+        assertEquals("kNN size does not match.", expect.size(), got.size());
+        DoubleDBIDListIter e = expect.iter(), g = got.iter();
+        for(; e.valid(); e.advance(), g.advance()) {
+          assertEquals("kNN distance does not match.", e.doubleValue(), g.doubleValue(), 1e-15);
+        }
+      }
+    }
+  }
 }
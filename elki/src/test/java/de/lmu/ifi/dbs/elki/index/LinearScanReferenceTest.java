@@ -23,10 +23,33 @@ package de.lmu.ifi.dbs.elki.index;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
 import org.junit.Test;
 
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanEuclideanDistanceKNNQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanPrimitiveDistanceKNNQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.LinearScanPrimitiveDistanceRangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.FileBasedDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.ManhattanDistanceFunction;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
 
 /**
@@ -53,4 +76,53 @@ public class LinearScanReferenceTest extends AbstractIndexStructureTest {
     ListParameterization params = new ListParameterization();
     testExactCosine(params, LinearScanPrimitiveDistanceKNNQuery.class, LinearScanPrimitiveDistanceRangeQuery.class);
   }
+
+  /**
+   * Test that batch queries, sequential and parallel, produce the same
+   * results as single queries.
+   */
+  @Test
+  public void testBatchKNN() {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(FileBasedDatabaseConnection.Parameterizer.INPUT_ID, dataset);
+    Database db = ClassGenericsUtil.parameterizeOrAbort(StaticArrayDatabase.class, params);
+    db.initialize();
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    ArrayDBIDs ids = DBIDUtil.ensureArray(rel.getDBIDs());
+    ParallelCore core = ParallelCore.getCore();
+    try {
+      for(int threads : new int[] { 1, 4 }) {
+        core.setParallelism(threads);
+        testBatchKNN(rel, ids, EuclideanDistanceFunction.STATIC, LinearScanEuclideanDistanceKNNQuery.class);
+        testBatchKNN(rel, ids, ManhattanDistanceFunction.STATIC, LinearScanPrimitiveDistanceKNNQuery.class);
+      }
+    }
+    finally {
+      core.setParallelism(ParallelCore.ALL_PROCESSORS);
+    }
+  }
+
+  /**
+   * Compare batch queries to single queries.
+   * 
+   * @param rel Relation
+   * @param ids Query ids
+   * @param dist Distance function
+   * @param expect Expected query class
+   */
+  private void testBatchKNN(Relation<DoubleVector> rel, ArrayDBIDs ids, DistanceFunction<? super DoubleVector> dist, Class<?> expect) {
+    final int k = 10;
+    KNNQuery<DoubleVector> knnq = rel.getKNNQuery(dist, k);
+    assertTrue("Unexpected query class: " + knnq.getClass(), expect.isInstance(knnq));
+    List<? extends KNNList> bulk = knnq.getKNNForBulkDBIDs(ids, k);
+    assertEquals("Wrong number of results.", ids.size(), bulk.size());
+    int i = 0;
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance(), i++) {
+      KNNList single = knnq.getKNNForDBID(it, k), batch = bulk.get(i);
+      assertEquals("kNN sizes differ.", single.size(), batch.size());
+      for(DoubleDBIDListIter si = single.iter(), bi = batch.iter(); si.valid(); si.advance(), bi.advance()) {
+        assertEquals("kNN distances differ.", si.doubleValue(), bi.doubleValue(), 1e-15);
+      }
+    }
+  }
 }
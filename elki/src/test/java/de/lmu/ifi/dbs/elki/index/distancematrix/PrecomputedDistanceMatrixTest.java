@@ -0,0 +1,153 @@
+package de.lmu.ifi.dbs.elki.index.distancematrix;
+
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.QueryUtil;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+
+/**
+ * Unit test for the precomputed distance matrix.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class PrecomputedDistanceMatrixTest {
+  /**
+   * Test the on-heap matrix, with double and single precision.
+   */
+  @Test
+  public void testInMemory() {
+    Relation<NumberVector> rel = makeRelation(1500);
+    checkMatrix(rel, new PrecomputedDistanceMatrix<NumberVector>(rel, EuclideanDistanceFunction.STATIC), 0.);
+    checkMatrix(rel, new PrecomputedDistanceMatrix<NumberVector>(rel, EuclideanDistanceFunction.STATIC, true, null), 1e-6);
+  }
+
+  /**
+   * Test the memory-mapped matrix, with double and single precision.
+   *
+   * @throws IOException on errors creating the temporary file
+   */
+  @Test
+  public void testMapped() throws IOException {
+    Relation<NumberVector> rel = makeRelation(1500);
+    File file = File.createTempFile("elki-distances", ".bin");
+    file.deleteOnExit();
+    try {
+      checkMatrix(rel, new PrecomputedDistanceMatrix<NumberVector>(rel, EuclideanDistanceFunction.STATIC, false, file), 0.);
+      checkMatrix(rel, new PrecomputedDistanceMatrix<NumberVector>(rel, EuclideanDistanceFunction.STATIC, true, file), 1e-6);
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Test that large data sets require an explicit file, instead of silently
+   * creating a temporary file.
+   */
+  @Test(expected = AbortException.class)
+  public void testTooLargeWithoutFile() {
+    Relation<NumberVector> rel = makeRelation(65537);
+    new PrecomputedDistanceMatrix<NumberVector>(rel, EuclideanDistanceFunction.STATIC).initialize();
+  }
+
+  /**
+   * Build the matrix in parallel, and compare all distances to the linear
+   * scan.
+   *
+   * @param rel Relation
+   * @param index Index
+   * @param eps Relative tolerance
+   */
+  private static void checkMatrix(Relation<NumberVector> rel, PrecomputedDistanceMatrix<NumberVector> index, double eps) {
+    ParallelCore.getCore().setParallelism(4);
+    try {
+      index.initialize();
+    }
+    finally {
+      ParallelCore.getCore().setParallelism(ParallelCore.ALL_PROCESSORS);
+    }
+    DistanceQuery<NumberVector> exact = EuclideanDistanceFunction.STATIC.instantiate(rel);
+    DistanceQuery<NumberVector> dq = index.getDistanceQuery(EuclideanDistanceFunction.STATIC);
+    for(DBIDIter a = rel.iterDBIDs(); a.valid(); a.advance()) {
+      for(DBIDIter b = rel.iterDBIDs(); b.valid(); b.advance()) {
+        final double d = exact.distance(a, b);
+        assertEquals("Distance does not agree.", d, dq.distance(a, b), d * eps);
+      }
+    }
+    KNNQuery<NumberVector> knnq = index.getKNNQuery(exact, 10);
+    RangeQuery<NumberVector> rangeq = index.getRangeQuery(exact, .1);
+    KNNQuery<NumberVector> exactknn = QueryUtil.getLinearScanKNNQuery(exact);
+    RangeQuery<NumberVector> exactrange = QueryUtil.getLinearScanRangeQuery(exact);
+    int i = 0;
+    for(DBIDIter it = rel.iterDBIDs(); it.valid() && i < 100; it.advance(), i++) {
+      KNNList knn = knnq.getKNNForDBID(it, 10), ref = exactknn.getKNNForDBID(it, 10);
+      assertEquals("kNN distance does not agree.", ref.getKNNDistance(), knn.getKNNDistance(), ref.getKNNDistance() * eps);
+      if(eps == 0.) {
+        assertEquals("Range query size does not agree.", exactrange.getRangeForDBID(it, .1).size(), rangeq.getRangeForDBID(it, .1).size());
+      }
+    }
+  }
+
+  /**
+   * Generate a random relation.
+   *
+   * @param size Number of objects
+   * @return Relation
+   */
+  private static Relation<NumberVector> makeRelation(int size) {
+    Random rnd = new Random(0L);
+    double[][] data = new double[size][3];
+    for(double[] row : data) {
+      for(int d = 0; d < row.length; d++) {
+        row[d] = rnd.nextDouble();
+      }
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    return db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+}
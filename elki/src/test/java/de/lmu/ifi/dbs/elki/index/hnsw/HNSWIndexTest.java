@@ -0,0 +1,152 @@
+package de.lmu.ifi.dbs.elki.index.hnsw;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.algorithm.benchmark.ValidateApproximativeKNNIndex;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.QueryUtil;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.FileBasedDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Unit test for the HNSW index, which compares to exact results.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class HNSWIndexTest extends AbstractSimpleAlgorithmTest {
+  /**
+   * Test data set.
+   */
+  private static final String DATASET = UNITTEST + "axis-parallel-subspace-clusters-6d.csv.gz";
+
+  /**
+   * Number of neighbors.
+   */
+  private static final int K = 10;
+
+  /**
+   * Query radius.
+   */
+  private static final double EPS = 10.;
+
+  @Test
+  public void testHNSW() {
+    checkRecall(makeDatabase());
+  }
+
+  @Test
+  public void testParallelConstruction() {
+    ParallelCore core = ParallelCore.getCore();
+    try {
+      core.setParallelism(4);
+      checkRecall(makeDatabase());
+    }
+    finally {
+      core.setParallelism(ParallelCore.ALL_PROCESSORS);
+    }
+  }
+
+  /**
+   * Compare the approximate results to exact queries.
+   *
+   * @param db Database
+   */
+  private void checkRecall(Database db) {
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    DistanceQuery<NumberVector> dq = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+    KNNQuery<NumberVector> knnq = db.getKNNQuery(dq, K);
+    RangeQuery<NumberVector> rangeq = db.getRangeQuery(dq, EPS);
+    assertTrue("Index not used.", knnq instanceof HNSWIndex.HNSWKNNQuery);
+    assertTrue("Index not used.", rangeq instanceof HNSWIndex.HNSWRangeQuery);
+    KNNQuery<NumberVector> exactknn = QueryUtil.getLinearScanKNNQuery(dq);
+    RangeQuery<NumberVector> exactrange = QueryUtil.getLinearScanRangeQuery(dq);
+    int knnfound = 0, knntotal = 0, rangefound = 0, rangetotal = 0;
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList knn = knnq.getKNNForDBID(it, K), ref = exactknn.getKNNForDBID(it, K);
+      knnfound += DBIDUtil.intersectionSize(knn, ref);
+      knntotal += ref.size();
+      DoubleDBIDList range = rangeq.getRangeForDBID(it, EPS);
+      for(DoubleDBIDListIter r = range.iter(); r.valid(); r.advance()) {
+        assertTrue("Range query result too far.", r.doubleValue() <= EPS);
+      }
+      rangefound += range.size();
+      rangetotal += exactrange.getRangeForDBID(it, EPS).size();
+    }
+    assertTrue("kNN recall too low: " + knnfound / (double) knntotal, knnfound >= .95 * knntotal);
+    assertTrue("Range recall too low: " + rangefound / (double) rangetotal, rangefound >= .95 * rangetotal);
+  }
+
+  @Test
+  public void testValidate() {
+    Database db = makeDatabase();
+    ListParameterization params = new ListParameterization();
+    params.addParameter(ValidateApproximativeKNNIndex.DISTANCE_FUNCTION_ID, EuclideanDistanceFunction.class);
+    params.addParameter(ValidateApproximativeKNNIndex.Parameterizer.K_ID, K);
+    params.addParameter(ValidateApproximativeKNNIndex.Parameterizer.SAMPLING_ID, 100);
+    params.addParameter(ValidateApproximativeKNNIndex.Parameterizer.RANDOM_ID, 0L);
+    ValidateApproximativeKNNIndex<NumberVector> validate = ClassGenericsUtil.parameterizeOrAbort(ValidateApproximativeKNNIndex.class, params);
+    testParameterizationOk(params);
+    // Fails if the index is not used.
+    validate.run(db);
+  }
+
+  /**
+   * Load the test data set, with a HNSW index.
+   *
+   * @return Database
+   */
+  private Database makeDatabase() {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(FileBasedDatabaseConnection.Parameterizer.INPUT_ID, DATASET);
+    params.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, HNSWIndex.Factory.class);
+    params.addParameter(HNSWIndex.Factory.Parameterizer.DISTANCE_ID, EuclideanDistanceFunction.class);
+    params.addParameter(HNSWIndex.Factory.Parameterizer.M_ID, 8);
+    params.addParameter(HNSWIndex.Factory.Parameterizer.SEED_ID, 0L);
+    Database db = ClassGenericsUtil.parameterizeOrAbort(StaticArrayDatabase.class, params);
+    testParameterizationOk(params);
+    db.initialize();
+    return db;
+  }
+}
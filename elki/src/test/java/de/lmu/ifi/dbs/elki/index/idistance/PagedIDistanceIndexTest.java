@@ -0,0 +1,172 @@
+package de.lmu.ifi.dbs.elki.index.idistance;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.FarthestPointsInitialMeans;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.QueryUtil;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
+import de.lmu.ifi.dbs.elki.persistent.AbstractPageFileFactory;
+import de.lmu.ifi.dbs.elki.persistent.PersistentPageFileFactory;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Unit test for the paged iDistance index.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class PagedIDistanceIndexTest extends AbstractIndexStructureTest {
+  /**
+   * Test {@link PagedIDistanceIndex}, with small pages.
+   */
+  @Test
+  public void testPagedIDistance() {
+    ListParameterization spatparams = new ListParameterization();
+    spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, PagedIDistanceIndex.Factory.class);
+    spatparams.addParameter(AbstractPageFileFactory.Parameterizer.PAGE_SIZE_ID, 300);
+    spatparams.addParameter(InMemoryIDistanceIndex.Factory.Parameterizer.K_ID, 4);
+    spatparams.addParameter(InMemoryIDistanceIndex.Factory.Parameterizer.DISTANCE_ID, EuclideanDistanceFunction.class);
+    spatparams.addParameter(InMemoryIDistanceIndex.Factory.Parameterizer.REFERENCE_ID, FarthestPointsInitialMeans.class);
+    testExactEuclidean(spatparams, PagedIDistanceIndex.PagedIDistanceKNNQuery.class, PagedIDistanceIndex.PagedIDistanceRangeQuery.class);
+  }
+
+  /**
+   * Test updates, and reopening a persistent index.
+   *
+   * @throws IOException on errors creating the temporary file
+   */
+  @Test
+  public void testPersistent() throws IOException {
+    Random rnd = new Random(0L);
+    double[][] data = new double[1000][3];
+    for(double[] row : data) {
+      for(int d = 0; d < row.length; d++) {
+        row[d] = rnd.nextDouble();
+      }
+    }
+    File file = File.createTempFile("elki-idistance", ".idx");
+    file.deleteOnExit();
+    try {
+      Relation<NumberVector> rel = makeRelation(data);
+      PagedIDistanceIndex<NumberVector> index = new PagedIDistanceIndex.Factory<NumberVector>(new PersistentPageFileFactory<>(512, file.getPath()), //
+          EuclideanDistanceFunction.STATIC, new FarthestPointsInitialMeans<NumberVector>(RandomFactory.get(0L), false), 5).instantiate(rel);
+      index.initialize();
+      checkQueries(rel, index);
+      // Remove and reinsert some objects, to split pages.
+      ArrayDBIDs ids = DBIDUtil.ensureArray(rel.getDBIDs());
+      ArrayDBIDs some = DBIDUtil.ensureArray(DBIDUtil.randomSample(ids, 200, 1L));
+      index.deleteAll(some);
+      assertFalse("Object not deleted.", index.delete(some.iter()));
+      index.insertAll(some);
+      checkQueries(rel, index);
+      index.close();
+
+      // Reopen. Without a reference point initialization, no rebuild is
+      // possible.
+      rel = makeRelation(data);
+      index = new PagedIDistanceIndex.Factory<NumberVector>(new PersistentPageFileFactory<>(512, file.getPath()), //
+          EuclideanDistanceFunction.STATIC, null, 5).instantiate(rel);
+      index.initialize();
+      checkQueries(rel, index);
+      index.close();
+
+      // Reopening with different data of the same size must fail.
+      data[0][0] += 1.;
+      rel = makeRelation(data);
+      index = new PagedIDistanceIndex.Factory<NumberVector>(new PersistentPageFileFactory<>(512, file.getPath()), //
+          EuclideanDistanceFunction.STATIC, null, 5).instantiate(rel);
+      try {
+        index.initialize();
+        fail("Index was reopened for different data.");
+      }
+      catch(AbortException e) {
+        // expected
+      }
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Load a relation, with fixed object ids.
+   *
+   * @param data Data
+   * @return Relation
+   */
+  private static Relation<NumberVector> makeRelation(double[][] data) {
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data, null, 1000000), null);
+    db.initialize();
+    return db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+
+  /**
+   * Compare the index results to a linear scan.
+   *
+   * @param rel Relation
+   * @param index Index
+   */
+  private static void checkQueries(Relation<NumberVector> rel, PagedIDistanceIndex<NumberVector> index) {
+    DistanceQuery<NumberVector> dq = EuclideanDistanceFunction.STATIC.instantiate(rel);
+    KNNQuery<NumberVector> knnq = index.getKNNQuery(dq, 10);
+    RangeQuery<NumberVector> rangeq = index.getRangeQuery(dq, .1);
+    KNNQuery<NumberVector> exactknn = QueryUtil.getLinearScanKNNQuery(dq);
+    RangeQuery<NumberVector> exactrange = QueryUtil.getLinearScanRangeQuery(dq);
+    int i = 0;
+    for(DBIDIter it = rel.iterDBIDs(); it.valid() && i < 100; it.advance(), i++) {
+      KNNList knn = knnq.getKNNForDBID(it, 10), ref = exactknn.getKNNForDBID(it, 10);
+      assertEquals("kNN distance does not agree.", ref.getKNNDistance(), knn.getKNNDistance(), 0.);
+      assertEquals("kNN size does not agree.", ref.size(), knn.size());
+      assertEquals("Range query size does not agree.", exactrange.getRangeForDBID(it, .1).size(), rangeq.getRangeForDBID(it, .1).size());
+    }
+    assertTrue(i == 100);
+  }
+}
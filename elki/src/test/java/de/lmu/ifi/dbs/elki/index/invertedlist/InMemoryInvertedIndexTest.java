@@ -23,10 +23,32 @@ package de.lmu.ifi.dbs.elki.index.invertedlist;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
 import org.junit.Test;
 
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.QueryUtil;
 import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.ArcCosineDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.CosineDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
 
 /**
@@ -45,4 +67,60 @@ public class InMemoryInvertedIndexTest extends AbstractIndexStructureTest {
     spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, InMemoryInvertedIndex.Factory.class);
     testExactCosine(spatparams, InMemoryInvertedIndex.CosineKNNQuery.class, InMemoryInvertedIndex.CosineRangeQuery.class);
   }
+
+  /**
+   * Test the parallel construction, and block-max pruning, on sparse data.
+   */
+  @Test
+  public void testParallelSparse() {
+    Random rnd = new Random(0L);
+    double[][] data = new double[10000][100];
+    for(double[] row : data) {
+      // Skewed term distribution, a few frequent and many rare terms.
+      for(int i = 0; i < 8; i++) {
+        int d = (int) (data[0].length * Math.pow(rnd.nextDouble(), 3));
+        row[d] = rnd.nextDouble();
+      }
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    Relation<NumberVector> relation = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    InMemoryInvertedIndex<NumberVector> index = new InMemoryInvertedIndex<>(relation);
+    ParallelCore core = ParallelCore.getCore();
+    try {
+      core.setParallelism(4);
+      index.initialize();
+    }
+    finally {
+      core.setParallelism(ParallelCore.ALL_PROCESSORS);
+    }
+    checkQueries(relation, index, CosineDistanceFunction.STATIC, .2);
+    checkQueries(relation, index, ArcCosineDistanceFunction.STATIC, .5);
+  }
+
+  /**
+   * Compare the index results to a linear scan.
+   *
+   * @param relation Data relation
+   * @param index Index
+   * @param df Distance function
+   * @param eps Query radius
+   */
+  private void checkQueries(Relation<NumberVector> relation, InMemoryInvertedIndex<NumberVector> index, DistanceFunction<? super NumberVector> df, double eps) {
+    DistanceQuery<NumberVector> dq = df.instantiate(relation);
+    KNNQuery<NumberVector> knnq = index.getKNNQuery(dq, 10);
+    RangeQuery<NumberVector> rangeq = index.getRangeQuery(dq, eps);
+    KNNQuery<NumberVector> exactknn = QueryUtil.getLinearScanKNNQuery(dq);
+    RangeQuery<NumberVector> exactrange = QueryUtil.getLinearScanRangeQuery(dq);
+    int i = 0;
+    for(DBIDIter it = relation.iterDBIDs(); it.valid() && i < 200; it.advance(), i++) {
+      KNNList knn = knnq.getKNNForDBID(it, 10), ref = exactknn.getKNNForDBID(it, 10);
+      assertEquals("kNN distance does not agree.", ref.getKNNDistance(), knn.getKNNDistance(), 1e-15);
+      DoubleDBIDList range = rangeq.getRangeForDBID(it, eps);
+      assertEquals("Range query size does not agree.", exactrange.getRangeForDBID(it, eps).size(), range.size());
+      for(DoubleDBIDListIter r = range.iter(); r.valid(); r.advance()) {
+        assertTrue("Range query result too far.", r.doubleValue() <= eps);
+      }
+    }
+  }
 }
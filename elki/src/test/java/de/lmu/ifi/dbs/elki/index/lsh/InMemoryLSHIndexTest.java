@@ -0,0 +1,109 @@
+package de.lmu.ifi.dbs.elki.index.lsh;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.QueryUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.lsh.hashfamilies.EuclideanHashFunctionFamily;
+import de.lmu.ifi.dbs.elki.index.lsh.hashfunctions.MultiProbeLocalitySensitiveHashFunction;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+/**
+ * Unit test for the in-memory LSH index, and multi-probe queries.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class InMemoryLSHIndexTest extends AbstractSimpleAlgorithmTest {
+  /**
+   * Test data set.
+   */
+  private static final String DATASET = UNITTEST + "axis-parallel-subspace-clusters-6d.csv.gz";
+
+  /**
+   * Number of neighbors to evaluate.
+   */
+  private static final int K = 10;
+
+  @Test
+  public void testMultiProbe() {
+    Database db = makeSimpleDatabase(DATASET, 2500);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    EuclideanHashFunctionFamily family = new EuclideanHashFunctionFamily(new RandomFactory(0L), 10., 4);
+
+    // The first probe is the regular hash bucket:
+    @SuppressWarnings("unchecked")
+    MultiProbeLocalitySensitiveHashFunction<? super NumberVector> hf = (MultiProbeLocalitySensitiveHashFunction<? super NumberVector>) family.generateHashFunctions(rel, 1).get(0);
+    double[] buf = new double[hf.getNumberOfProjections()];
+    int[] hashes = new int[10];
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      assertEquals("Wrong hash bucket.", hf.hashObject(rel.get(it)), hf.hashProbes(rel.get(it), buf, hashes) > 0 ? hashes[0] : -1);
+    }
+
+    // Two tables with multi-probe beat ten tables without.
+    double single = recall(rel, family, 2, 1);
+    double multi = recall(rel, family, 2, 20);
+    double many = recall(rel, family, 10, 1);
+    assertTrue("Multi-probe did not improve recall: " + multi + " <= " + single, multi > single);
+    assertTrue("Multi-probe recall too low: " + multi + " < " + many, multi >= many);
+  }
+
+  /**
+   * Compute the kNN recall of the LSH index.
+   *
+   * @param rel Relation
+   * @param family Hash family
+   * @param l Number of tables
+   * @param probes Number of probes
+   * @return Recall
+   */
+  private double recall(Relation<NumberVector> rel, EuclideanHashFunctionFamily family, int l, int probes) {
+    InMemoryLSHIndex<NumberVector>.Instance idx = new InMemoryLSHIndex<NumberVector>(family, l, 7919, probes).instantiate(rel);
+    idx.initialize();
+    DistanceQuery<NumberVector> dq = rel.getDistanceQuery(EuclideanDistanceFunction.STATIC);
+    KNNQuery<NumberVector> lsh = idx.getKNNQuery(dq, K), exact = QueryUtil.getLinearScanKNNQuery(dq);
+    int found = 0, total = 0;
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList approx = lsh.getKNNForDBID(it, K), ref = exact.getKNNForDBID(it, K);
+      found += DBIDUtil.intersectionSize(approx, ref);
+      total += ref.size();
+    }
+    return found / (double) total;
+  }
+}
@@ -0,0 +1,122 @@
+package de.lmu.ifi.dbs.elki.index.pq;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.QueryUtil;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.FileBasedDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Unit test for the product quantization index, which compares to exact
+ * results.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class ProductQuantizationIndexTest extends AbstractSimpleAlgorithmTest {
+  /**
+   * Test data set.
+   */
+  private static final String DATASET = UNITTEST + "axis-parallel-subspace-clusters-6d.csv.gz";
+
+  /**
+   * Number of neighbors.
+   */
+  private static final int K = 10;
+
+  @Test
+  public void testPQ() {
+    checkRecall(makeDatabase(1, 1));
+  }
+
+  @Test
+  public void testIVFPQ() {
+    checkRecall(makeDatabase(8, 3));
+  }
+
+  /**
+   * Compare the approximate results to exact queries.
+   *
+   * @param db Database
+   */
+  private void checkRecall(Database db) {
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    DistanceQuery<NumberVector> dq = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+    KNNQuery<NumberVector> knnq = db.getKNNQuery(dq, K);
+    assertTrue("Index not used.", knnq instanceof ProductQuantizationIndex.PQKNNQuery);
+    KNNQuery<NumberVector> exactknn = QueryUtil.getLinearScanKNNQuery(dq);
+    int knnfound = 0, knntotal = 0;
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList knn = knnq.getKNNForDBID(it, K), ref = exactknn.getKNNForDBID(it, K);
+      for(DoubleDBIDListIter r = knn.iter(); r.valid(); r.advance()) {
+        assertEquals("Distance not refined.", dq.distance(it, r), r.doubleValue(), 0.);
+      }
+      knnfound += DBIDUtil.intersectionSize(knn, ref);
+      knntotal += ref.size();
+    }
+    assertTrue("kNN recall too low: " + knnfound / (double) knntotal, knnfound >= .95 * knntotal);
+  }
+
+  /**
+   * Load the test data set, with a product quantization index.
+   *
+   * @param lists Number of inverted lists
+   * @param probe Number of lists to probe
+   * @return Database
+   */
+  private Database makeDatabase(int lists, int probe) {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(FileBasedDatabaseConnection.Parameterizer.INPUT_ID, DATASET);
+    params.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, ProductQuantizationIndex.Factory.class);
+    params.addParameter(ProductQuantizationIndex.Factory.Parameterizer.M_ID, 3);
+    params.addParameter(ProductQuantizationIndex.Factory.Parameterizer.KS_ID, 32);
+    params.addParameter(ProductQuantizationIndex.Factory.Parameterizer.NLIST_ID, lists);
+    params.addParameter(ProductQuantizationIndex.Factory.Parameterizer.NPROBE_ID, probe);
+    params.addParameter(ProductQuantizationIndex.Factory.Parameterizer.SEED_ID, 0L);
+    Database db = ClassGenericsUtil.parameterizeOrAbort(StaticArrayDatabase.class, params);
+    testParameterizationOk(params);
+    db.initialize();
+    return db;
+  }
+}
@@ -0,0 +1,102 @@
+package de.lmu.ifi.dbs.elki.index.preprocessed;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2016
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanDistanceKNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.FileBasedDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.preprocessed.knn.MaterializeKNNPreprocessor;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Test the different materialization modes of the kNN preprocessor against a
+ * linear scan.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class MaterializeKNNPreprocessorTest {
+  // the following values depend on the data set used!
+  // Large enough to span several blocks in bulk mode.
+  static String dataset = "data/testdata/unittests/axis-parallel-subspace-clusters-6d.csv.gz";
+
+  // number of kNN to query
+  int k = 10;
+
+  // size of the data set
+  int shoulds = 2500;
+
+  @Test
+  public void testSequential() {
+    testMaterialization(false, false);
+  }
+
+  @Test
+  public void testBulk() {
+    testMaterialization(true, false);
+  }
+
+  @Test
+  public void testParallel() {
+    testMaterialization(false, true);
+  }
+
+  private void testMaterialization(boolean bulk, boolean parallel) {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(FileBasedDatabaseConnection.Parameterizer.INPUT_ID, dataset);
+    Database db = ClassGenericsUtil.parameterizeOrAbort(StaticArrayDatabase.class, params);
+    db.initialize();
+    Relation<DoubleVector> rep = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> distanceQuery = db.getDistanceQuery(rep, EuclideanDistanceFunction.STATIC);
+    assertEquals("Data set size doesn't match parameters.", shoulds, rep.size());
+
+    KNNQuery<DoubleVector> lin = new LinearScanDistanceKNNQuery<>(distanceQuery);
+    MaterializeKNNPreprocessor<DoubleVector> preproc = new MaterializeKNNPreprocessor<>(rep, EuclideanDistanceFunction.STATIC, k, bulk, parallel);
+    preproc.initialize();
+    KNNQuery<DoubleVector> pre = preproc.getKNNQuery(distanceQuery, k);
+
+    for(DBIDIter iter = rep.iterDBIDs(); iter.valid(); iter.advance()) {
+      KNNList lknn = lin.getKNNForDBID(iter, k), pknn = pre.getKNNForDBID(iter, k);
+      assertEquals("kNN sizes do not agree.", lknn.size(), pknn.size());
+      for(DoubleDBIDListIter l = lknn.iter(), p = pknn.iter(); l.valid(); l.advance(), p.advance()) {
+        assertEquals("kNN distances do not agree.", l.doubleValue(), p.doubleValue(), 0.);
+      }
+    }
+  }
+}
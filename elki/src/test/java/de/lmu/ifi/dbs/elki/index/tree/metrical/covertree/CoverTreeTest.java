@@ -23,11 +23,37 @@ package de.lmu.ifi.dbs.elki.index.tree.metrical.covertree;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Test;
 
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.HashmapDatabase;
 import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.FileBasedDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.result.ResultUtil;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
 
 /**
@@ -37,6 +63,21 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParamet
  * @since 0.7.0
  */
 public class CoverTreeTest extends AbstractIndexStructureTest {
+  /**
+   * Data set for the dynamic test.
+   */
+  private static final String DYNAMIC_DATASET = "data/testdata/unittests/hierarchical-3d2d1d.csv";
+
+  /**
+   * Query parameters for the dynamic test.
+   */
+  private static final int DYNAMIC_K = 10;
+
+  /**
+   * Query radius for the dynamic test.
+   */
+  private static final double DYNAMIC_EPS = 0.1;
+
   /**
    * Test {@link CoverTree} using a file based database connection.
    */
@@ -47,4 +88,112 @@ public class CoverTreeTest extends AbstractIndexStructureTest {
     metparams.addParameter(CoverTree.Factory.Parameterizer.DISTANCE_FUNCTION_ID, EuclideanDistanceFunction.class);
     testExactEuclidean(metparams, CoverTree.CoverTreeKNNQuery.class, CoverTree.CoverTreeRangeQuery.class);
   }
+
+  /**
+   * Test incremental insertions and deletions, by comparing to a freshly
+   * bulk-loaded tree.
+   */
+  @Test
+  public void testDynamicCovertree() {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(FileBasedDatabaseConnection.Parameterizer.INPUT_ID, DYNAMIC_DATASET);
+    FileBasedDatabaseConnection dbc = ClassGenericsUtil.parameterizeOrAbort(FileBasedDatabaseConnection.class, params);
+    CoverTree.Factory<NumberVector> factory = new CoverTree.Factory<>(EuclideanDistanceFunction.STATIC, 1.3, 5);
+    HashmapDatabase db = new HashmapDatabase(null, Arrays.<IndexFactory<?, ?>> asList(factory));
+    // The index is built by incremental insertions only:
+    db.insert(dbc.loadData());
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    assertEquals("Database size", 600, rel.size());
+    checkInvariants(db, rel);
+    compareToBulk(rel);
+
+    // Delete every other object, including routing objects:
+    ArrayModifiableDBIDs del = DBIDUtil.newArray();
+    boolean odd = false;
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance(), odd = !odd) {
+      if(odd) {
+        del.add(it);
+      }
+    }
+    db.delete(del);
+    assertEquals("Database size", 600 - del.size(), rel.size());
+    checkInvariants(db, rel);
+    compareToBulk(rel);
+  }
+
+  /**
+   * Test insertions outside of the cover of the root, which must raise the
+   * scale of the root instead of adding singletons to it.
+   */
+  @Test
+  public void testRaiseScale() {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(FileBasedDatabaseConnection.Parameterizer.INPUT_ID, DYNAMIC_DATASET);
+    FileBasedDatabaseConnection dbc = ClassGenericsUtil.parameterizeOrAbort(FileBasedDatabaseConnection.class, params);
+    CoverTree.Factory<NumberVector> factory = new CoverTree.Factory<>(EuclideanDistanceFunction.STATIC, 1.3, 5);
+    HashmapDatabase db = new HashmapDatabase(null, Arrays.<IndexFactory<?, ?>> asList(factory));
+    MultipleObjectsBundle bundle = dbc.loadData();
+    // Insert the data set scaled by increasing factors, so that most new
+    // objects are far outside of the current tree:
+    for(int i = 0; i < bundle.dataLength(); i++) {
+      double[] v = ((NumberVector) bundle.data(i, 0)).toArray();
+      for(int d = 0; d < v.length; d++) {
+        v[d] *= 1 + i;
+      }
+      db.insert(MultipleObjectsBundle.makeSimple(TypeUtil.NUMBER_VECTOR_FIELD, Arrays.asList(DoubleVector.wrap(v))));
+    }
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    assertEquals("Database size", bundle.dataLength(), rel.size());
+    checkInvariants(db, rel);
+    compareToBulk(rel);
+  }
+
+  /**
+   * Check the invariants of the dynamic cover tree.
+   *
+   * @param db Database
+   * @param rel Relation
+   */
+  private void checkInvariants(HashmapDatabase db, Relation<NumberVector> rel) {
+    List<CoverTree<?>> trees = ResultUtil.filterResults(db.getHierarchy(), rel, CoverTree.class);
+    assertEquals("Index not found.", 1, trees.size());
+    assertNull(trees.get(0).checkInvariants());
+  }
+
+  /**
+   * Compare the query results of the index to a bulk-loaded tree.
+   *
+   * @param rel Relation
+   */
+  private void compareToBulk(Relation<NumberVector> rel) {
+    DistanceQuery<NumberVector> dq = rel.getDistanceQuery(EuclideanDistanceFunction.STATIC);
+    KNNQuery<NumberVector> knnq = rel.getKNNQuery(dq, DYNAMIC_K);
+    RangeQuery<NumberVector> rangeq = rel.getRangeQuery(dq, DYNAMIC_EPS);
+    assertTrue("Not using the dynamic index.", knnq instanceof CoverTree.CoverTreeKNNQuery);
+    assertTrue("Not using the dynamic index.", rangeq instanceof CoverTree.CoverTreeRangeQuery);
+    CoverTree<NumberVector> bulk = new CoverTree<>(rel, EuclideanDistanceFunction.STATIC, 1.3, 5);
+    bulk.initialize();
+    KNNQuery<NumberVector> bknnq = bulk.getKNNQuery(dq);
+    RangeQuery<NumberVector> brangeq = bulk.getRangeQuery(dq);
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList knn = knnq.getKNNForDBID(it, DYNAMIC_K), bknn = bknnq.getKNNForDBID(it, DYNAMIC_K);
+      compareDistances(bknn, knn);
+      DoubleDBIDList range = rangeq.getRangeForDBID(it, DYNAMIC_EPS), brange = brangeq.getRangeForDBID(it, DYNAMIC_EPS);
+      assertEquals("Range query size differs.", brange.size(), range.size());
+    }
+  }
+
+  /**
+   * Compare two result lists by their distances. The tolerance is relative,
+   * as rounding in the pruning bounds may exchange near ties on large values.
+   *
+   * @param expected Expected result
+   * @param actual Actual result
+   */
+  private void compareDistances(DoubleDBIDList expected, DoubleDBIDList actual) {
+    assertEquals("Result size differs.", expected.size(), actual.size());
+    for(DoubleDBIDListIter a = expected.iter(), b = actual.iter(); a.valid(); a.advance(), b.advance()) {
+      assertEquals("Distance differs.", a.doubleValue(), b.doubleValue(), 1e-13 * Math.max(1., a.doubleValue()));
+    }
+  }
 }
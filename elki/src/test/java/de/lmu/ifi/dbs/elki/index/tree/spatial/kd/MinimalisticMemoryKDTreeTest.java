@@ -45,4 +45,15 @@ public class MinimalisticMemoryKDTreeTest extends AbstractIndexStructureTest {
     spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, MinimalisticMemoryKDTree.Factory.class);
     testExactEuclidean(spatparams, MinimalisticMemoryKDTree.KDTreeKNNQuery.class, MinimalisticMemoryKDTree.KDTreeRangeQuery.class);
   }
+
+  /**
+   * Test the dual-tree bulk kNN search of {@link MinimalisticMemoryKDTree}.
+   */
+  @Test
+  public void testBulkKNN() {
+    ListParameterization spatparams = new ListParameterization();
+    spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, MinimalisticMemoryKDTree.Factory.class);
+    spatparams.addParameter(MinimalisticMemoryKDTree.Factory.Parameterizer.LEAFSIZE_P, 4);
+    testBulkKNN(spatparams, MinimalisticMemoryKDTree.KDTreeKNNQuery.class);
+  }
 }
@@ -45,4 +45,15 @@ public class SmallMemoryKDTreeTest extends AbstractIndexStructureTest {
     spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, SmallMemoryKDTree.Factory.class);
     testExactEuclidean(spatparams, SmallMemoryKDTree.KDTreeKNNQuery.class, SmallMemoryKDTree.KDTreeRangeQuery.class);
   }
+
+  /**
+   * Test the dual-tree bulk kNN search of {@link SmallMemoryKDTree}.
+   */
+  @Test
+  public void testBulkKNN() {
+    ListParameterization spatparams = new ListParameterization();
+    spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, SmallMemoryKDTree.Factory.class);
+    spatparams.addParameter(MinimalisticMemoryKDTree.Factory.Parameterizer.LEAFSIZE_P, 4);
+    testBulkKNN(spatparams, SmallMemoryKDTree.KDTreeKNNQuery.class);
+  }
 }
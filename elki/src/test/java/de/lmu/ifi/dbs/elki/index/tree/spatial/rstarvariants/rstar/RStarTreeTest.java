@@ -23,18 +23,37 @@ package de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.rstar;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Test;
 
+import de.lmu.ifi.dbs.elki.data.spatial.SpatialUtil;
 import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
+import de.lmu.ifi.dbs.elki.index.PagedIndexFactory;
+import de.lmu.ifi.dbs.elki.index.tree.IndexTreePath;
+import de.lmu.ifi.dbs.elki.index.tree.LeafEntry;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.SpatialEntry;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.SpatialPointLeafEntry;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.AbstractRStarTreeFactory;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.RTreeSettings;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.query.RStarTreeKNNQuery;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.query.RStarTreeRangeQuery;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk.AdaptiveSortTileRecursiveBulkSplit;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk.BulkSplit;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk.FileOrderBulkSplit;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk.MaxExtensionBulkSplit;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk.MaxExtensionSortTileRecursiveBulkSplit;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk.OneDimSortBulkSplit;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk.ParallelSortTileRecursiveBulkSplit;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk.SortTileRecursiveBulkSplit;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk.SpatialSortBulkSplit;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.insert.ApproximativeLeastOverlapInsertionStrategy;
@@ -46,7 +65,16 @@ import de.lmu.ifi.dbs.elki.math.spacefillingcurves.BinarySplitSpatialSorter;
 import de.lmu.ifi.dbs.elki.math.spacefillingcurves.HilbertSpatialSorter;
 import de.lmu.ifi.dbs.elki.math.spacefillingcurves.PeanoSpatialSorter;
 import de.lmu.ifi.dbs.elki.math.spacefillingcurves.ZCurveSpatialSorter;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.persistent.AbstractPageFileFactory;
+import de.lmu.ifi.dbs.elki.persistent.LRUCachePageFileFactory;
+import de.lmu.ifi.dbs.elki.persistent.MappedPageFileFactory;
+import de.lmu.ifi.dbs.elki.persistent.MemoryPageFile;
+import de.lmu.ifi.dbs.elki.persistent.PageFile;
+import de.lmu.ifi.dbs.elki.persistent.PersistentPageFile;
+import de.lmu.ifi.dbs.elki.persistent.PersistentPageFileFactory;
+import de.lmu.ifi.dbs.elki.persistent.TwoQueueCache;
+import de.lmu.ifi.dbs.elki.persistent.TwoQueueCachePageFileFactory;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
 
 /**
@@ -94,6 +122,43 @@ public class RStarTreeTest extends AbstractIndexStructureTest {
     testExactCosine(spatparams, RStarTreeKNNQuery.class, RStarTreeRangeQuery.class);
   }
 
+  /**
+   * Test {@link RStarTree} stored in a {@link MappedPageFileFactory}.
+   *
+   * @throws IOException on errors creating the temporary file
+   */
+  @Test
+  public void testRStarTreeMapped() throws IOException {
+    File tmp = File.createTempFile("elki-rstar", ".idx");
+    tmp.deleteOnExit();
+    ListParameterization spatparams = new ListParameterization();
+    spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, RStarTreeFactory.class);
+    spatparams.addParameter(PagedIndexFactory.Parameterizer.PAGEFILE_ID, MappedPageFileFactory.class);
+    spatparams.addParameter(PersistentPageFileFactory.Parameterizer.FILE_ID, tmp);
+    spatparams.addParameter(AbstractPageFileFactory.Parameterizer.PAGE_SIZE_ID, 300);
+    testExactEuclidean(spatparams, RStarTreeKNNQuery.class, RStarTreeRangeQuery.class);
+  }
+
+  /**
+   * Test {@link RStarTree} with a small {@link TwoQueueCache}, so that pages
+   * are evicted to the backing file.
+   */
+  @Test
+  public void testRStarTreeTwoQueueCache() throws IOException {
+    File tmp = File.createTempFile("elki-rstar", ".idx");
+    tmp.deleteOnExit();
+    ListParameterization spatparams = new ListParameterization();
+    spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, RStarTreeFactory.class);
+    spatparams.addParameter(PagedIndexFactory.Parameterizer.PAGEFILE_ID, TwoQueueCachePageFileFactory.class);
+    spatparams.addParameter(LRUCachePageFileFactory.Parameterizer.PAGEFILE_ID, MappedPageFileFactory.class);
+    spatparams.addParameter(LRUCachePageFileFactory.Parameterizer.CACHE_SIZE_ID, 300 * 20);
+    spatparams.addParameter(TwoQueueCachePageFileFactory.Parameterizer.STRIPES_ID, 4);
+    spatparams.addFlag(TwoQueueCachePageFileFactory.Parameterizer.PIN_DIRECTORY_ID);
+    spatparams.addParameter(PersistentPageFileFactory.Parameterizer.FILE_ID, tmp);
+    spatparams.addParameter(AbstractPageFileFactory.Parameterizer.PAGE_SIZE_ID, 300);
+    testExactEuclidean(spatparams, RStarTreeKNNQuery.class, RStarTreeRangeQuery.class);
+  }
+
   /**
    * Test {@link RStarTree} using {@link RTreeLinearSplit}
    */
@@ -359,4 +424,177 @@ public class RStarTreeTest extends AbstractIndexStructureTest {
     spatparams.addParameter(RStarTreeFactory.Parameterizer.BULK_SPLIT_ID, AdaptiveSortTileRecursiveBulkSplit.class);
     testExactCosine(spatparams, RStarTreeKNNQuery.class, RStarTreeRangeQuery.class);
   }
+
+  /**
+   * Test that {@link ParallelSortTileRecursiveBulkSplit} and the parallel node
+   * construction produce the same tree as the sequential
+   * {@link SortTileRecursiveBulkSplit}.
+   */
+  @Test
+  public void testParallelSortTileRecursiveBulkLoad() {
+    Random rnd = new Random(0L);
+    List<SpatialEntry> data = new ArrayList<>();
+    for(int i = 0; i < 20000; i++) {
+      double[] v = new double[] { rnd.nextDouble(), rnd.nextDouble(), rnd.nextInt(10) };
+      data.add(new SpatialPointLeafEntry(DBIDUtil.importInteger(i), v));
+    }
+    BulkRStarTree seq = new BulkRStarTree(SortTileRecursiveBulkSplit.STATIC);
+    seq.load(new ArrayList<>(data));
+    ParallelCore.getCore().setParallelism(4);
+    try {
+      BulkRStarTree par = new BulkRStarTree(ParallelSortTileRecursiveBulkSplit.STATIC);
+      par.load(new ArrayList<>(data));
+      assertEquals("Height differs.", seq.getHeight(), par.getHeight());
+      assertSameNode(seq, par, seq.getRoot(), par.getRoot());
+    }
+    finally {
+      ParallelCore.getCore().setParallelism(ParallelCore.ALL_PROCESSORS);
+    }
+  }
+
+  /**
+   * Test that an {@link RStarTree} stored in a {@link PersistentPageFile} can
+   * be closed and reopened repeatedly, including the empty pages left behind by
+   * deletions. A tree in main memory receives the same operations, and must
+   * remain identical, including the page ids.
+   *
+   * @throws IOException on errors creating the temporary file
+   */
+  @Test
+  public void testPersistentReopen() throws IOException {
+    File tmp = File.createTempFile("elki-rstar", ".idx");
+    tmp.deleteOnExit();
+    Random rnd = new Random(0L);
+    BulkRStarTree ref = new BulkRStarTree(new MemoryPageFile<RStarTreeNode>(1024), null);
+    ref.initialize();
+    List<SpatialPointLeafEntry> data = new ArrayList<>();
+    for(int round = 0; round < 3; round++) {
+      PersistentPageFile<RStarTreeNode> file = new PersistentPageFile<>(1024, tmp.getPath(), RStarTreeNode.class);
+      BulkRStarTree tree = new BulkRStarTree(file, null);
+      tree.initialize();
+      if(round > 0) {
+        assertEquals("Height differs after reopening.", ref.getHeight(), tree.getHeight());
+        assertSameNode(ref, tree, ref.getRoot(), tree.getRoot());
+      }
+      for(int i = 0; i < 1000; i++) {
+        SpatialPointLeafEntry e = new SpatialPointLeafEntry(DBIDUtil.importInteger(data.size()), new double[] { rnd.nextDouble(), rnd.nextDouble() });
+        data.add(e);
+        ref.insertLeaf(e);
+        tree.insertLeaf(e);
+      }
+      // Delete a random third, to leave empty pages in the file.
+      for(int i = 0; i < 300; i++) {
+        SpatialPointLeafEntry e = data.remove(rnd.nextInt(data.size()));
+        ref.remove(e);
+        tree.remove(e);
+      }
+      assertEquals("Height differs.", ref.getHeight(), tree.getHeight());
+      assertSameNode(ref, tree, ref.getRoot(), tree.getRoot());
+      file.close();
+    }
+    PersistentPageFile<RStarTreeNode> file = new PersistentPageFile<>(1024, tmp.getPath(), RStarTreeNode.class);
+    BulkRStarTree tree = new BulkRStarTree(file, null);
+    tree.initialize();
+    assertSameNode(ref, tree, ref.getRoot(), tree.getRoot());
+    assertEquals("Entries lost.", data.size(), countEntries(tree, tree.getRoot()));
+    file.close();
+  }
+
+  /**
+   * Count the leaf entries in a subtree.
+   *
+   * @param t Tree
+   * @param n Node
+   * @return Number of leaf entries
+   */
+  private static int countEntries(RStarTree t, RStarTreeNode n) {
+    if(n.isLeaf()) {
+      return n.getNumEntries();
+    }
+    int c = 0;
+    for(int i = 0; i < n.getNumEntries(); i++) {
+      c += countEntries(t, t.getNode(n.getEntry(i)));
+    }
+    return c;
+  }
+
+  /**
+   * Recursively compare two subtrees.
+   *
+   * @param t1 First tree
+   * @param t2 Second tree
+   * @param n1 Node in the first tree
+   * @param n2 Node in the second tree
+   */
+  private static void assertSameNode(RStarTree t1, RStarTree t2, RStarTreeNode n1, RStarTreeNode n2) {
+    assertEquals("Page ids differ.", n1.getPageID(), n2.getPageID());
+    assertEquals("Node types differ.", n1.isLeaf(), n2.isLeaf());
+    assertEquals("Fill differs.", n1.getNumEntries(), n2.getNumEntries());
+    for(int i = 0; i < n1.getNumEntries(); i++) {
+      SpatialEntry e1 = n1.getEntry(i), e2 = n2.getEntry(i);
+      if(n1.isLeaf()) {
+        assertTrue("Leaf entries differ.", DBIDUtil.equal(((LeafEntry) e1).getDBID(), ((LeafEntry) e2).getDBID()));
+        continue;
+      }
+      assertTrue("Bounding boxes differ.", SpatialUtil.equals(e1, e2));
+      assertSameNode(t1, t2, t1.getNode(e1), t2.getNode(e2));
+    }
+  }
+
+  /**
+   * Expose bulk loading for testing.
+   *
+   * @author Erich Schubert
+   */
+  private static class BulkRStarTree extends RStarTree {
+    /**
+     * Constructor.
+     *
+     * @param split Bulk split strategy
+     */
+    BulkRStarTree(BulkSplit split) {
+      this(new MemoryPageFile<RStarTreeNode>(1024), split);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param file Page file
+     * @param split Bulk split strategy, may be {@code null}
+     */
+    BulkRStarTree(PageFile<RStarTreeNode> file, BulkSplit split) {
+      super(file, new RTreeSettings(split));
+    }
+
+    /**
+     * Bulk load the entries.
+     *
+     * @param entries Entries
+     */
+    void load(List<SpatialEntry> entries) {
+      initialize();
+      bulkLoad(entries);
+    }
+
+    /**
+     * Remove a leaf entry.
+     *
+     * @param e Entry to remove
+     */
+    void remove(SpatialPointLeafEntry e) {
+      IndexTreePath<SpatialEntry> path = findPathToObject(getRootPath(), e, e.getDBID());
+      assertTrue("Entry not found.", path != null);
+      deletePath(path);
+    }
+
+    @Override
+    public String getLongName() {
+      return "R*-Tree";
+    }
+
+    @Override
+    public String getShortName() {
+      return "rstartree";
+    }
+  }
 }
@@ -0,0 +1,152 @@
+package de.lmu.ifi.dbs.elki.index.vafile;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.QueryUtil;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Unit test for the on-disk VA file index.
+ * 
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class OnDiskVAFileTest extends AbstractIndexStructureTest {
+  /**
+   * Test {@link OnDiskVAFile} using a file based database connection.
+   */
+  @Test
+  public void testOnDiskVAFile() {
+    ListParameterization spatparams = new ListParameterization();
+    spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, OnDiskVAFile.Factory.class);
+    spatparams.addParameter(VAFile.Factory.PARTITIONS_ID, 4);
+    testExactEuclidean(spatparams, OnDiskVAFile.OnDiskVAFileKNNQuery.class, OnDiskVAFile.OnDiskVAFileRangeQuery.class);
+  }
+
+  /**
+   * Test {@link OnDiskVAFile} with 3 bits per dimension, which do not align
+   * with bytes.
+   */
+  @Test
+  public void testOnDiskVAFileUnaligned() {
+    ListParameterization spatparams = new ListParameterization();
+    spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, OnDiskVAFile.Factory.class);
+    spatparams.addParameter(VAFile.Factory.PARTITIONS_ID, 8);
+    testExactEuclidean(spatparams, OnDiskVAFile.OnDiskVAFileKNNQuery.class, OnDiskVAFile.OnDiskVAFileRangeQuery.class);
+  }
+
+  /**
+   * Test reopening an existing file.
+   *
+   * @throws IOException on errors creating the temporary file
+   */
+  @Test
+  public void testReopen() throws IOException {
+    Random rnd = new Random(0L);
+    double[][] data = new double[500][3];
+    for(double[] row : data) {
+      for(int d = 0; d < row.length; d++) {
+        row[d] = rnd.nextDouble();
+      }
+    }
+    File file = File.createTempFile("elki-vafile", ".va");
+    file.deleteOnExit();
+    try {
+      Relation<NumberVector> rel = makeRelation(data);
+      OnDiskVAFile<NumberVector> index = new OnDiskVAFile<>(rel, 8, file);
+      index.initialize();
+      checkQueries(rel, index);
+      index.close();
+
+      rel = makeRelation(data);
+      index = new OnDiskVAFile<>(rel, 8, file);
+      index.initialize();
+      checkQueries(rel, index);
+      index.close();
+
+      // Reopening with different data must fail.
+      data[0][0] += 1.;
+      rel = makeRelation(data);
+      index = new OnDiskVAFile<>(rel, 8, file);
+      try {
+        index.initialize();
+        fail("VA file was reopened for different data.");
+      }
+      catch(AbortException e) {
+        // expected
+      }
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Load a relation.
+   *
+   * @param data Data
+   * @return Relation
+   */
+  private static Relation<NumberVector> makeRelation(double[][] data) {
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    return db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+
+  /**
+   * Compare the index results to a linear scan.
+   *
+   * @param rel Relation
+   * @param index Index
+   */
+  private static void checkQueries(Relation<NumberVector> rel, OnDiskVAFile<NumberVector> index) {
+    DistanceQuery<NumberVector> dq = EuclideanDistanceFunction.STATIC.instantiate(rel);
+    KNNQuery<NumberVector> knnq = index.getKNNQuery(dq, 10);
+    KNNQuery<NumberVector> exact = QueryUtil.getLinearScanKNNQuery(dq);
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      assertEquals("kNN distance does not agree.", exact.getKNNForDBID(it, 10).getKNNDistance(), knnq.getKNNForDBID(it, 10).getKNNDistance(), 0.);
+    }
+  }
+}
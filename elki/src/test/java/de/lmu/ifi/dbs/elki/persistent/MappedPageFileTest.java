@@ -0,0 +1,170 @@
+package de.lmu.ifi.dbs.elki.persistent;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.index.tree.TreeIndexHeader;
+import de.lmu.ifi.dbs.elki.persistent.TwoQueueCacheTest.TestPage;
+
+/**
+ * Unit test for the {@link MappedPageFile}.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class MappedPageFileTest {
+  /**
+   * Page size.
+   */
+  private static final int PAGESIZE = 256;
+
+  /**
+   * Number of pages.
+   */
+  private static final int NUMPAGES = 300;
+
+  /**
+   * Close and reopen a page file with the default header, where the empty
+   * pages are found by scanning the file.
+   *
+   * @throws IOException on errors
+   */
+  @Test
+  public void testReopenDefaultHeader() throws IOException {
+    File tmp = File.createTempFile("elki-mapped", ".idx");
+    tmp.deleteOnExit();
+    try {
+      testReopen(tmp, new DefaultPageHeader(PAGESIZE), new DefaultPageHeader(PAGESIZE));
+    }
+    finally {
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Close and reopen a page file with a tree index header, which stores the
+   * list of empty pages.
+   *
+   * @throws IOException on errors
+   */
+  @Test
+  public void testReopenTreeHeader() throws IOException {
+    File tmp = File.createTempFile("elki-mapped", ".idx");
+    tmp.deleteOnExit();
+    try {
+      testReopen(tmp, new TreeIndexHeader(PAGESIZE, 10, 10, 2, 2), new TreeIndexHeader(PAGESIZE, 10, 10, 2, 2));
+    }
+    finally {
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Clear a page file, and reopen it.
+   *
+   * @throws IOException on errors
+   */
+  @Test
+  public void testClear() throws IOException {
+    File tmp = File.createTempFile("elki-mapped", ".idx");
+    tmp.deleteOnExit();
+    try {
+      MappedPageFile<TestPage> pf = new MappedPageFile<>(PAGESIZE, tmp.getPath(), TestPage.class);
+      assertFalse("New file reported as existing.", pf.initialize(new DefaultPageHeader(PAGESIZE)));
+      writePages(pf);
+      pf.clear();
+      assertEquals("Pages remain after clearing.", 0, pf.getNextPageID());
+      pf.close();
+
+      pf = new MappedPageFile<>(PAGESIZE, tmp.getPath(), TestPage.class);
+      assertTrue("Existing file not found.", pf.initialize(new DefaultPageHeader(PAGESIZE)));
+      assertEquals("Pages remain after clearing.", 0, pf.getNextPageID());
+      for(int i = 0; i < NUMPAGES; i++) {
+        assertNull("Page not cleared.", pf.readPage(i));
+      }
+      pf.close();
+    }
+    finally {
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Write pages, delete some, and check the contents after reopening.
+   *
+   * @param tmp File
+   * @param header Header for writing
+   * @param header2 Header for reading
+   */
+  private void testReopen(File tmp, PageHeader header, PageHeader header2) {
+    MappedPageFile<TestPage> pf = new MappedPageFile<>(PAGESIZE, tmp.getPath(), TestPage.class);
+    assertFalse("New file reported as existing.", pf.initialize(header));
+    writePages(pf);
+    for(int i = 0; i < NUMPAGES; i += 7) {
+      pf.deletePage(i);
+    }
+    pf.close();
+
+    pf = new MappedPageFile<>(PAGESIZE, tmp.getPath(), TestPage.class);
+    assertTrue("Existing file not found.", pf.initialize(header2));
+    assertEquals("Wrong number of pages after reopening.", NUMPAGES, pf.getNextPageID());
+    for(int i = 0; i < NUMPAGES; i++) {
+      TestPage page = pf.readPage(i);
+      if(i % 7 == 0) {
+        assertNull("Deleted page found.", page);
+        continue;
+      }
+      assertNotNull("Page not found.", page);
+      assertEquals("Wrong page contents.", TestPage.payload(i), page.value);
+    }
+    // Deleted pages must be reused before new pages:
+    TestPage page = new TestPage(0);
+    int id = pf.setPageID(page);
+    assertTrue("Deleted page not reused: " + id, id < NUMPAGES && id % 7 == 0);
+    pf.close();
+  }
+
+  /**
+   * Write the test pages.
+   *
+   * @param pf Page file
+   */
+  private void writePages(MappedPageFile<TestPage> pf) {
+    for(int i = 0; i < NUMPAGES; i++) {
+      TestPage page = new TestPage(i);
+      assertEquals("Page ids not sequential.", i, pf.setPageID(page));
+      pf.writePage(page);
+    }
+  }
+}
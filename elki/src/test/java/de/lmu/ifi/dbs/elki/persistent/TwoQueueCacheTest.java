@@ -0,0 +1,170 @@
+package de.lmu.ifi.dbs.elki.persistent;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2015
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the {@link TwoQueueCache}.
+ *
+ * @author Erich Schubert
+ * @since 0.7.2
+ */
+public class TwoQueueCacheTest {
+  /**
+   * Page size.
+   */
+  private static final int PAGESIZE = 256;
+
+  /**
+   * Number of pages.
+   */
+  private static final int NUMPAGES = 200;
+
+  /**
+   * Read and rewrite pages from several threads, with a cache much smaller
+   * than the data, so that reads from the backing file run concurrently with
+   * the write back of evicted pages.
+   *
+   * @throws Exception on errors
+   */
+  @Test
+  public void testConcurrentReadWhileEvicting() throws Exception {
+    File tmp = File.createTempFile("elki-2q", ".idx");
+    tmp.deleteOnExit();
+    PersistentPageFile<TestPage> pf = new PersistentPageFile<>(PAGESIZE, tmp.getPath(), TestPage.class);
+    final TwoQueueCache<TestPage> cache = new TwoQueueCache<>(PAGESIZE * 8, 4, false, pf);
+    cache.initialize(new DefaultPageHeader(PAGESIZE));
+    for(int i = 0; i < NUMPAGES; i++) {
+      TestPage page = new TestPage(i);
+      cache.setPageID(page);
+      assertEquals("Page ids not sequential.", i, page.getPageID());
+      cache.writePage(page);
+    }
+    cache.flush();
+
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread[] threads = new Thread[8];
+    for(int t = 0; t < threads.length; t++) {
+      final Random rnd = new Random(t);
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for(int i = 0; i < 50000 && failure.get() == null; i++) {
+              final int id = rnd.nextInt(NUMPAGES);
+              if(rnd.nextInt(4) == 0) {
+                // Rewrite, so that evictions write to the backing file.
+                TestPage page = new TestPage(id);
+                page.setPageID(id);
+                cache.writePage(page);
+                continue;
+              }
+              TestPage page = cache.readPage(id);
+              assertNotNull("Page not found.", page);
+              assertEquals("Wrong page contents.", TestPage.payload(id), page.value);
+            }
+          }
+          catch(Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for(Thread thread : threads) {
+      thread.join();
+    }
+    if(failure.get() != null) {
+      throw new AssertionError("Concurrent access failed: " + failure.get(), failure.get());
+    }
+    cache.close();
+  }
+
+  /**
+   * Page storing a single value derived from its id.
+   *
+   * @author Erich Schubert
+   */
+  public static class TestPage extends AbstractExternalizablePage {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Stored value.
+     */
+    int value;
+
+    /**
+     * Empty constructor for Externalizable interface.
+     */
+    public TestPage() {
+      super();
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param id Page id the value is derived from
+     */
+    public TestPage(int id) {
+      super();
+      this.value = payload(id);
+    }
+
+    /**
+     * Value to store for a page id.
+     *
+     * @param id Page id
+     * @return Value
+     */
+    static int payload(int id) {
+      return id * 7919 + 13;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+      super.writeExternal(out);
+      out.writeInt(value);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+      super.readExternal(in);
+      value = in.readInt();
+    }
+  }
+}